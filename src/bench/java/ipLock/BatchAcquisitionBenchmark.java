@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2015 Andreas Klöber
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package ipLock;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of acquiring and releasing the locks of many keys at once without contention, either by a lock object and
+ * synchronization file per key or by a batch of stripes of a single synchronization file. The number of stripes
+ * determines how many ranges of adjacent stripes remain to be locked by the batch.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BatchAcquisitionBenchmark {
+
+    @Param({"500"})
+    public int keys;
+
+    @Param({"64", "1024", "65536"})
+    public int stripes;
+
+    private List<File> syncFiles;
+
+    private List<IpLock> locks;
+
+    private IpStripedLock stripedLock;
+
+    private IpStripeBatch batch;
+
+    @Setup
+    public void setup() throws IOException {
+        syncFiles = new ArrayList<>();
+        locks = new ArrayList<>();
+        List<String> keyList = new ArrayList<>();
+        for (int i = 0; i < keys; i++) {
+            File syncFile = File.createTempFile("ip-lock-bench", ".lock");
+            syncFiles.add(syncFile);
+            locks.add(new IpLock(syncFile));
+            keyList.add("partition-" + i);
+        }
+
+        File stripedFile = File.createTempFile("ip-lock-bench", ".lock");
+        syncFiles.add(stripedFile);
+        stripedLock = new IpStripedLock(stripedFile, stripes);
+        batch = stripedLock.batch(keyList);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        batch.close();
+        stripedLock.close();
+        for (IpLock lock : locks) {
+            lock.close();
+        }
+        for (File syncFile : syncFiles) {
+            syncFile.delete();
+        }
+    }
+
+    @Benchmark
+    public void lockPerKey() throws IOException {
+        for (IpLock lock : locks) {
+            lock.lock();
+        }
+        for (int i = locks.size() - 1; i >= 0; i--) {
+            locks.get(i).unlock();
+        }
+    }
+
+    @Benchmark
+    public void stripeBatch() throws IOException {
+        batch.acquireAll();
+        batch.releaseAll();
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2015 Andreas Klöber
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package ipLock;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of acquiring and releasing a lock that is contended by other processes, which repeatedly acquire and release
+ * the lock themselves. This mostly measures the hand-off latency between processes.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MultiProcessContentionBenchmark {
+
+    @Param({"1", "3"})
+    public int contenders;
+
+    @Param({"EXCLUSIVE", "MAPPED", "MAPPED_FAIR"})
+    public String mode;
+
+    private WorkerManager workerManager;
+
+    private IpLock lock;
+
+    @Setup
+    public void setup() throws InterruptedException {
+        workerManager = new WorkerManager();
+        workerManager.start();
+
+        workerManager
+            .builder()
+            .lockMode(LockMode.valueOf(mode))
+            .repetitions(WorkerConstants.REPEAT_UNLIMITED)
+            .workerLockTimeoutMs(WorkerConstants.TIMEOUT_DISABLED)
+            .start(contenders);
+
+        lock = IpLock.builder(workerManager.getSyncFile())
+            .mapped(LockMode.valueOf(mode) == LockMode.MAPPED)
+            .fair(LockMode.valueOf(mode) == LockMode.MAPPED_FAIR)
+            .build();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException, InterruptedException {
+        lock.close();
+
+        workerManager.cleanup();
+        workerManager.stop();
+    }
+
+    @Benchmark
+    public void lockUnlock() throws IOException {
+        lock.lock();
+        lock.unlock();
+    }
+
+    @Benchmark
+    public void timedLockUnlock() throws IOException, InterruptedException {
+        if (lock.lock(1, 1, TimeUnit.SECONDS)) {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2015 Andreas Klöber
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package ipLock;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of acquiring and releasing a lock that is contended by threads of the same JVM, which mostly measures the local
+ * hand-over between threads.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class SameJvmContentionBenchmark {
+
+    private File syncFile;
+
+    private IpLock lock;
+
+    @Setup
+    public void setup() throws IOException {
+        syncFile = File.createTempFile("ip-lock-bench", ".lock");
+        lock = new IpLock(syncFile);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        lock.close();
+        syncFile.delete();
+    }
+
+    @Benchmark
+    public void sharedLockUnlock() throws IOException {
+        lock.lock();
+        lock.unlock();
+    }
+
+    @Benchmark
+    public void separateLockUnlock(LockPerThread perThread) throws IOException {
+        perThread.lock.lock();
+        perThread.lock.unlock();
+    }
+
+    /**
+     * A lock object per thread, all of them using the same synchronization file.
+     */
+    @State(Scope.Thread)
+    public static class LockPerThread {
+
+        private IpLock lock;
+
+        @Setup
+        public void setup(SameJvmContentionBenchmark benchmark) {
+            lock = new IpLock(benchmark.syncFile);
+        }
+
+        @TearDown
+        public void tearDown() throws IOException {
+            lock.close();
+        }
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2015 Andreas Klöber
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package ipLock;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of acquiring and releasing a lock that is not contended at all.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class UncontendedBenchmark {
+
+    @Param({"false", "true"})
+    public boolean mapped;
+
+    private File syncFile;
+
+    private IpLock lock;
+
+    @Setup
+    public void setup() throws IOException {
+        syncFile = File.createTempFile("ip-lock-bench", ".lock");
+        lock = IpLock.builder(syncFile).mapped(mapped).build();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        lock.close();
+        syncFile.delete();
+    }
+
+    @Benchmark
+    public void tryLockUnlock() throws IOException {
+        if (lock.tryLock()) {
+            lock.unlock();
+        }
+    }
+
+    @Benchmark
+    public void lockUnlock() throws IOException {
+        lock.lock();
+        lock.unlock();
+    }
+
+    @Benchmark
+    public void timedLockUnlock() throws IOException, InterruptedException {
+        if (lock.lock(1, 1, TimeUnit.SECONDS)) {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2015 Andreas Klöber
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package ipLock;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hand-off latency and CPU time burned while waiting for a lock that is held by another process for a fixed time,
+ * compared for the available {@link WaitStrategy}s. After releasing the lock, the benchmark thread pauses for the same
+ * time, so the lock is handed over in both directions. <tt>acquireMicrosPerOp</tt> is the time to acquire the lock and
+ * <tt>cpuMicrosPerOp</tt> the CPU time the waiting thread spent meanwhile.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class WaitStrategyBenchmark {
+
+    @Param({"interval", "spin", "backoff", "adaptive"})
+    public String strategy;
+
+    @Param({"100", "1000"})
+    public long holdTimeMicros;
+
+    @Param({"EXCLUSIVE", "MAPPED"})
+    public String mode;
+
+    private WorkerManager workerManager;
+
+    private IpLock lock;
+
+    /**
+     * Wall clock and CPU time of the benchmark thread spent acquiring the lock, reported per operation.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class AcquireTime {
+
+        private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+        private long nanos;
+
+        private long cpuNanos;
+
+        private long operations;
+
+        private long startNanos;
+
+        private long startCpuNanos;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            nanos = 0L;
+            cpuNanos = 0L;
+            operations = 0L;
+        }
+
+        public double acquireMicrosPerOp() {
+            return operations == 0L ? 0.0 : nanos / 1000.0 / operations;
+        }
+
+        public double cpuMicrosPerOp() {
+            return operations == 0L ? 0.0 : cpuNanos / 1000.0 / operations;
+        }
+
+        void start() {
+            startCpuNanos = threads.getCurrentThreadCpuTime();
+            startNanos = System.nanoTime();
+        }
+
+        void stop() {
+            nanos += System.nanoTime() - startNanos;
+            cpuNanos += threads.getCurrentThreadCpuTime() - startCpuNanos;
+            operations++;
+        }
+    }
+
+    private static WaitStrategy createStrategy(String name) {
+        switch (name) {
+            case "spin":
+                return WaitStrategy.spin(1L, TimeUnit.MILLISECONDS);
+            case "backoff":
+                return WaitStrategy.backoff(10L, 1000L, TimeUnit.MICROSECONDS);
+            case "adaptive":
+                return WaitStrategy.adaptive();
+            default:
+                return WaitStrategy.interval();
+        }
+    }
+
+    @Setup
+    public void setup() throws InterruptedException {
+        workerManager = new WorkerManager();
+        workerManager.start();
+
+        workerManager
+            .builder()
+            .lockMode(LockMode.valueOf(mode))
+            .holdTimeMicros(holdTimeMicros)
+            .repetitions(WorkerConstants.REPEAT_UNLIMITED)
+            .workerLockTimeoutMs(WorkerConstants.TIMEOUT_DISABLED)
+            .start(1);
+
+        lock = IpLock.builder(workerManager.getSyncFile())
+            .mapped(LockMode.valueOf(mode) == LockMode.MAPPED)
+            .waitStrategy(createStrategy(strategy))
+            .build();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException, InterruptedException {
+        lock.close();
+
+        workerManager.cleanup();
+        workerManager.stop();
+    }
+
+    @Benchmark
+    public void lockUnlock(AcquireTime acquireTime) throws IOException {
+        acquireTime.start();
+        lock.lock();
+        acquireTime.stop();
+
+        lock.unlock();
+
+        // give the other process the chance to acquire the lock
+        LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(holdTimeMicros));
+    }
+}
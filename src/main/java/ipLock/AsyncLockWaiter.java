@@ -0,0 +1,237 @@
+/*
+ * Copyright (c) 2015 Andreas Klöber
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package ipLock;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The waiter serving all asynchronous lock acquisitions of this JVM.
+ * <p/>
+ * Pending acquisitions are tried one after another by a single daemon thread without ever blocking on a lock. The
+ * thread waits in between until the signal of any of their synchronization files is notified, a new acquisition is
+ * submitted or the retry interval elapses. It is started on demand and terminates as soon as no acquisition is pending
+ * anymore.
+ */
+class AsyncLockWaiter {
+
+    /*
+     * The waiter of this JVM.
+     */
+    private static final AsyncLockWaiter INSTANCE = new AsyncLockWaiter();
+
+    /*
+     * Guards the state of the waiter and is used for waiting.
+     */
+    private final ReentrantLock mutex = new ReentrantLock();
+
+    /*
+     * Condition that is signaled whenever the pending acquisitions should be tried again.
+     */
+    private final Condition wakeUpCondition = mutex.newCondition();
+
+    /*
+     * The pending acquisitions mapped by the signals they listen to; guarded by {@link #mutex}.
+     */
+    private final Map<IpLockFuture, LockSignal> pending = new IdentityHashMap<>();
+
+    /*
+     * The listener registered with the signals of pending acquisitions.
+     */
+    private final Runnable signalListener = new Runnable() {
+
+        @Override
+        public void run() {
+            wakeUp();
+        }
+    };
+
+    /*
+     * Whether a wake-up has occurred since the last round of attempts; guarded by {@link #mutex}.
+     */
+    private boolean wokenUp;
+
+    /*
+     * Whether the waiter thread is running; guarded by {@link #mutex}.
+     */
+    private boolean running;
+
+    private AsyncLockWaiter() {
+    }
+
+    /**
+     * Returns the waiter of this JVM.
+     *
+     * @return the waiter
+     */
+    static AsyncLockWaiter getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Submits an acquisition. It is tried right away by the waiter thread, which is started if necessary.
+     *
+     * @param future the acquisition
+     * @param signal the signal of the synchronization file to be locked, which must have been prepared
+     */
+    void submit(final IpLockFuture future, final LockSignal signal) {
+        signal.addListener(this.signalListener);
+
+        this.mutex.lock();
+        try {
+            this.pending.put(future, signal);
+            this.wokenUp = true;
+            this.wakeUpCondition.signal();
+
+            if (!this.running) {
+                this.running = true;
+
+                Thread waiter = new Thread(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        waitForLocks();
+                    }
+                }, "ipLock-async-waiter");
+                waiter.setDaemon(true);
+                waiter.start();
+            }
+        } finally {
+            this.mutex.unlock();
+        }
+    }
+
+    /**
+     * Withdraws an acquisition, so it is not tried anymore.
+     *
+     * @param future the acquisition
+     */
+    void withdraw(final IpLockFuture future) {
+        LockSignal signal;
+
+        this.mutex.lock();
+        try {
+            signal = this.pending.remove(future);
+        } finally {
+            this.mutex.unlock();
+        }
+
+        if (signal != null) {
+            signal.removeListener(this.signalListener);
+        }
+    }
+
+    /*
+     * Makes the waiter thread try all pending acquisitions again.
+     */
+    private void wakeUp() {
+        this.mutex.lock();
+        try {
+            this.wokenUp = true;
+            this.wakeUpCondition.signal();
+        } finally {
+            this.mutex.unlock();
+        }
+    }
+
+    /*
+     * Main loop of the waiter thread.
+     */
+    private void waitForLocks() {
+        while (true) {
+            List<IpLockFuture> attempts;
+
+            this.mutex.lock();
+            try {
+                if (this.pending.isEmpty()) {
+                    this.running = false;
+                    return;
+                }
+
+                attempts = new ArrayList<>(this.pending.keySet());
+                this.wokenUp = false;
+            } finally {
+                this.mutex.unlock();
+            }
+
+            long waitNanos = SyncFile.DEFAULT_TRY_LOCK_INTERVAL_NANOS;
+            for (IpLockFuture future : attempts) {
+                if (attempt(future)) {
+                    withdraw(future);
+                } else {
+                    waitNanos = Math.min(waitNanos, future.remainingNanos(System.nanoTime()));
+                }
+            }
+
+            this.mutex.lock();
+            try {
+                if (!this.wokenUp && waitNanos > 0L) {
+                    this.wakeUpCondition.awaitNanos(waitNanos);
+                }
+            } catch (InterruptedException e) {
+                // nobody interrupts this thread but keep serving the pending acquisitions anyway
+            } finally {
+                this.mutex.unlock();
+            }
+        }
+    }
+
+    /*
+     * Performs a single attempt of the given acquisition.
+     *
+     * @return <code>true</code> if the acquisition is finished
+     */
+    private boolean attempt(final IpLockFuture future) {
+        if (future.isDone()) {
+            return true;
+        }
+
+        IpLock lock = future.getLock();
+        try {
+            LockHandle handle = lock.tryLockDetached(future.getStartTime());
+            if (handle != null) {
+                if (!future.complete(handle)) {
+                    // cancelled meanwhile
+                    lock.unlock();
+                }
+                return true;
+            }
+        } catch (Exception e) {
+            future.fail(e);
+            return true;
+        }
+
+        if (future.isTimedOut(System.nanoTime())) {
+            lock.reportTimeout(future.getStartTime(), LockEvents.ASYNC);
+            future.fail(new TimeoutException("lock could not be acquired in time"));
+            return true;
+        }
+
+        return false;
+    }
+}
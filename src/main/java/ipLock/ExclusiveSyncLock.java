@@ -0,0 +1,419 @@
+/*
+ * Copyright (c) 2015 Andreas Klöber
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package ipLock;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The exclusive lock of a region of a {@link SyncFile}, which is the whole file as used by {@link IpLock} or a single
+ * stripe as used by {@link IpStripedLock}.
+ * <p/>
+ * Threads queue up for a local permit and only the holder of the permit touches the {@link FileLock}. If other threads
+ * are queued when the holder releases the lock, the {@link FileLock} is retained and the permit is handed over
+ * directly, which resolves contention within the JVM without any system call.
+ * <p/>
+ * Each acquisition draws a fencing token from a counter in the file. The lock of the whole file keeps it in the owner
+ * record in the header of the file, see {@link LockOwner}; stripes keep it at eight times their position. The counter
+ * is only written through the page cache, so it costs no synchronous disk write.
+ */
+class ExclusiveSyncLock implements SyncLock {
+
+    /*
+     * Position of the fencing tokens of stripes, which are stored at eight times their position.
+     */
+    private static final long FENCING_TOKENS_POSITION = 0L;
+
+    /*
+     * The locked file.
+     */
+    private final SyncFile syncFile;
+
+    /*
+     * The position at which the locked region starts.
+     */
+    private final long position;
+
+    /*
+     * The size of the locked region.
+     */
+    private final long size;
+
+    /*
+     * Whether the owner is recorded in the header of the file.
+     */
+    private final boolean ownerRecorded;
+
+    /*
+     * The fencing token of the current acquisition; guarded by the permit.
+     */
+    private long fencingToken;
+
+    /*
+     * The local permit for the lock; fair, so local threads acquire the lock in arrival order.
+     */
+    private final Semaphore permit = new Semaphore(1, true);
+
+    /*
+     * The {@link FileLock} held on behalf of the local permit holder; guarded by the permit.
+     */
+    private FileLock fileLock;
+
+    /*
+     * Whether the {@link FileLock} has been acquired by the current acquisition; guarded by the permit.
+     */
+    private boolean fileLockAcquired;
+
+    /*
+     * The thread that acquired the lock.
+     */
+    private volatile Thread owner;
+
+    ExclusiveSyncLock(final SyncFile syncFile, final long position, final long size, final boolean ownerRecorded) {
+        this.syncFile = syncFile;
+        this.position = position;
+        this.size = size;
+        this.ownerRecorded = ownerRecorded;
+    }
+
+    /*
+     * Makes sure the current thread does not hold the lock already, which would otherwise deadlock.
+     */
+    private void checkNotOwner() {
+        if (this.owner == Thread.currentThread()) {
+            throw new OverlappingFileLockException();
+        }
+    }
+
+    /**
+     * Returns whether a {@link FileLock} has been retained for the permit holder. Must be called while holding the
+     * permit.
+     *
+     * @return <code>true</code> if the {@link FileLock} is held on behalf of the permit holder already
+     */
+    boolean isFileLockRetained() {
+        return this.fileLock != null && this.fileLock.isValid();
+    }
+
+    /*
+     * Releases the {@link FileLock} and notifies waiting processes. Must be called while holding the permit.
+     */
+    private void releaseFileLock() throws IOException {
+        FileLock releasedLock = this.fileLock;
+        if (releasedLock == null) {
+            return;
+        }
+
+        this.fileLock = null;
+        try {
+            if (this.ownerRecorded && releasedLock.isValid()) {
+                LockOwner.clear(this.syncFile, releasedLock.channel());
+            }
+        } finally {
+            this.syncFile.releaseRegion(releasedLock);
+        }
+    }
+
+    /*
+     * Makes the current thread the owner and draws the next fencing token, recording the owner in the header of the
+     * file along with it if this is the lock of the whole file. Must be called after the permit and the
+     * {@link FileLock} have been acquired; both are released again if the token cannot be drawn.
+     */
+    private void acquired() throws IOException {
+        boolean fenced = false;
+        try {
+            FileChannel channel = this.fileLock.channel();
+            this.fencingToken = this.ownerRecorded
+            ? LockOwner.record(this.syncFile, channel) : incrementFencingToken(channel);
+            fenced = true;
+        } finally {
+            if (!fenced) {
+                try {
+                    releaseFileLock();
+                } finally {
+                    this.permit.release();
+                }
+            }
+        }
+
+        this.owner = Thread.currentThread();
+    }
+
+    /*
+     * Increments the fencing token of the region, which is stored in the file at a position derived from the position
+     * of the region. Must be called while holding the {@link FileLock}.
+     *
+     * @return the incremented fencing token
+     * @throws IOException if the file ends within the token, so it is unknown
+     */
+    private long incrementFencingToken(final FileChannel channel) throws IOException {
+        long tokenPosition = FENCING_TOKENS_POSITION + 8L * this.position;
+
+        ByteBuffer token = ByteBuffer.allocate(8);
+        int length = this.syncFile.read(channel, token, tokenPosition);
+        if (length > 0 && length < 8) {
+            throw new IOException("synchronization file has been truncated within a fencing token, so it is "
+                + "unknown; deleting the file resets the fencing tokens");
+        }
+
+        // 0 if never acquired before
+        long fencingToken = token.getLong(0) + 1L;
+        token.clear();
+        token.putLong(0, fencingToken);
+        this.syncFile.write(channel, token, tokenPosition);
+
+        return fencingToken;
+    }
+
+    /*
+     * Releases a {@link FileLock} that has been retained for a local thread that gave up waiting meanwhile.
+     */
+    private void releaseRetainedFileLock() throws IOException {
+        if (this.permit.tryAcquire()) {
+            try {
+                if (!this.permit.hasQueuedThreads()) {
+                    releaseFileLock();
+                }
+            } finally {
+                this.permit.release();
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void lock(final WaitStrategy strategy) throws IOException {
+        checkNotOwner();
+
+        this.permit.acquireUninterruptibly();
+        boolean locked = false;
+        try {
+            this.fileLockAcquired = !isFileLockRetained();
+            if (this.fileLockAcquired) {
+                this.fileLock = this.syncFile.lockRegion(this.position, this.size, false, strategy);
+            }
+            locked = true;
+        } finally {
+            if (!locked) {
+                this.permit.release();
+            }
+        }
+
+        acquired();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean lock(final long timeoutNanos, final long tryLockIntervalNanos, final WaitStrategy strategy)
+        throws IOException, InterruptedException {
+        checkNotOwner();
+
+        long deadline = System.nanoTime() + timeoutNanos;
+
+        boolean permitted = false;
+        try {
+            permitted = this.permit.tryAcquire(timeoutNanos, TimeUnit.NANOSECONDS);
+        } finally {
+            if (!permitted) {
+                releaseRetainedFileLock();
+            }
+        }
+        if (!permitted) {
+            return false;
+        }
+
+        boolean locked = false;
+        try {
+            this.fileLockAcquired = !isFileLockRetained();
+            if (this.fileLockAcquired) {
+                this.fileLock = this.syncFile.lockRegion(this.position, this.size, false,
+                    deadline, tryLockIntervalNanos, strategy);
+            }
+            locked = this.fileLock != null;
+        } finally {
+            if (!locked) {
+                this.permit.release();
+            }
+        }
+
+        if (locked) {
+            acquired();
+        }
+        return locked;
+    }
+
+    /**
+     * Acquires the local permit without acquiring a {@link FileLock}, as done by an {@link IpStripeBatch} that locks
+     * the regions of adjacent stripes by a single {@link FileLock}. The lock is released by {@link #unlock()} as usual,
+     * which also releases a {@link FileLock} that has been retained for the permit holder.
+     */
+    void acquirePermit() {
+        checkNotOwner();
+
+        this.permit.acquireUninterruptibly();
+        this.owner = Thread.currentThread();
+    }
+
+    /**
+     * Tries to acquire the local permit without acquiring a {@link FileLock} and returns immediately.
+     *
+     * @return <code>true</code> if the permit could be acquired; <code>false</code> otherwise
+     * @see #acquirePermit()
+     */
+    boolean tryAcquirePermit() {
+        checkNotOwner();
+
+        if (!this.permit.tryAcquire()) {
+            return false;
+        }
+        this.owner = Thread.currentThread();
+        return true;
+    }
+
+    /**
+     * Acquires the local permit without acquiring a {@link FileLock} with a timeout.
+     *
+     * @param timeoutNanos the timeout limit in nanoseconds
+     * @return <code>true</code> if the permit could be acquired; <code>false</code> if there was a timeout
+     * @throws IOException          if a {@link FileLock} retained for the current thread could not be released after
+     *                              the timeout
+     * @throws InterruptedException if the current thread is interrupted while waiting
+     * @see #acquirePermit()
+     */
+    boolean tryAcquirePermit(final long timeoutNanos) throws IOException, InterruptedException {
+        checkNotOwner();
+
+        boolean permitted = false;
+        try {
+            permitted = this.permit.tryAcquire(timeoutNanos, TimeUnit.NANOSECONDS);
+        } finally {
+            if (!permitted) {
+                releaseRetainedFileLock();
+            }
+        }
+        if (permitted) {
+            this.owner = Thread.currentThread();
+        }
+        return permitted;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean tryLock() throws IOException {
+        checkNotOwner();
+
+        if (!this.permit.tryAcquire()) {
+            return false;
+        }
+
+        boolean locked = false;
+        try {
+            this.fileLockAcquired = !isFileLockRetained();
+            if (this.fileLockAcquired) {
+                this.fileLock = this.syncFile.tryLockRegion(this.position, this.size, false);
+            }
+            locked = this.fileLock != null;
+        } finally {
+            if (!locked) {
+                this.permit.release();
+            }
+        }
+
+        if (locked) {
+            acquired();
+        }
+        return locked;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getFencingToken() {
+        return this.fencingToken;
+    }
+
+    /**
+     * Draws a new fencing token for a new holder without releasing the {@link FileLock}, as done by the
+     * {@link LockManager} when it hands the lock over from one client to the next. Must be called while holding the
+     * lock.
+     *
+     * @return the new fencing token
+     * @throws IOException if an I/O error occurs
+     */
+    long renewFencingToken() throws IOException {
+        FileChannel channel = this.fileLock.channel();
+        this.fencingToken = this.ownerRecorded
+            ? LockOwner.record(this.syncFile, channel) : incrementFencingToken(channel);
+        return this.fencingToken;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isFileLockAcquired() {
+        return this.fileLockAcquired;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void detach() {
+        this.owner = null;
+    }
+
+    /**
+     * Releases the lock. If other threads of this JVM are waiting for the lock, the {@link FileLock} is retained and
+     * handed over to the next one.
+     *
+     * @return <code>true</code> if the {@link FileLock} was released; <code>false</code> if it was retained
+     * @throws IOException if some I/O error occurs on the underlying {@link FileLock}
+     */
+    @Override
+    public boolean unlock() throws IOException {
+        this.owner = null;
+
+        try {
+            if (this.permit.hasQueuedThreads()) {
+                return false;
+            }
+            releaseFileLock();
+            return true;
+        } finally {
+            this.permit.release();
+        }
+    }
+}
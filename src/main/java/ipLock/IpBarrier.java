@@ -0,0 +1,435 @@
+/*
+ * Copyright (c) 2015 Andreas Klöber
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package ipLock;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileLock;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * An inter-process cyclic barrier that lets a fixed number of parties running in JVM based processes on the same
+ * machine wait for each other.
+ * <p/>
+ * The number of arrived parties and the generation of the barrier are stored in a barrier file next to the
+ * synchronization file and modified while holding an {@link IpLock} on the synchronization file. When the last party
+ * arrives, the generation is incremented and all waiting parties are woken up by means of an {@link IpCondition}
+ * instead of polling. The barrier can be used again afterwards.
+ * <p/>
+ * A barrier object becomes a participant on its first call to {@link #await()} and stays one until it is closed. Each
+ * participant holds an exclusive {@link FileLock} on a slot of the barrier file. If a participant dies without being
+ * closed, the barrier is broken as soon as another participant arrives or, while waiting, within a second. Like
+ * with {@link java.util.concurrent.CyclicBarrier} the barrier is also broken if a waiting party times out or is
+ * interrupted, and it stays broken until {@link #reset()} is called. A party that dies before it has arrived for the
+ * first time cannot be detected, so waiting parties should use a timeout if parties may crash during start up.
+ * <p/>
+ * This class is thread-safe: multiple threads can share a single {@link IpBarrier} object without the need for
+ * external synchronization, each of them being a separate party.
+ *
+ * @see java.util.concurrent.CyclicBarrier
+ */
+public class IpBarrier implements AutoCloseable {
+
+    /**
+     * The suffix that is appended to the name of the synchronization file to get the name of the barrier file.
+     */
+    static final String BARRIER_FILE_SUFFIX = ".barrier";
+
+    /**
+     * The maximum number of barrier objects that can participate at the same time.
+     */
+    static final int MAX_PARTICIPANTS = 1024;
+
+    /*
+     * The name of the condition signaled when the barrier is tripped or broken.
+     */
+    private static final String TRIPPED_CONDITION_NAME = "tripped";
+
+    /*
+     * Index of the number of parties in the barrier file.
+     */
+    private static final int PARTIES = 0;
+
+    /*
+     * Index of the generation in the barrier file.
+     */
+    private static final int GENERATION = 1;
+
+    /*
+     * Index of the number of parties that have arrived in the current generation in the barrier file.
+     */
+    private static final int ARRIVED = 2;
+
+    /*
+     * Index of the broken generation plus one in the barrier file.
+     */
+    private static final int BROKEN_GENERATION = 3;
+
+    /**
+     * Index of the number of participant slots claimed so far in the barrier file.
+     */
+    static final int SLOTS_USED = 4;
+
+    /**
+     * Index of the flags of the participant slots in the barrier file, which are set while a participant occupies them.
+     */
+    static final int SLOTS = 8;
+
+    /*
+     * The maximum time interval between checks whether all participants are alive while waiting.
+     */
+    private static final long LIVENESS_CHECK_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1L);
+
+    /*
+     * The number of parties.
+     */
+    private final int parties;
+
+    /*
+     * The lock guarding the state.
+     */
+    private final IpLock lock;
+
+    /*
+     * The condition signaled when the barrier is tripped or broken.
+     */
+    private final IpCondition tripped;
+
+    /*
+     * The state stored in the barrier file.
+     */
+    private final MappedState state;
+
+    /*
+     * The lock of the participant slot of this object or <code>null</code> if it does not participate yet. Guarded by
+     * the lock.
+     */
+    private FileLock slotLock;
+
+    /*
+     * The participant slot of this object; guarded by the lock.
+     */
+    private int slot;
+
+    /**
+     * Create a new barrier object that uses the given file for synchronization. The file will be created if it does
+     * not exist.
+     *
+     * @param syncFile the file to be used for synchronization
+     * @param parties  the number of parties that must arrive before the barrier is tripped
+     * @throws IllegalArgumentException if <tt>parties</tt> is not positive
+     */
+    public IpBarrier(final File syncFile, final int parties) {
+        if (parties <= 0) {
+            throw new IllegalArgumentException("number of parties must be positive: " + parties);
+        }
+
+        this.parties = parties;
+        this.lock = new IpLock(syncFile);
+        this.tripped = this.lock.newCondition(TRIPPED_CONDITION_NAME);
+        this.state = new MappedState(new File(syncFile.getPath() + BARRIER_FILE_SUFFIX), SLOTS + MAX_PARTICIPANTS);
+    }
+
+    /**
+     * Create a new barrier object that uses the given file for synchronization. The file will be created if it does
+     * not exist.
+     *
+     * @param syncFilePath path to the file to be used for synchronization
+     * @param parties      the number of parties that must arrive before the barrier is tripped
+     * @throws IllegalArgumentException if <tt>parties</tt> is not positive
+     */
+    public IpBarrier(final String syncFilePath, final int parties) {
+        this(new File(syncFilePath), parties);
+    }
+
+    /**
+     * Returns the number of parties that must arrive before the barrier is tripped.
+     *
+     * @return the number of parties
+     */
+    public int getParties() {
+        return this.parties;
+    }
+
+    /**
+     * Returns the number of parties waiting at the barrier. The number is read without locking.
+     *
+     * @return the number of waiting parties
+     * @throws IOException if the barrier file could not be created or mapped
+     */
+    public int getNumberWaiting() throws IOException {
+        return (int) this.state.get(ARRIVED);
+    }
+
+    /**
+     * Returns whether the barrier is broken. The state is read without locking.
+     *
+     * @return <code>true</code> if broken
+     * @throws IOException if the barrier file could not be created or mapped
+     */
+    public boolean isBroken() throws IOException {
+        return isBroken(this.state.get(GENERATION));
+    }
+
+    /*
+     * Returns whether the given generation is broken.
+     */
+    private boolean isBroken(final long generation) throws IOException {
+        return this.state.get(BROKEN_GENERATION) == generation + 1L;
+    }
+
+    /*
+     * Claims a participant slot if this object does not participate yet. Must be called while holding the lock.
+     */
+    private void join() throws IOException {
+        long storedParties = this.state.get(PARTIES);
+        if (storedParties == 0L) {
+            this.state.set(PARTIES, this.parties);
+        } else if (storedParties != this.parties) {
+            throw new IllegalArgumentException(String.format("%s is already used with %d parties instead of %d",
+                this.lock.getSyncFile(), storedParties, this.parties));
+        }
+
+        if (this.slotLock != null && this.slotLock.isValid()) {
+            return;
+        }
+
+        for (int i = 0; i < MAX_PARTICIPANTS; i++) {
+            FileLock newSlotLock = this.state.tryLockSlot(i);
+            if (newSlotLock != null) {
+                this.state.set(SLOTS + i, 1L);
+                if (this.state.get(SLOTS_USED) <= i) {
+                    this.state.set(SLOTS_USED, i + 1);
+                }
+
+                this.slotLock = newSlotLock;
+                this.slot = i;
+                return;
+            }
+        }
+
+        throw new IOException(String.format("all %d participant slots of %s are in use", MAX_PARTICIPANTS,
+            this.lock.getSyncFile()));
+    }
+
+    /*
+     * Clears the slots of participants that died without being closed. Must be called while holding the lock.
+     *
+     * @return whether a dead participant has been found
+     */
+    private boolean clearDeadParticipants() throws IOException {
+        boolean found = false;
+
+        long slotsUsed = Math.min(this.state.get(SLOTS_USED), MAX_PARTICIPANTS);
+        for (int i = 0; i < slotsUsed; i++) {
+            if (i == this.slot && this.slotLock != null || this.state.get(SLOTS + i) == 0L) {
+                continue;
+            }
+
+            FileLock deadSlotLock = this.state.tryLockSlot(i);
+            if (deadSlotLock != null) {
+                deadSlotLock.release();
+                this.state.set(SLOTS + i, 0L);
+                found = true;
+            }
+        }
+
+        return found;
+    }
+
+    /*
+     * Breaks the given generation and wakes up all waiting parties. Must be called while holding the lock.
+     */
+    private void breakBarrier(final long generation) throws IOException {
+        this.state.set(BROKEN_GENERATION, generation + 1L);
+        this.state.set(ARRIVED, 0L);
+        this.tripped.signalAll();
+    }
+
+    /**
+     * Waits until all parties have arrived at the barrier.
+     *
+     * @return the arrival index of the current party, where <tt>getParties() - 1</tt> indicates the first to arrive and
+     *         zero indicates the last to arrive
+     * @throws IOException            if the synchronization file could not be created (e.g. because of missing write
+     *                                permissions in target folder) or if some other I/O error occurs
+     * @throws InterruptedException   if the current thread is interrupted while waiting
+     * @throws BrokenBarrierException if the barrier is broken or has been broken while waiting
+     */
+    public int await() throws IOException, InterruptedException, BrokenBarrierException {
+        try {
+            return await(false, 0L);
+        } catch (TimeoutException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * Waits until all parties have arrived at the barrier or the timeout elapses, in which case the barrier is broken.
+     *
+     * @param timeout  the maximum time to wait
+     * @param timeUnit the {@link TimeUnit} of the <tt>timeout</tt> parameter
+     * @return the arrival index of the current party, where <tt>getParties() - 1</tt> indicates the first to arrive and
+     *         zero indicates the last to arrive
+     * @throws IOException            if the synchronization file could not be created (e.g. because of missing write
+     *                                permissions in target folder) or if some other I/O error occurs
+     * @throws InterruptedException   if the current thread is interrupted while waiting
+     * @throws BrokenBarrierException if the barrier is broken or has been broken while waiting
+     * @throws TimeoutException       if the timeout elapsed
+     */
+    public int await(long timeout, TimeUnit timeUnit)
+        throws IOException, InterruptedException, BrokenBarrierException, TimeoutException {
+        return await(true, timeUnit.toNanos(timeout));
+    }
+
+    /*
+     * Arrives at the barrier and waits until the generation is tripped or broken.
+     */
+    private int await(final boolean timed, final long timeoutNanos)
+        throws IOException, InterruptedException, BrokenBarrierException, TimeoutException {
+        long deadline = System.nanoTime() + timeoutNanos;
+
+        this.lock.lock();
+        try {
+            join();
+
+            long generation = this.state.get(GENERATION);
+            if (isBroken(generation)) {
+                throw new BrokenBarrierException();
+            }
+            if (clearDeadParticipants()) {
+                breakBarrier(generation);
+                throw new BrokenBarrierException();
+            }
+
+            long arrived = this.state.get(ARRIVED) + 1L;
+            int index = (int) (this.parties - arrived);
+            if (index <= 0) {
+                // last to arrive
+                this.state.set(ARRIVED, 0L);
+                this.state.set(GENERATION, generation + 1L);
+                this.tripped.signalAll();
+                return 0;
+            }
+            this.state.set(ARRIVED, arrived);
+
+            while (true) {
+                long waitNanos = LIVENESS_CHECK_INTERVAL_NANOS;
+                if (timed) {
+                    waitNanos = Math.max(0L, Math.min(waitNanos, deadline - System.nanoTime()));
+                }
+
+                try {
+                    this.tripped.await(waitNanos, TimeUnit.NANOSECONDS);
+                } catch (InterruptedException e) {
+                    if (this.state.get(GENERATION) != generation && !isBroken(generation)) {
+                        // tripped anyway, so the interrupt belongs to the subsequent activity
+                        Thread.currentThread().interrupt();
+                        return index;
+                    }
+                    if (!isBroken(generation)) {
+                        breakBarrier(generation);
+                    }
+                    throw e;
+                }
+
+                if (isBroken(generation)) {
+                    throw new BrokenBarrierException();
+                }
+                if (this.state.get(GENERATION) != generation) {
+                    return index;
+                }
+                if (clearDeadParticipants()) {
+                    breakBarrier(generation);
+                    throw new BrokenBarrierException();
+                }
+                if (timed && deadline - System.nanoTime() <= 0L) {
+                    breakBarrier(generation);
+                    throw new TimeoutException("barrier was not tripped in time");
+                }
+            }
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Resets the barrier to its initial state. Parties currently waiting are released with a
+     * {@link BrokenBarrierException}, and participants that died without being closed are forgotten.
+     *
+     * @throws IOException if the synchronization file could not be created (e.g. because of missing write permissions
+     *                     in target folder) or if some other I/O error occurs
+     */
+    public void reset() throws IOException {
+        this.lock.lock();
+        try {
+            long generation = this.state.get(GENERATION);
+            if (this.state.get(ARRIVED) > 0L) {
+                breakBarrier(generation);
+            }
+            clearDeadParticipants();
+
+            this.state.set(ARRIVED, 0L);
+            this.state.set(GENERATION, generation + 1L);
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Ends the participation of this object and closes the barrier file, the condition and the lock object. The
+     * barrier is not affected. The object may be used again afterwards, in which case it participates again on its
+     * next call to {@link #await()}. It must not be closed while other threads are waiting.
+     *
+     * @throws IOException if an I/O error occurs while closing the files
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            this.lock.lock();
+            try {
+                if (this.slotLock != null) {
+                    this.state.set(SLOTS + this.slot, 0L);
+                    if (this.slotLock.isValid()) {
+                        this.slotLock.release();
+                    }
+                    this.slotLock = null;
+                }
+            } finally {
+                this.lock.unlock();
+            }
+        } finally {
+            try {
+                this.tripped.close();
+            } finally {
+                try {
+                    this.state.close();
+                } finally {
+                    this.lock.close();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,361 @@
+/*
+ * Copyright (c) 2015 Andreas Klöber
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package ipLock;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An inter-process condition variable bound to an {@link IpLock}, as created by {@link IpLock#newCondition(String)}.
+ * <p/>
+ * A process holding the lock may wait for the condition, which releases the lock and acquires it again before the wait
+ * returns, and another process holding the lock may signal it. Conditions are identified by the synchronization file of
+ * the lock and their name, so all processes waiting for and signaling a condition must use the same name.
+ * <p/>
+ * The number of waiting processes and pending signals is stored in a condition file next to the synchronization file,
+ * which is only modified while holding the lock. Waiting processes are woken up by means of a signal file next to it as
+ * described for {@link IpLock#lock(long, long, TimeUnit)}, so they do not poll the lock while waiting. As notifications
+ * may be delayed on some platforms, the condition file is read in addition periodically, which does not require the
+ * lock.
+ * <p/>
+ * Like with {@link java.util.concurrent.locks.Condition} waiting processes may wake up spuriously, e.g. after a waiting
+ * process has been killed and its signal has been consumed by another one, so they must check the state they are
+ * waiting for in a loop.
+ * <p/>
+ * This class is thread-safe: multiple threads can share a single {@link IpCondition} object without the need for
+ * external synchronization.
+ */
+public class IpCondition implements AutoCloseable {
+
+    /**
+     * The suffix that is appended to the name of the synchronization file and the name of the condition to get the
+     * name of the condition file.
+     */
+    static final String CONDITION_FILE_SUFFIX = ".condition";
+
+    /*
+     * Position of the number of waiting processes in the condition file.
+     */
+    private static final long WAITERS_POSITION = 0L;
+
+    /*
+     * Position of the number of pending signals in the condition file.
+     */
+    private static final long SIGNALS_POSITION = 8L;
+
+    /*
+     * The maximum time interval between reads of the condition file if no notification is received.
+     */
+    private static final long RECHECK_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1L);
+
+    /*
+     * The lock the condition is bound to.
+     */
+    private final IpLock lock;
+
+    /*
+     * The condition file.
+     */
+    private final File conditionFile;
+
+    /*
+     * The signal of the condition file; acquired on demand and released on {@link #close()}. Guarded by this.
+     */
+    private LockSignal signal;
+
+    /*
+     * The channel of the condition file; opened on demand and closed on {@link #close()}. Guarded by this.
+     */
+    private FileChannel channel;
+
+    /*
+     * Create a new condition bound to the given lock.
+     *
+     * @param lock the lock
+     * @param name the name of the condition
+     */
+    IpCondition(final IpLock lock, final String name) {
+        if (name == null) {
+            throw new NullPointerException("name");
+        }
+        if (name.isEmpty() || name.indexOf('/') >= 0 || name.indexOf(File.separatorChar) >= 0) {
+            throw new IllegalArgumentException("invalid condition name: " + name);
+        }
+
+        File syncFile = lock.getSyncFile().getAbsoluteFile();
+        this.lock = lock;
+        this.conditionFile = new File(syncFile.getParentFile(), syncFile.getName() + "." + name
+            + CONDITION_FILE_SUFFIX);
+    }
+
+    /*
+     * Opens the condition file and prepares its signal if this has not been done yet.
+     *
+     * @return the signal of the condition file
+     */
+    private synchronized LockSignal open() throws IOException {
+        if (this.signal == null) {
+            this.signal = LockSignal.acquire(this.conditionFile);
+        }
+        this.signal.prepare();
+
+        if (this.channel == null || !this.channel.isOpen()) {
+            this.channel = FileChannel.open(this.conditionFile.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+        return this.signal;
+    }
+
+    /*
+     * Returns the channel of the condition file, which must have been opened.
+     */
+    private synchronized FileChannel channel() {
+        return this.channel;
+    }
+
+    /*
+     * Reads the number stored at the given position of the condition file.
+     */
+    private long read(final long position) throws IOException {
+        FileChannel currentChannel = channel();
+        ByteBuffer data = ByteBuffer.allocate(8);
+        while (data.hasRemaining()) {
+            if (currentChannel.read(data, position + data.position()) < 0) {
+                // not written yet
+                return 0L;
+            }
+        }
+
+        return data.getLong(0);
+    }
+
+    /*
+     * Writes the number stored at the given position of the condition file. Must be called while holding the lock.
+     */
+    private void write(final long position, final long value) throws IOException {
+        FileChannel currentChannel = channel();
+        ByteBuffer data = ByteBuffer.allocate(8);
+        data.putLong(0, value);
+        while (data.hasRemaining()) {
+            currentChannel.write(data, position + data.position());
+        }
+    }
+
+    /*
+     * Makes sure the lock is held by the lock object.
+     */
+    private void checkHeld() {
+        if (!this.lock.isHeld()) {
+            throw new IllegalMonitorStateException("lock is not held");
+        }
+    }
+
+    /**
+     * Waits until the condition is signaled.
+     * <p/>
+     * The lock must be held when this method is called. It is released while waiting and acquired again before this
+     * method returns, even if it throws an exception.
+     *
+     * @throws IOException                  if the condition file could not be created or if some other I/O error occurs
+     * @throws InterruptedException         if the current thread is interrupted while waiting
+     * @throws IllegalMonitorStateException if the lock is not held
+     */
+    public void await() throws IOException, InterruptedException {
+        await(false, 0L);
+    }
+
+    /**
+     * Waits until the condition is signaled or the timeout elapses.
+     * <p/>
+     * The lock must be held when this method is called. It is released while waiting and acquired again before this
+     * method returns, even if it throws an exception, so this method may return some time after the timeout elapsed.
+     *
+     * @param timeout  the maximum time to wait
+     * @param timeUnit the {@link TimeUnit} of the <tt>timeout</tt> parameter
+     * @return <code>true</code> if the condition has been signaled; <code>false</code> if the timeout elapsed
+     * @throws IOException                  if the condition file could not be created or if some other I/O error occurs
+     * @throws InterruptedException         if the current thread is interrupted while waiting
+     * @throws IllegalMonitorStateException if the lock is not held
+     */
+    public boolean await(long timeout, TimeUnit timeUnit) throws IOException, InterruptedException {
+        return await(true, timeUnit.toNanos(timeout));
+    }
+
+    /*
+     * Registers as waiter, waits until a signal can be consumed or the timeout elapses and unregisters again.
+     */
+    private boolean await(final boolean timed, final long timeoutNanos) throws IOException, InterruptedException {
+        checkHeld();
+
+        long deadline = System.nanoTime() + timeoutNanos;
+        LockSignal currentSignal = open();
+        write(WAITERS_POSITION, read(WAITERS_POSITION) + 1L);
+
+        boolean signaled = false;
+        InterruptedException interrupted = null;
+        try {
+            while (true) {
+                // read before releasing the lock, so no notification of a signaling process gets lost
+                long generation = currentSignal.generation();
+                this.lock.unlock();
+                try {
+                    awaitNotification(currentSignal, generation, timed, deadline);
+                } catch (InterruptedException e) {
+                    interrupted = e;
+                } finally {
+                    this.lock.lock();
+                }
+
+                signaled = consumeSignal();
+                if (signaled || interrupted != null || timed && deadline - System.nanoTime() <= 0L) {
+                    break;
+                }
+            }
+        } finally {
+            if (!signaled) {
+                unregister();
+            }
+        }
+
+        if (interrupted != null) {
+            throw interrupted;
+        }
+        return signaled;
+    }
+
+    /*
+     * Waits until a notification is received, a pending signal is found in the condition file or the deadline is
+     * reached if the wait is timed. Must be called while not holding the lock.
+     */
+    private void awaitNotification(final LockSignal currentSignal, final long generation, final boolean timed,
+                                   final long deadline) throws IOException, InterruptedException {
+        while (true) {
+            long waitNanos = RECHECK_INTERVAL_NANOS;
+            if (timed) {
+                waitNanos = Math.min(waitNanos, deadline - System.nanoTime());
+                if (waitNanos <= 0L) {
+                    return;
+                }
+            }
+
+            if (currentSignal.await(generation, waitNanos, TimeUnit.NANOSECONDS) || read(SIGNALS_POSITION) > 0L) {
+                return;
+            }
+        }
+    }
+
+    /*
+     * Consumes a pending signal if there is any and unregisters as waiter in that case. Must be called while holding
+     * the lock.
+     */
+    private boolean consumeSignal() throws IOException {
+        long signals = read(SIGNALS_POSITION);
+        if (signals <= 0L) {
+            return false;
+        }
+
+        write(SIGNALS_POSITION, signals - 1L);
+        write(WAITERS_POSITION, Math.max(0L, read(WAITERS_POSITION) - 1L));
+        return true;
+    }
+
+    /*
+     * Unregisters as waiter without consuming a signal. Must be called while holding the lock.
+     */
+    private void unregister() throws IOException {
+        long waiters = Math.max(0L, read(WAITERS_POSITION) - 1L);
+        write(WAITERS_POSITION, waiters);
+        if (read(SIGNALS_POSITION) > waiters) {
+            // signals are only pending for waiters
+            write(SIGNALS_POSITION, waiters);
+        }
+    }
+
+    /**
+     * Wakes up one process waiting for the condition if there is any.
+     * <p/>
+     * The lock must be held when this method is called. The woken up process acquires the lock once it is released.
+     *
+     * @throws IOException                  if the condition file could not be created or if some other I/O error occurs
+     * @throws IllegalMonitorStateException if the lock is not held
+     */
+    public void signal() throws IOException {
+        signal(false);
+    }
+
+    /**
+     * Wakes up all processes waiting for the condition.
+     * <p/>
+     * The lock must be held when this method is called. The woken up processes acquire the lock one after another once
+     * it is released.
+     *
+     * @throws IOException                  if the condition file could not be created or if some other I/O error occurs
+     * @throws IllegalMonitorStateException if the lock is not held
+     */
+    public void signalAll() throws IOException {
+        signal(true);
+    }
+
+    /*
+     * Adds pending signals for one or all waiters and notifies them.
+     */
+    private void signal(final boolean all) throws IOException {
+        checkHeld();
+
+        LockSignal currentSignal = open();
+        long waiters = read(WAITERS_POSITION);
+        long signals = read(SIGNALS_POSITION);
+        if (signals >= waiters) {
+            // nobody to wake up
+            return;
+        }
+
+        write(SIGNALS_POSITION, all ? waiters : signals + 1L);
+        currentSignal.post();
+    }
+
+    /**
+     * Closes the condition file and releases its signal. The lock is not affected. The object may be used again
+     * afterwards, in which case the file is reopened. It must not be closed while other threads are waiting.
+     *
+     * @throws IOException if an I/O error occurs while closing the condition file
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            if (this.channel != null) {
+                this.channel.close();
+            }
+        } finally {
+            this.channel = null;
+            if (this.signal != null) {
+                this.signal.release();
+                this.signal = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,246 @@
+/*
+ * Copyright (c) 2015 Andreas Klöber
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package ipLock;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An inter-process countdown latch that lets JVM based processes running on the same machine wait until a number of
+ * operations performed by other processes has completed.
+ * <p/>
+ * The count is stored in a latch file next to the synchronization file and modified while holding an {@link IpLock} on
+ * the synchronization file. The latch is initialized with the given count by the first process using the latch file.
+ * Once the count has reached zero, the latch stays released until the latch file is deleted. Waiting processes are
+ * woken up by means of an {@link IpCondition} instead of polling the count.
+ * <p/>
+ * A process that dies without counting down does not release the latch, so waiting processes should use a timeout if
+ * the processes counting down may crash.
+ * <p/>
+ * This class is thread-safe: multiple threads can share a single {@link IpCountDownLatch} object without the need for
+ * external synchronization.
+ *
+ * @see java.util.concurrent.CountDownLatch
+ */
+public class IpCountDownLatch implements AutoCloseable {
+
+    /**
+     * The suffix that is appended to the name of the synchronization file to get the name of the latch file.
+     */
+    static final String LATCH_FILE_SUFFIX = ".latch";
+
+    /*
+     * The name of the condition signaled on release.
+     */
+    private static final String RELEASED_CONDITION_NAME = "released";
+
+    /*
+     * Index of the count in the latch file.
+     */
+    private static final int COUNT = 0;
+
+    /*
+     * Index of the flag whether the latch has been initialized in the latch file.
+     */
+    private static final int INITIALIZED = 1;
+
+    /*
+     * Number of longs in the latch file.
+     */
+    private static final int STATE_SIZE = 2;
+
+    /*
+     * The count the latch is initialized with.
+     */
+    private final int initialCount;
+
+    /*
+     * The lock guarding the count.
+     */
+    private final IpLock lock;
+
+    /*
+     * The condition signaled on release.
+     */
+    private final IpCondition released;
+
+    /*
+     * The state stored in the latch file.
+     */
+    private final MappedState state;
+
+    /**
+     * Create a new latch object that uses the given file for synchronization. The file will be created if it does not
+     * exist.
+     *
+     * @param syncFile the file to be used for synchronization
+     * @param count    the number of times {@link #countDown()} must be called before waiting processes are released
+     * @throws IllegalArgumentException if <tt>count</tt> is negative
+     */
+    public IpCountDownLatch(final File syncFile, final int count) {
+        if (count < 0) {
+            throw new IllegalArgumentException("count must not be negative: " + count);
+        }
+
+        this.initialCount = count;
+        this.lock = new IpLock(syncFile);
+        this.released = this.lock.newCondition(RELEASED_CONDITION_NAME);
+        this.state = new MappedState(new File(syncFile.getPath() + LATCH_FILE_SUFFIX), STATE_SIZE);
+    }
+
+    /**
+     * Create a new latch object that uses the given file for synchronization. The file will be created if it does not
+     * exist.
+     *
+     * @param syncFilePath path to the file to be used for synchronization
+     * @param count        the number of times {@link #countDown()} must be called before waiting processes are released
+     * @throws IllegalArgumentException if <tt>count</tt> is negative
+     */
+    public IpCountDownLatch(final String syncFilePath, final int count) {
+        this(new File(syncFilePath), count);
+    }
+
+    /*
+     * Initializes the count if no process has done so yet. Must be called while holding the lock.
+     */
+    private void initialize() throws IOException {
+        if (this.state.get(INITIALIZED) == 0L) {
+            this.state.set(COUNT, this.initialCount);
+            this.state.set(INITIALIZED, 1L);
+        }
+    }
+
+    /**
+     * Decrements the count and releases all waiting processes if it reaches zero. If the count is zero already,
+     * nothing happens.
+     *
+     * @throws IOException if the synchronization file could not be created (e.g. because of missing write permissions
+     *                     in target folder) or if some other I/O error occurs
+     */
+    public void countDown() throws IOException {
+        this.lock.lock();
+        try {
+            initialize();
+
+            long count = this.state.get(COUNT);
+            if (count > 0L) {
+                this.state.set(COUNT, count - 1L);
+                if (count == 1L) {
+                    this.released.signalAll();
+                }
+            }
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the current count. The count is read without locking.
+     *
+     * @return the current count
+     * @throws IOException if the latch file could not be created or mapped
+     */
+    public long getCount() throws IOException {
+        return this.state.get(INITIALIZED) != 0L ? this.state.get(COUNT) : this.initialCount;
+    }
+
+    /**
+     * Waits until the count has reached zero.
+     * <p/>
+     * If the count is zero already, this method returns immediately without locking.
+     *
+     * @throws IOException          if the synchronization file could not be created (e.g. because of missing write
+     *                              permissions in target folder) or if some other I/O error occurs
+     * @throws InterruptedException if the current thread is interrupted while waiting
+     */
+    public void await() throws IOException, InterruptedException {
+        await(false, 0L);
+    }
+
+    /**
+     * Waits until the count has reached zero or the timeout elapses.
+     * <p/>
+     * If the count is zero already, this method returns immediately without locking.
+     *
+     * @param timeout  the maximum time to wait
+     * @param timeUnit the {@link TimeUnit} of the <tt>timeout</tt> parameter
+     * @return <code>true</code> if the count has reached zero; <code>false</code> if the timeout elapsed
+     * @throws IOException          if the synchronization file could not be created (e.g. because of missing write
+     *                              permissions in target folder) or if some other I/O error occurs
+     * @throws InterruptedException if the current thread is interrupted while waiting
+     */
+    public boolean await(long timeout, TimeUnit timeUnit) throws IOException, InterruptedException {
+        return await(true, timeUnit.toNanos(timeout));
+    }
+
+    /*
+     * Waits until the count has reached zero or the deadline is reached if the wait is timed.
+     */
+    private boolean await(final boolean timed, final long timeoutNanos) throws IOException, InterruptedException {
+        if (getCount() == 0L) {
+            return true;
+        }
+
+        long deadline = System.nanoTime() + timeoutNanos;
+        this.lock.lock();
+        try {
+            initialize();
+            while (this.state.get(COUNT) > 0L) {
+                if (!timed) {
+                    this.released.await();
+                    continue;
+                }
+
+                long remainingNanos = deadline - System.nanoTime();
+                if (remainingNanos <= 0L) {
+                    return false;
+                }
+                this.released.await(remainingNanos, TimeUnit.NANOSECONDS);
+            }
+
+            return true;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Closes the latch file, the condition and the lock object. The latch is not affected. The object may be used
+     * again afterwards, in which case the files are reopened. It must not be closed while other threads are waiting.
+     *
+     * @throws IOException if an I/O error occurs while closing the files
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            this.released.close();
+        } finally {
+            try {
+                this.state.close();
+            } finally {
+                this.lock.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,303 @@
+/*
+ * Copyright (c) 2015 Andreas Klöber
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package ipLock;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.FileLock;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An election of a single leader among JVM based processes running on the same machine, e.g. for running a service
+ * with standby processes taking over as soon as the active one fails.
+ * <p/>
+ * Leadership is held by means of an {@link IpLock} on the synchronization file, so the leader can be read by
+ * {@link IpLock#getOwner()} and each term of office carries a fencing token. Candidates do not poll that lock: once
+ * started, a candidate thread blocks in the operating system on a {@link FileLock} of an election file next to the
+ * synchronization file, which the leader holds as well. As the operating system releases it as soon as the leader
+ * closes its election or terminates, even by crashing or being killed, the next candidate takes over without waiting
+ * for any retry interval.
+ * <p/>
+ * Changes of the leadership are reported to a {@link LeaderListener}. Leadership is only given up by closing the
+ * election or by the termination of the process. If the lock is held by other means than an election, candidates
+ * wait for it in the usual way after they have been granted the election file.
+ * <p/>
+ * Only one candidate of a JVM waits in the operating system at a time; further local candidates queue up behind it.
+ * This class is thread-safe.
+ */
+public class IpLeaderElection implements AutoCloseable {
+
+    /**
+     * The suffix that is appended to the name of the synchronization file to get the name of the election file.
+     */
+    static final String ELECTION_FILE_SUFFIX = ".election";
+
+    /*
+     * The time the candidate thread waits before it runs again after an I/O error.
+     */
+    private static final long RETRY_INTERVAL_MILLIS = 1000L;
+
+    /*
+     * The maximum time the candidate thread waits for the lock at once, so it notices when the election is closed.
+     */
+    private static final long LOCK_TIMEOUT_MILLIS = 100L;
+
+    /*
+     * The time waited after the first failed attempt to acquire the lock. A crashed leader releases the election file
+     * and the lock independently, so the lock may still be held for a moment after the election file has been granted.
+     */
+    private static final long MIN_LOCK_WAIT_MICROS = 100L;
+
+    /*
+     * The lock held by the leader.
+     */
+    private final IpLock lock;
+
+    /*
+     * The election file, which is only used for blocking candidates in the operating system.
+     */
+    private final File electionFile;
+
+    /*
+     * The listener to be notified about changes of the leadership.
+     */
+    private final LeaderListener listener;
+
+    /*
+     * Released when the election is closed.
+     */
+    private final CountDownLatch closed = new CountDownLatch(1);
+
+    /*
+     * The thread running the candidacy; guarded by this.
+     */
+    private Thread candidate;
+
+    /*
+     * Whether the candidate thread may be interrupted because it waits for the election file; guarded by this.
+     */
+    private boolean waitingForElection;
+
+    /*
+     * Whether this process is the leader.
+     */
+    private volatile boolean leader;
+
+    /**
+     * Create a new election that uses the given file for synchronization. The file will be created if it does not
+     * exist. The candidacy starts with {@link #start()}.
+     *
+     * @param syncFile the file to be used for synchronization
+     * @param listener the listener to be notified about changes of the leadership
+     */
+    public IpLeaderElection(final File syncFile, final LeaderListener listener) {
+        if (listener == null) {
+            throw new NullPointerException("listener must not be null");
+        }
+
+        this.lock = IpLock.builder(syncFile)
+            .waitStrategy(WaitStrategy.backoff(MIN_LOCK_WAIT_MICROS,
+                TimeUnit.MILLISECONDS.toMicros(LOCK_TIMEOUT_MILLIS), TimeUnit.MICROSECONDS))
+            .build();
+        this.electionFile = new File(syncFile.getPath() + ELECTION_FILE_SUFFIX);
+        this.listener = listener;
+    }
+
+    /**
+     * Create a new election that uses the given file for synchronization. The file will be created if it does not
+     * exist. The candidacy starts with {@link #start()}.
+     *
+     * @param syncFilePath path to the file to be used for synchronization
+     * @param listener     the listener to be notified about changes of the leadership
+     */
+    public IpLeaderElection(final String syncFilePath, final LeaderListener listener) {
+        this(new File(syncFilePath), listener);
+    }
+
+    /**
+     * Starts the candidacy of this process in a daemon thread. The listener is notified as soon as this process has
+     * been elected.
+     *
+     * @throws IllegalStateException if the election has already been started or closed
+     */
+    public synchronized void start() {
+        if (this.candidate != null || this.closed.getCount() == 0L) {
+            throw new IllegalStateException("election has already been started or closed");
+        }
+
+        this.candidate = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                runCandidacy();
+            }
+        }, "ipLock-leader-election-" + this.lock.getSyncFile().getName());
+        this.candidate.setDaemon(true);
+        this.candidate.start();
+    }
+
+    /**
+     * Returns whether this process is the leader.
+     *
+     * @return <code>true</code> if elected; <code>false</code> otherwise
+     */
+    public boolean isLeader() {
+        return this.leader;
+    }
+
+    /*
+     * Returns whether the election has been closed.
+     */
+    private boolean isClosed() {
+        return this.closed.getCount() == 0L;
+    }
+
+    /*
+     * Runs for election until the election is closed and releases the files afterwards.
+     */
+    private void runCandidacy() {
+        SyncFile election = null;
+        try {
+            election = SyncFile.acquire(this.electionFile);
+
+            // prepares the lock in advance, so taking over does not wait for the synchronization file to be opened or
+            // for the flight recorder events to be defined
+            this.lock.getOwner();
+            LockEvents.isEnabled();
+
+            while (!isClosed()) {
+                try {
+                    runTerm(election);
+                } catch (IOException e) {
+                    // e.g. the file system is temporarily not available
+                    this.closed.await(RETRY_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+                }
+            }
+        } catch (IOException | InterruptedException e) {
+            // closed while waiting
+        } finally {
+            try {
+                this.lock.close();
+                if (election != null) {
+                    election.release();
+                }
+            } catch (IOException e) {
+                // all locks of the process are released when it terminates anyway
+            }
+        }
+    }
+
+    /*
+     * Waits until this process is elected and holds the leadership until the election is closed.
+     */
+    private void runTerm(final SyncFile election) throws IOException, InterruptedException {
+        synchronized (this) {
+            if (isClosed()) {
+                return;
+            }
+            this.waitingForElection = true;
+        }
+
+        FileLock electionLock;
+        try {
+            electionLock = election.lockBlocking();
+        } catch (ClosedByInterruptException e) {
+            // interrupted by closing the election
+            Thread.interrupted();
+            return;
+        } finally {
+            synchronized (this) {
+                this.waitingForElection = false;
+            }
+        }
+        // an interrupt delivered after the election file has been granted would close the channel of the lock
+        Thread.interrupted();
+
+        try {
+            LockHandle handle = this.lock.tryLockHandle();
+            while (handle == null) {
+                if (isClosed()) {
+                    return;
+                }
+                handle = this.lock.tryLockHandle(LOCK_TIMEOUT_MILLIS, LOCK_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            }
+
+            try {
+                this.leader = true;
+                this.listener.onElected(this, handle.getFencingToken());
+
+                this.closed.await();
+            } finally {
+                this.leader = false;
+                try {
+                    this.listener.onRevoked(this);
+                } finally {
+                    this.lock.unlock();
+                }
+            }
+        } finally {
+            election.releaseBlocking(electionLock);
+        }
+    }
+
+    /**
+     * Ends the candidacy of this process. If it is the leader, the listener is notified about the revocation and the
+     * leadership is handed over to the next candidate. Waits until the candidate thread has terminated unless this
+     * method is called by the listener. Interrupts are deferred until then.
+     */
+    @Override
+    public void close() {
+        Thread currentCandidate;
+        synchronized (this) {
+            this.closed.countDown();
+            currentCandidate = this.candidate;
+            if (currentCandidate != null && this.waitingForElection) {
+                // unblocks the candidate thread if it is waiting in the operating system
+                currentCandidate.interrupt();
+            }
+        }
+
+        if (currentCandidate == null || currentCandidate == Thread.currentThread()) {
+            return;
+        }
+
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    currentCandidate.join();
+                    return;
+                } catch (InterruptedException e) {
+                    // the interrupt status is cleared, so waiting can be continued
+                    interrupted = true;
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
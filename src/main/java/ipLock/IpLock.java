@@ -24,13 +24,12 @@ package ipLock;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.RandomAccessFile;
-import java.nio.channels.FileChannel;
 import java.nio.channels.FileLock;
-import java.util.Timer;
-import java.util.TimerTask;
-import java.util.concurrent.CountDownLatch;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.Deque;
+import java.util.concurrent.ConcurrentLinkedDeque;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * An inter-process lock for synchronization of multiple JVM based processes running on the same machine.
@@ -38,10 +37,19 @@ import java.util.concurrent.TimeUnit;
  * If the process that owns the lock finishes without releasing it, the lock is released automatically. This is also
  * valid if the process owning the lock is destroyed or killed.
  * <p/>
- * The synchronization is implemented based on {@link FileLock}.
+ * The synchronization is implemented based on {@link FileLock}. As a {@link FileLock} is held on behalf of the whole
+ * JVM, all {@link IpLock} objects of a JVM that use the same synchronization file coordinate locally first: only one of
+ * their threads at a time competes for the {@link FileLock}, and the lock is handed over between threads of the same
+ * JVM without releasing the {@link FileLock}.
+ * <p/>
+ * In managed mode, see {@link Builder#managed(boolean)}, this guarantee is weaker: the {@link FileLock} is held by the
+ * lock manager on behalf of the holder, so if the manager dies, the lock is released although the holder is still
+ * alive and has not released it. The holder detects this by means of {@link #isLeaseValid()} and the fencing tokens of
+ * {@link LockHandle}s.
  * <p/>
  * This class is thread-safe: multiple threads can share a single
- * {@link IpLock} object without the need for external synchronization.
+ * {@link IpLock} object without the need for external synchronization. The lock is not reentrant and not bound to the
+ * thread that acquired it, so it may be released by another thread.
  *
  * @author Andreas Klöber
  * @see java.nio.channels.FileLock
@@ -51,12 +59,75 @@ public class IpLock implements AutoCloseable {
     /*
      * The synchronization file.
      */
-    private File syncFile;
+    private final File syncFile;
+
+    /*
+     * The lock mode.
+     */
+    private final LockMode mode;
+
+    /*
+     * The index of the locked stripe if the mode is {@link LockMode#STRIPE}.
+     */
+    private final int stripe;
+
+    /*
+     * The strategy determining the time to wait between lock attempts.
+     */
+    private final WaitStrategy waitStrategy;
+
+    /*
+     * The listener to be notified about acquisitions and releases or <code>null</code>.
+     */
+    private final LockListener listener;
+
+    /*
+     * The time after which the lease of an acquisition expires unless renewed in nanoseconds or 0 for no lease.
+     */
+    private final long leaseTtlNanos;
+
+    /*
+     * The directory of the lock manager in managed mode or <code>null</code>.
+     */
+    private final File managerDirectory;
+
+    /*
+     * Whether the lock manager is started on demand in managed mode.
+     */
+    private final boolean startManager;
+
+    /*
+     * The name of the condition returned by {@link #newCondition()}.
+     */
+    private static final String DEFAULT_CONDITION_NAME = "default";
+
+    /*
+     * Marks a time that has not been measured as there was neither a listener, an enabled flight recorder event nor a
+     * {@link WaitStrategy} observing hold times.
+     */
+    private static final long UNMEASURED = Long.MIN_VALUE;
+
+    /*
+     * The {@link System#nanoTime()}s of the measured acquisitions currently held, earliest first; shared locks may be
+     * held more than once.
+     */
+    private final Deque<Long> acquisitionTimes = new ConcurrentLinkedDeque<>();
 
     /*
-     * The underlying {@link FileLock} object.
+     * The synchronization file shared with all other lock objects of this JVM using the same file; acquired on demand
+     * and released on {@link #close()}.
      */
-    private FileLock lock;
+    private SyncFile sync;
+
+    /*
+     * The lock shared with all other lock objects of this JVM using the same file and mode.
+     */
+    private volatile SyncLock syncLock;
+
+    /*
+     * Number of times the lock is currently held by this object; may only exceed one for shared locks.
+     */
+    private final AtomicInteger holdCount = new AtomicInteger();
 
     /**
      * Create a new lock object that uses the given file for synchronization. The file will be created if it does not
@@ -65,7 +136,7 @@ public class IpLock implements AutoCloseable {
      * @param syncFile the file to be used for synchronization
      */
     public IpLock(final File syncFile) {
-        this.syncFile = syncFile;
+        this(syncFile, LockMode.EXCLUSIVE);
     }
 
     /**
@@ -79,19 +150,92 @@ public class IpLock implements AutoCloseable {
     }
 
     /*
-     * Creates a synchronization channel based on the given file. If the file does not exist yet, it is also created.
+     * Create a new lock object that uses the given file for synchronization with the given mode.
+     *
+     * @param syncFile the file to be used for synchronization
+     * @param mode     the lock mode
+     */
+    IpLock(final File syncFile, final LockMode mode) {
+        this(syncFile, mode, 0, WaitStrategy.interval(), null, 0L, null, false);
+    }
+
+    /*
+     * Create a new lock object that uses the given stripe of the given file for synchronization.
+     *
+     * @param syncFile the file to be used for synchronization
+     * @param stripe   the index of the stripe
+     */
+    IpLock(final File syncFile, final int stripe) {
+        this(syncFile, LockMode.STRIPE, stripe, WaitStrategy.interval(), null, 0L, null, false);
+    }
+
+    private IpLock(final File syncFile, final LockMode mode, final int stripe, final WaitStrategy waitStrategy,
+                   final LockListener listener, final long leaseTtlNanos, final File managerDirectory,
+                   final boolean startManager) {
+        this.syncFile = syncFile;
+        this.mode = mode;
+        this.stripe = stripe;
+        this.waitStrategy = listener != null ? new ObservedWaitStrategy(waitStrategy, this, listener) : waitStrategy;
+        this.listener = listener;
+        this.leaseTtlNanos = leaseTtlNanos;
+        this.managerDirectory = managerDirectory;
+        this.startManager = startManager;
+    }
+
+    /**
+     * Returns a builder for a lock object that uses the given file for synchronization and is configured with optional
+     * features.
+     *
+     * @param syncFile the file to be used for synchronization
+     * @return the {@link Builder}
+     */
+    public static Builder builder(final File syncFile) {
+        return new Builder(syncFile);
+    }
+
+    /*
+     * Returns the synchronization file.
+     */
+    File getSyncFile() {
+        return this.syncFile;
+    }
+
+    /*
+     * Returns the lock mode.
+     */
+    LockMode getMode() {
+        return this.mode;
+    }
+
+    /*
+     * Returns the index of the locked stripe if the mode is {@link LockMode#STRIPE}.
+     */
+    int getStripe() {
+        return this.stripe;
+    }
+
+    /*
+     * Returns the shared lock and acquires the synchronization file if this has not been done yet.
      *
-     * @param file the underlying file
-     * @return the created {@link FileChannel}
-     * @throws IOException if the synchronization file could not be created,
-     *                     e.g. because of missing write permissions in target folder
+     * @return the {@link SyncLock}
+     * @throws IOException if the canonical path of the synchronization file or of the directory of the lock manager
+     *                     could not be determined
      */
-    private static FileChannel createSyncChannel(final File file) throws IOException {
-        // make sure sync file exists
-        file.createNewFile();
+    private synchronized SyncLock openSync() throws IOException {
+        if (this.sync == null) {
+            LockManagerClient client = this.mode == LockMode.MANAGED
+                ? LockManagerClient.getInstance(this.managerDirectory, this.startManager) : null;
+            this.sync = SyncFile.acquire(this.syncFile);
+            if (this.mode == LockMode.STRIPE) {
+                this.syncLock = this.sync.getStripeLock(this.stripe);
+            } else if (this.mode == LockMode.MANAGED) {
+                this.syncLock = this.sync.getManagedLock(client);
+            } else {
+                this.syncLock = this.sync.getLock(this.mode);
+            }
+        }
 
-        RandomAccessFile raFile = new RandomAccessFile(file, "rw");
-        return raFile.getChannel();
+        return this.syncLock;
     }
 
     /**
@@ -99,14 +243,78 @@ public class IpLock implements AutoCloseable {
      * <p/>
      * Only one process can acquire the lock at the same time. This method waits indefinitely until the lock could be
      * acquired.
+     * <p/>
+     * Waiting never blocks in the operating system or inside a monitor: the lock is tried whenever the owning process
+     * notifies about its release and in addition periodically, while the thread is parked by means of
+     * {@link java.util.concurrent.locks}. So waiting virtual threads do not occupy their carrier thread. Interrupts are
+     * deferred until the lock has been acquired.
      *
-     * @throws IOException if the synchronization file could not be created,
-     *                     e.g. because of missing write permissions in target folder
+     * @return the handle of the acquisition, which carries its fencing token
+     * @throws IOException                  if the synchronization file could not be created,
+     *                                      e.g. because of missing write permissions in target folder
+     * @throws OverlappingFileLockException if the current thread already holds the lock
      */
-    public void lock() throws IOException {
-        synchronized (this) {
-            this.lock = createSyncChannel(this.syncFile).lock();
+    public LockHandle lock() throws IOException {
+        SyncLock currentLock = openSync();
+        long startTime = startTime();
+        currentLock.lock(this.waitStrategy);
+        return acquired(currentLock, currentLock.getFencingToken(), startTime, LockEvents.BLOCKING);
+    }
+
+    /*
+     * Returns the current {@link System#nanoTime()} if there is a listener, an enabled flight recorder event or a
+     * {@link WaitStrategy} observing hold times and {@link #UNMEASURED} otherwise.
+     */
+    private long startTime() {
+        return this.listener != null || this.waitStrategy.observesHoldTimes() || LockEvents.isEnabled()
+            ? System.nanoTime() : UNMEASURED;
+    }
+
+    /*
+     * Starts the lease if configured, counts an acquisition and notifies the listener and the flight recorder about it.
+     *
+     * @param currentLock  the acquired lock
+     * @param fencingToken the fencing token of the acquisition
+     * @param startTime    the {@link System#nanoTime()} at which the acquisition started or {@link #UNMEASURED}
+     * @param acquisition  the kind of acquisition as defined by {@link LockEvents}
+     * @return the handle of the acquisition
+     */
+    private LockHandle acquired(final SyncLock currentLock, final long fencingToken, final long startTime,
+                                final String acquisition) {
+        if (this.leaseTtlNanos > 0L) {
+            ((MappedSyncLock) currentLock).startLease(this.leaseTtlNanos);
         }
+        this.holdCount.incrementAndGet();
+
+        if (startTime == UNMEASURED) {
+            return new LockHandle(this, fencingToken, UNMEASURED);
+        }
+
+        long now = System.nanoTime();
+        this.acquisitionTimes.addLast(now);
+        if (this.listener != null) {
+            this.listener.acquired(this, now - startTime);
+        }
+        LockEvents.acquired(this.syncFile, this.mode, acquisition, now - startTime, currentLock.isFileLockAcquired());
+        return new LockHandle(this, fencingToken, now);
+    }
+
+    /*
+     * Notifies the listener and the flight recorder about an acquisition that gave up.
+     *
+     * @param startTime   the {@link System#nanoTime()} at which the acquisition started or {@link #UNMEASURED}
+     * @param acquisition the kind of acquisition as defined by {@link LockEvents}
+     */
+    void reportTimeout(final long startTime, final String acquisition) {
+        if (startTime == UNMEASURED) {
+            return;
+        }
+
+        long waitNanos = System.nanoTime() - startTime;
+        if (this.listener != null) {
+            this.listener.timedOut(this, waitNanos);
+        }
+        LockEvents.timedOut(this.syncFile, this.mode, acquisition, waitNanos);
     }
 
     /**
@@ -116,94 +324,551 @@ public class IpLock implements AutoCloseable {
      * configuration of a timeout.
      * <p/>
      * As the underlying {@link FileLock} object does not provide a way to cancel a lock request in case of a timeout,
-     * this method periodically tries to get the lock until this is successful or the timeout limit is reached.
+     * this method tries to get the lock whenever the owning process notifies about its release until this is successful
+     * or the timeout limit is reached. Notifications are delivered by watching a signal file next to the
+     * synchronization file, which may not be supported natively on every platform. Therefore the lock is also tried
+     * periodically in the given interval, or more often if the {@link WaitStrategy} of this object determines so.
      *
      * @param timeout         the timeout limit
-     * @param tryLockInterval the time interval for trying locks
+     * @param tryLockInterval the maximum time interval between lock attempts if no notification is received
      * @param timeUnit        the {@link TimeUnit} for both <tt>timeout</tt> and <tt>tryLockInterval</tt> parameters
      * @return <code>true</code> if the lock could be required; <code>false</code> if there was a timeout
-     * @throws IOException          if the synchronization file could not be created (e.g. because of missing write permissions
-     *                              in target folder) or if some other I/O error occurs on the underlying {@link FileLock}
-     * @throws InterruptedException if the current thread is interrupted while waiting
+     * @throws IOException                  if the synchronization file could not be created (e.g. because of missing
+     *                                      write permissions in target folder) or if some other I/O error occurs on the
+     *                                      underlying {@link FileLock}
+     * @throws InterruptedException         if the current thread is interrupted while waiting
+     * @throws OverlappingFileLockException if the current thread already holds the lock
      */
     public boolean lock(long timeout, long tryLockInterval, TimeUnit timeUnit) throws IOException, InterruptedException {
-        synchronized (this) {
+        return tryLockHandle(timeout, tryLockInterval, timeUnit) != null;
+    }
 
-            // schedule task for lock timeout
-            final CountDownLatch timeoutSignal = new CountDownLatch(1);
-            Timer lockTimeoutTimer = new Timer(true);
-            TimerTask lockTimeoutTask = new TimerTask() {
+    /**
+     * Tries to acquire the lock and returns immediately.
+     * <p/>
+     * Only one process can acquire the lock at the same time. The result determines whether the lock could be acquired
+     * or not.
+     *
+     * @return <code>true</code> if the lock could be required; <code>false</code> if there was a timeout
+     * @throws IOException                  if the synchronization file could not be created (e.g. because of missing
+     *                                      write permissions in target folder) or if some other I/O error occurs on the
+     *                                      underlying {@link FileLock}
+     * @throws OverlappingFileLockException if the current thread already holds the lock
+     */
+    public boolean tryLock() throws IOException {
+        return tryLockHandle() != null;
+    }
 
-                @Override
-                public void run() {
-                    timeoutSignal.countDown();
-                }
-            };
-
-            try {
-                lockTimeoutTimer.schedule(lockTimeoutTask, timeUnit.toMillis(timeout));
-
-                while (this.lock == null) {
-                    this.lock = createSyncChannel(this.syncFile).tryLock();
-                    if (this.lock == null) {
-                        // wait interval before next tryLock()
-                        if (timeoutSignal.await(tryLockInterval, timeUnit)) {
-                            // timeout signaled
-                            return false;
-                        }
-                    }
-                }
+    /**
+     * Tries to acquire the lock and returns immediately.
+     * <p/>
+     * In addition to {@link #tryLock()} this method returns the handle of the acquisition, which carries its fencing
+     * token.
+     *
+     * @return the handle of the acquisition or <code>null</code> if the lock could not be acquired
+     * @throws IOException                  if the synchronization file could not be created (e.g. because of missing
+     *                                      write permissions in target folder) or if some other I/O error occurs on the
+     *                                      underlying {@link FileLock}
+     * @throws OverlappingFileLockException if the current thread already holds the lock
+     */
+    public LockHandle tryLockHandle() throws IOException {
+        SyncLock currentLock = openSync();
+        long startTime = startTime();
+        if (!currentLock.tryLock()) {
+            if (this.listener != null) {
+                this.listener.tryLockFailed(this);
+            }
+            return null;
+        }
 
-                return true;
+        return acquired(currentLock, currentLock.getFencingToken(), startTime, LockEvents.TRY);
+    }
 
-            } finally {
-                // unschedule task for lock timeout detection
-                lockTimeoutTask.cancel();
-                lockTimeoutTimer.cancel();
+    /**
+     * Acquires the lock in a blocking way with a timeout.
+     * <p/>
+     * In addition to {@link #lock(long, long, TimeUnit)} this method returns the handle of the acquisition, which
+     * carries its fencing token.
+     *
+     * @param timeout         the timeout limit
+     * @param tryLockInterval the maximum time interval between lock attempts if no notification is received
+     * @param timeUnit        the {@link TimeUnit} for both <tt>timeout</tt> and <tt>tryLockInterval</tt> parameters
+     * @return the handle of the acquisition or <code>null</code> if there was a timeout
+     * @throws IOException                  if the synchronization file could not be created (e.g. because of missing
+     *                                      write permissions in target folder) or if some other I/O error occurs on the
+     *                                      underlying {@link FileLock}
+     * @throws InterruptedException         if the current thread is interrupted while waiting
+     * @throws OverlappingFileLockException if the current thread already holds the lock
+     */
+    public LockHandle tryLockHandle(long timeout, long tryLockInterval, TimeUnit timeUnit)
+        throws IOException, InterruptedException {
+        SyncLock currentLock = openSync();
+        long startTime = startTime();
+        if (!currentLock.lock(timeUnit.toNanos(timeout), timeUnit.toNanos(tryLockInterval), this.waitStrategy)) {
+            reportTimeout(startTime, LockEvents.TIMED);
+            return null;
+        }
+
+        return acquired(currentLock, currentLock.getFencingToken(), startTime, LockEvents.TIMED);
+    }
+
+    /**
+     * Acquires the lock asynchronously.
+     * <p/>
+     * Only one process can acquire the lock at the same time. This method returns immediately and the returned future
+     * completes with a {@link LockHandle} as soon as the lock could be acquired. The lock is released by closing the
+     * handle, which may be done by any thread.
+     * <p/>
+     * All pending asynchronous acquisitions of the JVM are served by a single background thread that tries them
+     * whenever another process notifies about a release and in addition periodically. Cancelling the future withdraws
+     * the acquisition.
+     *
+     * @return the pending acquisition
+     */
+    public IpLockFuture lockAsync() {
+        return submitAsync(new IpLockFuture(this, false, 0L));
+    }
+
+    /**
+     * Acquires the lock asynchronously with a timeout.
+     * <p/>
+     * In addition to {@link #lockAsync()} the returned future completes exceptionally with a
+     * {@link java.util.concurrent.TimeoutException} if the lock could not be acquired before the timeout limit is
+     * reached.
+     *
+     * @param timeout  the timeout limit
+     * @param timeUnit the {@link TimeUnit} of the <tt>timeout</tt> parameter
+     * @return the pending acquisition
+     */
+    public IpLockFuture lockAsync(long timeout, TimeUnit timeUnit) {
+        return submitAsync(new IpLockFuture(this, true, System.nanoTime() + timeUnit.toNanos(timeout)));
+    }
+
+    /*
+     * Submits the given acquisition to the waiter or fails it if the synchronization file could not be prepared.
+     */
+    private IpLockFuture submitAsync(final IpLockFuture future) {
+        LockSignal signal;
+        try {
+            openSync();
+            synchronized (this) {
+                signal = this.sync.getSignal();
             }
+            signal.prepare();
+        } catch (IOException e) {
+            future.fail(e);
+            return future;
         }
+
+        AsyncLockWaiter.getInstance().submit(future, signal);
+        return future;
+    }
+
+    /*
+     * Tries to acquire the lock on behalf of an asynchronous acquisition, so it is not bound to the current thread.
+     *
+     * @param startTime the {@link System#nanoTime()} at which the asynchronous acquisition started
+     * @return the handle of the acquisition or <code>null</code> if the lock could not be acquired
+     * @throws IOException if some I/O error occurs on the underlying {@link FileLock}
+     */
+    LockHandle tryLockDetached(final long startTime) throws IOException {
+        SyncLock currentLock = openSync();
+        if (!currentLock.tryLock()) {
+            return null;
+        }
+
+        long fencingToken = currentLock.getFencingToken();
+        LockHandle handle = acquired(currentLock, fencingToken, startTime, LockEvents.ASYNC);
+        currentLock.detach();
+        return handle;
     }
 
     /**
-     * Tries to acquire the lock and returns immediately.
+     * Returns the current owner of the lock without acquiring it.
      * <p/>
-     * Only one process can acquire the lock at the same time. The result determines whether the lock could be acquired
-     * or not.
+     * On each acquisition the owner records its process id, host name, thread name, the acquisition time and a fencing
+     * token in the header of the synchronization file, which is cleared again on release. Reading it costs a single
+     * read of the file, so waiting processes can report whom they are waiting for and tools can inspect contention.
+     * If the owning process died without releasing the lock, its record remains until the lock is acquired the next
+     * time. Owners are only recorded by lock objects that are neither striped nor part of a read-write lock, and not in
+     * mapped mode. In managed mode the recorded owner is the lock manager, which holds the lock on behalf of its
+     * clients.
      *
-     * @return <code>true</code> if the lock could be required; <code>false</code> if there was a timeout
+     * @return the owner or <code>null</code> if the lock is not held or its owner is not recorded
      * @throws IOException if the synchronization file could not be created (e.g. because of missing write permissions
-     *                     in target folder) or if some other I/O error occurs on the underlying {@link FileLock}
+     *                     in target folder) or if some other I/O error occurs
      */
-    public boolean tryLock() throws IOException {
+    public LockOwner getOwner() throws IOException {
+        if (this.mode != LockMode.EXCLUSIVE && this.mode != LockMode.MANAGED) {
+            return null;
+        }
+
+        openSync();
+        SyncFile currentSync;
         synchronized (this) {
-            this.lock = createSyncChannel(this.syncFile).tryLock();
-            return this.lock != null;
+            currentSync = this.sync;
+        }
+        return currentSync.readOwner();
+    }
+
+    /*
+     * Returns whether this object holds the lock.
+     */
+    boolean isHeld() {
+        return this.holdCount.get() > 0;
+    }
+
+    /**
+     * Returns the default condition bound to this lock, which is the condition named <tt>default</tt>.
+     *
+     * @return the {@link IpCondition}
+     * @see #newCondition(String)
+     */
+    public IpCondition newCondition() {
+        return newCondition(DEFAULT_CONDITION_NAME);
+    }
+
+    /**
+     * Returns a condition bound to this lock with the given name.
+     * <p/>
+     * Processes holding the lock can wait for the condition to be signaled by another process holding the lock, while
+     * the lock is released. Waiting processes are notified instead of polling the lock. All condition objects of any
+     * process with the same synchronization file and name represent the same condition.
+     *
+     * @param name the name of the condition, which is part of the name of the condition file
+     * @return the {@link IpCondition}
+     * @throws NullPointerException     if <tt>name</tt> is <code>null</code>
+     * @throws IllegalArgumentException if <tt>name</tt> is empty or contains a path separator
+     */
+    public IpCondition newCondition(final String name) {
+        return new IpCondition(this, name);
+    }
+
+    /**
+     * Returns whether this object holds the lock and, in lease mode, the lease has not been taken over by another
+     * process since, or, in managed mode, the lock manager that granted the lock has not died since.
+     * <p/>
+     * A holder in lease or managed mode should check this before each operation on the protected resource and stop
+     * operating on it once the lock has been lost, as another process may hold the lock meanwhile. As this check is
+     * racy by nature, the resource should also reject stale holders by means of the fencing token of the
+     * {@link LockHandle}.
+     *
+     * @return <code>true</code> if the lock is held and its lease or grant, if any, is valid
+     */
+    public boolean isLeaseValid() {
+        if (!isHeld()) {
+            return false;
         }
+
+        if (this.mode == LockMode.MANAGED) {
+            return ((ManagedSyncLock) this.syncLock).isGrantValid();
+        }
+        return this.leaseTtlNanos == 0L || ((MappedSyncLock) this.syncLock).isLeaseHeld();
     }
 
     /**
      * Releases the lock.
      * <p/>
-     * If the lock has not been acquired before, this method returns immediately.
+     * If the lock has not been acquired before, this method returns immediately. If the lease has been taken over by
+     * another process, the lock is only released locally. If a shared lock is held more than once, the hold time is
+     * measured from the earliest acquisition still held; {@link LockHandle#close()} measures it from the acquisition of
+     * the handle instead.
      *
      * @throws IOException if some other I/O error occurs on the underlying {@link FileLock}
      */
     public void unlock() throws IOException {
-        synchronized (this) {
-            if (this.lock == null) {
+        release(null);
+    }
+
+    /**
+     * Releases the acquisition of the given handle.
+     *
+     * @param handle the handle of the acquisition
+     * @throws IOException if some other I/O error occurs on the underlying {@link FileLock}
+     */
+    void unlock(final LockHandle handle) throws IOException {
+        release(handle);
+    }
+
+    /*
+     * Releases the lock and notifies the listener, the wait strategy and the flight recorder about the time it has
+     * been held, measured from the acquisition of the given handle or, without handle, from the earliest acquisition
+     * still held.
+     */
+    private void release(final LockHandle handle) throws IOException {
+        int count;
+        do {
+            count = this.holdCount.get();
+            if (count == 0) {
                 // there is no lock
                 return;
             }
+        } while (!this.holdCount.compareAndSet(count, count - 1));
 
-            this.lock.release();
+        long acquiredAt = UNMEASURED;
+        if (handle == null) {
+            Long earliest = this.acquisitionTimes.pollFirst();
+            if (earliest != null) {
+                acquiredAt = earliest;
+            }
+        } else if (handle.getAcquisitionTime() != UNMEASURED) {
+            acquiredAt = handle.getAcquisitionTime();
+            this.acquisitionTimes.removeFirstOccurrence(acquiredAt);
+        }
+
+        long holdNanos = acquiredAt != UNMEASURED ? System.nanoTime() - acquiredAt : 0L;
+        boolean fileLockReleased = this.syncLock.unlock();
+        if (this.listener != null) {
+            this.listener.released(this, holdNanos);
+        }
+        if (acquiredAt != UNMEASURED) {
+            this.waitStrategy.released(holdNanos);
+            LockEvents.released(this.syncFile, this.mode, holdNanos, fileLockReleased);
         }
     }
 
     /**
-     * {@inheritDoc}
+     * Releases the lock if it is held and closes the underlying synchronization channel unless it is still used by
+     * other lock objects of this JVM.
+     * <p/>
+     * The object may be used again afterwards, in which case the channel is reopened on the next lock attempt. It must
+     * not be closed while other threads are waiting for the lock.
+     *
+     * @throws IOException if an I/O error occurs while closing the channel
      */
     @Override
-    public void close() throws Exception {
-        unlock();
+    public void close() throws IOException {
+        try {
+            // shared locks may be held more than once
+            while (this.holdCount.get() > 0) {
+                unlock();
+            }
+        } finally {
+            synchronized (this) {
+                if (this.sync != null) {
+                    this.sync.release();
+                    this.sync = null;
+                    this.syncLock = null;
+                }
+            }
+        }
+    }
+
+    /**
+     * Builder for {@link IpLock} objects with optional features.
+     */
+    public static class Builder {
+
+        /*
+         * The synchronization file.
+         */
+        private final File syncFile;
+
+        /*
+         * Whether the lock is held by means of a lock word in the memory mapped file.
+         */
+        private boolean mapped;
+
+        /*
+         * Whether the lock is acquired in arrival order.
+         */
+        private boolean fair;
+
+        /*
+         * The strategy determining the time to wait between lock attempts.
+         */
+        private WaitStrategy waitStrategy = WaitStrategy.interval();
+
+        /*
+         * The listener to be notified about acquisitions and releases or <code>null</code>.
+         */
+        private LockListener listener;
+
+        /*
+         * The time after which the lease of an acquisition expires unless renewed in nanoseconds or 0 for no lease.
+         */
+        private long leaseTtlNanos;
+
+        /*
+         * The directory of the lock manager or <code>null</code> if the lock is not managed.
+         */
+        private File managerDirectory;
+
+        /*
+         * Whether the lock manager is started on demand.
+         */
+        private boolean startManager;
+
+        private Builder(final File syncFile) {
+            this.syncFile = syncFile;
+        }
+
+        /**
+         * Configures whether the lock is held by means of a lock word in the memory mapped synchronization file instead
+         * of a {@link FileLock}.
+         * <p/>
+         * Uncontended acquisition and release are a single atomic operation in shared memory without any system call.
+         * {@link FileLock}s are only used to detect processes that died while holding the lock, so the lock is still
+         * released automatically if the owning process is killed. Waiting works as in the default mode.
+         * <p/>
+         * All processes using the file must use the mapped mode, and the file must neither be deleted nor replaced
+         * while it is in use. At most {@value MappedSyncLock#MAX_SLOTS} processes can use the file at the same time.
+         *
+         * @param mapped <code>true</code> to use the memory mapped file
+         * @return this builder
+         */
+        public Builder mapped(final boolean mapped) {
+            this.mapped = mapped;
+            return this;
+        }
+
+        /**
+         * Configures whether the lock is acquired by processes in the order they started waiting for it.
+         * <p/>
+         * Each process waiting for a fair lock draws a ticket from a counter in the memory mapped synchronization file,
+         * so the lock is always held by means of the memory mapped file as with {@link #mapped(boolean)}. The lock is
+         * granted in ticket order and is not handed over between threads of the same JVM, which bounds the time a
+         * waiting process may be overtaken. Tickets of processes that gave up waiting or died are skipped.
+         * <p/>
+         * All processes using the file must use the same fairness.
+         *
+         * @param fair <code>true</code> to acquire the lock in arrival order
+         * @return this builder
+         */
+        public Builder fair(final boolean fair) {
+            this.fair = fair;
+            return this;
+        }
+
+        /**
+         * Configures the strategy determining the time to wait between lock attempts while the lock is held by another
+         * process. By default the lock is tried whenever a release is notified and in addition periodically in the
+         * try lock interval, see {@link WaitStrategy#interval()}.
+         *
+         * @param waitStrategy the strategy
+         * @return this builder
+         * @throws NullPointerException if <tt>waitStrategy</tt> is <code>null</code>
+         */
+        public Builder waitStrategy(final WaitStrategy waitStrategy) {
+            if (waitStrategy == null) {
+                throw new NullPointerException("waitStrategy");
+            }
+
+            this.waitStrategy = waitStrategy;
+            return this;
+        }
+
+        /**
+         * Configures a listener to be notified about acquisitions and releases, e.g. {@link LockMetrics}. Without
+         * listener no times are measured.
+         *
+         * @param listener the listener or <code>null</code> for none
+         * @return this builder
+         */
+        public Builder listener(final LockListener listener) {
+            this.listener = listener;
+            return this;
+        }
+
+        /**
+         * Configures that each acquisition holds a lease that expires after the given time unless it is renewed.
+         * <p/>
+         * Without lease the lock is only released automatically if the owning process dies, so a process that is
+         * alive but does not make progress anymore, e.g. because it is suspended, blocks all other processes forever.
+         * In lease mode the holder records the expiry time of its lease in the memory mapped synchronization file, and a
+         * background thread renews it in a third of the given time. Once the lease has expired, a waiting process
+         * takes the lock over as if the holder had died. The holder detects the loss by means of
+         * {@link IpLock#isLeaseValid()} and the fencing tokens of {@link LockHandle}s, which are increased by the
+         * takeover.
+         * <p/>
+         * The lock is always held by means of the memory mapped synchronization file as with {@link #mapped(boolean)},
+         * and the clocks of all processes using the file must be synchronized. Waiting processes take over expired
+         * leases regardless of whether they use lease mode themselves.
+         *
+         * @param ttl      the time after which the lease expires unless it is renewed
+         * @param timeUnit the {@link TimeUnit} of the <tt>ttl</tt> parameter
+         * @return this builder
+         * @throws IllegalArgumentException if <tt>ttl</tt> is not positive
+         */
+        public Builder lease(final long ttl, final TimeUnit timeUnit) {
+            if (ttl <= 0L) {
+                throw new IllegalArgumentException("ttl must be positive");
+            }
+
+            this.leaseTtlNanos = timeUnit.toNanos(ttl);
+            return this;
+        }
+
+        /**
+         * Configures whether the lock is granted by a local {@link LockManager} process, which is started on demand.
+         * <p/>
+         * The manager holds the {@link FileLock} on behalf of all its clients and grants the lock from an in-memory
+         * queue in the order of the requests, handing it over from one client to the next by a single message over a
+         * local socket. So processes contending for the same file do not poll it anymore. The manager detects clients
+         * that died by their closed connections and releases their locks.
+         * <p/>
+         * If there is no manager and none can be started, or if it dies, the lock falls back to the {@link FileLock} as
+         * in the default mode, which also excludes processes that do not use the manager. A process holding a lock
+         * granted by a manager that died loses it without releasing it, so the lock only excludes other processes as
+         * long as the manager is alive. The holder detects the loss by means of {@link IpLock#isLeaseValid()} and the
+         * fencing tokens of {@link LockHandle}s.
+         * <p/>
+         * {@link IpLock#tryLock()} neither starts a manager nor waits for one; unless this JVM is connected to a
+         * manager already, it tries the {@link FileLock} right away. Timed acquisitions wait for a manager started on
+         * demand no longer than their timeout.
+         * <p/>
+         * The manager uses the directory <tt>ip-lock-manager</tt> in the temporary directory. Managed mode cannot be
+         * combined with the mapped, fair or lease mode.
+         *
+         * @param managed <code>true</code> to let a lock manager grant the lock
+         * @return this builder
+         */
+        public Builder managed(final boolean managed) {
+            return managed(managed ? LockManager.defaultDirectory() : null, true);
+        }
+
+        /*
+         * Configures the lock to be granted by the lock manager of the given directory.
+         *
+         * @param managerDirectory the directory of the lock manager or <code>null</code> if the lock is not managed
+         * @param startManager     whether the lock manager is started on demand
+         * @return this builder
+         */
+        Builder managed(final File managerDirectory, final boolean startManager) {
+            this.managerDirectory = managerDirectory;
+            this.startManager = startManager;
+            return this;
+        }
+
+        /**
+         * Creates the lock object. The file will be created if it does not exist.
+         *
+         * @return the {@link IpLock}
+         * @throws UnsupportedOperationException if the mapped, fair or lease mode has been requested but this JVM does
+         *                                       not provide atomic operations on memory mapped files
+         * @throws IllegalStateException         if the managed mode has been combined with the mapped, fair or lease
+         *                                       mode
+         */
+        public IpLock build() {
+            boolean memoryMapped = this.mapped || this.fair || this.leaseTtlNanos > 0L;
+            if (this.managerDirectory != null) {
+                if (memoryMapped) {
+                    throw new IllegalStateException("managed mode cannot be combined with mapped, fair or lease mode");
+                }
+                return new IpLock(this.syncFile, LockMode.MANAGED, 0, this.waitStrategy, this.listener, 0L,
+                    this.managerDirectory, this.startManager);
+            }
+
+            if (!memoryMapped) {
+                return new IpLock(this.syncFile, LockMode.EXCLUSIVE, 0, this.waitStrategy, this.listener, 0L, null,
+                    false);
+            }
+
+            if (!MappedMemory.isSupported()) {
+                throw new UnsupportedOperationException("memory mapped locks are not supported by this JVM");
+            }
+            return new IpLock(this.syncFile, this.fair ? LockMode.MAPPED_FAIR : LockMode.MAPPED, 0, this.waitStrategy,
+                this.listener, this.leaseTtlNanos, null, false);
+        }
     }
 }
@@ -0,0 +1,369 @@
+/*
+ * Copyright (c) 2015 Andreas Klöber
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package ipLock;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The pending result of an asynchronous lock acquisition as started by {@link IpLock#lockAsync()}.
+ * <p/>
+ * The future completes with a {@link LockHandle} as soon as the lock has been acquired. If the acquisition times out,
+ * it completes exceptionally with a {@link TimeoutException}; if an I/O error occurs, with the respective
+ * {@link java.io.IOException}. Cancelling the future withdraws the acquisition: if the lock is acquired concurrently,
+ * it is released again immediately.
+ * <p/>
+ * Listeners are run once the future is done, whether it completed, failed or has been cancelled.
+ */
+public class IpLockFuture implements Future<LockHandle> {
+
+    /*
+     * The lock to be acquired.
+     */
+    private final IpLock lock;
+
+    /*
+     * Whether the acquisition has a timeout.
+     */
+    private final boolean timed;
+
+    /*
+     * The {@link System#nanoTime()} at which the timeout is reached if the acquisition is timed.
+     */
+    private final long deadline;
+
+    /*
+     * The {@link System#nanoTime()} at which the acquisition has been started.
+     */
+    private final long startTime = System.nanoTime();
+
+    /*
+     * Guards the state of the future; a {@link ReentrantLock} rather than a monitor, so virtual threads waiting for the
+     * result do not pin their carrier.
+     */
+    private final ReentrantLock stateGuard = new ReentrantLock();
+
+    /*
+     * Signaled when the future is done.
+     */
+    private final Condition doneCondition = this.stateGuard.newCondition();
+
+    /*
+     * The listeners and their executors to be run once done; guarded by {@link #stateGuard} and <code>null</code> once
+     * done.
+     */
+    private List<Listener> listeners = new ArrayList<>();
+
+    /*
+     * Whether the future is done; guarded by {@link #stateGuard}.
+     */
+    private boolean done;
+
+    /*
+     * Whether the future has been cancelled; guarded by {@link #stateGuard}.
+     */
+    private boolean cancelled;
+
+    /*
+     * The handle of the acquired lock; guarded by {@link #stateGuard}.
+     */
+    private LockHandle handle;
+
+    /*
+     * The cause of a failed acquisition; guarded by {@link #stateGuard}.
+     */
+    private Throwable failure;
+
+    IpLockFuture(final IpLock lock, final boolean timed, final long deadline) {
+        this.lock = lock;
+        this.timed = timed;
+        this.deadline = deadline;
+    }
+
+    /**
+     * Returns the lock to be acquired.
+     *
+     * @return the lock
+     */
+    IpLock getLock() {
+        return this.lock;
+    }
+
+    /**
+     * Returns the time at which the acquisition has been started.
+     *
+     * @return the {@link System#nanoTime()} at start
+     */
+    long getStartTime() {
+        return this.startTime;
+    }
+
+    /**
+     * Returns whether the acquisition has timed out.
+     *
+     * @param now the current {@link System#nanoTime()}
+     * @return <code>true</code> if the timeout has been reached
+     */
+    boolean isTimedOut(final long now) {
+        return this.timed && this.deadline - now <= 0L;
+    }
+
+    /**
+     * Returns the nanoseconds until the timeout is reached.
+     *
+     * @param now the current {@link System#nanoTime()}
+     * @return the remaining nanoseconds or {@link Long#MAX_VALUE} if the acquisition has no timeout
+     */
+    long remainingNanos(final long now) {
+        return this.timed ? this.deadline - now : Long.MAX_VALUE;
+    }
+
+    /**
+     * Completes the future with the handle of the acquired lock.
+     *
+     * @param lockHandle the handle of the acquired lock
+     * @return <code>true</code> if the future has been completed; <code>false</code> if it was already done, so the
+     * lock has to be released again
+     */
+    boolean complete(final LockHandle lockHandle) {
+        List<Listener> toRun;
+        this.stateGuard.lock();
+        try {
+            if (this.done) {
+                return false;
+            }
+
+            this.handle = lockHandle;
+            toRun = finish();
+        } finally {
+            this.stateGuard.unlock();
+        }
+
+        runAll(toRun);
+        return true;
+    }
+
+    /**
+     * Completes the future exceptionally.
+     *
+     * @param cause the cause of the failure
+     * @return <code>true</code> if the future has been completed; <code>false</code> if it was already done
+     */
+    boolean fail(final Throwable cause) {
+        List<Listener> toRun;
+        this.stateGuard.lock();
+        try {
+            if (this.done) {
+                return false;
+            }
+
+            this.failure = cause;
+            toRun = finish();
+        } finally {
+            this.stateGuard.unlock();
+        }
+
+        runAll(toRun);
+        return true;
+    }
+
+    /*
+     * Marks the future as done and returns the listeners to be run. Must be called while holding {@link #stateGuard}.
+     */
+    private List<Listener> finish() {
+        List<Listener> toRun = this.listeners;
+
+        this.done = true;
+        this.listeners = null;
+        this.doneCondition.signalAll();
+
+        return toRun;
+    }
+
+    /*
+     * Runs the given listeners.
+     */
+    private static void runAll(final List<Listener> toRun) {
+        for (Listener listener : toRun) {
+            listener.run();
+        }
+    }
+
+    /**
+     * Adds a listener that is run by the given executor once the future is done. If the future is already done, the
+     * listener is run immediately.
+     *
+     * @param listener the listener
+     * @param executor the executor that runs the listener
+     */
+    public void addListener(final Runnable listener, final Executor executor) {
+        Listener newListener = new Listener(listener, executor);
+
+        this.stateGuard.lock();
+        try {
+            if (!this.done) {
+                this.listeners.add(newListener);
+                return;
+            }
+        } finally {
+            this.stateGuard.unlock();
+        }
+
+        newListener.run();
+    }
+
+    /**
+     * Cancels the acquisition. The lock is not acquired afterwards; if it is acquired concurrently, it is released
+     * again immediately.
+     *
+     * @param mayInterruptIfRunning ignored as no thread is blocked on behalf of this acquisition
+     * @return <code>true</code> if the acquisition has been cancelled; <code>false</code> if it was already done
+     */
+    @Override
+    public boolean cancel(final boolean mayInterruptIfRunning) {
+        List<Listener> toRun;
+        this.stateGuard.lock();
+        try {
+            if (this.done) {
+                return false;
+            }
+
+            this.cancelled = true;
+            toRun = finish();
+        } finally {
+            this.stateGuard.unlock();
+        }
+
+        AsyncLockWaiter.getInstance().withdraw(this);
+        runAll(toRun);
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isCancelled() {
+        this.stateGuard.lock();
+        try {
+            return this.cancelled;
+        } finally {
+            this.stateGuard.unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isDone() {
+        this.stateGuard.lock();
+        try {
+            return this.done;
+        } finally {
+            this.stateGuard.unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public LockHandle get() throws InterruptedException, ExecutionException {
+        this.stateGuard.lock();
+        try {
+            while (!this.done) {
+                this.doneCondition.await();
+            }
+
+            return report();
+        } finally {
+            this.stateGuard.unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public LockHandle get(final long timeout, final TimeUnit unit)
+        throws InterruptedException, ExecutionException, TimeoutException {
+        long remainingNanos = unit.toNanos(timeout);
+
+        this.stateGuard.lock();
+        try {
+            while (!this.done) {
+                if (remainingNanos <= 0L) {
+                    throw new TimeoutException();
+                }
+                remainingNanos = this.doneCondition.awaitNanos(remainingNanos);
+            }
+
+            return report();
+        } finally {
+            this.stateGuard.unlock();
+        }
+    }
+
+    /*
+     * Returns the result of the done future. Must be called while holding {@link #stateGuard}.
+     */
+    private LockHandle report() throws ExecutionException {
+        if (this.cancelled) {
+            throw new CancellationException();
+        }
+        if (this.failure != null) {
+            throw new ExecutionException(this.failure);
+        }
+
+        return this.handle;
+    }
+
+    /*
+     * A listener together with its executor.
+     */
+    private static class Listener implements Runnable {
+
+        private final Runnable listener;
+
+        private final Executor executor;
+
+        Listener(final Runnable listener, final Executor executor) {
+            this.listener = listener;
+            this.executor = executor;
+        }
+
+        @Override
+        public void run() {
+            this.executor.execute(this.listener);
+        }
+    }
+}
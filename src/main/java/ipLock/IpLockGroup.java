@@ -0,0 +1,342 @@
+/*
+ * Copyright (c) 2015 Andreas Klöber
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package ipLock;
+
+import java.io.IOException;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A group of inter-process locks that are acquired and released together.
+ * <p/>
+ * The locks are acquired with all-or-nothing semantics: either all of them are held afterwards or none. To rule out
+ * deadlocks between processes acquiring overlapping groups, the locks are always acquired in the same global order,
+ * sorted by the canonical path of their synchronization file, and released in reverse order. Moreover the calling
+ * thread only ever waits while it holds none of the locks: if a lock is held by another process, all locks acquired so
+ * far are released and the thread waits for that lock before trying the others again, after a short randomized backoff
+ * that grows with each failed round.
+ * <p/>
+ * The group does not own the locks beyond {@link #close()}, so they may still be used individually while the group is
+ * not held. Two locks of a group must not use the same synchronization file unless they are different stripes of an
+ * {@link IpStripedLock}.
+ * <p/>
+ * This class is thread-safe: multiple threads can share a single {@link IpLockGroup} object without the need for
+ * external synchronization.
+ *
+ * @see IpLock
+ */
+public class IpLockGroup implements AutoCloseable {
+
+    /*
+     * Backoff before waiting for a contended lock again, so groups that keep taking locks away from each other do not
+     * retry in lockstep.
+     */
+    private static final WaitStrategy RETRY_BACKOFF = WaitStrategy.backoff(50L, 10000L, TimeUnit.MICROSECONDS);
+
+    /*
+     * The global acquisition order.
+     */
+    private static final Comparator<OrderedLock> ORDER = new Comparator<OrderedLock>() {
+
+        @Override
+        public int compare(final OrderedLock o1, final OrderedLock o2) {
+            int result = o1.path.compareTo(o2.path);
+            if (result != 0) {
+                return result;
+            }
+
+            return Integer.compare(o1.lock.getStripe(), o2.lock.getStripe());
+        }
+    };
+
+    /*
+     * The locks of the group as given.
+     */
+    private final IpLock[] locks;
+
+    /*
+     * The locks of the group in acquisition order; determined on demand as it requires the canonical paths.
+     */
+    private volatile IpLock[] orderedLocks;
+
+    /**
+     * Create a new group of the given locks.
+     *
+     * @param locks the locks to be acquired together
+     * @throws IllegalArgumentException if no lock is given
+     * @throws NullPointerException     if any lock is <code>null</code>
+     */
+    public IpLockGroup(final IpLock... locks) {
+        if (locks.length == 0) {
+            throw new IllegalArgumentException("no locks given");
+        }
+
+        for (IpLock lock : locks) {
+            if (lock == null) {
+                throw new NullPointerException("lock must not be null");
+            }
+        }
+
+        this.locks = locks.clone();
+    }
+
+    /*
+     * Returns the locks in acquisition order and determines it if this has not been done yet.
+     *
+     * @return the locks sorted by the canonical path of their synchronization file
+     * @throws IOException              if the canonical path of a synchronization file could not be determined
+     * @throws IllegalArgumentException if two locks use the same synchronization file and are not different stripes
+     */
+    private IpLock[] ordered() throws IOException {
+        IpLock[] ordered = this.orderedLocks;
+        if (ordered != null) {
+            return ordered;
+        }
+
+        OrderedLock[] keys = new OrderedLock[this.locks.length];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = new OrderedLock(this.locks[i]);
+        }
+        Arrays.sort(keys, ORDER);
+
+        ordered = new IpLock[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            if (i > 0 && keys[i - 1].path.equals(keys[i].path)
+                && (keys[i].lock.getMode() != LockMode.STRIPE || ORDER.compare(keys[i - 1], keys[i]) == 0)) {
+                throw new IllegalArgumentException("locks of a group must not use the same file: " + keys[i].path);
+            }
+            ordered[i] = keys[i].lock;
+        }
+
+        this.orderedLocks = ordered;
+        return ordered;
+    }
+
+    /**
+     * Acquires all locks of the group in a blocking way.
+     * <p/>
+     * This method waits indefinitely until all locks could be acquired. Interrupts are deferred until then.
+     *
+     * @throws IOException                  if a synchronization file could not be created (e.g. because of missing
+     *                                      write permissions in target folder) or if some other I/O error occurs on an
+     *                                      underlying {@link FileLock}
+     * @throws IllegalArgumentException     if two locks use the same synchronization file and are not different stripes
+     * @throws OverlappingFileLockException if the current thread already holds any of the locks
+     */
+    public void acquireAll() throws IOException {
+        try {
+            acquire(false, 0L, 0L);
+        } catch (InterruptedException e) {
+            // not thrown without timeout
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Acquires all locks of the group in a blocking way with a timeout.
+     * <p/>
+     * If the timeout limit is reached, none of the locks is held.
+     *
+     * @param timeout         the timeout limit
+     * @param tryLockInterval the maximum time interval between lock attempts if no notification is received
+     * @param timeUnit        the {@link TimeUnit} for both <tt>timeout</tt> and <tt>tryLockInterval</tt> parameters
+     * @return <code>true</code> if all locks could be acquired; <code>false</code> if there was a timeout
+     * @throws IOException                  if a synchronization file could not be created (e.g. because of missing
+     *                                      write permissions in target folder) or if some other I/O error occurs on an
+     *                                      underlying {@link FileLock}
+     * @throws InterruptedException         if the current thread is interrupted while waiting
+     * @throws IllegalArgumentException     if two locks use the same synchronization file and are not different stripes
+     * @throws OverlappingFileLockException if the current thread already holds any of the locks
+     */
+    public boolean acquireAll(long timeout, long tryLockInterval, TimeUnit timeUnit)
+        throws IOException, InterruptedException {
+        return acquire(true, System.nanoTime() + timeUnit.toNanos(timeout), timeUnit.toNanos(tryLockInterval));
+    }
+
+    /**
+     * Tries to acquire all locks of the group and returns immediately.
+     *
+     * @return <code>true</code> if all locks could be acquired; <code>false</code> if any of them is held by another
+     * process or thread, in which case none of them is held
+     * @throws IOException                  if a synchronization file could not be created (e.g. because of missing
+     *                                      write permissions in target folder) or if some other I/O error occurs on an
+     *                                      underlying {@link FileLock}
+     * @throws IllegalArgumentException     if two locks use the same synchronization file and are not different stripes
+     * @throws OverlappingFileLockException if the current thread already holds any of the locks
+     */
+    public boolean tryAcquireAll() throws IOException {
+        return tryLockAll(ordered(), -1) < 0;
+    }
+
+    /*
+     * Acquires all locks, waiting only while none of them is held.
+     *
+     * @param timed                whether to give up at the deadline
+     * @param deadline             the {@link System#nanoTime()} at which to give up
+     * @param tryLockIntervalNanos the maximum time between lock attempts in nanoseconds
+     * @return <code>true</code> if all locks could be acquired; <code>false</code> if there was a timeout
+     */
+    private boolean acquire(final boolean timed, final long deadline, final long tryLockIntervalNanos)
+        throws IOException, InterruptedException {
+        IpLock[] ordered = ordered();
+
+        // without timeout interrupts are deferred
+        boolean interrupted = false;
+        try {
+            // the first lock in order is waited for right away
+            int contended = 0;
+            for (int round = 1; ; round++) {
+                IpLock lock = ordered[contended];
+                if (!timed) {
+                    lock.lock();
+                    // cleared meanwhile, as it would cut the backoff short
+                    interrupted |= Thread.interrupted();
+                } else if (!lock.lock(Math.max(deadline - System.nanoTime(), 0L), tryLockIntervalNanos,
+                    TimeUnit.NANOSECONDS)) {
+                    return false;
+                }
+
+                contended = tryLockAll(ordered, contended);
+                if (contended < 0) {
+                    return true;
+                }
+
+                long backoffNanos = RETRY_BACKOFF.nextWaitNanos(round, 0L);
+                if (timed) {
+                    backoffNanos = Math.min(backoffNanos, deadline - System.nanoTime());
+                }
+                LockSupport.parkNanos(this, backoffNanos);
+                if (Thread.interrupted()) {
+                    if (timed) {
+                        throw new InterruptedException();
+                    }
+                    interrupted = true;
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /*
+     * Tries to acquire all locks in order except the one that is held already. If one of them cannot be acquired, all
+     * locks are released again in reverse order.
+     *
+     * @param ordered the locks in acquisition order
+     * @param held    the index of the lock held already or -1
+     * @return -1 if all locks are held; otherwise the index of the lock that could not be acquired
+     */
+    private static int tryLockAll(final IpLock[] ordered, final int held) throws IOException {
+        int acquired = 0;
+        int contended = -1;
+        try {
+            for (; acquired < ordered.length; acquired++) {
+                if (acquired != held && !ordered[acquired].tryLock()) {
+                    contended = acquired;
+                    break;
+                }
+            }
+        } finally {
+            if (acquired < ordered.length) {
+                // the lock waited for may come after the contended one
+                if (held > acquired) {
+                    ordered[held].unlock();
+                }
+                unlockAll(ordered, acquired);
+            }
+        }
+
+        return contended;
+    }
+
+    /*
+     * Releases the first locks in reverse order.
+     *
+     * @param ordered the locks in acquisition order
+     * @param count   the number of locks to be released
+     */
+    private static void unlockAll(final IpLock[] ordered, final int count) throws IOException {
+        IOException failure = null;
+        for (int i = count - 1; i >= 0; i--) {
+            try {
+                ordered[i].unlock();
+            } catch (IOException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Releases all locks of the group in reverse acquisition order. Locks that are not held are skipped.
+     *
+     * @throws IOException if some I/O error occurs on an underlying {@link FileLock}; the other locks are released
+     *                     nevertheless
+     */
+    public void releaseAll() throws IOException {
+        IpLock[] ordered = this.orderedLocks;
+        unlockAll(ordered != null ? ordered : this.locks, this.locks.length);
+    }
+
+    /**
+     * Releases all locks of the group if they are held and closes them.
+     *
+     * @throws IOException if an I/O error occurs while releasing a lock or closing its channel
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            releaseAll();
+        } finally {
+            for (IpLock lock : this.locks) {
+                lock.close();
+            }
+        }
+    }
+
+    /*
+     * A lock along with the canonical path of its synchronization file.
+     */
+    private static class OrderedLock {
+
+        final IpLock lock;
+
+        final String path;
+
+        OrderedLock(final IpLock lock) throws IOException {
+            this.lock = lock;
+            this.path = lock.getSyncFile().getCanonicalPath();
+        }
+    }
+}
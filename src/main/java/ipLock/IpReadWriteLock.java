@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2015 Andreas Klöber
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package ipLock;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileLock;
+
+/**
+ * An inter-process read-write lock for synchronization of multiple JVM based processes running on the same machine.
+ * <p/>
+ * The read lock may be held by multiple processes at the same time as long as no process holds the write lock. The
+ * write lock is exclusive. Both are provided as {@link IpLock} objects, so they offer the same API and guarantees: if
+ * the process that owns the lock finishes without releasing it, the lock is released automatically.
+ * <p/>
+ * With writer preference a process waiting for the write lock prevents other processes from acquiring the read lock,
+ * so writers do not starve if the read lock is held continuously. Writers always announce that they are waiting, so
+ * processes may choose writer preference independently; it only affects their readers.
+ * <p/>
+ * Acquisitions of the write lock carry fencing tokens like those of an {@link IpLock}, see {@link LockHandle}. The read
+ * lock is shared, so its holders cannot fence each other; its acquisitions carry the token 0.
+ * <p/>
+ * The synchronization is implemented based on shared and exclusive {@link FileLock}s on regions of the synchronization
+ * file, which therefore must not be used by an {@link IpLock} at the same time.
+ * <p/>
+ * This class is thread-safe: multiple threads can share a single
+ * {@link IpReadWriteLock} object without the need for external synchronization. Within a JVM a thread waiting for the
+ * write lock prevents other threads from acquiring the read lock in any case. Neither lock is reentrant, so a thread
+ * holding the read lock must not request the write lock.
+ *
+ * @see java.nio.channels.FileLock
+ */
+public class IpReadWriteLock implements AutoCloseable {
+
+    /*
+     * The read lock.
+     */
+    private final IpLock readLock;
+
+    /*
+     * The write lock.
+     */
+    private final IpLock writeLock;
+
+    /**
+     * Create a new read-write lock object without writer preference that uses the given file for synchronization. The
+     * file will be created if it does not exist.
+     *
+     * @param syncFile the file to be used for synchronization
+     */
+    public IpReadWriteLock(final File syncFile) {
+        this(syncFile, false);
+    }
+
+    /**
+     * Create a new read-write lock object that uses the given file for synchronization. The file will be created if it
+     * does not exist.
+     *
+     * @param syncFile         the file to be used for synchronization
+     * @param writerPreference whether waiting writers prevent readers from acquiring the lock
+     */
+    public IpReadWriteLock(final File syncFile, final boolean writerPreference) {
+        this.readLock = new IpLock(syncFile, writerPreference ? LockMode.READ_WRITER_PREFERENCE : LockMode.READ);
+        this.writeLock = new IpLock(syncFile, LockMode.WRITE);
+    }
+
+    /**
+     * Create a new read-write lock object without writer preference that uses the given file for synchronization. The
+     * file will be created if it does not exist.
+     *
+     * @param syncFilePath path to the file to be used for synchronization
+     */
+    public IpReadWriteLock(final String syncFilePath) {
+        this(new File(syncFilePath));
+    }
+
+    /**
+     * Create a new read-write lock object that uses the given file for synchronization. The file will be created if it
+     * does not exist.
+     *
+     * @param syncFilePath     path to the file to be used for synchronization
+     * @param writerPreference whether waiting writers prevent readers from acquiring the lock
+     */
+    public IpReadWriteLock(final String syncFilePath, final boolean writerPreference) {
+        this(new File(syncFilePath), writerPreference);
+    }
+
+    /**
+     * Returns the read lock. It may be held by multiple processes and threads at the same time.
+     *
+     * @return the read lock
+     */
+    public IpLock readLock() {
+        return this.readLock;
+    }
+
+    /**
+     * Returns the write lock. It is exclusive.
+     *
+     * @return the write lock
+     */
+    public IpLock writeLock() {
+        return this.writeLock;
+    }
+
+    /**
+     * Releases both locks if they are held and closes the underlying synchronization channel unless it is still used
+     * by other lock objects of this JVM.
+     *
+     * @throws IOException if an I/O error occurs while closing the channel
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            this.readLock.close();
+        } finally {
+            this.writeLock.close();
+        }
+    }
+}
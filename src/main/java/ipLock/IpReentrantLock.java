@@ -0,0 +1,241 @@
+/*
+ * Copyright (c) 2015 Andreas Klöber
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package ipLock;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileLock;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A reentrant inter-process lock for synchronization of multiple JVM based processes running on the same machine.
+ * <p/>
+ * In contrast to {@link IpLock} the lock is owned by the thread that acquired it, which may acquire it again without
+ * blocking. The owner and its hold count are tracked locally, so only the outermost acquisition and release touch the
+ * underlying {@link IpLock}; nested ones cost no system call. The lock must be released as often as it has been
+ * acquired before other threads and processes can acquire it. If the owning process finishes without releasing it, the
+ * lock is released automatically.
+ * <p/>
+ * This class is thread-safe: multiple threads can share a single {@link IpReentrantLock} object without the need for
+ * external synchronization.
+ *
+ * @see IpLock
+ */
+public class IpReentrantLock implements AutoCloseable {
+
+    /*
+     * The underlying lock, which is held while the hold count is positive.
+     */
+    private final IpLock lock;
+
+    /*
+     * The thread owning the lock or <code>null</code> if it is not held.
+     */
+    private volatile Thread owner;
+
+    /*
+     * Number of times the owner has acquired the lock without releasing it; only accessed by the owner.
+     */
+    private int holdCount;
+
+    /**
+     * Create a new reentrant lock object that uses the given file for synchronization. The file will be created if it
+     * does not exist.
+     *
+     * @param syncFile the file to be used for synchronization
+     */
+    public IpReentrantLock(final File syncFile) {
+        this(new IpLock(syncFile));
+    }
+
+    /**
+     * Create a new reentrant lock object that uses the given file for synchronization. The file will be created if it
+     * does not exist.
+     *
+     * @param syncFilePath path to the file to be used for synchronization
+     */
+    public IpReentrantLock(final String syncFilePath) {
+        this(new File(syncFilePath));
+    }
+
+    /**
+     * Create a new reentrant lock object on top of the given lock, e.g. one created by {@link IpLock#builder(File)}.
+     * The given lock must not be used directly anymore.
+     *
+     * @param lock the underlying lock
+     */
+    public IpReentrantLock(final IpLock lock) {
+        this.lock = lock;
+    }
+
+    /*
+     * Increments the hold count if the current thread owns the lock already.
+     *
+     * @return <code>true</code> if the current thread owns the lock
+     */
+    private boolean reenter() {
+        if (this.owner != Thread.currentThread()) {
+            return false;
+        }
+
+        if (this.holdCount == Integer.MAX_VALUE) {
+            throw new Error("maximum lock count exceeded");
+        }
+        this.holdCount++;
+        return true;
+    }
+
+    /*
+     * Makes the current thread the owner after the underlying lock has been acquired.
+     */
+    private void enter() {
+        this.holdCount = 1;
+        this.owner = Thread.currentThread();
+    }
+
+    /**
+     * Acquires the lock in a blocking way. If the current thread holds the lock already, the hold count is incremented
+     * and the method returns immediately.
+     *
+     * @throws IOException if the synchronization file could not be created,
+     *                     e.g. because of missing write permissions in target folder
+     * @see IpLock#lock()
+     */
+    public void lock() throws IOException {
+        if (reenter()) {
+            return;
+        }
+
+        this.lock.lock();
+        enter();
+    }
+
+    /**
+     * Acquires the lock in a blocking way with a timeout. If the current thread holds the lock already, the hold count
+     * is incremented and the method returns immediately.
+     *
+     * @param timeout         the timeout limit
+     * @param tryLockInterval the maximum time interval between lock attempts if no notification is received
+     * @param timeUnit        the {@link TimeUnit} for both <tt>timeout</tt> and <tt>tryLockInterval</tt> parameters
+     * @return <code>true</code> if the lock could be acquired; <code>false</code> if there was a timeout
+     * @throws IOException          if the synchronization file could not be created (e.g. because of missing write
+     *                              permissions in target folder) or if some other I/O error occurs on the underlying
+     *                              {@link FileLock}
+     * @throws InterruptedException if the current thread is interrupted while waiting
+     * @see IpLock#lock(long, long, TimeUnit)
+     */
+    public boolean lock(long timeout, long tryLockInterval, TimeUnit timeUnit) throws IOException, InterruptedException {
+        if (reenter()) {
+            return true;
+        }
+
+        if (!this.lock.lock(timeout, tryLockInterval, timeUnit)) {
+            return false;
+        }
+
+        enter();
+        return true;
+    }
+
+    /**
+     * Tries to acquire the lock and returns immediately. If the current thread holds the lock already, the hold count
+     * is incremented.
+     *
+     * @return <code>true</code> if the lock could be acquired; <code>false</code> if it is held by another thread or
+     * process
+     * @throws IOException if the synchronization file could not be created (e.g. because of missing write permissions
+     *                     in target folder) or if some other I/O error occurs on the underlying {@link FileLock}
+     * @see IpLock#tryLock()
+     */
+    public boolean tryLock() throws IOException {
+        if (reenter()) {
+            return true;
+        }
+
+        if (!this.lock.tryLock()) {
+            return false;
+        }
+
+        enter();
+        return true;
+    }
+
+    /**
+     * Decrements the hold count and releases the lock when it reaches zero.
+     *
+     * @throws IllegalMonitorStateException if the current thread does not hold the lock
+     * @throws IOException                  if some I/O error occurs on the underlying {@link FileLock}
+     */
+    public void unlock() throws IOException {
+        if (this.owner != Thread.currentThread()) {
+            throw new IllegalMonitorStateException("lock is not held by the current thread");
+        }
+
+        if (--this.holdCount > 0) {
+            return;
+        }
+
+        this.owner = null;
+        this.lock.unlock();
+    }
+
+    /**
+     * Returns whether the current thread holds the lock.
+     *
+     * @return <code>true</code> if the current thread holds the lock
+     */
+    public boolean isHeldByCurrentThread() {
+        return this.owner == Thread.currentThread();
+    }
+
+    /**
+     * Returns the number of times the current thread has acquired the lock without releasing it.
+     *
+     * @return the hold count or zero if the current thread does not hold the lock
+     */
+    public int getHoldCount() {
+        return isHeldByCurrentThread() ? this.holdCount : 0;
+    }
+
+    /**
+     * Releases the lock regardless of the hold count if it is held by the current thread and closes the underlying
+     * synchronization channel unless it is still used by other lock objects of this JVM.
+     *
+     * @throws IllegalMonitorStateException if the lock is held by another thread, which keeps holding it
+     * @throws IOException                  if an I/O error occurs while closing the channel
+     */
+    @Override
+    public void close() throws IOException {
+        Thread currentOwner = this.owner;
+        if (currentOwner != null && currentOwner != Thread.currentThread()) {
+            throw new IllegalMonitorStateException("lock is held by another thread");
+        }
+
+        if (currentOwner != null) {
+            this.holdCount = 0;
+            this.owner = null;
+        }
+
+        this.lock.close();
+    }
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright (c) 2015 Andreas Klöber
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package ipLock;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileLock;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An inter-process counting semaphore for limiting the number of JVM based processes running on the same machine that
+ * access a resource at the same time.
+ * <p/>
+ * If a process that holds a permit finishes without releasing it, the permit is released automatically. This is also
+ * valid if the process is destroyed or killed.
+ * <p/>
+ * The synchronization is implemented based on {@link FileLock}s on single bytes of the synchronization file, one for
+ * each permit. A permit is acquired by locking any of them that is free. The file therefore must not be used by an
+ * {@link IpLock} or any other lock object at the same time, and all processes must use the same number of permits.
+ * <p/>
+ * This class is thread-safe: multiple threads can share a single {@link IpSemaphore} object without the need for
+ * external synchronization. Permits are not bound to the thread that acquired them, so they may be released by another
+ * thread.
+ *
+ * @see java.nio.channels.FileLock
+ */
+public class IpSemaphore implements AutoCloseable {
+
+    /*
+     * The synchronization file.
+     */
+    private final File syncFile;
+
+    /*
+     * The number of permits.
+     */
+    private final int permits;
+
+    /*
+     * The synchronization file shared with all other lock objects of this JVM using the same file; acquired on demand
+     * and released on {@link #close()}.
+     */
+    private SyncFile sync;
+
+    /*
+     * The permits shared with all other semaphore objects of this JVM using the same file.
+     */
+    private SyncSlots slots;
+
+    /*
+     * The permits held by this object; guarded by this.
+     */
+    private final Deque<FileLock> heldPermits = new ArrayDeque<>();
+
+    /**
+     * Create a new semaphore object that uses the given file for synchronization. The file will be created if it does
+     * not exist.
+     *
+     * @param syncFile the file to be used for synchronization
+     * @param permits  the number of processes that may hold a permit at the same time
+     * @throws IllegalArgumentException if <tt>permits</tt> is not positive
+     */
+    public IpSemaphore(final File syncFile, final int permits) {
+        if (permits <= 0) {
+            throw new IllegalArgumentException("number of permits must be positive: " + permits);
+        }
+
+        this.syncFile = syncFile;
+        this.permits = permits;
+    }
+
+    /**
+     * Create a new semaphore object that uses the given file for synchronization. The file will be created if it does
+     * not exist.
+     *
+     * @param syncFilePath path to the file to be used for synchronization
+     * @param permits      the number of processes that may hold a permit at the same time
+     * @throws IllegalArgumentException if <tt>permits</tt> is not positive
+     */
+    public IpSemaphore(final String syncFilePath, final int permits) {
+        this(new File(syncFilePath), permits);
+    }
+
+    /*
+     * Returns the shared permits and acquires the synchronization file if this has not been done yet.
+     *
+     * @return the {@link SyncSlots}
+     * @throws IOException if the canonical path of the synchronization file could not be determined
+     */
+    private synchronized SyncSlots openSync() throws IOException {
+        if (this.sync == null) {
+            SyncFile newSync = SyncFile.acquire(this.syncFile);
+            try {
+                this.slots = newSync.getSlots(this.permits);
+            } catch (IllegalArgumentException e) {
+                newSync.release();
+                throw e;
+            }
+            this.sync = newSync;
+        }
+
+        return this.slots;
+    }
+
+    /*
+     * Records the given permit as held by this object.
+     */
+    private synchronized void addPermit(final FileLock permit) {
+        this.heldPermits.push(permit);
+    }
+
+    /**
+     * Acquires a permit in a blocking way.
+     * <p/>
+     * This method waits indefinitely until a permit could be acquired. Permits are tried whenever another process
+     * notifies about a release and in addition periodically.
+     *
+     * @throws IOException          if the synchronization file could not be created,
+     *                              e.g. because of missing write permissions in target folder
+     * @throws InterruptedException if the current thread is interrupted while waiting
+     */
+    public void acquire() throws IOException, InterruptedException {
+        addPermit(openSync().acquire(false, 0L, SyncFile.DEFAULT_TRY_LOCK_INTERVAL_NANOS));
+    }
+
+    /**
+     * Acquires a permit in a blocking way with a timeout.
+     * <p/>
+     * Permits are tried whenever another process notifies about a release until this is successful or the timeout
+     * limit is reached. As notifications may not be supported natively on every platform, permits are also tried
+     * periodically in the given interval.
+     *
+     * @param timeout         the timeout limit
+     * @param tryLockInterval the maximum time interval between attempts if no notification is received
+     * @param timeUnit        the {@link TimeUnit} for both <tt>timeout</tt> and <tt>tryLockInterval</tt> parameters
+     * @return <code>true</code> if a permit could be acquired; <code>false</code> if there was a timeout
+     * @throws IOException          if the synchronization file could not be created (e.g. because of missing write
+     *                              permissions in target folder) or if some other I/O error occurs on the underlying
+     *                              {@link FileLock}
+     * @throws InterruptedException if the current thread is interrupted while waiting
+     */
+    public boolean tryAcquire(long timeout, long tryLockInterval, TimeUnit timeUnit)
+        throws IOException, InterruptedException {
+        long deadline = System.nanoTime() + timeUnit.toNanos(timeout);
+        FileLock permit = openSync().acquire(true, deadline, timeUnit.toNanos(tryLockInterval));
+        if (permit == null) {
+            return false;
+        }
+
+        addPermit(permit);
+        return true;
+    }
+
+    /**
+     * Tries to acquire a permit and returns immediately.
+     *
+     * @return <code>true</code> if a permit could be acquired; <code>false</code> if all permits are held
+     * @throws IOException if the synchronization file could not be created (e.g. because of missing write permissions
+     *                     in target folder) or if some other I/O error occurs on the underlying {@link FileLock}
+     */
+    public boolean tryAcquire() throws IOException {
+        FileLock permit = openSync().tryAcquire();
+        if (permit == null) {
+            return false;
+        }
+
+        addPermit(permit);
+        return true;
+    }
+
+    /**
+     * Releases a permit held by this object.
+     * <p/>
+     * If no permit has been acquired before, this method returns immediately.
+     *
+     * @throws IOException if some I/O error occurs on the underlying {@link FileLock}
+     */
+    public void release() throws IOException {
+        FileLock permit;
+        SyncSlots currentSlots;
+        synchronized (this) {
+            permit = this.heldPermits.poll();
+            currentSlots = this.slots;
+        }
+
+        if (permit != null) {
+            currentSlots.release(permit);
+        }
+    }
+
+    /**
+     * Releases all permits held by this object and closes the underlying synchronization channel unless it is still
+     * used by other lock objects of this JVM.
+     * <p/>
+     * The object may be used again afterwards, in which case the channel is reopened on the next attempt. It must not
+     * be closed while other threads are waiting for a permit.
+     *
+     * @throws IOException if an I/O error occurs while closing the channel
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            while (true) {
+                synchronized (this) {
+                    if (this.heldPermits.isEmpty()) {
+                        break;
+                    }
+                }
+                release();
+            }
+        } finally {
+            synchronized (this) {
+                if (this.sync != null) {
+                    this.sync.release();
+                    this.sync = null;
+                    this.slots = null;
+                }
+            }
+        }
+    }
+}
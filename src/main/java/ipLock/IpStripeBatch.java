@@ -0,0 +1,392 @@
+/*
+ * Copyright (c) 2015 Andreas Klöber
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package ipLock;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A batch of stripes of an {@link IpStripedLock} that are acquired and released together, e.g. the stripes of all keys
+ * processed by one unit of work.
+ * <p/>
+ * Locking each stripe on its own costs a {@link FileLock} request per stripe. A batch instead coalesces adjacent
+ * stripes, which are adjacent bytes of the synchronization file, into ranges and locks each range by a single
+ * {@link FileLock} request. The fewer stripes a striped lock has in relation to the number of keys of a batch, the
+ * fewer ranges remain; with no more stripes than keys a batch typically needs a single request.
+ * <p/>
+ * To rule out deadlocks, the ranges are acquired in ascending order of their position, like the stripes of an
+ * {@link IpLockGroup}, while a single stripe is never held while waiting for another one. A batch waits for a range
+ * while holding the ranges before it, so other processes may proceed with stripes that are not part of the batch in
+ * the meantime. If the acquisition of a batch fails or times out, none of its stripes is held.
+ * <p/>
+ * A batch is held by one thread at a time; other threads acquiring the same batch wait for it. The locks of the stripes
+ * are not reentrant, so the thread must not hold any stripe of the batch by other means at the same time.
+ *
+ * @see IpStripedLock#batch(java.util.Collection)
+ */
+public class IpStripeBatch implements AutoCloseable {
+
+    /*
+     * The synchronization file.
+     */
+    private final File syncFile;
+
+    /*
+     * The indexes of the stripes in ascending order without duplicates.
+     */
+    private final int[] stripes;
+
+    /*
+     * The index into {@link #stripes} at which each range starts, followed by the number of stripes.
+     */
+    private final int[] rangeStarts;
+
+    /*
+     * The synchronization file or <code>null</code> if it has not been acquired yet; guarded by this.
+     */
+    private SyncFile sync;
+
+    /*
+     * The locks of the stripes, in the order of {@link #stripes}; guarded by this.
+     */
+    private ExclusiveSyncLock[] stripeLocks;
+
+    /*
+     * The {@link FileLock}s of the ranges held by the current acquisition or <code>null</code> if the batch is not
+     * held; only set while holding the permits of all stripes, but may be released by any thread.
+     */
+    private volatile List<FileLock> fileLocks;
+
+    /**
+     * Create a new batch of the given stripes of the given file.
+     *
+     * @param syncFile the file to be used for synchronization
+     * @param stripes  the indexes of the stripes in any order, possibly with duplicates
+     * @throws IllegalArgumentException if no stripe is given
+     */
+    IpStripeBatch(final File syncFile, final int[] stripes) {
+        if (stripes.length == 0) {
+            throw new IllegalArgumentException("no stripes given");
+        }
+
+        int[] sorted = stripes.clone();
+        Arrays.sort(sorted);
+        int count = 0;
+        for (int stripe : sorted) {
+            if (count == 0 || sorted[count - 1] != stripe) {
+                sorted[count++] = stripe;
+            }
+        }
+
+        int ranges = 0;
+        int[] starts = new int[count + 1];
+        for (int i = 0; i < count; i++) {
+            if (i == 0 || sorted[i - 1] + 1 != sorted[i]) {
+                starts[ranges++] = i;
+            }
+        }
+        starts[ranges] = count;
+
+        this.syncFile = syncFile;
+        this.stripes = Arrays.copyOf(sorted, count);
+        this.rangeStarts = Arrays.copyOf(starts, ranges + 1);
+    }
+
+    /*
+     * Returns the locks of the stripes and acquires the synchronization file if this has not been done yet.
+     */
+    private synchronized ExclusiveSyncLock[] openSync() throws IOException {
+        if (this.sync == null) {
+            SyncFile newSync = SyncFile.acquire(this.syncFile);
+            ExclusiveSyncLock[] locks = new ExclusiveSyncLock[this.stripes.length];
+            for (int i = 0; i < locks.length; i++) {
+                locks[i] = (ExclusiveSyncLock) newSync.getStripeLock(this.stripes[i]);
+            }
+
+            this.sync = newSync;
+            this.stripeLocks = locks;
+        }
+
+        return this.stripeLocks;
+    }
+
+    /*
+     * Returns the synchronization file, which must have been acquired.
+     */
+    private synchronized SyncFile getSync() {
+        return this.sync;
+    }
+
+    /**
+     * Returns the number of distinct stripes of the batch.
+     *
+     * @return the number of stripes
+     */
+    public int size() {
+        return this.stripes.length;
+    }
+
+    /**
+     * Returns the number of ranges of adjacent stripes, which is the maximum number of {@link FileLock} requests
+     * needed for acquiring the batch.
+     *
+     * @return the number of ranges
+     */
+    public int getRangeCount() {
+        return this.rangeStarts.length - 1;
+    }
+
+    /**
+     * Acquires all stripes of the batch in a blocking way.
+     * <p/>
+     * This method waits indefinitely until all stripes could be acquired. Interrupts are deferred until then.
+     *
+     * @throws IOException                  if the synchronization file could not be created (e.g. because of missing
+     *                                      write permissions in target folder) or if some other I/O error occurs on an
+     *                                      underlying {@link FileLock}
+     * @throws OverlappingFileLockException if the current thread already holds any of the stripes
+     */
+    public void acquireAll() throws IOException {
+        try {
+            acquire(false, false, 0L, 0L);
+        } catch (InterruptedException e) {
+            // not thrown without timeout
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Acquires all stripes of the batch in a blocking way with a timeout.
+     * <p/>
+     * If the timeout limit is reached, none of the stripes is held.
+     *
+     * @param timeout         the timeout limit
+     * @param tryLockInterval the maximum time interval between lock attempts if no notification is received
+     * @param timeUnit        the {@link TimeUnit} for both <tt>timeout</tt> and <tt>tryLockInterval</tt> parameters
+     * @return <code>true</code> if all stripes could be acquired; <code>false</code> if there was a timeout
+     * @throws IOException                  if the synchronization file could not be created (e.g. because of missing
+     *                                      write permissions in target folder) or if some other I/O error occurs on an
+     *                                      underlying {@link FileLock}
+     * @throws InterruptedException         if the current thread is interrupted while waiting
+     * @throws OverlappingFileLockException if the current thread already holds any of the stripes
+     */
+    public boolean acquireAll(long timeout, long tryLockInterval, TimeUnit timeUnit)
+        throws IOException, InterruptedException {
+        return acquire(false, true, System.nanoTime() + timeUnit.toNanos(timeout), timeUnit.toNanos(tryLockInterval));
+    }
+
+    /**
+     * Tries to acquire all stripes of the batch and returns immediately.
+     *
+     * @return <code>true</code> if all stripes could be acquired; <code>false</code> if any of them is held by another
+     * process or thread, in which case none of them is held
+     * @throws IOException                  if the synchronization file could not be created (e.g. because of missing
+     *                                      write permissions in target folder) or if some other I/O error occurs on an
+     *                                      underlying {@link FileLock}
+     * @throws OverlappingFileLockException if the current thread already holds any of the stripes
+     */
+    public boolean tryAcquireAll() throws IOException {
+        try {
+            return acquire(true, false, 0L, 0L);
+        } catch (InterruptedException e) {
+            // not thrown without waiting
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /*
+     * Acquires the ranges in ascending order: first the permits of their stripes, then a single {@link FileLock} for
+     * each part of the range whose {@link FileLock} has not been retained for this thread by a previous holder of a
+     * stripe. Releases everything again if this fails.
+     *
+     * @param once                 whether to try only once
+     * @param timed                whether to give up at the deadline
+     * @param deadline             the {@link System#nanoTime()} at which to give up
+     * @param tryLockIntervalNanos the maximum time between lock attempts in nanoseconds
+     * @return <code>true</code> if all stripes could be acquired; <code>false</code> if there was a timeout
+     */
+    private boolean acquire(final boolean once, final boolean timed, final long deadline,
+                            final long tryLockIntervalNanos) throws IOException, InterruptedException {
+        ExclusiveSyncLock[] locks = openSync();
+        SyncFile currentSync = getSync();
+
+        List<FileLock> acquiredLocks = new ArrayList<>(getRangeCount());
+        int permitted = 0;
+        boolean acquired = false;
+        try {
+            for (int range = 0; range < this.rangeStarts.length - 1; range++) {
+                int end = this.rangeStarts[range + 1];
+                for (; permitted < end; permitted++) {
+                    if (!acquirePermit(locks[permitted], once, timed, deadline)) {
+                        return false;
+                    }
+                }
+
+                int partStart = -1;
+                for (int i = this.rangeStarts[range]; i <= end; i++) {
+                    boolean pending = i < end && !locks[i].isFileLockRetained();
+                    if (pending && partStart < 0) {
+                        partStart = i;
+                    } else if (!pending && partStart >= 0) {
+                        long position = this.stripes[partStart];
+                        FileLock fileLock = lockRegion(currentSync, position, this.stripes[i - 1] - position + 1L,
+                            once, timed, deadline, tryLockIntervalNanos);
+                        if (fileLock == null) {
+                            return false;
+                        }
+                        acquiredLocks.add(fileLock);
+                        partStart = -1;
+                    }
+                }
+            }
+
+            this.fileLocks = acquiredLocks;
+            acquired = true;
+            return true;
+        } finally {
+            if (!acquired) {
+                release(locks, currentSync, acquiredLocks, permitted);
+            }
+        }
+    }
+
+    /*
+     * Acquires the permit of the given stripe.
+     *
+     * @return <code>true</code> if the permit could be acquired; <code>false</code> otherwise
+     */
+    private static boolean acquirePermit(final ExclusiveSyncLock lock, final boolean once, final boolean timed,
+                                         final long deadline) throws IOException, InterruptedException {
+        if (once) {
+            return lock.tryAcquirePermit();
+        }
+        if (timed) {
+            return lock.tryAcquirePermit(Math.max(deadline - System.nanoTime(), 0L));
+        }
+
+        lock.acquirePermit();
+        return true;
+    }
+
+    /*
+     * Acquires a {@link FileLock} on the given region.
+     *
+     * @return the {@link FileLock} or <code>null</code> if it could not be acquired
+     */
+    private static FileLock lockRegion(final SyncFile sync, final long position, final long size, final boolean once,
+                                       final boolean timed, final long deadline, final long tryLockIntervalNanos)
+        throws IOException, InterruptedException {
+        if (once) {
+            return sync.tryLockRegion(position, size, false);
+        }
+        if (timed) {
+            return sync.lockRegion(position, size, false, deadline, tryLockIntervalNanos, WaitStrategy.interval());
+        }
+        return sync.lockRegion(position, size, false, WaitStrategy.interval());
+    }
+
+    /*
+     * Releases the {@link FileLock}s of the ranges, which notifies waiting processes, and afterwards the permits of the
+     * first stripes in reverse order, which also releases {@link FileLock}s retained for single stripes.
+     */
+    private static void release(final ExclusiveSyncLock[] locks, final SyncFile currentSync,
+                                final List<FileLock> fileLocks, final int permitted) throws IOException {
+        IOException failure = null;
+        for (int i = fileLocks.size() - 1; i >= 0; i--) {
+            try {
+                currentSync.releaseRegion(fileLocks.get(i));
+            } catch (IOException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+
+        for (int i = permitted - 1; i >= 0; i--) {
+            try {
+                locks[i].unlock();
+            } catch (IOException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Releases all stripes of the batch. If the batch is not held, this method returns immediately.
+     *
+     * @throws IOException if some I/O error occurs on an underlying {@link FileLock}; the other stripes are released
+     *                     nevertheless
+     */
+    public void releaseAll() throws IOException {
+        ExclusiveSyncLock[] locks;
+        SyncFile currentSync;
+        synchronized (this) {
+            locks = this.stripeLocks;
+            currentSync = this.sync;
+        }
+
+        List<FileLock> heldLocks = this.fileLocks;
+        if (locks == null || heldLocks == null) {
+            // there is no lock
+            return;
+        }
+
+        this.fileLocks = null;
+        release(locks, currentSync, heldLocks, locks.length);
+    }
+
+    /**
+     * Releases all stripes of the batch if they are held and closes the underlying synchronization channel unless it is
+     * still used by other lock objects of this JVM.
+     * <p/>
+     * The batch may be used again afterwards, in which case the channel is reopened on the next acquisition.
+     *
+     * @throws IOException if an I/O error occurs while releasing a stripe or closing the channel
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            releaseAll();
+        } finally {
+            synchronized (this) {
+                if (this.sync != null) {
+                    this.sync.release();
+                    this.sync = null;
+                    this.stripeLocks = null;
+                }
+            }
+        }
+    }
+}
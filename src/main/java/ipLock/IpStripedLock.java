@@ -0,0 +1,188 @@
+/*
+ * Copyright (c) 2015 Andreas Klöber
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package ipLock;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileLock;
+import java.util.Collection;
+
+/**
+ * A set of inter-process locks for synchronization of multiple JVM based processes running on the same machine that
+ * is indexed by arbitrary keys.
+ * <p/>
+ * Keys are mapped onto a fixed number of stripes by their hash code, so equal keys always share a lock while unrelated
+ * keys are likely to get different locks that can be held by different processes at the same time. Each stripe is
+ * provided as an {@link IpLock} object, so it offers the same API and guarantees: if the process that owns the lock
+ * finishes without releasing it, the lock is released automatically.
+ * <p/>
+ * The synchronization is implemented based on {@link FileLock}s on single bytes of one synchronization file, so a JVM
+ * needs only one file descriptor for all stripes. The file therefore must not be used by an {@link IpLock} or
+ * {@link IpReadWriteLock} at the same time, and all processes must use the same number of stripes. A release of any
+ * stripe wakes up all processes waiting for a stripe of the same file, which then retry.
+ * <p/>
+ * This class is thread-safe: multiple threads can share a single {@link IpStripedLock} object without the need for
+ * external synchronization. As the locks of the stripes are not reentrant, a thread must not hold the locks of two keys
+ * that map onto the same stripe at the same time.
+ *
+ * @see java.nio.channels.FileLock
+ */
+public class IpStripedLock implements AutoCloseable {
+
+    /*
+     * The synchronization file.
+     */
+    private final File syncFile;
+
+    /*
+     * The locks of the stripes.
+     */
+    private final IpLock[] stripes;
+
+    /**
+     * Create a new striped lock object that uses the given file for synchronization. The file will be created if it
+     * does not exist.
+     *
+     * @param syncFile the file to be used for synchronization
+     * @param stripes  the number of stripes
+     * @throws IllegalArgumentException if <tt>stripes</tt> is not positive
+     */
+    public IpStripedLock(final File syncFile, final int stripes) {
+        if (stripes <= 0) {
+            throw new IllegalArgumentException("number of stripes must be positive: " + stripes);
+        }
+
+        this.syncFile = syncFile;
+        this.stripes = new IpLock[stripes];
+        for (int i = 0; i < stripes; i++) {
+            this.stripes[i] = new IpLock(syncFile, i);
+        }
+    }
+
+    /**
+     * Create a new striped lock object that uses the given file for synchronization. The file will be created if it
+     * does not exist.
+     *
+     * @param syncFilePath path to the file to be used for synchronization
+     * @param stripes      the number of stripes
+     * @throws IllegalArgumentException if <tt>stripes</tt> is not positive
+     */
+    public IpStripedLock(final String syncFilePath, final int stripes) {
+        this(new File(syncFilePath), stripes);
+    }
+
+    /*
+     * Spreads the bits of the given hash code, so keys with poor hash codes are distributed over the stripes, too.
+     */
+    private static int spread(final int hashCode) {
+        int h = hashCode * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Returns the lock of the stripe the given key is mapped onto. Equal keys are mapped onto the same stripe in all
+     * processes as long as their hash code is stable, e.g. for strings and numbers.
+     *
+     * @param key the key
+     * @return the lock of the stripe
+     * @throws NullPointerException if <tt>key</tt> is <code>null</code>
+     */
+    public IpLock get(final Object key) {
+        return getAt(indexOf(key));
+    }
+
+    /*
+     * Returns the index of the stripe the given key is mapped onto.
+     */
+    private int indexOf(final Object key) {
+        return (spread(key.hashCode()) & Integer.MAX_VALUE) % this.stripes.length;
+    }
+
+    /**
+     * Returns a batch of the stripes the given keys are mapped onto, which are acquired and released together. Adjacent
+     * stripes are locked by a single {@link FileLock} request, so locking many keys at once costs far fewer requests
+     * than locking their stripes one by one.
+     *
+     * @param keys the keys
+     * @return the {@link IpStripeBatch}
+     * @throws IllegalArgumentException if no key is given
+     * @throws NullPointerException     if any key is <code>null</code>
+     */
+    public IpStripeBatch batch(final Collection<?> keys) {
+        int[] indexes = new int[keys.size()];
+        int i = 0;
+        for (Object key : keys) {
+            indexes[i++] = indexOf(key);
+        }
+
+        return new IpStripeBatch(this.syncFile, indexes);
+    }
+
+    /**
+     * Returns the lock of the stripe with the given index.
+     *
+     * @param index the index of the stripe, between zero and {@link #size()} exclusive
+     * @return the lock of the stripe
+     * @throws IndexOutOfBoundsException if <tt>index</tt> is negative or not less than {@link #size()}
+     */
+    public IpLock getAt(final int index) {
+        if (index < 0 || index >= this.stripes.length) {
+            throw new IndexOutOfBoundsException("stripe " + index + " out of " + this.stripes.length);
+        }
+
+        return this.stripes[index];
+    }
+
+    /**
+     * Returns the number of stripes.
+     *
+     * @return the number of stripes
+     */
+    public int size() {
+        return this.stripes.length;
+    }
+
+    /**
+     * Releases the locks of all stripes if they are held and closes the underlying synchronization channel unless it is
+     * still used by other lock objects of this JVM.
+     *
+     * @throws IOException if an I/O error occurs while closing the channel
+     */
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+        for (IpLock stripe : this.stripes) {
+            try {
+                stripe.close();
+            } catch (IOException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
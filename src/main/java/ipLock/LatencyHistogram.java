@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) 2015 Andreas Klöber
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package ipLock;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of latencies in nanoseconds that can be recorded concurrently without locking and without allocation.
+ * <p/>
+ * Like the HdrHistogram the values are counted in buckets of logarithmically growing size: values below
+ * {@value #SUB_BUCKETS} are counted exactly, and each larger power of two is divided into {@value #SUB_BUCKETS} buckets,
+ * so reported values are at most about 3% above the recorded ones. The whole range of <code>long</code> values is
+ * covered by less than 2000 buckets.
+ * <p/>
+ * Reading while values are recorded yields a snapshot that may be slightly inconsistent, which does not matter for
+ * monitoring.
+ */
+public final class LatencyHistogram {
+
+    /*
+     * Number of bits distinguishing the buckets of the same power of two.
+     */
+    private static final int SUB_BUCKET_BITS = 5;
+
+    /**
+     * The number of buckets per power of two.
+     */
+    public static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /*
+     * The counts of the buckets.
+     */
+    private final AtomicLongArray counts = new AtomicLongArray(bucketIndex(Long.MAX_VALUE) + 1);
+
+    private final AtomicLong totalCount = new AtomicLong();
+
+    private final AtomicLong totalValue = new AtomicLong();
+
+    private final AtomicLong maxValue = new AtomicLong();
+
+    /*
+     * Returns the index of the bucket counting the given non-negative value.
+     */
+    private static int bucketIndex(final long value) {
+        int highestBit = 63 - Long.numberOfLeadingZeros(value);
+        if (highestBit < SUB_BUCKET_BITS) {
+            return (int) value;
+        }
+
+        int shift = highestBit - SUB_BUCKET_BITS;
+        return SUB_BUCKETS * (shift + 1) + (int) (value >>> shift) - SUB_BUCKETS;
+    }
+
+    /*
+     * Returns the highest value counted by the bucket with the given index.
+     */
+    private static long highestValue(final int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+
+        int shift = index / SUB_BUCKETS - 1;
+        long lowestValue = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+        return lowestValue + ((1L << shift) - 1L);
+    }
+
+    /**
+     * Records a value. Negative values are recorded as zero.
+     *
+     * @param nanos the value in nanoseconds
+     */
+    public void record(final long nanos) {
+        long value = Math.max(nanos, 0L);
+
+        this.counts.incrementAndGet(bucketIndex(value));
+        this.totalCount.incrementAndGet();
+        this.totalValue.addAndGet(value);
+
+        long max = this.maxValue.get();
+        while (value > max && !this.maxValue.compareAndSet(max, value)) {
+            max = this.maxValue.get();
+        }
+    }
+
+    /**
+     * Returns the number of recorded values.
+     *
+     * @return the count
+     */
+    public long getCount() {
+        return this.totalCount.get();
+    }
+
+    /**
+     * Returns the largest recorded value.
+     *
+     * @return the maximum in nanoseconds or zero if no value has been recorded
+     */
+    public long getMax() {
+        return this.maxValue.get();
+    }
+
+    /**
+     * Returns the mean of the recorded values.
+     *
+     * @return the mean in nanoseconds or zero if no value has been recorded
+     */
+    public double getMean() {
+        long count = this.totalCount.get();
+        return count == 0L ? 0.0 : (double) this.totalValue.get() / count;
+    }
+
+    /**
+     * Returns the value below or equal to which the given percentage of the recorded values lies.
+     *
+     * @param percentile the percentage between 0 and 100
+     * @return the value in nanoseconds, rounded up to the highest value of its bucket but never above the maximum; zero
+     * if no value has been recorded
+     * @throws IllegalArgumentException if <tt>percentile</tt> is not between 0 and 100
+     */
+    public long getValueAtPercentile(final double percentile) {
+        if (!(percentile >= 0.0 && percentile <= 100.0)) {
+            throw new IllegalArgumentException("invalid percentile " + percentile);
+        }
+
+        long count = this.totalCount.get();
+        if (count == 0L) {
+            return 0L;
+        }
+
+        long rank = Math.max((long) Math.ceil(percentile / 100.0 * count), 1L);
+        long seen = 0L;
+        for (int i = 0; i < this.counts.length(); i++) {
+            seen += this.counts.get(i);
+            if (seen >= rank) {
+                return Math.min(highestValue(i), getMax());
+            }
+        }
+
+        // values recorded meanwhile
+        return getMax();
+    }
+
+    /**
+     * Discards all recorded values.
+     */
+    public void reset() {
+        for (int i = 0; i < this.counts.length(); i++) {
+            this.counts.set(i, 0L);
+        }
+        this.totalCount.set(0L);
+        this.totalValue.set(0L);
+        this.maxValue.set(0L);
+    }
+}
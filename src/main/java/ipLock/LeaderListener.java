@@ -0,0 +1,48 @@
+/*
+ * Copyright (c) 2015 Andreas Klöber
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package ipLock;
+
+/**
+ * Receives the changes of the leadership of an {@link IpLeaderElection}.
+ * <p/>
+ * The listener is called by the candidate thread of the election, which does not wait for further changes while the
+ * listener is running. It must not throw any exceptions.
+ */
+public interface LeaderListener {
+
+    /**
+     * Called after this process has been elected as leader.
+     *
+     * @param election     the election
+     * @param fencingToken the fencing token of the acquisition of the lock by which the leadership is held, see
+     *                     {@link LockHandle#getFencingToken()}
+     */
+    void onElected(IpLeaderElection election, long fencingToken);
+
+    /**
+     * Called when this process gives up the leadership, before the lock is released.
+     *
+     * @param election the election
+     */
+    void onRevoked(IpLeaderElection election);
+}
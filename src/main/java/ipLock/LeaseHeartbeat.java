@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2015 Andreas Klöber
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package ipLock;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The heartbeat renewing the leases of all locks held by this JVM in lease mode.
+ * <p/>
+ * Renewals are performed by a single daemon thread, which is started on demand and terminates as soon as no lease is
+ * held anymore. As the thread is independent from the threads holding the locks, the leases of a process expire only
+ * if the whole process stops making progress, e.g. because it is suspended or starved.
+ */
+class LeaseHeartbeat {
+
+    /*
+     * The heartbeat of this JVM.
+     */
+    private static final LeaseHeartbeat INSTANCE = new LeaseHeartbeat();
+
+    /*
+     * The time the heartbeat thread is kept alive after the last lease has ended.
+     */
+    private static final long KEEP_ALIVE_SECONDS = 1L;
+
+    /*
+     * The executor performing the renewals.
+     */
+    private final ScheduledThreadPoolExecutor executor;
+
+    private LeaseHeartbeat() {
+        this.executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                Thread heartbeat = new Thread(runnable, "ipLock-lease-heartbeat");
+                heartbeat.setDaemon(true);
+                return heartbeat;
+            }
+        });
+        this.executor.setRemoveOnCancelPolicy(true);
+        this.executor.setKeepAliveTime(KEEP_ALIVE_SECONDS, TimeUnit.SECONDS);
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Returns the heartbeat of this JVM.
+     *
+     * @return the heartbeat
+     */
+    static LeaseHeartbeat getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Schedules the periodic renewal of a lease until the returned future is cancelled.
+     *
+     * @param renewal     the renewal, which must not throw any exception
+     * @param periodNanos the time between the end of a renewal and the start of the next one in nanoseconds
+     * @return the future for cancelling the renewals
+     */
+    ScheduledFuture<?> schedule(final Runnable renewal, final long periodNanos) {
+        return this.executor.scheduleWithFixedDelay(renewal, periodNanos, periodNanos, TimeUnit.NANOSECONDS);
+    }
+}
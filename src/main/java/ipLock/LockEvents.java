@@ -0,0 +1,363 @@
+/*
+ * Copyright (c) 2015 Andreas Klöber
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package ipLock;
+
+import java.io.File;
+import java.lang.annotation.Annotation;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Flight recorder events about acquisitions and releases of {@link IpLock}s.
+ * <p/>
+ * Three events are emitted: <tt>ipLock.Acquire</tt> after an acquisition, <tt>ipLock.Release</tt> after a release and
+ * <tt>ipLock.Timeout</tt> after an acquisition gave up. They carry the path of the synchronization file, the lock mode,
+ * the kind of acquisition, the time waited or held and whether a {@link java.nio.channels.FileLock} of the operating
+ * system was acquired or released, as opposed to a lock handed over between threads of this JVM or a memory mapped
+ * lock word.
+ * <p/>
+ * The events are defined at runtime by means of <tt>jdk.jfr.EventFactory</tt>, which is looked up reflectively, so
+ * there is no dependency on the flight recorder at compile time. If the JVM does not provide it, {@link #isEnabled()}
+ * always returns <code>false</code>. The method handles are constants, so while no recording is running checking
+ * whether an event is enabled costs a few field reads and no event object is created.
+ */
+class LockEvents {
+
+    /**
+     * An acquisition waiting until the lock is available.
+     */
+    static final String BLOCKING = "blocking";
+
+    /**
+     * An acquisition returning immediately.
+     */
+    static final String TRY = "try";
+
+    /**
+     * An acquisition waiting until the lock is available or a timeout is reached.
+     */
+    static final String TIMED = "timed";
+
+    /**
+     * An asynchronous acquisition.
+     */
+    static final String ASYNC = "async";
+
+    /*
+     * <tt>boolean isEnabled()</tt> bound to the event type of acquisitions.
+     */
+    private static final MethodHandle ACQUIRE_ENABLED;
+
+    /*
+     * <tt>Event newEvent()</tt> bound to the event factory of acquisitions.
+     */
+    private static final MethodHandle ACQUIRE_NEW;
+
+    /*
+     * <tt>boolean isEnabled()</tt> bound to the event type of releases.
+     */
+    private static final MethodHandle RELEASE_ENABLED;
+
+    /*
+     * <tt>Event newEvent()</tt> bound to the event factory of releases.
+     */
+    private static final MethodHandle RELEASE_NEW;
+
+    /*
+     * <tt>boolean isEnabled()</tt> bound to the event type of timeouts.
+     */
+    private static final MethodHandle TIMEOUT_ENABLED;
+
+    /*
+     * <tt>Event newEvent()</tt> bound to the event factory of timeouts.
+     */
+    private static final MethodHandle TIMEOUT_NEW;
+
+    /*
+     * <tt>void set(int, Object)</tt> of events.
+     */
+    private static final MethodHandle SET;
+
+    /*
+     * <tt>void commit()</tt> of events.
+     */
+    private static final MethodHandle COMMIT;
+
+    static {
+        MethodHandle acquireEnabled = null;
+        MethodHandle acquireNew = null;
+        MethodHandle releaseEnabled = null;
+        MethodHandle releaseNew = null;
+        MethodHandle timeoutEnabled = null;
+        MethodHandle timeoutNew = null;
+        MethodHandle set = null;
+        MethodHandle commit = null;
+
+        try {
+            Definitions definitions = new Definitions();
+
+            Object acquireFactory = definitions.event("ipLock.Acquire", "Lock Acquisition",
+                "An inter-process lock has been acquired",
+                definitions.field(String.class, "syncFile", "Sync File", false),
+                definitions.field(String.class, "lockMode", "Lock Mode", false),
+                definitions.field(String.class, "acquisition", "Acquisition", false),
+                definitions.field(long.class, "waitDuration", "Wait Duration", true),
+                definitions.field(boolean.class, "fileLockAcquired", "File Lock Acquired", false));
+            Object releaseFactory = definitions.event("ipLock.Release", "Lock Release",
+                "An inter-process lock has been released",
+                definitions.field(String.class, "syncFile", "Sync File", false),
+                definitions.field(String.class, "lockMode", "Lock Mode", false),
+                definitions.field(long.class, "holdDuration", "Hold Duration", true),
+                definitions.field(boolean.class, "fileLockReleased", "File Lock Released", false));
+            Object timeoutFactory = definitions.event("ipLock.Timeout", "Lock Timeout",
+                "An acquisition of an inter-process lock gave up",
+                definitions.field(String.class, "syncFile", "Sync File", false),
+                definitions.field(String.class, "lockMode", "Lock Mode", false),
+                definitions.field(String.class, "acquisition", "Acquisition", false),
+                definitions.field(long.class, "waitDuration", "Wait Duration", true));
+
+            acquireEnabled = definitions.isEnabled(acquireFactory);
+            acquireNew = definitions.newEvent(acquireFactory);
+            releaseEnabled = definitions.isEnabled(releaseFactory);
+            releaseNew = definitions.newEvent(releaseFactory);
+            timeoutEnabled = definitions.isEnabled(timeoutFactory);
+            timeoutNew = definitions.newEvent(timeoutFactory);
+            set = definitions.set();
+            commit = definitions.commit();
+        } catch (Throwable e) {
+            // the flight recorder is not provided by this JVM
+            acquireEnabled = null;
+        }
+
+        ACQUIRE_ENABLED = acquireEnabled;
+        ACQUIRE_NEW = acquireNew;
+        RELEASE_ENABLED = releaseEnabled;
+        RELEASE_NEW = releaseNew;
+        TIMEOUT_ENABLED = timeoutEnabled;
+        TIMEOUT_NEW = timeoutNew;
+        SET = set;
+        COMMIT = commit;
+    }
+
+    private LockEvents() {
+    }
+
+    /**
+     * Returns whether the flight recorder is provided by this JVM.
+     *
+     * @return <code>true</code> if supported
+     */
+    static boolean isSupported() {
+        return ACQUIRE_ENABLED != null;
+    }
+
+    /**
+     * Returns whether any of the events is enabled, i.e. whether acquisitions have to be timed.
+     *
+     * @return <code>true</code> if enabled
+     */
+    static boolean isEnabled() {
+        return ACQUIRE_ENABLED != null && (isEnabled(ACQUIRE_ENABLED) || isEnabled(RELEASE_ENABLED)
+            || isEnabled(TIMEOUT_ENABLED));
+    }
+
+    /**
+     * Emits an <tt>ipLock.Acquire</tt> event if it is enabled.
+     *
+     * @param syncFile         the synchronization file
+     * @param mode             the lock mode
+     * @param acquisition      the kind of acquisition
+     * @param waitNanos        the time waited in nanoseconds
+     * @param fileLockAcquired whether a {@link java.nio.channels.FileLock} was acquired
+     */
+    static void acquired(final File syncFile, final LockMode mode, final String acquisition, final long waitNanos,
+                         final boolean fileLockAcquired) {
+        if (ACQUIRE_ENABLED == null || !isEnabled(ACQUIRE_ENABLED)) {
+            return;
+        }
+
+        commit(ACQUIRE_NEW, syncFile.getPath(), mode.name(), acquisition, waitNanos, fileLockAcquired);
+    }
+
+    /**
+     * Emits an <tt>ipLock.Release</tt> event if it is enabled.
+     *
+     * @param syncFile         the synchronization file
+     * @param mode             the lock mode
+     * @param holdNanos        the time the lock was held in nanoseconds
+     * @param fileLockReleased whether a {@link java.nio.channels.FileLock} was released
+     */
+    static void released(final File syncFile, final LockMode mode, final long holdNanos,
+                         final boolean fileLockReleased) {
+        if (RELEASE_ENABLED == null || !isEnabled(RELEASE_ENABLED)) {
+            return;
+        }
+
+        commit(RELEASE_NEW, syncFile.getPath(), mode.name(), holdNanos, fileLockReleased);
+    }
+
+    /**
+     * Emits an <tt>ipLock.Timeout</tt> event if it is enabled.
+     *
+     * @param syncFile    the synchronization file
+     * @param mode        the lock mode
+     * @param acquisition the kind of acquisition
+     * @param waitNanos   the time waited in nanoseconds
+     */
+    static void timedOut(final File syncFile, final LockMode mode, final String acquisition, final long waitNanos) {
+        if (TIMEOUT_ENABLED == null || !isEnabled(TIMEOUT_ENABLED)) {
+            return;
+        }
+
+        commit(TIMEOUT_NEW, syncFile.getPath(), mode.name(), acquisition, waitNanos);
+    }
+
+    /*
+     * Invokes the given <tt>isEnabled()</tt> handle.
+     */
+    private static boolean isEnabled(final MethodHandle enabled) {
+        try {
+            return (boolean) enabled.invokeExact();
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /*
+     * Creates an event with the given factory, sets its fields in the order of definition and commits it.
+     */
+    private static void commit(final MethodHandle newEvent, final Object... values) {
+        try {
+            Object event = (Object) newEvent.invokeExact();
+            for (int i = 0; i < values.length; i++) {
+                SET.invokeExact(event, i, values[i]);
+            }
+            COMMIT.invokeExact(event);
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /*
+     * Defines events by means of the reflectively looked up flight recorder API.
+     */
+    private static class Definitions {
+
+        private final MethodHandles.Lookup lookup = MethodHandles.lookup();
+
+        private final Class<?> eventClass = Class.forName("jdk.jfr.Event");
+
+        private final Class<?> eventFactoryClass = Class.forName("jdk.jfr.EventFactory");
+
+        private final Class<?> eventTypeClass = Class.forName("jdk.jfr.EventType");
+
+        private final Class<?> annotationElementClass = Class.forName("jdk.jfr.AnnotationElement");
+
+        private final Class<?> valueDescriptorClass = Class.forName("jdk.jfr.ValueDescriptor");
+
+        Definitions() throws ClassNotFoundException {
+        }
+
+        /*
+         * Creates an <tt>AnnotationElement</tt> of the flight recorder annotation with the given simple name.
+         */
+        private Object annotation(final String name, final Object value) throws Throwable {
+            Class<?> annotationClass = Class.forName("jdk.jfr." + name);
+            return this.lookup.findConstructor(this.annotationElementClass,
+                MethodType.methodType(void.class, Class.class, Object.class))
+                .invoke(annotationClass.asSubclass(Annotation.class), value);
+        }
+
+        /*
+         * Creates a <tt>ValueDescriptor</tt> of a field.
+         */
+        Object field(final Class<?> type, final String name, final String label, final boolean timespan)
+            throws Throwable {
+            List<Object> annotations = new ArrayList<>();
+            annotations.add(annotation("Label", label));
+            if (timespan) {
+                annotations.add(annotation("Timespan", "NANOSECONDS"));
+            }
+
+            return this.lookup.findConstructor(this.valueDescriptorClass,
+                MethodType.methodType(void.class, Class.class, String.class, List.class))
+                .invoke(type, name, annotations);
+        }
+
+        /*
+         * Creates an <tt>EventFactory</tt> for events with the given fields.
+         */
+        Object event(final String name, final String label, final String description, final Object... fields)
+            throws Throwable {
+            List<Object> annotations = Arrays.asList(
+                annotation("Name", name),
+                annotation("Label", label),
+                annotation("Description", description),
+                annotation("Category", new String[]{"IpLock"}));
+
+            return this.lookup.findStatic(this.eventFactoryClass, "create",
+                MethodType.methodType(this.eventFactoryClass, List.class, List.class))
+                .invoke(Collections.unmodifiableList(annotations), Arrays.asList(fields));
+        }
+
+        /*
+         * Returns <tt>boolean isEnabled()</tt> bound to the event type of the given factory.
+         */
+        MethodHandle isEnabled(final Object eventFactory) throws Throwable {
+            Object eventType = this.lookup.findVirtual(this.eventFactoryClass, "getEventType",
+                MethodType.methodType(this.eventTypeClass)).invoke(eventFactory);
+            return this.lookup.findVirtual(this.eventTypeClass, "isEnabled", MethodType.methodType(boolean.class))
+                .bindTo(eventType);
+        }
+
+        /*
+         * Returns <tt>Object newEvent()</tt> bound to the given factory.
+         */
+        MethodHandle newEvent(final Object eventFactory) throws Throwable {
+            return this.lookup.findVirtual(this.eventFactoryClass, "newEvent", MethodType.methodType(this.eventClass))
+                .bindTo(eventFactory).asType(MethodType.methodType(Object.class));
+        }
+
+        /*
+         * Returns <tt>void set(Object, int, Object)</tt> of events.
+         */
+        MethodHandle set() throws Throwable {
+            return this.lookup.findVirtual(this.eventClass, "set",
+                MethodType.methodType(void.class, int.class, Object.class))
+                .asType(MethodType.methodType(void.class, Object.class, int.class, Object.class));
+        }
+
+        /*
+         * Returns <tt>void commit(Object)</tt> of events.
+         */
+        MethodHandle commit() throws Throwable {
+            return this.lookup.findVirtual(this.eventClass, "commit", MethodType.methodType(void.class))
+                .asType(MethodType.methodType(void.class, Object.class));
+        }
+    }
+}
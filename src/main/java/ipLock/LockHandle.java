@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2015 Andreas Klöber
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package ipLock;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * An acquisition of an {@link IpLock}, as returned by {@link IpLock#lock()}, {@link IpLock#tryLockHandle()} and
+ * {@link IpLock#lockAsync()}.
+ * <p/>
+ * The handle carries the fencing token of the acquisition, which is strictly greater than the tokens of all preceding
+ * acquisitions of the lock by any process. Passing it along with each write lets a shared resource reject writes of an
+ * owner that stalled, e.g. in a garbage collection pause, and lost the lock meanwhile: such a write bears a lower token
+ * than the resource has already seen. The token is persisted in the synchronization file while holding the lock, so
+ * tokens are only monotonic for the lifetime of the file: once it is deleted or replaced, the next acquisition starts
+ * at one again. Resources must forget the tokens they have seen whenever the file is recreated, which thus must only
+ * happen deliberately. If the persisted token cannot be read because the file has been corrupted, the acquisition
+ * fails with an {@link java.io.IOException} rather than starting over.
+ * <p/>
+ * The handle is not bound to any thread, so the lock may be released by whichever thread completes the work. Releasing
+ * it more than once has no effect.
+ */
+public class LockHandle implements AutoCloseable {
+
+    /*
+     * The acquired lock.
+     */
+    private final IpLock lock;
+
+    /*
+     * The fencing token of the acquisition.
+     */
+    private final long fencingToken;
+
+    /*
+     * The {@link System#nanoTime()} of the acquisition or {@link Long#MIN_VALUE} if it has not been measured.
+     */
+    private final long acquisitionTime;
+
+    /*
+     * Whether the lock has been released by this handle.
+     */
+    private final AtomicBoolean released = new AtomicBoolean();
+
+    LockHandle(final IpLock lock, final long fencingToken, final long acquisitionTime) {
+        this.lock = lock;
+        this.fencingToken = fencingToken;
+        this.acquisitionTime = acquisitionTime;
+    }
+
+    /**
+     * Returns the acquired lock.
+     *
+     * @return the lock
+     */
+    public IpLock getLock() {
+        return this.lock;
+    }
+
+    /**
+     * Returns the fencing token of the acquisition. Tokens are provided by all locks except the read lock of an
+     * {@link IpReadWriteLock}, which is shared, so its holders cannot fence each other.
+     *
+     * @return the fencing token, starting at one; 0 if the lock does not provide fencing tokens
+     */
+    public long getFencingToken() {
+        return this.fencingToken;
+    }
+
+    /*
+     * Returns the {@link System#nanoTime()} of the acquisition, from which the hold time is measured on release.
+     */
+    long getAcquisitionTime() {
+        return this.acquisitionTime;
+    }
+
+    /**
+     * Releases the lock unless this has been done by this handle before.
+     *
+     * @throws IOException if some I/O error occurs on the underlying {@link java.nio.channels.FileLock}
+     */
+    @Override
+    public void close() throws IOException {
+        if (this.released.compareAndSet(false, true)) {
+            this.lock.unlock(this);
+        }
+    }
+}
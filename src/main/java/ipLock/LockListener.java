@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2015 Andreas Klöber
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package ipLock;
+
+/**
+ * Receives events of the acquisitions and releases of an {@link IpLock}, e.g. for collecting metrics as done by
+ * {@link LockMetrics}.
+ * <p/>
+ * A listener is configured by {@link IpLock.Builder#listener(LockListener)} and called synchronously by the thread
+ * acquiring or releasing the lock, so it must be fast and thread-safe and must not throw any exceptions. Times are
+ * measured by {@link System#nanoTime()}. Without listener no time is measured at all.
+ */
+public interface LockListener {
+
+    /**
+     * Called after the lock has been acquired.
+     *
+     * @param lock      the lock
+     * @param waitNanos the time it took to acquire the lock in nanoseconds, including the time waited for other
+     *                  threads of this JVM
+     */
+    void acquired(IpLock lock, long waitNanos);
+
+    /**
+     * Called after the lock has been released.
+     *
+     * @param lock      the lock
+     * @param holdNanos the time the lock has been held in nanoseconds, measured from the acquisition released by the
+     *                  {@link LockHandle} or, if a shared lock held more than once is released by
+     *                  {@link IpLock#unlock()}, from the earliest acquisition still held
+     */
+    void released(IpLock lock, long holdNanos);
+
+    /**
+     * Called if a timed acquisition gave up because the timeout limit has been reached.
+     *
+     * @param lock      the lock
+     * @param waitNanos the time waited in nanoseconds
+     */
+    void timedOut(IpLock lock, long waitNanos);
+
+    /**
+     * Called if an attempt to acquire the lock without waiting failed because it is held.
+     *
+     * @param lock the lock
+     */
+    void tryLockFailed(IpLock lock);
+
+    /**
+     * Called when an acquisition that had to wait for another process finishes, successfully or not, with the number
+     * of attempts that failed in the meantime. Each attempt is a poll of the lock after a release has been notified or
+     * the time determined by the {@link WaitStrategy} has elapsed.
+     *
+     * @param lock     the lock
+     * @param attempts the number of failed attempts
+     */
+    void polled(IpLock lock, int attempts);
+}
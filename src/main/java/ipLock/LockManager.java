@@ -0,0 +1,791 @@
+/*
+ * Copyright (c) 2015 Andreas Klöber
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package ipLock;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A lock manager process granting the exclusive locks of synchronization files to {@link IpLock}s in managed mode,
+ * which is meant for workloads where many processes contend for the same few files.
+ * <p/>
+ * Without manager every waiting process polls the {@link java.nio.channels.FileLock} of the file on its own. The
+ * manager instead acquires the {@link java.nio.channels.FileLock} once on behalf of all its clients and grants the lock
+ * to them from an in-memory queue in the order of their requests. As long as clients are waiting, the lock is handed
+ * over from one client to the next by a single message without releasing the
+ * {@link java.nio.channels.FileLock}, and each hand-over draws a new fencing token. Processes that do not use the
+ * manager still exclude each other from the clients of the manager by means of the
+ * {@link java.nio.channels.FileLock}.
+ * <p/>
+ * Clients talk to the manager over a socket with a compact binary protocol: a Unix domain socket on JVMs providing one,
+ * a loopback TCP socket otherwise. If a client dies, the manager notices the closed connection and releases its lock.
+ * If the manager dies, the operating system releases its {@link java.nio.channels.FileLock}s; clients waiting for a
+ * lock fall back to acquiring the {@link java.nio.channels.FileLock} themselves until a manager is available again,
+ * while clients holding a lock lose it, which can be detected by the fencing tokens of later acquisitions.
+ * <p/>
+ * Several managers may be started for the same directory; one of them is elected by means of an
+ * {@link IpLeaderElection} and serves all clients, while the others stand by and take over if it dies. A manager
+ * terminates once it has had no clients for the idle timeout. Managers are started on demand by the clients, see
+ * {@link IpLock.Builder#managed(boolean)}, or explicitly by running this class:
+ * <pre>
+ * java -cp ip-lock.jar ipLock.LockManager [directory [idle timeout in seconds]]
+ * </pre>
+ */
+public class LockManager implements AutoCloseable {
+
+    /**
+     * The time after which a manager without clients terminates unless configured otherwise.
+     */
+    static final long DEFAULT_IDLE_TIMEOUT_SECONDS = 60L;
+
+    /*
+     * The time interval in which the idle timeout is checked.
+     */
+    private static final long IDLE_CHECK_INTERVAL_MILLIS = 1000L;
+
+    /*
+     * The time interval in which the idle timeout is checked in nanoseconds.
+     */
+    private static final long IDLE_CHECK_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(IDLE_CHECK_INTERVAL_MILLIS);
+
+    /*
+     * The directory of the manager.
+     */
+    private final File directory;
+
+    /*
+     * The time after which the manager terminates without clients in nanoseconds or 0 to run until closed.
+     */
+    private final long idleTimeoutNanos;
+
+    /*
+     * Released when the manager is closed or has been idle for too long.
+     */
+    private final CountDownLatch closed = new CountDownLatch(1);
+
+    /*
+     * The managed locks, mapped by their canonical synchronization file; guarded by itself.
+     */
+    private final Map<File, ManagedLock> locks = new HashMap<>();
+
+    /*
+     * The connections of the clients; guarded by this.
+     */
+    private final Set<Connection> connections = new HashSet<>();
+
+    /*
+     * The threads acquiring the {@link java.nio.channels.FileLock}s of the managed locks.
+     */
+    private final ExecutorService acquirers;
+
+    /*
+     * The server socket or <code>null</code> if not elected yet; guarded by this.
+     */
+    private ServerSocketChannel server;
+
+    /*
+     * The {@link System#nanoTime()} since which the manager has had no clients; guarded by this.
+     */
+    private long idleSince = System.nanoTime();
+
+    /**
+     * Create a new manager using the given directory for its election, address file and socket.
+     *
+     * @param directory        the directory of the manager
+     * @param idleTimeoutNanos the time after which the manager terminates without clients in nanoseconds or 0 to run
+     *                         until closed
+     */
+    LockManager(final File directory, final long idleTimeoutNanos) {
+        this.directory = directory;
+        this.idleTimeoutNanos = idleTimeoutNanos;
+        this.acquirers = Executors.newCachedThreadPool(daemonThreads("ipLock-manager-acquirer"));
+    }
+
+    /**
+     * Runs a manager until it has had no clients for the idle timeout.
+     *
+     * @param args the directory of the manager, which defaults to <tt>ip-lock-manager</tt> in the temporary
+     *             directory, and the idle timeout in seconds, which defaults to
+     *             {@value #DEFAULT_IDLE_TIMEOUT_SECONDS}; 0 to run forever
+     * @throws IOException          if the socket could not be bound or if some other I/O error occurs
+     * @throws InterruptedException if the current thread is interrupted while waiting
+     */
+    public static void main(final String[] args) throws IOException, InterruptedException {
+        File directory = args.length > 0 ? new File(args[0]) : defaultDirectory();
+        long idleTimeoutSeconds = args.length > 1 ? Long.parseLong(args[1]) : DEFAULT_IDLE_TIMEOUT_SECONDS;
+
+        try (LockManager manager = new LockManager(directory, TimeUnit.SECONDS.toNanos(idleTimeoutSeconds))) {
+            manager.run();
+        }
+    }
+
+    /**
+     * Returns the directory of the manager used unless configured otherwise.
+     *
+     * @return the directory
+     */
+    static File defaultDirectory() {
+        return new File(System.getProperty("java.io.tmpdir"), "ip-lock-manager");
+    }
+
+    /*
+     * Returns a factory for daemon threads with the given name.
+     */
+    private static ThreadFactory daemonThreads(final String name) {
+        return new ThreadFactory() {
+
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                Thread thread = new Thread(runnable, name);
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+    /**
+     * Stands by until this manager is elected and serves clients afterwards. Returns when the manager is closed or has
+     * been idle for the idle timeout, either as standby or as elected manager.
+     *
+     * @throws IOException          if the socket could not be bound or if some other I/O error occurs
+     * @throws InterruptedException if the current thread is interrupted while waiting
+     */
+    void run() throws IOException, InterruptedException {
+        if (!this.directory.isDirectory() && !this.directory.mkdirs()) {
+            throw new IOException("could not create manager directory " + this.directory);
+        }
+
+        final CountDownLatch elected = new CountDownLatch(1);
+        try (IpLeaderElection election = new IpLeaderElection(new File(this.directory,
+            ManagerProtocol.ELECTION_FILE_NAME), new LeaderListener() {
+
+            @Override
+            public void onElected(final IpLeaderElection election, final long fencingToken) {
+                elected.countDown();
+            }
+
+            @Override
+            public void onRevoked(final IpLeaderElection election) {
+                // only revoked by closing the election after the server has terminated
+            }
+        })) {
+            election.start();
+
+            // a standby without clients terminates like an elected manager
+            while (!elected.await(IDLE_CHECK_INTERVAL_MILLIS, TimeUnit.MILLISECONDS)) {
+                if (this.closed.getCount() == 0L || isIdleTimedOut()) {
+                    return;
+                }
+            }
+
+            serve();
+        }
+    }
+
+    /*
+     * Returns whether the manager has had no clients for the idle timeout.
+     */
+    private synchronized boolean isIdleTimedOut() {
+        return this.idleTimeoutNanos > 0L && this.connections.isEmpty()
+            && System.nanoTime() - this.idleSince >= this.idleTimeoutNanos;
+    }
+
+    /*
+     * Publishes the address of the manager and serves clients until it is closed or idle.
+     */
+    private void serve() throws IOException, InterruptedException {
+        ServerSocketChannel newServer = ManagerProtocol.bind(this.directory);
+        synchronized (this) {
+            if (this.closed.getCount() == 0L) {
+                newServer.close();
+                return;
+            }
+            this.server = newServer;
+            this.idleSince = System.nanoTime();
+        }
+
+        String address = ManagerProtocol.address(newServer, this.directory);
+        Thread watchdog = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                watchIdleTimeout();
+            }
+        }, "ipLock-manager-watchdog");
+        watchdog.setDaemon(true);
+
+        try {
+            ManagerProtocol.writeAddress(this.directory, address);
+            watchdog.start();
+
+            while (true) {
+                SocketChannel socket;
+                try {
+                    socket = newServer.accept();
+                } catch (ClosedChannelException e) {
+                    // closed or idle
+                    break;
+                }
+
+                Connection connection = new Connection(socket);
+                synchronized (this) {
+                    if (this.closed.getCount() == 0L) {
+                        socket.close();
+                        break;
+                    }
+                    this.connections.add(connection);
+                }
+                connection.start();
+            }
+        } finally {
+            try {
+                ManagerProtocol.deleteAddress(this.directory, address);
+            } finally {
+                shutdown();
+            }
+        }
+    }
+
+    /*
+     * Closes the manager once it has been idle for the idle timeout.
+     */
+    private void watchIdleTimeout() {
+        try {
+            while (!this.closed.await(IDLE_CHECK_INTERVAL_MILLIS, TimeUnit.MILLISECONDS)) {
+                if (isIdleTimedOut()) {
+                    close();
+                    return;
+                }
+            }
+        } catch (InterruptedException | IOException e) {
+            // terminates the watchdog
+        }
+    }
+
+    /*
+     * Closes the server and all connections and waits until their locks have been released.
+     */
+    private void shutdown() throws IOException, InterruptedException {
+        List<Connection> currentConnections;
+        synchronized (this) {
+            this.closed.countDown();
+            if (this.server != null) {
+                this.server.close();
+            }
+            currentConnections = new ArrayList<>(this.connections);
+        }
+
+        for (Connection connection : currentConnections) {
+            connection.close();
+        }
+        for (Connection connection : currentConnections) {
+            connection.join();
+        }
+        this.acquirers.shutdownNow();
+    }
+
+    /**
+     * Closes the manager: stops accepting clients and closes all connections, which releases all locks held on behalf
+     * of the clients. Standby managers take over afterwards.
+     *
+     * @throws IOException if an I/O error occurs while closing the server socket
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            this.closed.countDown();
+            if (this.server != null) {
+                // terminates the accept loop, which closes the connections
+                this.server.close();
+            }
+        }
+    }
+
+    /*
+     * Returns the managed lock of the given file and references it.
+     */
+    private ManagedLock openLock(final File syncFile) throws IOException {
+        File canonicalFile = syncFile.getCanonicalFile();
+
+        synchronized (this.locks) {
+            ManagedLock lock = this.locks.get(canonicalFile);
+            if (lock == null) {
+                lock = new ManagedLock(SyncFile.acquire(canonicalFile));
+                this.locks.put(canonicalFile, lock);
+            }
+
+            lock.references++;
+            return lock;
+        }
+    }
+
+    /*
+     * Dereferences the given managed lock and removes it if it is neither referenced nor held anymore.
+     */
+    private void closeLock(final ManagedLock lock) throws IOException {
+        synchronized (this.locks) {
+            if (--lock.references > 0 || !lock.isIdle()) {
+                return;
+            }
+            this.locks.remove(lock.sync.getFile());
+        }
+
+        lock.sync.release();
+    }
+
+    /*
+     * The lock of a synchronization file managed on behalf of the clients.
+     */
+    private class ManagedLock implements Runnable {
+
+        /*
+         * The synchronization file.
+         */
+        private final SyncFile sync;
+
+        /*
+         * The exclusive lock of the whole file held on behalf of the clients.
+         */
+        private final ExclusiveSyncLock syncLock;
+
+        /*
+         * The requests waiting for the lock in the order of their arrival; guarded by this.
+         */
+        private final ArrayDeque<Request> waiters = new ArrayDeque<>();
+
+        /*
+         * The request holding the lock or <code>null</code>; guarded by this.
+         */
+        private Request holder;
+
+        /*
+         * Whether the {@link java.nio.channels.FileLock} is held; guarded by this.
+         */
+        private boolean fileLocked;
+
+        /*
+         * Whether the {@link java.nio.channels.FileLock} is being acquired by an acquirer thread; guarded by this.
+         */
+        private boolean acquiring;
+
+        /*
+         * The number of clients that have opened the lock; guarded by {@link LockManager#locks}.
+         */
+        private int references;
+
+        ManagedLock(final SyncFile sync) {
+            this.sync = sync;
+            this.syncLock = (ExclusiveSyncLock) sync.getLock(LockMode.EXCLUSIVE);
+        }
+
+        /*
+         * Returns whether the lock is neither held nor requested.
+         */
+        synchronized boolean isIdle() {
+            return !this.fileLocked && !this.acquiring && this.waiters.isEmpty();
+        }
+
+        /*
+         * Queues a request and starts acquiring the {@link java.nio.channels.FileLock} if it is not held.
+         */
+        synchronized void lock(final Request request) {
+            this.waiters.add(request);
+            if (!this.fileLocked && !this.acquiring) {
+                this.acquiring = true;
+                LockManager.this.acquirers.execute(this);
+            }
+        }
+
+        /*
+         * Grants the lock if it is neither held nor requested and the {@link java.nio.channels.FileLock} is free.
+         */
+        synchronized void tryLock(final Request request) throws IOException {
+            if (!this.fileLocked && !this.acquiring && this.syncLock.tryLock()) {
+                this.syncLock.detach();
+                this.fileLocked = true;
+                grant(request, this.syncLock.getFencingToken());
+            } else {
+                request.connection.send(ManagerProtocol.DENIED, request.lockId);
+            }
+        }
+
+        /*
+         * Acquires the {@link java.nio.channels.FileLock} and grants the lock to the first waiting request.
+         */
+        @Override
+        public void run() {
+            try {
+                // waits in bounded rounds so the acquirer can be interrupted when the manager terminates
+                boolean locked = false;
+                while (!locked) {
+                    locked = this.syncLock.lock(IDLE_CHECK_INTERVAL_NANOS, SyncFile.DEFAULT_TRY_LOCK_INTERVAL_NANOS,
+                        WaitStrategy.interval());
+                }
+                this.syncLock.detach();
+            } catch (IOException | InterruptedException e) {
+                denyAll();
+                return;
+            }
+
+            synchronized (this) {
+                this.acquiring = false;
+                this.fileLocked = true;
+                try {
+                    grantNext(this.syncLock.getFencingToken());
+                } catch (IOException e) {
+                    denyAll();
+                }
+            }
+        }
+
+        /*
+         * Refuses all waiting requests after the {@link java.nio.channels.FileLock} could not be acquired, so their
+         * clients fall back to acquiring it themselves.
+         */
+        private synchronized void denyAll() {
+            this.acquiring = false;
+            for (Request request : this.waiters) {
+                request.connection.trySend(ManagerProtocol.DENIED, request.lockId);
+            }
+            this.waiters.clear();
+        }
+
+        /*
+         * Grants the lock to the first waiting request with the given fencing token or releases the
+         * {@link java.nio.channels.FileLock} if there is none. Must be called while holding the monitor and the
+         * {@link java.nio.channels.FileLock}.
+         */
+        private void grantNext(final long fencingToken) throws IOException {
+            Request next = this.waiters.poll();
+            if (next == null) {
+                this.fileLocked = false;
+                this.syncLock.unlock();
+                return;
+            }
+
+            grant(next, fencingToken);
+        }
+
+        /*
+         * Makes the given request the holder and notifies its client.
+         */
+        private void grant(final Request request, final long fencingToken) {
+            this.holder = request;
+            // a client that died meanwhile is released when its connection is closed
+            request.connection.trySend(ManagerProtocol.GRANTED, request.lockId, fencingToken);
+        }
+
+        /*
+         * Releases the lock held by the given client, handing it over to the next waiting request.
+         */
+        synchronized void unlock(final Connection connection, final int lockId) throws IOException {
+            if (this.holder != null && this.holder.is(connection, lockId)) {
+                release();
+            }
+        }
+
+        /*
+         * Releases the lock of the current holder. Must be called while holding the monitor.
+         */
+        private void release() throws IOException {
+            this.holder = null;
+            if (this.waiters.isEmpty()) {
+                grantNext(0L);
+            } else {
+                grantNext(this.syncLock.renewFencingToken());
+            }
+        }
+
+        /*
+         * Withdraws the waiting request of the given client. Nothing is sent if it has been granted already.
+         */
+        synchronized void cancel(final Connection connection, final int lockId) throws IOException {
+            for (Iterator<Request> i = this.waiters.iterator(); i.hasNext(); ) {
+                Request request = i.next();
+                if (request.is(connection, lockId)) {
+                    i.remove();
+                    connection.send(ManagerProtocol.DENIED, lockId);
+                    return;
+                }
+            }
+        }
+
+        /*
+         * Withdraws the requests of a client whose connection has been closed and releases its lock.
+         */
+        synchronized void disconnected(final Connection connection, final int lockId) throws IOException {
+            for (Iterator<Request> i = this.waiters.iterator(); i.hasNext(); ) {
+                if (i.next().is(connection, lockId)) {
+                    i.remove();
+                }
+            }
+            if (this.holder != null && this.holder.is(connection, lockId)) {
+                release();
+            }
+        }
+    }
+
+    /*
+     * A request of a client for a lock.
+     */
+    private static class Request {
+
+        /*
+         * The connection of the client.
+         */
+        private final Connection connection;
+
+        /*
+         * The id of the lock chosen by the client.
+         */
+        private final int lockId;
+
+        Request(final Connection connection, final int lockId) {
+            this.connection = connection;
+            this.lockId = lockId;
+        }
+
+        /*
+         * Returns whether this is the request of the given client for the given lock.
+         */
+        boolean is(final Connection connection, final int lockId) {
+            return this.connection == connection && this.lockId == lockId;
+        }
+    }
+
+    /*
+     * The connection of a client, which is served by a thread of its own.
+     */
+    private class Connection implements Runnable {
+
+        /*
+         * The socket of the connection.
+         */
+        private final SocketChannel socket;
+
+        /*
+         * The thread reading the requests of the client.
+         */
+        private final Thread reader;
+
+        /*
+         * The locks opened by the client, mapped by their id; only accessed by the reader thread.
+         */
+        private final Map<Integer, ManagedLock> opened = new HashMap<>();
+
+        /*
+         * Guards writes to the socket.
+         */
+        private final Object writeGuard = new Object();
+
+        Connection(final SocketChannel socket) {
+            this.socket = socket;
+            this.reader = new Thread(this, "ipLock-manager-connection");
+            this.reader.setDaemon(true);
+        }
+
+        void start() {
+            this.reader.start();
+        }
+
+        void join() throws InterruptedException {
+            this.reader.join();
+        }
+
+        /*
+         * Closes the socket, which terminates the reader thread.
+         */
+        void close() throws IOException {
+            this.socket.close();
+        }
+
+        /*
+         * Reads and dispatches the requests of the client until the connection is closed, and releases its locks
+         * afterwards.
+         */
+        @Override
+        public void run() {
+            try {
+                ByteBuffer header = ByteBuffer.allocate(ManagerProtocol.HEADER_SIZE);
+                ByteBuffer length = ByteBuffer.allocate(2);
+                while (true) {
+                    header.clear();
+                    ManagerProtocol.readFully(this.socket, header);
+                    byte operation = header.get();
+                    int lockId = header.getInt();
+
+                    if (operation == ManagerProtocol.OPEN) {
+                        length.clear();
+                        ManagerProtocol.readFully(this.socket, length);
+                        ByteBuffer path = ByteBuffer.allocate(length.getShort() & ManagerProtocol.MAX_PATH_BYTES);
+                        ManagerProtocol.readFully(this.socket, path);
+                        open(lockId, ManagerProtocol.decodePath(path.array()));
+                    } else {
+                        dispatch(operation, lockId);
+                    }
+                }
+            } catch (IOException e) {
+                // connection closed by the client or the manager, or protocol violated
+            } finally {
+                disconnected();
+            }
+        }
+
+        /*
+         * Opens the lock with the given id.
+         */
+        private void open(final int lockId, final File syncFile) throws IOException {
+            if (this.opened.containsKey(lockId)) {
+                throw new IOException("lock " + lockId + " has been opened already");
+            }
+            this.opened.put(lockId, openLock(syncFile));
+        }
+
+        /*
+         * Dispatches a request for the lock with the given id.
+         */
+        private void dispatch(final byte operation, final int lockId) throws IOException {
+            ManagedLock lock = this.opened.get(lockId);
+            if (lock == null) {
+                throw new IOException("lock " + lockId + " has not been opened");
+            }
+
+            switch (operation) {
+                case ManagerProtocol.LOCK:
+                    lock.lock(new Request(this, lockId));
+                    break;
+                case ManagerProtocol.TRY_LOCK:
+                    lock.tryLock(new Request(this, lockId));
+                    break;
+                case ManagerProtocol.CANCEL:
+                    lock.cancel(this, lockId);
+                    break;
+                case ManagerProtocol.UNLOCK:
+                    lock.unlock(this, lockId);
+                    break;
+                default:
+                    throw new IOException("unknown operation " + operation);
+            }
+        }
+
+        /*
+         * Releases the locks of the client and closes the connection.
+         */
+        private void disconnected() {
+            for (Map.Entry<Integer, ManagedLock> entry : this.opened.entrySet()) {
+                try {
+                    entry.getValue().disconnected(this, entry.getKey());
+                    closeLock(entry.getValue());
+                } catch (IOException e) {
+                    // the {@link java.nio.channels.FileLock} is released when the manager terminates at the latest
+                }
+            }
+            this.opened.clear();
+
+            try {
+                this.socket.close();
+            } catch (IOException e) {
+                // closed anyway
+            }
+
+            synchronized (LockManager.this) {
+                LockManager.this.connections.remove(this);
+                if (LockManager.this.connections.isEmpty()) {
+                    LockManager.this.idleSince = System.nanoTime();
+                }
+            }
+        }
+
+        /*
+         * Sends a message to the client.
+         */
+        void send(final byte operation, final int lockId) throws IOException {
+            ByteBuffer frame = ByteBuffer.allocate(ManagerProtocol.HEADER_SIZE);
+            frame.put(operation).putInt(lockId).flip();
+            write(frame);
+        }
+
+        /*
+         * Sends a message with a fencing token to the client.
+         */
+        void send(final byte operation, final int lockId, final long fencingToken) throws IOException {
+            ByteBuffer frame = ByteBuffer.allocate(ManagerProtocol.HEADER_SIZE + 8);
+            frame.put(operation).putInt(lockId).putLong(fencingToken).flip();
+            write(frame);
+        }
+
+        /*
+         * Sends a message to the client and closes the connection if this fails, so its locks are released by the
+         * reader thread.
+         */
+        void trySend(final byte operation, final int lockId) {
+            try {
+                send(operation, lockId);
+            } catch (IOException e) {
+                closeQuietly();
+            }
+        }
+
+        /*
+         * Sends a message with a fencing token to the client and closes the connection if this fails.
+         */
+        void trySend(final byte operation, final int lockId, final long fencingToken) {
+            try {
+                send(operation, lockId, fencingToken);
+            } catch (IOException e) {
+                closeQuietly();
+            }
+        }
+
+        private void write(final ByteBuffer frame) throws IOException {
+            synchronized (this.writeGuard) {
+                ManagerProtocol.writeFully(this.socket, frame);
+            }
+        }
+
+        private void closeQuietly() {
+            try {
+                this.socket.close();
+            } catch (IOException e) {
+                // closed anyway
+            }
+        }
+    }
+}
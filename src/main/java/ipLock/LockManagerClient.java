@@ -0,0 +1,450 @@
+/*
+ * Copyright (c) 2015 Andreas Klöber
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package ipLock;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.security.CodeSource;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The client of the {@link LockManager} of a directory, shared by all managed locks of this JVM that use this
+ * directory.
+ * <p/>
+ * All managed locks talk to the manager over a single connection, which is established on first use and reestablished
+ * after it has been lost. If there is no manager, it is started on demand if configured so; otherwise the managed locks
+ * fall back to acquiring the {@link java.nio.channels.FileLock} themselves, and no connection is tried for a while.
+ */
+class LockManagerClient {
+
+    /*
+     * All clients of this JVM, mapped by their canonical directory; guarded by the class.
+     */
+    private static final Map<File, LockManagerClient> CLIENTS = new HashMap<>();
+
+    /*
+     * The time to wait for a manager started on demand to accept connections.
+     */
+    private static final long START_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(5L);
+
+    /*
+     * The time interval between connection attempts while waiting for a manager started on demand.
+     */
+    private static final long START_POLL_INTERVAL_MILLIS = 10L;
+
+    /*
+     * The time during which no connection is tried after there was no manager.
+     */
+    private static final long RECONNECT_DELAY_NANOS = TimeUnit.SECONDS.toNanos(1L);
+
+    /*
+     * The name of the file the output of managers started on demand is appended to.
+     */
+    private static final String LOG_FILE_NAME = "ip-lock-manager.log";
+
+    /*
+     * The directory of the manager.
+     */
+    private final File directory;
+
+    /*
+     * The registered managed locks, mapped by their id.
+     */
+    private final Map<Integer, ManagedSyncLock> locks = new ConcurrentHashMap<>();
+
+    /*
+     * The source of the ids of the managed locks.
+     */
+    private final AtomicInteger lockIds = new AtomicInteger();
+
+    /*
+     * Whether a manager is started if there is none.
+     */
+    private volatile boolean startOnDemand;
+
+    /*
+     * Guards establishing the connection; a {@link ReentrantLock}, so timed acquisitions wait for it only until their
+     * deadline.
+     */
+    private final ReentrantLock connectionGuard = new ReentrantLock();
+
+    /*
+     * The connection to the manager or <code>null</code> if there is none; written while holding
+     * {@link #connectionGuard}.
+     */
+    private volatile Connection connection;
+
+    /*
+     * The {@link System#nanoTime()} before which no connection is tried; guarded by {@link #connectionGuard}.
+     */
+    private long nextAttempt = System.nanoTime();
+
+    private LockManagerClient(final File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Returns the client of the manager of the given directory.
+     *
+     * @param directory     the directory of the manager
+     * @param startOnDemand whether a manager is started if there is none; once requested, this applies to all users of
+     *                      the client
+     * @return the {@link LockManagerClient}
+     * @throws IOException if the canonical path of the directory could not be determined
+     */
+    static LockManagerClient getInstance(final File directory, final boolean startOnDemand) throws IOException {
+        File canonicalDirectory = directory.getCanonicalFile();
+
+        synchronized (LockManagerClient.class) {
+            LockManagerClient client = CLIENTS.get(canonicalDirectory);
+            if (client == null) {
+                client = new LockManagerClient(canonicalDirectory);
+                CLIENTS.put(canonicalDirectory, client);
+            }
+
+            if (startOnDemand) {
+                client.startOnDemand = true;
+            }
+            return client;
+        }
+    }
+
+    /**
+     * Registers a managed lock for receiving the replies of the manager.
+     *
+     * @param lock the managed lock
+     * @return the id of the lock
+     */
+    int register(final ManagedSyncLock lock) {
+        int lockId = this.lockIds.incrementAndGet();
+        this.locks.put(lockId, lock);
+        return lockId;
+    }
+
+    /**
+     * Unregisters a managed lock.
+     *
+     * @param lockId the id of the lock
+     */
+    void unregister(final int lockId) {
+        this.locks.remove(lockId);
+    }
+
+    /**
+     * Returns the connection to the manager if it is established already. Neither connects nor starts a manager.
+     *
+     * @return the open {@link Connection} or <code>null</code> if there is none
+     */
+    Connection getOpenConnection() {
+        Connection current = this.connection;
+        return current != null && current.isOpen() ? current : null;
+    }
+
+    /**
+     * Returns the connection to the manager and establishes it if necessary, starting a manager on demand.
+     *
+     * @return the {@link Connection} or <code>null</code> if there is no manager
+     * @throws IOException if a manager could not be started
+     */
+    Connection getConnection() throws IOException {
+        this.connectionGuard.lock();
+        try {
+            return establish(System.nanoTime() + START_TIMEOUT_NANOS);
+        } finally {
+            this.connectionGuard.unlock();
+        }
+    }
+
+    /**
+     * Returns the connection to the manager and establishes it if necessary, starting a manager on demand, but waits
+     * no longer than until the given deadline.
+     *
+     * @param deadline the {@link System#nanoTime()} after which no connection is waited for anymore
+     * @return the {@link Connection} or <code>null</code> if there is no manager or the deadline passed
+     * @throws IOException          if a manager could not be started
+     * @throws InterruptedException if the current thread was interrupted while waiting for another thread connecting
+     */
+    Connection getConnection(final long deadline) throws IOException, InterruptedException {
+        Connection current = getOpenConnection();
+        if (current != null || System.nanoTime() - deadline >= 0L) {
+            return current;
+        }
+
+        if (!this.connectionGuard.tryLock(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+            return null;
+        }
+        try {
+            long startDeadline = System.nanoTime() + START_TIMEOUT_NANOS;
+            return establish(deadline - startDeadline < 0L ? deadline : startDeadline);
+        } finally {
+            this.connectionGuard.unlock();
+        }
+    }
+
+    /*
+     * Establishes the connection unless it is open already. Must be called while holding {@link #connectionGuard}.
+     *
+     * @param deadline the {@link System#nanoTime()} until which a manager started on demand is waited for
+     */
+    private Connection establish(final long deadline) throws IOException {
+        Connection current = getOpenConnection();
+        if (current != null) {
+            return current;
+        }
+
+        this.connection = null;
+        if (System.nanoTime() - this.nextAttempt < 0L) {
+            return null;
+        }
+
+        SocketChannel socket = connect(deadline);
+        if (socket == null) {
+            this.nextAttempt = System.nanoTime() + RECONNECT_DELAY_NANOS;
+            return null;
+        }
+
+        current = new Connection(socket);
+        current.start();
+        this.connection = current;
+        return current;
+    }
+
+    /*
+     * Connects to the manager, starting one on demand and waiting for it until the given deadline.
+     *
+     * @return the socket or <code>null</code> if there is no manager
+     */
+    private SocketChannel connect(final long deadline) throws IOException {
+        SocketChannel socket = tryConnect();
+        if (socket != null || !this.startOnDemand) {
+            return socket;
+        }
+
+        startManager();
+
+        while (socket == null && System.nanoTime() - deadline < 0L) {
+            try {
+                Thread.sleep(START_POLL_INTERVAL_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+            socket = tryConnect();
+        }
+        return socket;
+    }
+
+    /*
+     * Connects to the address published by the manager.
+     *
+     * @return the socket or <code>null</code> if no address is published or the manager does not accept connections
+     */
+    private SocketChannel tryConnect() throws IOException {
+        String address = ManagerProtocol.readAddress(this.directory);
+        if (address == null) {
+            return null;
+        }
+
+        try {
+            return ManagerProtocol.connect(address);
+        } catch (IOException e) {
+            // stale address of a manager that died
+            return null;
+        }
+    }
+
+    /*
+     * Starts a manager process using the same Java installation and the code source of this library.
+     */
+    private void startManager() throws IOException {
+        if (!this.directory.isDirectory() && !this.directory.mkdirs()) {
+            throw new IOException("could not create manager directory " + this.directory);
+        }
+
+        File java = new File(new File(System.getProperty("java.home"), "bin"), "java");
+        ProcessBuilder builder = new ProcessBuilder(java.getPath(), "-cp", getClassPath(),
+            LockManager.class.getName(), this.directory.getPath());
+        builder.redirectErrorStream(true);
+        builder.redirectOutput(ProcessBuilder.Redirect.appendTo(new File(this.directory, LOG_FILE_NAME)));
+        builder.start();
+    }
+
+    /*
+     * Returns the class path containing this library.
+     */
+    private static String getClassPath() {
+        CodeSource codeSource = LockManager.class.getProtectionDomain().getCodeSource();
+        if (codeSource != null && codeSource.getLocation() != null) {
+            try {
+                return new File(codeSource.getLocation().toURI()).getPath();
+            } catch (URISyntaxException | IllegalArgumentException e) {
+                // not a local file
+            }
+        }
+        return System.getProperty("java.class.path");
+    }
+
+    /**
+     * A connection to the manager with a thread dispatching its replies to the managed locks.
+     */
+    class Connection implements Runnable {
+
+        /*
+         * The socket of the connection.
+         */
+        private final SocketChannel socket;
+
+        /*
+         * The ids of the locks that have been opened on this connection.
+         */
+        private final Set<Integer> opened = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+
+        /*
+         * Whether the connection is open.
+         */
+        private volatile boolean open = true;
+
+        Connection(final SocketChannel socket) {
+            this.socket = socket;
+        }
+
+        void start() {
+            Thread reader = new Thread(this, "ipLock-manager-client");
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        /**
+         * Returns whether the connection is open.
+         *
+         * @return <code>true</code> if the connection has not been lost
+         */
+        boolean isOpen() {
+            return this.open;
+        }
+
+        /*
+         * Reads the replies of the manager until the connection is lost, and notifies all managed locks afterwards.
+         */
+        @Override
+        public void run() {
+            try {
+                ByteBuffer header = ByteBuffer.allocate(ManagerProtocol.HEADER_SIZE);
+                ByteBuffer token = ByteBuffer.allocate(8);
+                while (true) {
+                    header.clear();
+                    ManagerProtocol.readFully(this.socket, header);
+                    byte operation = header.get();
+                    int lockId = header.getInt();
+
+                    long fencingToken = 0L;
+                    if (operation == ManagerProtocol.GRANTED) {
+                        token.clear();
+                        ManagerProtocol.readFully(this.socket, token);
+                        fencingToken = token.getLong();
+                    } else if (operation != ManagerProtocol.DENIED) {
+                        throw new IOException("unknown operation " + operation);
+                    }
+
+                    ManagedSyncLock lock = LockManagerClient.this.locks.get(lockId);
+                    if (lock != null) {
+                        lock.replied(this, operation == ManagerProtocol.GRANTED, fencingToken);
+                    }
+                }
+            } catch (IOException e) {
+                // connection closed by the manager or protocol violated
+            } finally {
+                close();
+                for (ManagedSyncLock lock : LockManagerClient.this.locks.values()) {
+                    lock.connectionLost(this);
+                }
+            }
+        }
+
+        /**
+         * Closes the connection, so the manager releases all locks held on behalf of this JVM.
+         */
+        void close() {
+            this.open = false;
+            try {
+                this.socket.close();
+            } catch (IOException e) {
+                // closed anyway
+            }
+        }
+
+        /**
+         * Opens the lock with the given id on this connection unless this has been done already.
+         *
+         * @param lockId   the id of the lock
+         * @param syncFile the synchronization file of the lock
+         * @throws IOException if the connection has been lost
+         */
+        synchronized void open(final int lockId, final File syncFile) throws IOException {
+            if (this.opened.contains(lockId)) {
+                return;
+            }
+
+            byte[] path = ManagerProtocol.encodePath(syncFile);
+            ByteBuffer frame = ByteBuffer.allocate(ManagerProtocol.HEADER_SIZE + 2 + path.length);
+            frame.put(ManagerProtocol.OPEN).putInt(lockId).putShort((short) path.length).put(path).flip();
+            write(frame);
+            this.opened.add(lockId);
+        }
+
+        /**
+         * Sends a request for the lock with the given id to the manager.
+         *
+         * @param operation the operation of the request
+         * @param lockId    the id of the lock
+         * @throws IOException if the connection has been lost
+         */
+        synchronized void send(final byte operation, final int lockId) throws IOException {
+            ByteBuffer frame = ByteBuffer.allocate(ManagerProtocol.HEADER_SIZE);
+            frame.put(operation).putInt(lockId).flip();
+            write(frame);
+        }
+
+        /*
+         * Writes a frame and closes the connection if this fails.
+         */
+        private void write(final ByteBuffer frame) throws IOException {
+            try {
+                ManagerProtocol.writeFully(this.socket, frame);
+            } catch (IOException e) {
+                close();
+                throw e;
+            }
+        }
+    }
+}
@@ -0,0 +1,244 @@
+/*
+ * Copyright (c) 2015 Andreas Klöber
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package ipLock;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link LockListener} that collects counters and latency histograms of a lock.
+ * <p/>
+ * Recording is lock-free and does not allocate any objects, so the metrics can stay enabled in production. They can be
+ * read programmatically or by means of JMX once registered as MBean by {@link #registerMBean(String)}.
+ * <p/>
+ * Example:
+ * <pre>
+ * LockMetrics metrics = new LockMetrics();
+ * metrics.registerMBean("orders");
+ * IpLock lock = IpLock.builder(syncFile).listener(metrics).build();
+ * </pre>
+ * An instance should be used for a single lock, though it may be shared if aggregated metrics are wanted.
+ */
+public class LockMetrics implements LockListener, LockMetricsMBean {
+
+    /**
+     * The domain of the names of registered MBeans.
+     */
+    public static final String JMX_DOMAIN = "ipLock";
+
+    private final AtomicLong acquisitions = new AtomicLong();
+
+    private final AtomicLong releases = new AtomicLong();
+
+    private final AtomicLong timeouts = new AtomicLong();
+
+    private final AtomicLong tryLockFailures = new AtomicLong();
+
+    private final AtomicLong pollAttempts = new AtomicLong();
+
+    private final LatencyHistogram waitTime = new LatencyHistogram();
+
+    private final LatencyHistogram holdTime = new LatencyHistogram();
+
+    /*
+     * The name this object is registered with as MBean or <code>null</code>; guarded by this.
+     */
+    private ObjectName objectName;
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void acquired(final IpLock lock, final long waitNanos) {
+        this.acquisitions.incrementAndGet();
+        this.waitTime.record(waitNanos);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void released(final IpLock lock, final long holdNanos) {
+        this.releases.incrementAndGet();
+        this.holdTime.record(holdNanos);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void timedOut(final IpLock lock, final long waitNanos) {
+        this.timeouts.incrementAndGet();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void tryLockFailed(final IpLock lock) {
+        this.tryLockFailures.incrementAndGet();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void polled(final IpLock lock, final int attempts) {
+        this.pollAttempts.addAndGet(attempts);
+    }
+
+    /**
+     * Returns the histogram of the times it took to acquire the lock.
+     *
+     * @return the histogram
+     */
+    public LatencyHistogram getWaitTime() {
+        return this.waitTime;
+    }
+
+    /**
+     * Returns the histogram of the times the lock has been held.
+     *
+     * @return the histogram
+     */
+    public LatencyHistogram getHoldTime() {
+        return this.holdTime;
+    }
+
+    @Override
+    public long getAcquisitions() {
+        return this.acquisitions.get();
+    }
+
+    @Override
+    public long getReleases() {
+        return this.releases.get();
+    }
+
+    @Override
+    public long getTimeouts() {
+        return this.timeouts.get();
+    }
+
+    @Override
+    public long getTryLockFailures() {
+        return this.tryLockFailures.get();
+    }
+
+    @Override
+    public long getPollAttempts() {
+        return this.pollAttempts.get();
+    }
+
+    @Override
+    public double getWaitTimeMean() {
+        return this.waitTime.getMean();
+    }
+
+    @Override
+    public long getWaitTime50thPercentile() {
+        return this.waitTime.getValueAtPercentile(50.0);
+    }
+
+    @Override
+    public long getWaitTime99thPercentile() {
+        return this.waitTime.getValueAtPercentile(99.0);
+    }
+
+    @Override
+    public long getWaitTimeMax() {
+        return this.waitTime.getMax();
+    }
+
+    @Override
+    public double getHoldTimeMean() {
+        return this.holdTime.getMean();
+    }
+
+    @Override
+    public long getHoldTime50thPercentile() {
+        return this.holdTime.getValueAtPercentile(50.0);
+    }
+
+    @Override
+    public long getHoldTime99thPercentile() {
+        return this.holdTime.getValueAtPercentile(99.0);
+    }
+
+    @Override
+    public long getHoldTimeMax() {
+        return this.holdTime.getMax();
+    }
+
+    @Override
+    public void reset() {
+        this.acquisitions.set(0L);
+        this.releases.set(0L);
+        this.timeouts.set(0L);
+        this.tryLockFailures.set(0L);
+        this.pollAttempts.set(0L);
+        this.waitTime.reset();
+        this.holdTime.reset();
+    }
+
+    /**
+     * Registers this object as MBean with the platform MBean server under the name
+     * <tt>ipLock:type=LockMetrics,name=&lt;name&gt;</tt>.
+     *
+     * @param name the name of the lock
+     * @return the name of the MBean
+     * @throws JMException           if the MBean could not be registered, e.g. because the name is already in use
+     * @throws IllegalStateException if this object is already registered
+     */
+    public synchronized ObjectName registerMBean(final String name) throws JMException {
+        if (this.objectName != null) {
+            throw new IllegalStateException("already registered as " + this.objectName);
+        }
+
+        ObjectName newName = new ObjectName(JMX_DOMAIN + ":type=LockMetrics,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, newName);
+        this.objectName = newName;
+        return newName;
+    }
+
+    /**
+     * Unregisters this object from the platform MBean server if it has been registered.
+     *
+     * @throws JMException if the MBean could not be unregistered
+     */
+    public synchronized void unregisterMBean() throws JMException {
+        if (this.objectName == null) {
+            return;
+        }
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            server.unregisterMBean(this.objectName);
+        } finally {
+            this.objectName = null;
+        }
+    }
+}
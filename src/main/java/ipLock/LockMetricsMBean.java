@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2015 Andreas Klöber
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package ipLock;
+
+/**
+ * The management interface of {@link LockMetrics}. All times are in nanoseconds.
+ */
+public interface LockMetricsMBean {
+
+    /**
+     * @return the number of acquisitions
+     */
+    long getAcquisitions();
+
+    /**
+     * @return the number of releases
+     */
+    long getReleases();
+
+    /**
+     * @return the number of timed acquisitions that gave up
+     */
+    long getTimeouts();
+
+    /**
+     * @return the number of failed attempts to acquire the lock without waiting
+     */
+    long getTryLockFailures();
+
+    /**
+     * @return the number of failed attempts of acquisitions that had to wait for another process
+     */
+    long getPollAttempts();
+
+    /**
+     * @return the mean time it took to acquire the lock
+     */
+    double getWaitTimeMean();
+
+    /**
+     * @return the median time it took to acquire the lock
+     */
+    long getWaitTime50thPercentile();
+
+    /**
+     * @return the 99th percentile of the time it took to acquire the lock
+     */
+    long getWaitTime99thPercentile();
+
+    /**
+     * @return the longest time it took to acquire the lock
+     */
+    long getWaitTimeMax();
+
+    /**
+     * @return the mean time the lock has been held
+     */
+    double getHoldTimeMean();
+
+    /**
+     * @return the median time the lock has been held
+     */
+    long getHoldTime50thPercentile();
+
+    /**
+     * @return the 99th percentile of the time the lock has been held
+     */
+    long getHoldTime99thPercentile();
+
+    /**
+     * @return the longest time the lock has been held
+     */
+    long getHoldTimeMax();
+
+    /**
+     * Resets all counters and histograms.
+     */
+    void reset();
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2015 Andreas Klöber
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package ipLock;
+
+/**
+ * The modes a {@link SyncFile} can be locked with.
+ */
+enum LockMode {
+
+    /**
+     * Exclusive lock of the whole file as used by {@link IpLock}.
+     */
+    EXCLUSIVE,
+
+    /**
+     * Exclusive lock held by means of a lock word in the memory mapped file as used by {@link IpLock} in mapped mode.
+     */
+    MAPPED,
+
+    /**
+     * Exclusive lock held by means of a lock word in the memory mapped file that is acquired in ticket order, as used by
+     * {@link IpLock} in fair mode.
+     */
+    MAPPED_FAIR,
+
+    /**
+     * Shared lock as used by the read lock of {@link IpReadWriteLock}.
+     */
+    READ,
+
+    /**
+     * Shared lock that is not granted while a writer is waiting, as used by the read lock of {@link IpReadWriteLock}
+     * with writer preference.
+     */
+    READ_WRITER_PREFERENCE,
+
+    /**
+     * Exclusive lock as used by the write lock of {@link IpReadWriteLock}.
+     */
+    WRITE,
+
+    /**
+     * Exclusive lock of a single stripe as used by {@link IpStripedLock}.
+     */
+    STRIPE,
+
+    /**
+     * Exclusive lock granted by a {@link LockManager}, which holds the lock of the whole file on behalf of its clients,
+     * as used by {@link IpLock} in managed mode. Falls back to {@link #EXCLUSIVE} if there is no manager.
+     */
+    MANAGED
+}
@@ -0,0 +1,331 @@
+/*
+ * Copyright (c) 2015 Andreas Klöber
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package ipLock;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Date;
+import java.util.zip.CRC32;
+
+/**
+ * Describes the process and thread holding a lock, as recorded in the header of the synchronization file on
+ * acquisition.
+ * <p/>
+ * The record is written by the owner while holding the lock and can be read by other processes without acquiring it,
+ * e.g. to report whom they are waiting for. If the owning process died without releasing the lock, its record remains
+ * until the lock is acquired the next time.
+ * <p/>
+ * Instances are immutable.
+ *
+ * @see IpLock#getOwner()
+ */
+public final class LockOwner {
+
+    /*
+     * Size of the record in the header of the synchronization file; it fits into a single page, so it is written and
+     * read by a single I/O operation.
+     */
+    static final int RECORD_SIZE = 256;
+
+    /*
+     * Position of the record in the synchronization file.
+     */
+    private static final long RECORD_POSITION = 0L;
+
+    /*
+     * Marks a valid record: "IPLO".
+     */
+    private static final int MAGIC = 0x49504c4f;
+
+    private static final byte VERSION = 1;
+
+    private static final int MAX_HOST_NAME_BYTES = 64;
+
+    private static final int MAX_THREAD_NAME_BYTES = 128;
+
+    /*
+     * Position of the checksum over all preceding bytes, which detects records read while being written.
+     */
+    private static final int CHECKSUM_OFFSET = RECORD_SIZE - 4;
+
+    /*
+     * Number of times a record with invalid checksum is read again.
+     */
+    private static final int MAX_READ_ATTEMPTS = 3;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /*
+     * Identification of this process in the form <tt>pid@hostname</tt> on common JVMs.
+     */
+    private static final String PROCESS_NAME = ManagementFactory.getRuntimeMXBean().getName();
+
+    private final long processId;
+
+    private final String hostName;
+
+    private final String threadName;
+
+    private final long acquisitionTime;
+
+    private final long fencingToken;
+
+    private LockOwner(final long processId, final String hostName, final String threadName,
+                      final long acquisitionTime, final long fencingToken) {
+        this.processId = processId;
+        this.hostName = hostName;
+        this.threadName = threadName;
+        this.acquisitionTime = acquisitionTime;
+        this.fencingToken = fencingToken;
+    }
+
+    /**
+     * Returns the id of the owning process.
+     *
+     * @return the process id or -1 if the JVM of the owner does not provide it
+     */
+    public long getProcessId() {
+        return this.processId;
+    }
+
+    /**
+     * Returns the name of the host the owning process runs on.
+     *
+     * @return the host name
+     */
+    public String getHostName() {
+        return this.hostName;
+    }
+
+    /**
+     * Returns the name of the thread that acquired the lock.
+     *
+     * @return the thread name
+     */
+    public String getThreadName() {
+        return this.threadName;
+    }
+
+    /**
+     * Returns the time the lock has been acquired.
+     *
+     * @return the difference, measured in milliseconds, between the acquisition and midnight, January 1, 1970 UTC
+     */
+    public long getAcquisitionTime() {
+        return this.acquisitionTime;
+    }
+
+    /**
+     * Returns the fencing token of the acquisition, which is incremented by each acquisition of the lock. Resources
+     * protected by the lock can reject requests bearing a lower token than one they have seen already, which were
+     * issued by an owner that has lost the lock meanwhile.
+     * <p/>
+     * The token is persisted in the synchronization file and is therefore only monotonic for the lifetime of the file:
+     * once the file is deleted or replaced, the tokens start at one again and resources must forget the tokens they
+     * have seen.
+     *
+     * @return the fencing token, starting at one
+     */
+    public long getFencingToken() {
+        return this.fencingToken;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("pid %d@%s, thread '%s', acquired %tFT%<tT.%<tL, token %d",
+            this.processId, this.hostName, this.threadName, new Date(this.acquisitionTime), this.fencingToken);
+    }
+
+    /*
+     * Records the current thread as owner in the header of the synchronization file. Must be called while holding the
+     * lock.
+     *
+     * @param syncFile the synchronization file
+     * @param channel  the channel of the synchronization file the lock is held on
+     * @return the fencing token of the acquisition
+     * @throws IOException if an I/O error occurs
+     */
+    static long record(final SyncFile syncFile, final FileChannel channel) throws IOException {
+        long fencingToken = readFencingToken(syncFile, channel) + 1L;
+
+        int separator = PROCESS_NAME.indexOf('@');
+        long processId = -1L;
+        try {
+            processId = Long.parseLong(PROCESS_NAME.substring(0, Math.max(separator, 0)));
+        } catch (NumberFormatException e) {
+            // JVM does not expose the process id
+        }
+
+        write(syncFile, channel, true, fencingToken, processId, PROCESS_NAME.substring(separator + 1),
+            Thread.currentThread().getName(), System.currentTimeMillis());
+        return fencingToken;
+    }
+
+    /*
+     * Marks the record in the header of the synchronization file as released, keeping the fencing token. Must be
+     * called while holding the lock.
+     *
+     * @param syncFile the synchronization file
+     * @param channel  the channel of the synchronization file the lock is held on
+     * @throws IOException if an I/O error occurs
+     */
+    static void clear(final SyncFile syncFile, final FileChannel channel) throws IOException {
+        ByteBuffer previous = readRecord(syncFile, channel);
+        if (previous != null) {
+            write(syncFile, channel, false, previous.getLong(8), -1L, "", "", 0L);
+        }
+    }
+
+    /*
+     * Reads the owner from the header of the synchronization file.
+     *
+     * @param syncFile the synchronization file
+     * @param channel  the channel of the synchronization file
+     * @return the owner or <code>null</code> if the lock has been released or never been acquired
+     * @throws IOException if an I/O error occurs
+     */
+    static LockOwner read(final SyncFile syncFile, final FileChannel channel) throws IOException {
+        ByteBuffer record = readRecord(syncFile, channel);
+        if (record == null || record.get(5) == 0) {
+            return null;
+        }
+
+        record.position(16);
+        long processId = record.getLong();
+        long acquisitionTime = record.getLong();
+        String hostName = getString(record, MAX_HOST_NAME_BYTES);
+        String threadName = getString(record, MAX_THREAD_NAME_BYTES);
+        return new LockOwner(processId, hostName, threadName, acquisitionTime, record.getLong(8));
+    }
+
+    /*
+     * Reads the fencing token of the last acquisition. Must be called while holding the lock, so the record is not
+     * being written. The token is also taken from a record with invalid checksum, which is only left by an owner that
+     * died while writing it, as starting over within the lifetime of the file would let stale owners pass the
+     * fencing of resources.
+     *
+     * @return the fencing token or 0 if the lock has never been acquired
+     * @throws IOException if the header of the file does not hold a record, so the token is unknown
+     */
+    private static long readFencingToken(final SyncFile syncFile, final FileChannel channel) throws IOException {
+        ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+        int length = read(syncFile, channel, record);
+        if (length == 0) {
+            // never acquired before
+            return 0L;
+        }
+
+        if (length < 16 || record.getInt(0) != MAGIC || record.get(4) != VERSION) {
+            throw new IOException("synchronization file does not hold a valid owner record, so its fencing token is "
+                + "unknown; deleting the file resets the fencing tokens");
+        }
+        return record.getLong(8);
+    }
+
+    /*
+     * Reads the raw record into the given buffer.
+     *
+     * @return the number of bytes read, which is less than the size of a record if the file is shorter
+     */
+    private static int read(final SyncFile syncFile, final FileChannel channel, final ByteBuffer record)
+        throws IOException {
+        record.clear();
+        return syncFile.read(channel, record, RECORD_POSITION);
+    }
+
+    /*
+     * Reads the raw record and validates it.
+     *
+     * @return the record or <code>null</code> if there is no valid record
+     */
+    private static ByteBuffer readRecord(final SyncFile syncFile, final FileChannel channel) throws IOException {
+        ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+        for (int attempt = 0; attempt < MAX_READ_ATTEMPTS; attempt++) {
+            if (read(syncFile, channel, record) < RECORD_SIZE) {
+                // file is shorter than a record
+                return null;
+            }
+
+            if (record.getInt(0) != MAGIC || record.get(4) != VERSION) {
+                return null;
+            }
+            if (record.getInt(CHECKSUM_OFFSET) == checksum(record)) {
+                return record;
+            }
+            // read while being written
+        }
+
+        return null;
+    }
+
+    private static void write(final SyncFile syncFile, final FileChannel channel, final boolean held,
+                              final long fencingToken, final long processId, final String hostName,
+                              final String threadName, final long acquisitionTime) throws IOException {
+        ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+        record.putInt(MAGIC);
+        record.put(VERSION);
+        record.put((byte) (held ? 1 : 0));
+        record.putShort((short) 0);
+        record.putLong(fencingToken);
+        record.putLong(processId);
+        record.putLong(acquisitionTime);
+        putString(record, hostName, MAX_HOST_NAME_BYTES);
+        putString(record, threadName, MAX_THREAD_NAME_BYTES);
+        record.putInt(CHECKSUM_OFFSET, checksum(record));
+
+        record.clear();
+        syncFile.write(channel, record, RECORD_POSITION);
+    }
+
+    /*
+     * Puts the given string as length byte followed by its UTF-8 bytes into a field of fixed size, truncating it if
+     * necessary.
+     */
+    private static void putString(final ByteBuffer record, final String value, final int maxBytes) {
+        byte[] bytes = value.getBytes(UTF_8);
+        int length = Math.min(bytes.length, maxBytes);
+
+        int end = record.position() + 1 + maxBytes;
+        record.put((byte) length);
+        record.put(bytes, 0, length);
+        record.position(end);
+    }
+
+    private static String getString(final ByteBuffer record, final int maxBytes) {
+        int end = record.position() + 1 + maxBytes;
+        int length = Math.min(record.get() & 0xff, maxBytes);
+
+        String value = new String(record.array(), record.position(), length, UTF_8);
+        record.position(end);
+        return value;
+    }
+
+    private static int checksum(final ByteBuffer record) {
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), 0, CHECKSUM_OFFSET);
+        return (int) crc.getValue();
+    }
+}
@@ -0,0 +1,403 @@
+/*
+ * Copyright (c) 2015 Andreas Klöber
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package ipLock;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A notification channel that wakes up processes waiting for a lock as soon as it gets released.
+ * <p/>
+ * Each synchronization file is accompanied by a signal file next to it. A process releasing the lock writes to the
+ * signal file while waiting processes watch its directory by means of a {@link WatchService}. All signals of a JVM
+ * share a single {@link WatchService} and a single dispatcher thread that is started on demand.
+ * <p/>
+ * Notifications only reduce hand-off latency: on platforms whose {@link WatchService} is not backed by native file
+ * system events they may be delayed considerably, so waiters still have to retry periodically.
+ */
+class LockSignal {
+
+    /**
+     * The suffix that is appended to the name of the synchronization file to get the name of the signal file.
+     */
+    static final String SIGNAL_FILE_SUFFIX = ".signal";
+
+    /*
+     * All signals that are in use by this JVM, mapped by the path of their signal file.
+     */
+    private static final Map<Path, LockSignal> SIGNALS = new HashMap<>();
+
+    /*
+     * The watch keys of the watched directories, mapped by the directory.
+     */
+    private static final Map<Path, WatchKey> WATCH_KEYS = new HashMap<>();
+
+    /*
+     * The watch service shared by all signals; created on demand.
+     */
+    private static WatchService watchService;
+
+    /*
+     * The path of the signal file.
+     */
+    private final Path signalPath;
+
+    /*
+     * Guards the state of this signal and is used for waiting.
+     */
+    private final ReentrantLock mutex = new ReentrantLock();
+
+    /*
+     * Condition that is signaled whenever the generation is incremented.
+     */
+    private final Condition generationChanged = mutex.newCondition();
+
+    /*
+     * The data written to the signal file for notification.
+     */
+    private final ByteBuffer signalData = ByteBuffer.allocate(1);
+
+    /*
+     * Listeners that are run on every notification in addition to waking up waiting threads.
+     */
+    private final List<Runnable> listeners = new CopyOnWriteArrayList<>();
+
+    /*
+     * Number of notifications received so far.
+     */
+    private long generation;
+
+    /*
+     * Number of lock objects using this signal.
+     */
+    private int referenceCount;
+
+    /*
+     * Whether the directory of the signal file is being watched.
+     */
+    private volatile boolean watched;
+
+    /*
+     * The channel for writing to the signal file; opened on demand.
+     */
+    private FileChannel channel;
+
+    private LockSignal(final Path signalPath) {
+        this.signalPath = signalPath;
+    }
+
+    /**
+     * Returns the signal for the given synchronization file. Each call must be followed by a call to
+     * {@link #release()} as soon as the signal is not needed anymore.
+     *
+     * @param syncFile the synchronization file
+     * @return the signal
+     */
+    static LockSignal acquire(final File syncFile) {
+        Path signalPath = new File(syncFile.getAbsoluteFile().getParentFile(),
+            syncFile.getName() + SIGNAL_FILE_SUFFIX).toPath().normalize();
+
+        synchronized (LockSignal.class) {
+            LockSignal signal = SIGNALS.get(signalPath);
+            if (signal == null) {
+                signal = new LockSignal(signalPath);
+                SIGNALS.put(signalPath, signal);
+            }
+
+            signal.referenceCount++;
+            return signal;
+        }
+    }
+
+    /*
+     * Starts watching the directory of the given signal. Creates the shared watch service and the dispatcher thread if
+     * necessary.
+     */
+    private static synchronized void watch(final LockSignal signal) throws IOException {
+        if (watchService == null) {
+            watchService = FileSystems.getDefault().newWatchService();
+
+            Thread dispatcher = new Thread(new Runnable() {
+
+                @Override
+                public void run() {
+                    dispatch();
+                }
+            }, "ipLock-signal-dispatcher");
+            dispatcher.setDaemon(true);
+            dispatcher.start();
+        }
+
+        Path dir = signal.signalPath.getParent();
+        if (!WATCH_KEYS.containsKey(dir)) {
+            WATCH_KEYS.put(dir, dir.register(watchService,
+                StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY));
+        }
+    }
+
+    /*
+     * Stops watching the directory of the given signal if no other signal in that directory is watched.
+     */
+    private static synchronized void unwatch(final LockSignal signal) {
+        Path dir = signal.signalPath.getParent();
+        for (LockSignal other : SIGNALS.values()) {
+            if (other != signal && other.watched && dir.equals(other.signalPath.getParent())) {
+                return;
+            }
+        }
+
+        WatchKey key = WATCH_KEYS.remove(dir);
+        if (key != null) {
+            key.cancel();
+        }
+    }
+
+    /*
+     * Main loop of the dispatcher thread: distributes the events of the watch service to the affected signals.
+     */
+    private static void dispatch() {
+        while (true) {
+            WatchKey key;
+            try {
+                key = watchService.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+
+            Path dir = (Path) key.watchable();
+            List<LockSignal> affected = new ArrayList<>();
+
+            synchronized (LockSignal.class) {
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        // events got lost, so notify all signals in that directory
+                        for (LockSignal signal : SIGNALS.values()) {
+                            if (dir.equals(signal.signalPath.getParent())) {
+                                affected.add(signal);
+                            }
+                        }
+                    } else {
+                        LockSignal signal = SIGNALS.get(dir.resolve((Path) event.context()));
+                        if (signal != null) {
+                            affected.add(signal);
+                        }
+                    }
+                }
+            }
+
+            key.reset();
+
+            for (LockSignal signal : affected) {
+                signal.wakeUp();
+            }
+        }
+    }
+
+    /**
+     * Releases this signal. When the last user has released it, the channel of the signal file is closed and its
+     * directory is no longer watched.
+     */
+    void release() {
+        synchronized (LockSignal.class) {
+            if (--this.referenceCount > 0) {
+                return;
+            }
+
+            SIGNALS.remove(this.signalPath);
+        }
+
+        this.mutex.lock();
+        try {
+            if (this.watched) {
+                this.watched = false;
+                unwatch(this);
+            }
+            closeChannel();
+        } finally {
+            this.mutex.unlock();
+        }
+    }
+
+    /**
+     * Prepares this signal for waiting. Creates the signal file if it does not exist and starts watching its directory.
+     * <p/>
+     * This method must be called before the lock attempt that precedes waiting, otherwise a notification may get lost.
+     *
+     * @throws IOException if the signal file could not be created or its directory could not be watched
+     */
+    void prepare() throws IOException {
+        this.mutex.lock();
+        try {
+            if (this.watched) {
+                return;
+            }
+
+            if (this.channel == null) {
+                this.channel = FileChannel.open(this.signalPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            }
+            watch(this);
+            this.watched = true;
+        } finally {
+            this.mutex.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of notifications received so far. The value has to be read before the lock attempt that
+     * precedes waiting and passed to {@link #await(long, long, TimeUnit)}.
+     *
+     * @return the current generation
+     */
+    long generation() {
+        this.mutex.lock();
+        try {
+            return this.generation;
+        } finally {
+            this.mutex.unlock();
+        }
+    }
+
+    /**
+     * Waits until a notification has been received after the given generation or the timeout elapses.
+     *
+     * @param generation the generation read before the last lock attempt
+     * @param timeout    the maximum time to wait
+     * @param timeUnit   the {@link TimeUnit} of the <tt>timeout</tt> parameter
+     * @return <code>true</code> if a notification has been received; <code>false</code> if the timeout elapsed
+     * @throws InterruptedException if the current thread is interrupted while waiting
+     */
+    boolean await(final long generation, final long timeout, final TimeUnit timeUnit) throws InterruptedException {
+        long remainingNanos = timeUnit.toNanos(timeout);
+
+        this.mutex.lock();
+        try {
+            while (this.generation == generation) {
+                if (remainingNanos <= 0L) {
+                    return false;
+                }
+                remainingNanos = this.generationChanged.awaitNanos(remainingNanos);
+            }
+
+            return true;
+        } finally {
+            this.mutex.unlock();
+        }
+    }
+
+    /**
+     * Wakes up all threads of this JVM that are waiting for this signal and runs the listeners.
+     */
+    void wakeUp() {
+        this.mutex.lock();
+        try {
+            this.generation++;
+            this.generationChanged.signalAll();
+        } finally {
+            this.mutex.unlock();
+        }
+
+        for (Runnable listener : this.listeners) {
+            listener.run();
+        }
+    }
+
+    /**
+     * Adds a listener that is run on every notification. It must return quickly as it is run by the thread that
+     * received the notification. A listener may be added multiple times and must be removed as often.
+     *
+     * @param listener the listener
+     */
+    void addListener(final Runnable listener) {
+        this.listeners.add(listener);
+    }
+
+    /**
+     * Removes a listener that has been added by {@link #addListener(Runnable)}.
+     *
+     * @param listener the listener
+     */
+    void removeListener(final Runnable listener) {
+        this.listeners.remove(listener);
+    }
+
+    /**
+     * Notifies all processes waiting for this signal by writing to the signal file. If the signal file does not exist,
+     * no process is waiting and nothing is done.
+     * <p/>
+     * Notification is done on a best effort basis, so I/O errors are ignored as waiters fall back to polling.
+     */
+    void post() {
+        this.mutex.lock();
+        try {
+            if (this.channel == null) {
+                this.channel = FileChannel.open(this.signalPath, StandardOpenOption.WRITE);
+            }
+
+            this.signalData.clear();
+            this.channel.write(this.signalData, 0L);
+        } catch (NoSuchFileException e) {
+            // nobody waits
+        } catch (IOException e) {
+            // channel may be broken, so reopen it next time
+            closeChannel();
+        } finally {
+            this.mutex.unlock();
+        }
+    }
+
+    /*
+     * Closes the channel of the signal file quietly. Must be called while holding the mutex.
+     */
+    private void closeChannel() {
+        if (this.channel == null) {
+            return;
+        }
+
+        try {
+            this.channel.close();
+        } catch (IOException e) {
+            // nothing left to clean up
+        } finally {
+            this.channel = null;
+        }
+    }
+}
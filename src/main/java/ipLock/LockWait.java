@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2015 Andreas Klöber
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package ipLock;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A single acquisition that waits for a lock held by another process. It is created after the first failed attempt
+ * and determines the time to wait before each further attempt by means of a {@link WaitStrategy}.
+ */
+class LockWait {
+
+    /*
+     * The strategy determining the time to wait.
+     */
+    private final WaitStrategy strategy;
+
+    /*
+     * Whether the acquisition is timed.
+     */
+    private final boolean timed;
+
+    /*
+     * The {@link System#nanoTime()} at which the timeout is reached if timed.
+     */
+    private final long deadline;
+
+    /*
+     * The maximum time interval between attempts if no notification is received.
+     */
+    private final long tryLockIntervalNanos;
+
+    /*
+     * The {@link System#nanoTime()} at which waiting started.
+     */
+    private final long startTime = System.nanoTime();
+
+    /*
+     * Number of failed attempts so far.
+     */
+    private int attempts = 1;
+
+    /**
+     * Creates a wait after the first failed attempt.
+     *
+     * @param strategy             the strategy determining the time to wait
+     * @param timed                whether the acquisition is timed
+     * @param deadline             the {@link System#nanoTime()} at which the timeout is reached if timed
+     * @param tryLockIntervalNanos the maximum time interval between attempts if no notification is received
+     */
+    LockWait(final WaitStrategy strategy, final boolean timed, final long deadline, final long tryLockIntervalNanos) {
+        this.strategy = strategy;
+        this.timed = timed;
+        this.deadline = deadline;
+        this.tryLockIntervalNanos = tryLockIntervalNanos;
+    }
+
+    /**
+     * Waits before the next attempt until a notification has been received after the given generation or the time
+     * determined by the strategy elapses.
+     *
+     * @param signal     the signal notifying about releases
+     * @param generation the generation read before the last attempt
+     * @return <code>true</code> if the lock should be tried again; <code>false</code> if the timeout is reached
+     * @throws InterruptedException if the current thread is interrupted while waiting
+     */
+    boolean await(final LockSignal signal, final long generation) throws InterruptedException {
+        long now = System.nanoTime();
+
+        long waitNanos = Math.min(this.strategy.nextWaitNanos(this.attempts, now - this.startTime),
+            this.tryLockIntervalNanos);
+        if (this.timed) {
+            long remainingNanos = this.deadline - now;
+            if (remainingNanos <= 0L) {
+                // timeout reached
+                this.strategy.timedOut(this.attempts, now - this.startTime);
+                return false;
+            }
+            waitNanos = Math.min(waitNanos, remainingNanos);
+        }
+
+        this.attempts++;
+
+        if (waitNanos <= 0L) {
+            WaitStrategy.onSpinWait();
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            return true;
+        }
+
+        // wait for release notification or the determined time before next attempt
+        signal.await(generation, waitNanos, TimeUnit.NANOSECONDS);
+        return true;
+    }
+
+    /**
+     * Reports to the strategy that the lock has been acquired.
+     */
+    void acquired() {
+        this.strategy.acquired(this.attempts - 1, System.nanoTime() - this.startTime);
+    }
+}
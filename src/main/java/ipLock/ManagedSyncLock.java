@@ -0,0 +1,527 @@
+/*
+ * Copyright (c) 2015 Andreas Klöber
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package ipLock;
+
+import java.io.IOException;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The exclusive lock of a whole synchronization file granted by a {@link LockManager}.
+ * <p/>
+ * Threads of this JVM coordinate by means of a local permit, so only one of them has a request pending at the manager
+ * at the same time. The manager queues the requests of all processes and grants the lock in the order of their arrival.
+ * If there is no manager or the connection to it is lost while waiting, the lock falls back to the exclusive lock of
+ * the file, which excludes the manager and its clients as the manager holds the same {@link java.nio.channels.FileLock}
+ * while the lock is granted to any of them.
+ * <p/>
+ * {@link #tryLock()} neither connects to nor starts a manager, but only uses a connection established already. A
+ * manager not answering it in time is considered dead.
+ */
+class ManagedSyncLock implements SyncLock {
+
+    /*
+     * The time to wait for the reply of the manager to requests it answers immediately.
+     */
+    private static final long REPLY_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(1L);
+
+    /*
+     * The state of a request pending at the manager.
+     */
+    private enum Reply {
+        PENDING, GRANTED, DENIED, LOST
+    }
+
+    /*
+     * The synchronization file.
+     */
+    private final SyncFile syncFile;
+
+    /*
+     * The client of the manager.
+     */
+    private final LockManagerClient client;
+
+    /*
+     * The id of this lock at the manager.
+     */
+    private final int lockId;
+
+    /*
+     * The exclusive lock of the file used if there is no manager.
+     */
+    private final SyncLock fallback;
+
+    /*
+     * The permit shared by the threads of this JVM.
+     */
+    private final Semaphore permit = new Semaphore(1, true);
+
+    /*
+     * Guards the reply of the manager.
+     */
+    private final ReentrantLock replyGuard = new ReentrantLock();
+
+    /*
+     * Signaled when the manager has replied or the connection has been lost.
+     */
+    private final Condition replied = this.replyGuard.newCondition();
+
+    /*
+     * The reply to the pending request; guarded by {@link #replyGuard}.
+     */
+    private Reply reply = Reply.DENIED;
+
+    /*
+     * The connection the pending request has been sent on; guarded by {@link #replyGuard}.
+     */
+    private LockManagerClient.Connection pendingConnection;
+
+    /*
+     * The fencing token granted by the manager; guarded by {@link #replyGuard}.
+     */
+    private long grantedToken;
+
+    /*
+     * The connection of the manager that granted the lock or <code>null</code> if the fallback is held. Must only be
+     * written while holding the permit.
+     */
+    private volatile LockManagerClient.Connection grantedBy;
+
+    /*
+     * Whether the connection of the manager that granted the lock has been lost, which released the lock.
+     */
+    private volatile boolean grantLost;
+
+    /*
+     * The fencing token of the current acquisition. Must only be accessed while holding the permit.
+     */
+    private long fencingToken;
+
+    /*
+     * The thread holding the lock unless it has been detached.
+     */
+    private volatile Thread owner;
+
+    ManagedSyncLock(final SyncFile syncFile, final LockManagerClient client) {
+        this.syncFile = syncFile;
+        this.client = client;
+        this.lockId = client.register(this);
+        this.fallback = syncFile.getLock(LockMode.EXCLUSIVE);
+    }
+
+    /*
+     * Makes sure the current thread does not hold the lock already, which would otherwise deadlock.
+     */
+    private void checkNotOwner() {
+        if (this.owner == Thread.currentThread()) {
+            throw new OverlappingFileLockException();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void lock(final WaitStrategy strategy) throws IOException {
+        checkNotOwner();
+
+        this.permit.acquireUninterruptibly();
+        boolean locked = false;
+        try {
+            LockManagerClient.Connection connection;
+            while ((connection = this.client.getConnection()) != null) {
+                Reply result = request(connection, ManagerProtocol.LOCK);
+                if (result == Reply.GRANTED) {
+                    granted(connection);
+                    locked = true;
+                    return;
+                }
+                if (result == Reply.DENIED) {
+                    break;
+                }
+                // reconnect to a standby manager taking over
+            }
+
+            this.fallback.lock(strategy);
+            fallbackAcquired();
+            locked = true;
+        } finally {
+            if (!locked) {
+                this.permit.release();
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean lock(final long timeoutNanos, final long tryLockIntervalNanos, final WaitStrategy strategy)
+        throws IOException, InterruptedException {
+        checkNotOwner();
+
+        long deadline = System.nanoTime() + timeoutNanos;
+        if (!this.permit.tryAcquire(timeoutNanos, TimeUnit.NANOSECONDS)) {
+            return false;
+        }
+
+        boolean locked = false;
+        try {
+            LockManagerClient.Connection connection;
+            while ((connection = this.client.getConnection(deadline)) != null) {
+                Reply result = request(connection, ManagerProtocol.LOCK, deadline);
+                if (result == Reply.GRANTED) {
+                    granted(connection);
+                    locked = true;
+                    return true;
+                }
+                if (result == Reply.DENIED) {
+                    if (System.nanoTime() - deadline >= 0L) {
+                        return false;
+                    }
+                    break;
+                }
+            }
+
+            long remainingNanos = deadline - System.nanoTime();
+            locked = remainingNanos > 0L && this.fallback.lock(remainingNanos, tryLockIntervalNanos, strategy);
+            if (locked) {
+                fallbackAcquired();
+            }
+            return locked;
+        } finally {
+            if (!locked) {
+                this.permit.release();
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean tryLock() throws IOException {
+        checkNotOwner();
+
+        if (!this.permit.tryAcquire()) {
+            return false;
+        }
+
+        boolean locked = false;
+        try {
+            LockManagerClient.Connection connection;
+            while ((connection = this.client.getOpenConnection()) != null) {
+                Reply result = promptRequest(connection, ManagerProtocol.TRY_LOCK);
+                if (result == Reply.GRANTED) {
+                    granted(connection);
+                    locked = true;
+                    return true;
+                }
+                if (result == Reply.DENIED) {
+                    return false;
+                }
+            }
+
+            locked = this.fallback.tryLock();
+            if (locked) {
+                fallbackAcquired();
+            }
+            return locked;
+        } finally {
+            if (!locked) {
+                this.permit.release();
+            }
+        }
+    }
+
+    /*
+     * Sends a request to the manager and waits uninterruptibly for its reply.
+     */
+    private Reply request(final LockManagerClient.Connection connection, final byte operation) {
+        if (!send(connection, operation)) {
+            return Reply.LOST;
+        }
+
+        this.replyGuard.lock();
+        try {
+            while (this.reply == Reply.PENDING) {
+                this.replied.awaitUninterruptibly();
+            }
+            return this.reply;
+        } finally {
+            this.replyGuard.unlock();
+        }
+    }
+
+    /*
+     * Sends a lock request to the manager and waits for its reply until the deadline. On timeout or interrupt the
+     * request is canceled; if the manager granted it meanwhile, the lock is released again.
+     */
+    private Reply request(final LockManagerClient.Connection connection, final byte operation, final long deadline)
+        throws InterruptedException {
+        if (!send(connection, operation)) {
+            return Reply.LOST;
+        }
+
+        InterruptedException interrupted = null;
+        this.replyGuard.lock();
+        try {
+            try {
+                long remainingNanos = deadline - System.nanoTime();
+                while (this.reply == Reply.PENDING && remainingNanos > 0L) {
+                    remainingNanos = this.replied.awaitNanos(remainingNanos);
+                }
+            } catch (InterruptedException e) {
+                interrupted = e;
+            }
+            if (this.reply != Reply.PENDING && interrupted == null) {
+                return this.reply;
+            }
+        } finally {
+            this.replyGuard.unlock();
+        }
+
+        Reply result = promptRequest(connection, ManagerProtocol.CANCEL);
+        if (result == Reply.GRANTED && interrupted != null) {
+            send(connection, ManagerProtocol.UNLOCK);
+            result = Reply.DENIED;
+        }
+        if (interrupted != null) {
+            throw interrupted;
+        }
+        return result;
+    }
+
+    /*
+     * Sends a request the manager answers immediately and waits uninterruptibly for its reply, but no longer than
+     * {@link #REPLY_TIMEOUT_NANOS}. If the manager does not reply in time, the connection is closed, so a manager that
+     * hangs is treated like one that died.
+     */
+    private Reply promptRequest(final LockManagerClient.Connection connection, final byte operation) {
+        if (!send(connection, operation)) {
+            return Reply.LOST;
+        }
+
+        long deadline = System.nanoTime() + REPLY_TIMEOUT_NANOS;
+        boolean interrupted = false;
+        this.replyGuard.lock();
+        try {
+            long remainingNanos;
+            while (this.reply == Reply.PENDING && (remainingNanos = deadline - System.nanoTime()) > 0L) {
+                try {
+                    this.replied.awaitNanos(remainingNanos);
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (this.reply != Reply.PENDING) {
+                return this.reply;
+            }
+            this.reply = Reply.LOST;
+        } finally {
+            this.replyGuard.unlock();
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        connection.close();
+        return Reply.LOST;
+    }
+
+    /*
+     * Sends a request to the manager. Requests other than {@link ManagerProtocol#UNLOCK} expect a reply.
+     *
+     * @return <code>false</code> if the connection has been lost
+     */
+    private boolean send(final LockManagerClient.Connection connection, final byte operation) {
+        if (operation != ManagerProtocol.UNLOCK && operation != ManagerProtocol.CANCEL) {
+            this.replyGuard.lock();
+            try {
+                this.reply = Reply.PENDING;
+                this.pendingConnection = connection;
+            } finally {
+                this.replyGuard.unlock();
+            }
+        }
+
+        try {
+            connection.open(this.lockId, this.syncFile.getFile());
+            connection.send(operation, this.lockId);
+            return true;
+        } catch (IOException e) {
+            connectionLost(connection);
+            return false;
+        }
+    }
+
+    /**
+     * Receives the reply of the manager to the pending request.
+     *
+     * @param connection   the connection the reply has been received on
+     * @param granted      whether the lock has been granted
+     * @param fencingToken the fencing token if the lock has been granted
+     */
+    void replied(final LockManagerClient.Connection connection, final boolean granted, final long fencingToken) {
+        this.replyGuard.lock();
+        try {
+            if (this.pendingConnection == connection && this.reply == Reply.PENDING) {
+                this.reply = granted ? Reply.GRANTED : Reply.DENIED;
+                this.grantedToken = fencingToken;
+                this.replied.signalAll();
+            }
+        } finally {
+            this.replyGuard.unlock();
+        }
+    }
+
+    /**
+     * Notifies that the given connection has been lost, which fails the pending request if it has been sent on it and
+     * marks the lock as lost if it has been granted on it.
+     *
+     * @param connection the lost connection
+     */
+    void connectionLost(final LockManagerClient.Connection connection) {
+        if (this.grantedBy == connection) {
+            this.grantLost = true;
+        }
+
+        this.replyGuard.lock();
+        try {
+            if (this.pendingConnection == connection && this.reply == Reply.PENDING) {
+                this.reply = Reply.LOST;
+                this.replied.signalAll();
+            }
+        } finally {
+            this.replyGuard.unlock();
+        }
+    }
+
+    /*
+     * Takes over the lock granted by the manager. Must be called while holding the permit.
+     */
+    private void granted(final LockManagerClient.Connection connection) {
+        this.replyGuard.lock();
+        try {
+            this.fencingToken = this.grantedToken;
+        } finally {
+            this.replyGuard.unlock();
+        }
+        this.grantLost = false;
+        this.grantedBy = connection;
+        this.owner = Thread.currentThread();
+        if (!connection.isOpen()) {
+            // lost before the grant has been taken over
+            this.grantLost = true;
+        }
+    }
+
+    /*
+     * Takes over the exclusive lock of the file acquired as fallback. Must be called while holding the permit.
+     */
+    private void fallbackAcquired() {
+        this.fencingToken = this.fallback.getFencingToken();
+        this.grantLost = false;
+        this.grantedBy = null;
+        this.owner = Thread.currentThread();
+    }
+
+    /**
+     * Returns whether the lock, if it has been granted by the manager, has not been lost since. The manager releases
+     * the lock if the connection to it is lost, e.g. because it died, while the lock acquired as fallback is held
+     * until released.
+     *
+     * @return <code>false</code> if the connection of the manager that granted the lock has been lost
+     */
+    boolean isGrantValid() {
+        return !this.grantLost;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getFencingToken() {
+        return this.fencingToken;
+    }
+
+    /**
+     * Returns whether the {@link java.nio.channels.FileLock} has been acquired by the last acquisition, which is only
+     * the case if the lock has been acquired as fallback.
+     *
+     * @return <code>true</code> if the fallback acquired the {@link java.nio.channels.FileLock}
+     */
+    @Override
+    public boolean isFileLockAcquired() {
+        return this.grantedBy == null && this.fallback.isFileLockAcquired();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void detach() {
+        this.owner = null;
+        if (this.grantedBy == null) {
+            this.fallback.detach();
+        }
+    }
+
+    /**
+     * Releases the lock. If it has been granted by the manager, the manager hands it over to the next process waiting
+     * for it. If the connection to the manager has been lost meanwhile, the lock has been released by the manager
+     * already.
+     *
+     * @return <code>true</code> if the {@link java.nio.channels.FileLock} was released; <code>false</code> if it was
+     * retained or the lock was granted by the manager
+     * @throws IOException if some I/O error occurs on the underlying {@link java.nio.channels.FileLock}
+     */
+    @Override
+    public boolean unlock() throws IOException {
+        this.owner = null;
+
+        LockManagerClient.Connection connection = this.grantedBy;
+        this.grantedBy = null;
+        this.grantLost = false;
+        try {
+            if (connection != null) {
+                send(connection, ManagerProtocol.UNLOCK);
+                return false;
+            }
+            return this.fallback.unlock();
+        } finally {
+            this.permit.release();
+        }
+    }
+
+    /**
+     * Unregisters this lock from the client of the manager.
+     */
+    void close() {
+        this.client.unregister(this.lockId);
+    }
+}
@@ -0,0 +1,391 @@
+/*
+ * Copyright (c) 2015 Andreas Klöber
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package ipLock;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * The protocol between a {@link LockManager} and its clients.
+ * <p/>
+ * Clients connect by a Unix domain socket in the directory of the manager if the JVM supports them, which is looked up
+ * reflectively as it requires Java 16, and by a TCP socket on the loopback interface otherwise. The manager publishes
+ * its address in an address file in its directory.
+ * <p/>
+ * Messages are frames of a one byte operation code and a four byte lock id, which is chosen by the client when it opens
+ * a lock and refers to it in all subsequent messages. Only {@link #OPEN} and {@link #GRANTED} carry a payload. A client
+ * has at most one request per lock outstanding; each {@link #LOCK}, {@link #TRY_LOCK} and {@link #CANCEL} is answered
+ * by a single {@link #GRANTED} or {@link #DENIED}, except that a {@link #CANCEL} of a request that has been granted
+ * already is not answered at all.
+ */
+class ManagerProtocol {
+
+    /**
+     * Opens a lock; followed by the length of the path of the synchronization file as unsigned short and the path in
+     * UTF-8.
+     */
+    static final byte OPEN = 1;
+
+    /**
+     * Requests a lock, which is granted in the order of the requests.
+     */
+    static final byte LOCK = 2;
+
+    /**
+     * Requests a lock if it can be granted immediately.
+     */
+    static final byte TRY_LOCK = 3;
+
+    /**
+     * Withdraws a request for a lock.
+     */
+    static final byte CANCEL = 4;
+
+    /**
+     * Releases a lock.
+     */
+    static final byte UNLOCK = 5;
+
+    /**
+     * Grants a lock; followed by the fencing token of the acquisition as long.
+     */
+    static final byte GRANTED = 6;
+
+    /**
+     * Refuses or withdraws a request for a lock.
+     */
+    static final byte DENIED = 7;
+
+    /**
+     * The size of the operation code and lock id every frame starts with.
+     */
+    static final int HEADER_SIZE = 5;
+
+    /**
+     * The maximum length of the path of a synchronization file in bytes.
+     */
+    static final int MAX_PATH_BYTES = 0xFFFF;
+
+    /**
+     * The name of the file of the election among managers using the same directory.
+     */
+    static final String ELECTION_FILE_NAME = "ip-lock-manager.lock";
+
+    /**
+     * The name of the file holding the address of the elected manager.
+     */
+    static final String ADDRESS_FILE_NAME = "ip-lock-manager.address";
+
+    /**
+     * The name of the Unix domain socket of the elected manager.
+     */
+    static final String SOCKET_FILE_NAME = "ip-lock-manager.sock";
+
+    /*
+     * Prefix of the address of a Unix domain socket, which is followed by its path.
+     */
+    private static final String UNIX_PREFIX = "unix:";
+
+    /*
+     * Prefix of the address of a TCP socket on the loopback interface, which is followed by its port.
+     */
+    private static final String TCP_PREFIX = "tcp:";
+
+    /*
+     * The charset of paths and addresses.
+     */
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /*
+     * <tt>StandardProtocolFamily.UNIX</tt> or <code>null</code> if not supported by this JVM.
+     */
+    private static final ProtocolFamily UNIX;
+
+    /*
+     * <tt>SocketChannel SocketChannel.open(ProtocolFamily)</tt>.
+     */
+    private static final MethodHandle OPEN_SOCKET;
+
+    /*
+     * <tt>ServerSocketChannel ServerSocketChannel.open(ProtocolFamily)</tt>.
+     */
+    private static final MethodHandle OPEN_SERVER_SOCKET;
+
+    /*
+     * <tt>SocketAddress UnixDomainSocketAddress.of(Path)</tt>.
+     */
+    private static final MethodHandle UNIX_ADDRESS;
+
+    static {
+        ProtocolFamily unix = null;
+        MethodHandle openSocket = null;
+        MethodHandle openServerSocket = null;
+        MethodHandle unixAddress = null;
+
+        try {
+            unix = StandardProtocolFamily.valueOf("UNIX");
+
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            openSocket = lookup.findStatic(SocketChannel.class, "open",
+                MethodType.methodType(SocketChannel.class, ProtocolFamily.class));
+            openServerSocket = lookup.findStatic(ServerSocketChannel.class, "open",
+                MethodType.methodType(ServerSocketChannel.class, ProtocolFamily.class));
+            Class<?> addressClass = Class.forName("java.net.UnixDomainSocketAddress");
+            unixAddress = lookup.findStatic(addressClass, "of", MethodType.methodType(addressClass, Path.class))
+                .asType(MethodType.methodType(SocketAddress.class, Path.class));
+        } catch (Throwable e) {
+            // not supported by this JVM
+            unix = null;
+        }
+
+        UNIX = unix;
+        OPEN_SOCKET = openSocket;
+        OPEN_SERVER_SOCKET = openServerSocket;
+        UNIX_ADDRESS = unixAddress;
+    }
+
+    private ManagerProtocol() {
+    }
+
+    /**
+     * Opens the server socket of a manager using the given directory, a Unix domain socket if supported and a TCP
+     * socket on the loopback interface otherwise.
+     *
+     * @param directory the directory of the manager
+     * @return the bound server socket
+     * @throws IOException if the socket could not be bound
+     */
+    static ServerSocketChannel bind(final File directory) throws IOException {
+        if (UNIX == null) {
+            ServerSocketChannel server = ServerSocketChannel.open();
+            server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            return server;
+        }
+
+        Path socketPath = new File(directory, SOCKET_FILE_NAME).toPath();
+        // left behind by a manager that died
+        Files.deleteIfExists(socketPath);
+
+        ServerSocketChannel server;
+        try {
+            server = (ServerSocketChannel) OPEN_SERVER_SOCKET.invokeExact(UNIX);
+        } catch (IOException | RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+        try {
+            server.bind(unixAddress(socketPath));
+        } catch (IOException | RuntimeException e) {
+            server.close();
+            throw e;
+        }
+        return server;
+    }
+
+    /**
+     * Returns the address of the given server socket as published in the address file.
+     *
+     * @param server    the bound server socket
+     * @param directory the directory of the manager
+     * @return the address
+     * @throws IOException if the address could not be determined
+     */
+    static String address(final ServerSocketChannel server, final File directory) throws IOException {
+        if (UNIX == null) {
+            return TCP_PREFIX + ((InetSocketAddress) server.getLocalAddress()).getPort();
+        }
+        return UNIX_PREFIX + new File(directory, SOCKET_FILE_NAME).getAbsolutePath();
+    }
+
+    /**
+     * Connects to the manager with the given address.
+     *
+     * @param address the address as published in the address file
+     * @return the connected socket in blocking mode
+     * @throws IOException if the manager could not be connected
+     */
+    static SocketChannel connect(final String address) throws IOException {
+        if (address.startsWith(TCP_PREFIX)) {
+            int port;
+            try {
+                port = Integer.parseInt(address.substring(TCP_PREFIX.length()));
+            } catch (NumberFormatException e) {
+                throw new IOException("invalid manager address " + address);
+            }
+            return SocketChannel.open(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+        }
+
+        if (!address.startsWith(UNIX_PREFIX) || UNIX == null) {
+            throw new IOException("unsupported manager address " + address);
+        }
+
+        SocketChannel socket;
+        try {
+            socket = (SocketChannel) OPEN_SOCKET.invokeExact(UNIX);
+        } catch (IOException | RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+        try {
+            socket.connect(unixAddress(new File(address.substring(UNIX_PREFIX.length())).toPath()));
+        } catch (IOException | RuntimeException e) {
+            socket.close();
+            throw e;
+        }
+        return socket;
+    }
+
+    /*
+     * Returns the address of the Unix domain socket with the given path.
+     */
+    private static SocketAddress unixAddress(final Path path) {
+        try {
+            return (SocketAddress) UNIX_ADDRESS.invokeExact(path);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Publishes the address of the manager using the given directory. The address file is replaced atomically, so
+     * clients never read a partial address.
+     *
+     * @param directory the directory of the manager
+     * @param address   the address
+     * @throws IOException if the address file could not be written
+     */
+    static void writeAddress(final File directory, final String address) throws IOException {
+        Path tempPath = Files.createTempFile(directory.toPath(), ADDRESS_FILE_NAME, ".tmp");
+        try {
+            Files.write(tempPath, address.getBytes(UTF_8));
+            Files.move(tempPath, new File(directory, ADDRESS_FILE_NAME).toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tempPath);
+        }
+    }
+
+    /**
+     * Reads the address of the manager using the given directory.
+     *
+     * @param directory the directory of the manager
+     * @return the address or <code>null</code> if no manager has published one
+     * @throws IOException if the address file could not be read
+     */
+    static String readAddress(final File directory) throws IOException {
+        try {
+            return new String(Files.readAllBytes(new File(directory, ADDRESS_FILE_NAME).toPath()), UTF_8);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Deletes the address file of the manager using the given directory if it still holds the given address.
+     *
+     * @param directory the directory of the manager
+     * @param address   the address published by the terminating manager
+     * @throws IOException if the address file could not be read or deleted
+     */
+    static void deleteAddress(final File directory, final String address) throws IOException {
+        if (address.equals(readAddress(directory))) {
+            Files.deleteIfExists(new File(directory, ADDRESS_FILE_NAME).toPath());
+        }
+    }
+
+    /**
+     * Encodes the path of a synchronization file for an {@link #OPEN} frame.
+     *
+     * @param syncFile the synchronization file
+     * @return the encoded path
+     * @throws IOException if the path is too long
+     */
+    static byte[] encodePath(final File syncFile) throws IOException {
+        byte[] path = syncFile.getPath().getBytes(UTF_8);
+        if (path.length > MAX_PATH_BYTES) {
+            throw new IOException("path of synchronization file is too long: " + syncFile);
+        }
+        return path;
+    }
+
+    /**
+     * Decodes the path of a synchronization file of an {@link #OPEN} frame.
+     *
+     * @param path the encoded path
+     * @return the synchronization file
+     */
+    static File decodePath(final byte[] path) {
+        return new File(new String(path, UTF_8));
+    }
+
+    /**
+     * Reads from the given socket until the buffer is full and flips it.
+     *
+     * @param socket the socket in blocking mode
+     * @param buffer the buffer
+     * @throws EOFException if the socket has been closed by the peer
+     * @throws IOException  if some other I/O error occurs
+     */
+    static void readFully(final SocketChannel socket, final ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (socket.read(buffer) < 0) {
+                throw new EOFException("connection closed by peer");
+            }
+        }
+        buffer.flip();
+    }
+
+    /**
+     * Writes the whole buffer to the given socket.
+     *
+     * @param socket the socket in blocking mode
+     * @param buffer the buffer, which is flipped already
+     * @throws IOException if an I/O error occurs
+     */
+    static void writeFully(final SocketChannel socket, final ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            socket.write(buffer);
+        }
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright (c) 2015 Andreas Klöber
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package ipLock;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.nio.Buffer;
+import java.nio.MappedByteBuffer;
+
+/**
+ * Atomic access to memory mapped files as used by {@link MappedSyncLock}.
+ * <p/>
+ * The operations are provided by <tt>sun.misc.Unsafe</tt>, which is looked up reflectively, so there is no dependency
+ * on internal APIs at compile time. The method handles are constants, so the JIT compiles calls to them into plain
+ * atomic instructions. If the JVM does not provide <tt>sun.misc.Unsafe</tt>, {@link #isSupported()} returns
+ * <code>false</code> and no other method may be called.
+ */
+class MappedMemory {
+
+    /*
+     * <tt>boolean compareAndSwapLong(Object, long, long, long)</tt> bound to the unsafe instance.
+     */
+    private static final MethodHandle COMPARE_AND_SWAP_LONG;
+
+    /*
+     * <tt>long getLongVolatile(Object, long)</tt> bound to the unsafe instance.
+     */
+    private static final MethodHandle GET_LONG_VOLATILE;
+
+    /*
+     * <tt>void putLongVolatile(Object, long, long)</tt> bound to the unsafe instance.
+     */
+    private static final MethodHandle PUT_LONG_VOLATILE;
+
+    /*
+     * <tt>long getLong(Object, long)</tt> bound to the unsafe instance.
+     */
+    private static final MethodHandle GET_LONG;
+
+    /*
+     * Offset of the field holding the address of a direct buffer.
+     */
+    private static final long ADDRESS_OFFSET;
+
+    static {
+        MethodHandle compareAndSwapLong = null;
+        MethodHandle getLongVolatile = null;
+        MethodHandle putLongVolatile = null;
+        MethodHandle getLong = null;
+        long addressOffset = -1L;
+
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            Object unsafe = theUnsafe.get(null);
+
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            compareAndSwapLong = lookup.findVirtual(unsafeClass, "compareAndSwapLong",
+                MethodType.methodType(boolean.class, Object.class, long.class, long.class, long.class))
+                .bindTo(unsafe);
+            getLongVolatile = lookup.findVirtual(unsafeClass, "getLongVolatile",
+                MethodType.methodType(long.class, Object.class, long.class)).bindTo(unsafe);
+            putLongVolatile = lookup.findVirtual(unsafeClass, "putLongVolatile",
+                MethodType.methodType(void.class, Object.class, long.class, long.class)).bindTo(unsafe);
+            getLong = lookup.findVirtual(unsafeClass, "getLong",
+                MethodType.methodType(long.class, Object.class, long.class)).bindTo(unsafe);
+
+            addressOffset = (long) lookup.findVirtual(unsafeClass, "objectFieldOffset",
+                MethodType.methodType(long.class, Field.class))
+                .invoke(unsafe, Buffer.class.getDeclaredField("address"));
+        } catch (Throwable e) {
+            // not supported by this JVM
+            compareAndSwapLong = null;
+        }
+
+        COMPARE_AND_SWAP_LONG = compareAndSwapLong;
+        GET_LONG_VOLATILE = getLongVolatile;
+        PUT_LONG_VOLATILE = putLongVolatile;
+        GET_LONG = getLong;
+        ADDRESS_OFFSET = addressOffset;
+    }
+
+    private MappedMemory() {
+    }
+
+    /**
+     * Returns whether atomic access to memory mapped files is supported by this JVM.
+     *
+     * @return <code>true</code> if supported
+     */
+    static boolean isSupported() {
+        return COMPARE_AND_SWAP_LONG != null;
+    }
+
+    /**
+     * Returns the address of the memory the given buffer is mapped to. The buffer must be kept reachable as long as the
+     * address is used, otherwise the memory may be unmapped.
+     *
+     * @param buffer the mapped buffer
+     * @return the address
+     */
+    static long address(final MappedByteBuffer buffer) {
+        try {
+            return (long) GET_LONG.invokeExact((Object) buffer, ADDRESS_OFFSET);
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Atomically sets the long at the given address to the given value if it holds the expected value.
+     *
+     * @param address the address, which must be aligned to eight bytes
+     * @param expect  the expected value
+     * @param update  the new value
+     * @return <code>true</code> if successful
+     */
+    static boolean compareAndSwapLong(final long address, final long expect, final long update) {
+        try {
+            return (boolean) COMPARE_AND_SWAP_LONG.invokeExact((Object) null, address, expect, update);
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Reads the long at the given address with volatile semantics.
+     *
+     * @param address the address, which must be aligned to eight bytes
+     * @return the value
+     */
+    static long getLongVolatile(final long address) {
+        try {
+            return (long) GET_LONG_VOLATILE.invokeExact((Object) null, address);
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Writes the long at the given address with volatile semantics.
+     *
+     * @param address the address, which must be aligned to eight bytes
+     * @param value   the value
+     */
+    static void putLongVolatile(final long address, final long value) {
+        try {
+            PUT_LONG_VOLATILE.invokeExact((Object) null, address, value);
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Atomically adds the given delta to the long at the given address.
+     *
+     * @param address the address, which must be aligned to eight bytes
+     * @param delta   the value to add
+     * @return the new value
+     */
+    static long addAndGetLong(final long address, final long delta) {
+        while (true) {
+            long current = getLongVolatile(address);
+            if (compareAndSwapLong(address, current, current + delta)) {
+                return current + delta;
+            }
+        }
+    }
+}
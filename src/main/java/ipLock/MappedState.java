@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) 2015 Andreas Klöber
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package ipLock;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The state of an inter-process synchronization primitive like {@link IpCountDownLatch} or {@link IpBarrier}, which
+ * is stored as longs in a memory mapped state file next to the synchronization file.
+ * <p/>
+ * The state is only modified while holding the {@link IpLock} of the primitive, but may be read without it as a hint.
+ * Beyond the mapped data the state file provides slots that can be locked exclusively by means of {@link FileLock}s
+ * for detecting whether the participant occupying them is still alive.
+ * <p/>
+ * This class is thread-safe.
+ */
+class MappedState {
+
+    /*
+     * Position of the first slot; beyond the mapped data, so locking a slot does not interfere with it.
+     */
+    private static final long SLOTS_POSITION = 1L << 20;
+
+    /*
+     * The state file.
+     */
+    private final File file;
+
+    /*
+     * The number of longs of the state.
+     */
+    private final int size;
+
+    /*
+     * The channel of the state file; opened on demand and guarded by this.
+     */
+    private FileChannel channel;
+
+    /*
+     * The mapped state; guarded by this.
+     */
+    private MappedByteBuffer buffer;
+
+    /**
+     * Create a new state that is stored in the given file.
+     *
+     * @param file the state file
+     * @param size the number of longs of the state
+     */
+    MappedState(final File file, final int size) {
+        this.file = file;
+        this.size = size;
+    }
+
+    /*
+     * Opens and maps the state file if this has not been done yet. The interrupt status is cleared meanwhile, as an
+     * interrupt while mapping would close the new channel, which releases all slots this process holds on the file.
+     */
+    private synchronized MappedByteBuffer open() throws IOException {
+        if (this.channel == null || !this.channel.isOpen()) {
+            boolean interrupted = Thread.interrupted();
+            try {
+                FileChannel newChannel = FileChannel.open(this.file.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+                try {
+                    this.buffer = newChannel.map(FileChannel.MapMode.READ_WRITE, 0L, 8L * this.size);
+                } catch (IOException | RuntimeException e) {
+                    newChannel.close();
+                    throw e;
+                }
+                this.channel = newChannel;
+            } finally {
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        return this.buffer;
+    }
+
+    /**
+     * Returns the long with the given index.
+     *
+     * @param index the index
+     * @return the value
+     * @throws IOException if the state file could not be created or mapped
+     */
+    long get(final int index) throws IOException {
+        return open().getLong(8 * index);
+    }
+
+    /**
+     * Sets the long with the given index. Must be called while holding the lock of the primitive.
+     *
+     * @param index the index
+     * @param value the value
+     * @throws IOException if the state file could not be created or mapped
+     */
+    void set(final int index, final long value) throws IOException {
+        open().putLong(8 * index, value);
+    }
+
+    /**
+     * Tries to lock the slot with the given index exclusively.
+     *
+     * @param slot the index of the slot
+     * @return the lock of the slot or <code>null</code> if it is locked by another process or by this JVM already
+     * @throws IOException if the state file could not be created or if some other I/O error occurs
+     */
+    FileLock tryLockSlot(final int slot) throws IOException {
+        FileChannel currentChannel;
+        synchronized (this) {
+            open();
+            currentChannel = this.channel;
+        }
+
+        // the interrupt status is cleared meanwhile, as an interrupt would close the channel holding all slots
+        boolean interrupted = Thread.interrupted();
+        try {
+            return currentChannel.tryLock(SLOTS_POSITION + slot, 1L, false);
+        } catch (OverlappingFileLockException e) {
+            // held by another object of this JVM
+            return null;
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Closes the state file, which releases the locks of all slots. The mapping itself is released by the garbage
+     * collector.
+     *
+     * @throws IOException if an I/O error occurs while closing the state file
+     */
+    synchronized void close() throws IOException {
+        try {
+            if (this.channel != null) {
+                this.channel.close();
+            }
+        } finally {
+            this.channel = null;
+            this.buffer = null;
+        }
+    }
+}
@@ -0,0 +1,868 @@
+/*
+ * Copyright (c) 2015 Andreas Klöber
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package ipLock;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The exclusive lock of a {@link SyncFile} that is held by means of a lock word in the memory mapped file, as used by
+ * {@link IpLock} in mapped mode.
+ * <p/>
+ * Acquisition and release are a single compare-and-swap on the lock word, so they do not need any system call. The
+ * lock word holds the liveness slot and epoch of the owning process. Each process claims a free liveness slot by
+ * holding an exclusive {@link FileLock} on one byte beyond the mapped data for as long as it uses the file, and
+ * increments the epoch of that slot. If the lock word is taken, a waiting process checks whether the {@link FileLock}
+ * of the owner's slot is still held and the epoch is unchanged. Otherwise the owner has died and its lock word is
+ * taken over, so the lock is still released automatically if the owning process is killed.
+ * <p/>
+ * Layout of the mapped data:
+ * <pre>
+ *   0  lock word: epoch &lt;&lt; 16 | (slot + 1) of the owner or 0 if free
+ *   8  number of waiting processes
+ *  16  last ticket drawn
+ *  24  last ticket served
+ *  32  number of liveness slots claimed so far
+ *  40  last fencing token
+ *  64  epochs of the liveness slots
+ *  64 + 8 * MAX_SLOTS  tickets held by the liveness slots
+ *  64 + 16 * MAX_SLOTS  lease expiry times of the liveness slots in milliseconds or 0 if not leased
+ * </pre>
+ * Like {@link ExclusiveSyncLock}, threads queue up for a local permit and the lock word is handed over directly to
+ * queued threads of this JVM.
+ * <p/>
+ * A fair lock takes the lock word in ticket order instead: the permit holder draws a ticket and only tries the lock
+ * word once all preceding tickets have been served, and the lock word is never handed over locally. The ticket is
+ * recorded in the liveness slot, so tickets of processes that gave up waiting or died are skipped.
+ * <p/>
+ * A holder in lease mode records the expiry time of its lease in its liveness slot and renews it periodically by means
+ * of the {@link LeaseHeartbeat}. If the lease of a live owner has expired, its lock word is taken over as if the owner
+ * had died. The takeover draws a new fencing token, which is how the former owner detects that it lost the lease.
+ */
+class MappedSyncLock implements SyncLock {
+
+    /**
+     * The maximum number of processes that can use the same file in mapped mode at the same time.
+     */
+    static final int MAX_SLOTS = 4096;
+
+    /*
+     * Offset of the lock word.
+     */
+    private static final long LOCK_WORD_OFFSET = 0L;
+
+    /*
+     * Offset of the number of waiting processes; they are notified on release only if there are any.
+     */
+    private static final long WAITERS_OFFSET = 8L;
+
+    /*
+     * Offset of the last ticket drawn.
+     */
+    private static final long NEXT_TICKET_OFFSET = 16L;
+
+    /*
+     * Offset of the last ticket served; the lock word may be taken by the holder of the following ticket.
+     */
+    private static final long SERVED_TICKET_OFFSET = 24L;
+
+    /*
+     * Offset of the number of liveness slots claimed so far, which limits the slots to be scanned for tickets.
+     */
+    private static final long SLOTS_USED_OFFSET = 32L;
+
+    /*
+     * Offset of the last fencing token, which is incremented by each acquisition.
+     */
+    private static final long FENCING_TOKEN_OFFSET = 40L;
+
+    /*
+     * Offset of the epochs of the liveness slots; in a separate cache line.
+     */
+    private static final long EPOCHS_OFFSET = 64L;
+
+    /*
+     * Offset of the tickets held by the liveness slots.
+     */
+    private static final long TICKETS_OFFSET = EPOCHS_OFFSET + 8L * MAX_SLOTS;
+
+    /*
+     * Offset of the lease expiry times of the liveness slots.
+     */
+    private static final long LEASES_OFFSET = TICKETS_OFFSET + 8L * MAX_SLOTS;
+
+    /*
+     * Size of the mapped data.
+     */
+    private static final long MAPPED_SIZE = LEASES_OFFSET + 8L * MAX_SLOTS;
+
+    /*
+     * Value of a slot's ticket while it is being drawn.
+     */
+    private static final long PENDING_TICKET = -1L;
+
+    /*
+     * Position of the first liveness slot; beyond the mapped data, so locking a slot does not interfere with it.
+     */
+    private static final long SLOTS_POSITION = 1L << 20;
+
+    /*
+     * The locked file.
+     */
+    private final SyncFile syncFile;
+
+    /*
+     * Whether the lock word is taken in ticket order.
+     */
+    private final boolean fair;
+
+    /*
+     * The local permit for the lock; fair, so local threads acquire the lock in arrival order.
+     */
+    private final Semaphore permit = new Semaphore(1, true);
+
+    /*
+     * The channel holding the liveness slot and the mapping. As closing any channel of the file releases all
+     * {@link FileLock}s this process holds on it, including the slot and those of the {@link SyncFile} channel, it is
+     * only operated with the interrupt status cleared and only closed by {@link #close()}. Opened on demand and
+     * guarded by the permit.
+     */
+    private FileChannel channel;
+
+    /*
+     * The mapped data; must be kept reachable while its address is used. Guarded by the permit.
+     */
+    private MappedByteBuffer buffer;
+
+    /*
+     * The address of the mapped data; guarded by the permit.
+     */
+    private long address;
+
+    /*
+     * The liveness slot of this process; guarded by the permit.
+     */
+    private int slot;
+
+    /*
+     * The value of the lock word while held by this process; guarded by the permit.
+     */
+    private long ownerWord;
+
+    /*
+     * Whether the lock word is held on behalf of the local permit holder; guarded by the permit.
+     */
+    private boolean wordHeld;
+
+    /*
+     * The ticket drawn by the permit holder or 0 if none; guarded by the permit.
+     */
+    private long ticket;
+
+    /*
+     * The fencing token of the current acquisition; guarded by the permit.
+     */
+    private long fencingToken;
+
+    /*
+     * The lease of the current acquisition or <code>null</code> if it is not leased; written while holding the permit.
+     */
+    private volatile Lease lease;
+
+    /*
+     * The thread that acquired the lock.
+     */
+    private volatile Thread owner;
+
+    MappedSyncLock(final SyncFile syncFile, final boolean fair) {
+        this.syncFile = syncFile;
+        this.fair = fair;
+    }
+
+    /**
+     * Returns whether the lock word is taken in ticket order.
+     *
+     * @return <code>true</code> if fair
+     */
+    boolean isFair() {
+        return this.fair;
+    }
+
+    /*
+     * Maps the file and claims a liveness slot if this has not been done yet. Must be called while holding the permit.
+     */
+    private void ensureMapped() throws IOException {
+        if (this.channel != null && this.channel.isOpen()) {
+            return;
+        }
+
+        // the interrupt status is cleared meanwhile, as an interrupt while mapping would close the new channel
+        boolean interrupted = Thread.interrupted();
+        try {
+            mapAndClaimSlot();
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /*
+     * Maps the file and claims a free liveness slot. Must be called while holding the permit and with the interrupt
+     * status cleared.
+     */
+    private void mapAndClaimSlot() throws IOException {
+        FileChannel newChannel = FileChannel.open(this.syncFile.getFile().toPath(),
+            StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            MappedByteBuffer newBuffer = newChannel.map(FileChannel.MapMode.READ_WRITE, 0L, MAPPED_SIZE);
+            long newAddress = MappedMemory.address(newBuffer);
+
+            for (int i = 0; i < MAX_SLOTS; i++) {
+                if (newChannel.tryLock(SLOTS_POSITION + i, 1L, false) != null) {
+                    // the slot is exclusively ours, so no other process updates its epoch
+                    long epochAddress = newAddress + EPOCHS_OFFSET + 8L * i;
+                    long epoch = (MappedMemory.getLongVolatile(epochAddress) + 1L) & 0xFFFFFFFFFFFFL;
+                    MappedMemory.putLongVolatile(epochAddress, epoch);
+                    MappedMemory.putLongVolatile(newAddress + TICKETS_OFFSET + 8L * i, 0L);
+                    MappedMemory.putLongVolatile(newAddress + LEASES_OFFSET + 8L * i, 0L);
+
+                    long slotsUsedAddress = newAddress + SLOTS_USED_OFFSET;
+                    long slotsUsed;
+                    do {
+                        slotsUsed = MappedMemory.getLongVolatile(slotsUsedAddress);
+                    } while (slotsUsed <= i && !MappedMemory.compareAndSwapLong(slotsUsedAddress, slotsUsed, i + 1));
+
+                    this.channel = newChannel;
+                    this.buffer = newBuffer;
+                    this.address = newAddress;
+                    this.slot = i;
+                    this.ownerWord = epoch << 16 | (i + 1);
+                    this.wordHeld = false;
+                    this.ticket = 0L;
+                    return;
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            newChannel.close();
+            throw e;
+        }
+
+        newChannel.close();
+        throw new IOException(String.format("all %d liveness slots of %s are in use", MAX_SLOTS,
+            this.syncFile.getFile()));
+    }
+
+    /*
+     * Returns whether the process owning the given lock word is alive and its lease, if any, has not expired. Must be
+     * called while holding the permit.
+     */
+    private boolean isAlive(final long word) throws IOException {
+        int ownerSlot = (int) (word & 0xFFFFL) - 1;
+        if (ownerSlot < 0 || ownerSlot >= MAX_SLOTS || ownerSlot == this.slot) {
+            // corrupt or left over by a previous use of our own slot
+            return false;
+        }
+
+        long epoch = MappedMemory.getLongVolatile(this.address + EPOCHS_OFFSET + 8L * ownerSlot);
+        if (epoch != word >>> 16) {
+            // slot has been claimed by another process since
+            return false;
+        }
+
+        return isSlotAlive(ownerSlot) && !isLeaseExpired(ownerSlot);
+    }
+
+    /*
+     * Returns whether the given liveness slot of another process holds a lease that has expired.
+     */
+    private boolean isLeaseExpired(final int otherSlot) {
+        long expiry = MappedMemory.getLongVolatile(this.address + LEASES_OFFSET + 8L * otherSlot);
+        return expiry != 0L && System.currentTimeMillis() - expiry > 0L;
+    }
+
+    /*
+     * Returns whether the given liveness slot of another process is claimed. Must be called while holding the permit.
+     */
+    private boolean isSlotAlive(final int otherSlot) throws IOException {
+        FileLock slotLock = this.syncFile.tryLockRegion(SLOTS_POSITION + otherSlot, 1L, true);
+        if (slotLock == null) {
+            return true;
+        }
+
+        slotLock.release();
+        return false;
+    }
+
+    /*
+     * Returns the address of the ticket of the given liveness slot.
+     */
+    private long ticketAddress(final int ticketSlot) {
+        return this.address + TICKETS_OFFSET + 8L * ticketSlot;
+    }
+
+    /*
+     * Draws a ticket if the permit holder has none yet. Must be called while holding the permit.
+     */
+    private void drawTicket() throws IOException {
+        ensureMapped();
+        if (this.ticket != 0L) {
+            return;
+        }
+
+        // announce the pending ticket first, so it is not skipped before it is recorded
+        MappedMemory.putLongVolatile(ticketAddress(this.slot), PENDING_TICKET);
+        this.ticket = MappedMemory.addAndGetLong(this.address + NEXT_TICKET_OFFSET, 1L);
+        MappedMemory.putLongVolatile(ticketAddress(this.slot), this.ticket);
+    }
+
+    /*
+     * Draws a ticket only if it can be served immediately. Must be called while holding the permit.
+     */
+    private boolean tryDrawTicket() throws IOException {
+        ensureMapped();
+
+        long served = MappedMemory.getLongVolatile(this.address + SERVED_TICKET_OFFSET);
+        if (MappedMemory.getLongVolatile(this.address + NEXT_TICKET_OFFSET) != served) {
+            skipAbandonedTicket();
+            served = MappedMemory.getLongVolatile(this.address + SERVED_TICKET_OFFSET);
+        }
+
+        MappedMemory.putLongVolatile(ticketAddress(this.slot), PENDING_TICKET);
+        if (!MappedMemory.compareAndSwapLong(this.address + NEXT_TICKET_OFFSET, served, served + 1L)) {
+            // other processes are queued
+            MappedMemory.putLongVolatile(ticketAddress(this.slot), 0L);
+            return false;
+        }
+
+        this.ticket = served + 1L;
+        MappedMemory.putLongVolatile(ticketAddress(this.slot), this.ticket);
+        return true;
+    }
+
+    /*
+     * Marks the ticket of the permit holder as served after the lock word has been taken. Must be called while
+     * holding the permit.
+     */
+    private void serveTicket() {
+        MappedMemory.compareAndSwapLong(this.address + SERVED_TICKET_OFFSET, this.ticket - 1L, this.ticket);
+        MappedMemory.putLongVolatile(ticketAddress(this.slot), 0L);
+        this.ticket = 0L;
+    }
+
+    /*
+     * Gives up the ticket of the permit holder. If it is being served, the next one is served instead, otherwise it is
+     * skipped once its turn has come. Must be called while holding the permit.
+     */
+    private void abandonTicket() {
+        if (this.ticket == 0L || this.channel == null) {
+            return;
+        }
+
+        long abandonedTicket = this.ticket;
+        this.ticket = 0L;
+        MappedMemory.putLongVolatile(ticketAddress(this.slot), 0L);
+
+        if (MappedMemory.compareAndSwapLong(this.address + SERVED_TICKET_OFFSET,
+            abandonedTicket - 1L, abandonedTicket)) {
+            notifyWaiters();
+        }
+    }
+
+    /*
+     * Skips the ticket being served if the lock word is free and no live process holds that ticket, because its holder
+     * gave up waiting or died. Must be called while holding the permit.
+     */
+    private void skipAbandonedTicket() throws IOException {
+        long served = MappedMemory.getLongVolatile(this.address + SERVED_TICKET_OFFSET);
+        if (MappedMemory.getLongVolatile(this.address + NEXT_TICKET_OFFSET) == served
+            || MappedMemory.getLongVolatile(this.address + LOCK_WORD_OFFSET) != 0L) {
+            // nobody queued or the lock word has been taken
+            return;
+        }
+
+        long turn = served + 1L;
+        long slotsUsed = MappedMemory.getLongVolatile(this.address + SLOTS_USED_OFFSET);
+        for (int i = 0; i < slotsUsed && i < MAX_SLOTS; i++) {
+            long slotTicket = MappedMemory.getLongVolatile(ticketAddress(i));
+            if ((slotTicket == turn || slotTicket == PENDING_TICKET) && (i == this.slot || isSlotAlive(i))) {
+                return;
+            }
+        }
+
+        if (MappedMemory.compareAndSwapLong(this.address + SERVED_TICKET_OFFSET, served, turn)) {
+            notifyWaiters();
+        }
+    }
+
+    /*
+     * Returns whether the ticket of the permit holder is being served. Must be called while holding the permit.
+     */
+    private boolean isTurn() {
+        return MappedMemory.getLongVolatile(this.address + SERVED_TICKET_OFFSET) + 1L == this.ticket;
+    }
+
+    /*
+     * Performs a single attempt to take the lock word in ticket order. Must be called while holding the permit and a
+     * ticket.
+     */
+    private boolean tryAcquireWordInTurn() throws IOException {
+        if (!isTurn()) {
+            skipAbandonedTicket();
+            if (!isTurn()) {
+                return false;
+            }
+        }
+
+        if (!tryAcquireWord()) {
+            return false;
+        }
+
+        serveTicket();
+        return true;
+    }
+
+    /*
+     * Performs a single attempt to take the lock word, taking it over from a dead owner if necessary. Must be called
+     * while holding the permit.
+     */
+    private boolean tryAcquireWord() throws IOException {
+        ensureMapped();
+
+        long lockWordAddress = this.address + LOCK_WORD_OFFSET;
+        if (MappedMemory.compareAndSwapLong(lockWordAddress, 0L, this.ownerWord)) {
+            return true;
+        }
+
+        long word = MappedMemory.getLongVolatile(lockWordAddress);
+        if (word == 0L) {
+            return MappedMemory.compareAndSwapLong(lockWordAddress, 0L, this.ownerWord);
+        }
+        if (word == this.ownerWord || isAlive(word)) {
+            return false;
+        }
+
+        return MappedMemory.compareAndSwapLong(lockWordAddress, word, this.ownerWord);
+    }
+
+    /*
+     * Tries to take the lock word whenever a release is notified, but at least as often as determined by the strategy,
+     * until this is successful or the deadline is reached if the attempt is timed. Must be called while holding the
+     * permit.
+     */
+    private boolean awaitWord(final boolean timed, final long deadline, final long tryLockIntervalNanos,
+                              final WaitStrategy strategy) throws IOException, InterruptedException {
+        if (this.fair) {
+            drawTicket();
+        }
+        if (tryAcquireWordOnce()) {
+            return true;
+        }
+
+        LockSignal signal = this.syncFile.getSignal();
+        signal.prepare();
+
+        LockWait wait = new LockWait(strategy, timed, deadline, tryLockIntervalNanos);
+        long waitersAddress = this.address + WAITERS_OFFSET;
+        MappedMemory.addAndGetLong(waitersAddress, 1L);
+        try {
+            while (true) {
+                long generation = signal.generation();
+                if (tryAcquireWordOnce()) {
+                    wait.acquired();
+                    return true;
+                }
+
+                if (!wait.await(signal, generation)) {
+                    return false;
+                }
+            }
+        } finally {
+            MappedMemory.addAndGetLong(waitersAddress, -1L);
+        }
+    }
+
+    /*
+     * Performs a single attempt to take the lock word, in ticket order if the lock is fair. Must be called while
+     * holding the permit.
+     */
+    private boolean tryAcquireWordOnce() throws IOException {
+        return this.fair ? tryAcquireWordInTurn() : tryAcquireWord();
+    }
+
+    /*
+     * Releases the lock word and notifies waiting processes if there are any. Must be called while holding the permit.
+     */
+    private void releaseWord() {
+        if (!this.wordHeld) {
+            return;
+        }
+
+        this.wordHeld = false;
+        MappedMemory.compareAndSwapLong(this.address + LOCK_WORD_OFFSET, this.ownerWord, 0L);
+        notifyWaiters();
+    }
+
+    /*
+     * Notifies waiting processes if there are any.
+     */
+    private void notifyWaiters() {
+        if (MappedMemory.getLongVolatile(this.address + WAITERS_OFFSET) > 0L) {
+            this.syncFile.getSignal().post();
+        }
+    }
+
+    /*
+     * Releases a lock word that has been retained for a local thread that gave up waiting meanwhile.
+     */
+    private void releaseRetainedWord() {
+        if (this.permit.tryAcquire()) {
+            try {
+                if (!this.permit.hasQueuedThreads()) {
+                    releaseWord();
+                }
+            } finally {
+                this.permit.release();
+            }
+        }
+    }
+
+    /*
+     * Makes the current thread the owner and draws the next fencing token. Must be called after the permit and the lock
+     * word have been acquired.
+     */
+    private void acquired() {
+        this.fencingToken = MappedMemory.addAndGetLong(this.address + FENCING_TOKEN_OFFSET, 1L);
+        this.owner = Thread.currentThread();
+    }
+
+    /**
+     * Starts the lease of the current acquisition: its expiry time is recorded in the liveness slot and renewed by the
+     * {@link LeaseHeartbeat} until the lock is released. Must be called right after the lock has been acquired by the
+     * thread that acquired it.
+     *
+     * @param ttlNanos the time after which the lease expires unless it is renewed in nanoseconds
+     */
+    void startLease(final long ttlNanos) {
+        Lease newLease = new Lease(this.buffer, this.address + LOCK_WORD_OFFSET, this.address + FENCING_TOKEN_OFFSET,
+            this.address + LEASES_OFFSET + 8L * this.slot, this.ownerWord, this.fencingToken,
+            Math.max(1L, TimeUnit.NANOSECONDS.toMillis(ttlNanos)));
+        newLease.run();
+        newLease.renewal = LeaseHeartbeat.getInstance().schedule(newLease, Math.max(ttlNanos / 3L, 1000000L));
+        this.lease = newLease;
+    }
+
+    /**
+     * Returns whether the current acquisition is leased and the lease has not been taken over by another process
+     * since.
+     *
+     * @return <code>true</code> if the lease is held
+     */
+    boolean isLeaseHeld() {
+        Lease currentLease = this.lease;
+        return currentLease != null && currentLease.isHeld();
+    }
+
+    /*
+     * Ends the lease of the current acquisition if it is leased. If the lease has been taken over, the lock word is
+     * not considered to be held anymore. Must be called while holding the permit.
+     */
+    private void endLease() {
+        Lease endedLease = this.lease;
+        if (endedLease == null) {
+            return;
+        }
+
+        this.lease = null;
+        if (!endedLease.end()) {
+            this.wordHeld = false;
+        }
+    }
+
+    /*
+     * Makes sure the current thread does not hold the lock already, which would otherwise deadlock.
+     */
+    private void checkNotOwner() {
+        if (this.owner == Thread.currentThread()) {
+            throw new OverlappingFileLockException();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void lock(final WaitStrategy strategy) throws IOException {
+        checkNotOwner();
+
+        this.permit.acquireUninterruptibly();
+        boolean interrupted = false;
+        try {
+            while (!this.wordHeld) {
+                try {
+                    this.wordHeld = awaitWord(false, 0L, SyncFile.DEFAULT_TRY_LOCK_INTERVAL_NANOS, strategy);
+                } catch (InterruptedException e) {
+                    // the interrupt status is cleared, so waiting can be continued
+                    interrupted = true;
+                }
+            }
+        } finally {
+            if (!this.wordHeld) {
+                abandonTicket();
+                this.permit.release();
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        acquired();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean lock(final long timeoutNanos, final long tryLockIntervalNanos, final WaitStrategy strategy)
+        throws IOException, InterruptedException {
+        checkNotOwner();
+
+        long deadline = System.nanoTime() + timeoutNanos;
+
+        boolean permitted = false;
+        try {
+            permitted = this.permit.tryAcquire(timeoutNanos, TimeUnit.NANOSECONDS);
+        } finally {
+            if (!permitted) {
+                releaseRetainedWord();
+            }
+        }
+        if (!permitted) {
+            return false;
+        }
+
+        try {
+            if (!this.wordHeld) {
+                this.wordHeld = awaitWord(true, deadline, tryLockIntervalNanos, strategy);
+            }
+        } finally {
+            if (!this.wordHeld) {
+                abandonTicket();
+                this.permit.release();
+            }
+        }
+
+        if (this.wordHeld) {
+            acquired();
+        }
+        return this.wordHeld;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean tryLock() throws IOException {
+        checkNotOwner();
+
+        if (!this.permit.tryAcquire()) {
+            return false;
+        }
+
+        boolean locked = false;
+        try {
+            if (!this.wordHeld) {
+                if (!this.fair) {
+                    this.wordHeld = tryAcquireWord();
+                } else if (tryDrawTicket()) {
+                    this.wordHeld = tryAcquireWordInTurn();
+                }
+            }
+            locked = this.wordHeld;
+        } finally {
+            if (!locked) {
+                abandonTicket();
+                this.permit.release();
+            }
+        }
+
+        if (locked) {
+            acquired();
+        }
+        return locked;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getFencingToken() {
+        return this.fencingToken;
+    }
+
+    /**
+     * Returns <code>false</code> as the lock word is acquired without a {@link FileLock}.
+     *
+     * @return <code>false</code>
+     */
+    @Override
+    public boolean isFileLockAcquired() {
+        return false;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void detach() {
+        this.owner = null;
+    }
+
+    /**
+     * Releases the lock. If other threads of this JVM are waiting for the lock and the lock is not fair, the lock word
+     * is retained and handed over to the next one.
+     *
+     * @return <code>false</code> as the lock word is released without a {@link FileLock}
+     */
+    @Override
+    public boolean unlock() {
+        this.owner = null;
+
+        try {
+            endLease();
+            if (this.fair || !this.permit.hasQueuedThreads()) {
+                releaseWord();
+            }
+        } finally {
+            this.permit.release();
+        }
+        return false;
+    }
+
+    /**
+     * Releases the lock word if it is held and the liveness slot. Must only be called when the lock is not used
+     * anymore. The mapping itself is released by the garbage collector.
+     *
+     * @throws IOException if an I/O error occurs while closing the channel
+     */
+    void close() throws IOException {
+        if (this.channel == null) {
+            return;
+        }
+
+        try {
+            endLease();
+            abandonTicket();
+            releaseWord();
+            this.channel.close();
+        } finally {
+            this.channel = null;
+            this.buffer = null;
+        }
+    }
+
+    /*
+     * The lease of an acquisition, which renews its expiry time as long as the lock word is held.
+     */
+    private static class Lease implements Runnable {
+
+        /*
+         * The mapped data; must be kept reachable while its addresses are used.
+         */
+        private final MappedByteBuffer buffer;
+
+        private final long lockWordAddress;
+
+        private final long fencingTokenAddress;
+
+        private final long expiryAddress;
+
+        private final long ownerWord;
+
+        private final long fencingToken;
+
+        private final long ttlMillis;
+
+        /*
+         * The scheduled renewals.
+         */
+        private volatile ScheduledFuture<?> renewal;
+
+        /*
+         * Whether the lease has ended; guarded by the monitor of this object.
+         */
+        private boolean ended;
+
+        Lease(final MappedByteBuffer buffer, final long lockWordAddress, final long fencingTokenAddress,
+              final long expiryAddress, final long ownerWord, final long fencingToken, final long ttlMillis) {
+            this.buffer = buffer;
+            this.lockWordAddress = lockWordAddress;
+            this.fencingTokenAddress = fencingTokenAddress;
+            this.expiryAddress = expiryAddress;
+            this.ownerWord = ownerWord;
+            this.fencingToken = fencingToken;
+            this.ttlMillis = ttlMillis;
+        }
+
+        /*
+         * Returns whether the lock word is still held, i.e. whether nobody has acquired the lock since.
+         */
+        boolean isHeld() {
+            return MappedMemory.getLongVolatile(this.lockWordAddress) == this.ownerWord
+                && MappedMemory.getLongVolatile(this.fencingTokenAddress) == this.fencingToken;
+        }
+
+        /*
+         * Renews the expiry time unless the lease has ended or has been taken over.
+         */
+        @Override
+        public synchronized void run() {
+            if (!this.ended && isHeld()) {
+                MappedMemory.putLongVolatile(this.expiryAddress, System.currentTimeMillis() + this.ttlMillis);
+            }
+        }
+
+        /*
+         * Stops the renewals and clears the expiry time, so a subsequent holder without lease never expires.
+         *
+         * @return whether the lease was still held
+         */
+        synchronized boolean end() {
+            this.ended = true;
+            ScheduledFuture<?> currentRenewal = this.renewal;
+            if (currentRenewal != null) {
+                currentRenewal.cancel(false);
+            }
+
+            MappedMemory.putLongVolatile(this.expiryAddress, 0L);
+            return isHeld();
+        }
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2015 Andreas Klöber
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package ipLock;
+
+/**
+ * Decorates the {@link WaitStrategy} of a lock that has a {@link LockListener}, reporting the number of failed attempts
+ * of each acquisition that had to wait.
+ */
+class ObservedWaitStrategy extends WaitStrategy {
+
+    /*
+     * The decorated strategy.
+     */
+    private final WaitStrategy strategy;
+
+    /*
+     * The observed lock.
+     */
+    private final IpLock lock;
+
+    /*
+     * The listener to be notified.
+     */
+    private final LockListener listener;
+
+    ObservedWaitStrategy(final WaitStrategy strategy, final IpLock lock, final LockListener listener) {
+        this.strategy = strategy;
+        this.lock = lock;
+        this.listener = listener;
+    }
+
+    @Override
+    protected long nextWaitNanos(final int attempt, final long waitedNanos) {
+        return this.strategy.nextWaitNanos(attempt, waitedNanos);
+    }
+
+    @Override
+    protected void acquired(final int attempts, final long waitedNanos) {
+        this.strategy.acquired(attempts, waitedNanos);
+        this.listener.polled(this.lock, attempts);
+    }
+
+    @Override
+    protected void timedOut(final int attempts, final long waitedNanos) {
+        this.strategy.timedOut(attempts, waitedNanos);
+        this.listener.polled(this.lock, attempts);
+    }
+
+    @Override
+    protected boolean observesHoldTimes() {
+        return this.strategy.observesHoldTimes();
+    }
+
+    @Override
+    protected void released(final long holdNanos) {
+        this.strategy.released(holdNanos);
+    }
+}
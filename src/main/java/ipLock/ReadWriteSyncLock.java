@@ -0,0 +1,500 @@
+/*
+ * Copyright (c) 2015 Andreas Klöber
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package ipLock;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileLock;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The read-write lock of a {@link SyncFile} as used by {@link IpReadWriteLock}.
+ * <p/>
+ * Across processes readers hold a shared and writers an exclusive {@link FileLock} on the data region of the file.
+ * Writers additionally pass a gate region before requesting the data region and keep it locked while waiting. Readers
+ * with writer preference have to pass the gate, too, so they cannot overtake waiting writers.
+ * <p/>
+ * Within the JVM readers and writers queue up for the permits of a fair {@link Semaphore}: a reader takes one permit, a
+ * writer all of them. Only the first reader of the JVM requests the shared {@link FileLock} and only the last one
+ * releases it.
+ * <p/>
+ * Each acquisition of the write lock draws a fencing token from a counter in the file, which is stored behind both
+ * regions, so it is not covered by the shared locks of readers. Readers share the lock and therefore carry no token.
+ */
+class ReadWriteSyncLock {
+
+    /*
+     * Position of the data region that is locked shared by readers and exclusively by writers.
+     */
+    private static final long DATA_POSITION = 0L;
+
+    /*
+     * Position of the gate region that is locked by waiting writers.
+     */
+    private static final long GATE_POSITION = 1L;
+
+    /*
+     * Size of both regions.
+     */
+    private static final long REGION_SIZE = 1L;
+
+    /*
+     * Position of the fencing token of the write lock.
+     */
+    private static final long FENCING_TOKEN_POSITION = 8L;
+
+    /*
+     * Number of local permits; a writer acquires all of them.
+     */
+    private static final int MAX_PERMITS = Integer.MAX_VALUE;
+
+    /*
+     * The locked file.
+     */
+    private final SyncFile syncFile;
+
+    /*
+     * The local permits; fair, so waiting local writers are not overtaken by readers.
+     */
+    private final Semaphore permits = new Semaphore(MAX_PERMITS, true);
+
+    /*
+     * Guards the state of the local readers.
+     */
+    private final ReentrantLock readerGuard = new ReentrantLock();
+
+    /*
+     * Number of local readers holding the lock; guarded by {@link #readerGuard}.
+     */
+    private int readers;
+
+    /*
+     * The shared {@link FileLock} held on behalf of all local readers; guarded by {@link #readerGuard}.
+     */
+    private FileLock readFileLock;
+
+    /*
+     * The exclusive {@link FileLock} held on behalf of the local writer; guarded by all permits.
+     */
+    private FileLock writeFileLock;
+
+    /*
+     * The fencing token of the current acquisition of the write lock; guarded by all permits.
+     */
+    private long writeFencingToken;
+
+    /*
+     * The read lock without writer preference.
+     */
+    private final SyncLock readLock = new ReadLock(false);
+
+    /*
+     * The read lock with writer preference.
+     */
+    private final SyncLock writerPreferringReadLock = new ReadLock(true);
+
+    /*
+     * The write lock.
+     */
+    private final SyncLock writeLock = new WriteLock();
+
+    ReadWriteSyncLock(final SyncFile syncFile) {
+        this.syncFile = syncFile;
+    }
+
+    /**
+     * Returns the read lock.
+     *
+     * @param writerPreference whether readers must not overtake waiting writers
+     * @return the read lock
+     */
+    SyncLock readLock(final boolean writerPreference) {
+        return writerPreference ? this.writerPreferringReadLock : this.readLock;
+    }
+
+    /**
+     * Returns the write lock.
+     *
+     * @return the write lock
+     */
+    SyncLock writeLock() {
+        return this.writeLock;
+    }
+
+    /*
+     * Releases the gate region if it has been locked.
+     */
+    private void releaseGate(final FileLock gate) throws IOException {
+        if (gate != null) {
+            this.syncFile.releaseRegion(gate);
+        }
+    }
+
+    /*
+     * Locks the data region in a blocking way after passing the gate. Readers only pass the gate with writer preference.
+     */
+    private FileLock lockData(final boolean shared, final boolean passGate, final WaitStrategy strategy)
+        throws IOException {
+        FileLock gate = passGate ? this.syncFile.lockRegion(GATE_POSITION, REGION_SIZE, shared, strategy) : null;
+        try {
+            return this.syncFile.lockRegion(DATA_POSITION, REGION_SIZE, shared, strategy);
+        } finally {
+            releaseGate(gate);
+        }
+    }
+
+    /*
+     * Locks the data region in a blocking way with a timeout after passing the gate.
+     */
+    private FileLock lockData(final boolean shared, final boolean passGate, final long deadline,
+                              final long tryLockIntervalNanos, final WaitStrategy strategy)
+        throws IOException, InterruptedException {
+        FileLock gate = null;
+        if (passGate) {
+            gate = this.syncFile.lockRegion(GATE_POSITION, REGION_SIZE, shared, deadline, tryLockIntervalNanos,
+                strategy);
+            if (gate == null) {
+                return null;
+            }
+        }
+
+        try {
+            return this.syncFile.lockRegion(DATA_POSITION, REGION_SIZE, shared, deadline, tryLockIntervalNanos,
+                strategy);
+        } finally {
+            releaseGate(gate);
+        }
+    }
+
+    /*
+     * Tries to lock the data region after passing the gate.
+     */
+    private FileLock tryLockData(final boolean shared, final boolean passGate) throws IOException {
+        FileLock gate = null;
+        if (passGate) {
+            gate = this.syncFile.tryLockRegion(GATE_POSITION, REGION_SIZE, shared);
+            if (gate == null) {
+                return null;
+            }
+        }
+
+        try {
+            return this.syncFile.tryLockRegion(DATA_POSITION, REGION_SIZE, shared);
+        } finally {
+            releaseGate(gate);
+        }
+    }
+
+    /*
+     * The read lock; readers of this JVM share a single {@link FileLock}.
+     */
+    private class ReadLock implements SyncLock {
+
+        private final boolean writerPreference;
+
+        /*
+         * The reader that acquired the shared {@link FileLock} as long as it has not acquired the lock again; guarded
+         * by the reader guard.
+         */
+        private volatile Thread fileLockAcquirer;
+
+        ReadLock(final boolean writerPreference) {
+            this.writerPreference = writerPreference;
+        }
+
+        @Override
+        public void lock(final WaitStrategy strategy) throws IOException {
+            permits.acquireUninterruptibly();
+
+            boolean locked = false;
+            readerGuard.lock();
+            try {
+                if (readers == 0) {
+                    readFileLock = lockData(true, this.writerPreference, strategy);
+                }
+                counted();
+                locked = true;
+            } finally {
+                readerGuard.unlock();
+                if (!locked) {
+                    permits.release();
+                }
+            }
+        }
+
+        @Override
+        public boolean lock(final long timeoutNanos, final long tryLockIntervalNanos, final WaitStrategy strategy)
+            throws IOException, InterruptedException {
+            long deadline = System.nanoTime() + timeoutNanos;
+
+            if (!permits.tryAcquire(timeoutNanos, TimeUnit.NANOSECONDS)) {
+                return false;
+            }
+
+            boolean locked = false;
+            try {
+                if (!readerGuard.tryLock(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                    return false;
+                }
+
+                try {
+                    if (readers == 0) {
+                        readFileLock = lockData(true, this.writerPreference, deadline, tryLockIntervalNanos,
+                            strategy);
+                        if (readFileLock == null) {
+                            return false;
+                        }
+                    }
+                    counted();
+                    locked = true;
+                    return true;
+                } finally {
+                    readerGuard.unlock();
+                }
+            } finally {
+                if (!locked) {
+                    permits.release();
+                }
+            }
+        }
+
+        @Override
+        public boolean tryLock() throws IOException {
+            if (!permits.tryAcquire()) {
+                return false;
+            }
+
+            boolean locked = false;
+            try {
+                if (!readerGuard.tryLock()) {
+                    return false;
+                }
+
+                try {
+                    if (readers == 0) {
+                        readFileLock = tryLockData(true, this.writerPreference);
+                        if (readFileLock == null) {
+                            return false;
+                        }
+                    }
+                    counted();
+                    locked = true;
+                    return true;
+                } finally {
+                    readerGuard.unlock();
+                }
+            } finally {
+                if (!locked) {
+                    permits.release();
+                }
+            }
+        }
+
+        /*
+         * Counts a reader and remembers whether it acquired the shared {@link FileLock}. Must be called while holding
+         * the reader guard.
+         */
+        private void counted() {
+            Thread current = Thread.currentThread();
+            if (readers == 0) {
+                this.fileLockAcquirer = current;
+            } else if (this.fileLockAcquirer == current) {
+                this.fileLockAcquirer = null;
+            }
+            readers++;
+        }
+
+        @Override
+        public boolean isFileLockAcquired() {
+            return this.fileLockAcquirer == Thread.currentThread();
+        }
+
+        @Override
+        public long getFencingToken() {
+            // readers share the lock, so they cannot fence each other
+            return 0L;
+        }
+
+        @Override
+        public void detach() {
+            // readers are not bound to threads
+        }
+
+        @Override
+        public boolean unlock() throws IOException {
+            readerGuard.lock();
+            try {
+                if (--readers > 0) {
+                    return false;
+                }
+
+                FileLock releasedLock = readFileLock;
+                readFileLock = null;
+                this.fileLockAcquirer = null;
+                syncFile.releaseRegion(releasedLock);
+                return true;
+            } finally {
+                readerGuard.unlock();
+                permits.release();
+            }
+        }
+    }
+
+    /*
+     * The write lock.
+     */
+    private class WriteLock implements SyncLock {
+
+        @Override
+        public void lock(final WaitStrategy strategy) throws IOException {
+            permits.acquireUninterruptibly(MAX_PERMITS);
+
+            boolean locked = false;
+            try {
+                writeFileLock = lockData(false, true, strategy);
+                acquired();
+                locked = true;
+            } finally {
+                if (!locked) {
+                    permits.release(MAX_PERMITS);
+                }
+            }
+        }
+
+        @Override
+        public boolean lock(final long timeoutNanos, final long tryLockIntervalNanos, final WaitStrategy strategy)
+            throws IOException, InterruptedException {
+            long deadline = System.nanoTime() + timeoutNanos;
+
+            if (!permits.tryAcquire(MAX_PERMITS, timeoutNanos, TimeUnit.NANOSECONDS)) {
+                return false;
+            }
+
+            boolean locked = false;
+            try {
+                writeFileLock = lockData(false, true, deadline, tryLockIntervalNanos, strategy);
+                if (writeFileLock != null) {
+                    acquired();
+                    locked = true;
+                }
+                return locked;
+            } finally {
+                if (!locked) {
+                    permits.release(MAX_PERMITS);
+                }
+            }
+        }
+
+        @Override
+        public boolean tryLock() throws IOException {
+            if (!permits.tryAcquire(MAX_PERMITS)) {
+                return false;
+            }
+
+            boolean locked = false;
+            try {
+                writeFileLock = tryLockData(false, true);
+                if (writeFileLock != null) {
+                    acquired();
+                    locked = true;
+                }
+                return locked;
+            } finally {
+                if (!locked) {
+                    permits.release(MAX_PERMITS);
+                }
+            }
+        }
+
+        /*
+         * Draws the next fencing token. Must be called after all permits and the {@link FileLock} have been acquired;
+         * the {@link FileLock} is released again if the token cannot be drawn, the permits are left to the caller.
+         */
+        private void acquired() throws IOException {
+            boolean fenced = false;
+            try {
+                writeFencingToken = incrementFencingToken();
+                fenced = true;
+            } finally {
+                if (!fenced) {
+                    FileLock releasedLock = writeFileLock;
+                    writeFileLock = null;
+                    syncFile.releaseRegion(releasedLock);
+                }
+            }
+        }
+
+        /*
+         * Increments the fencing token stored in the file. Must be called while holding the {@link FileLock}.
+         *
+         * @return the incremented fencing token
+         * @throws IOException if the file ends within the token, so it is unknown
+         */
+        private long incrementFencingToken() throws IOException {
+            ByteBuffer token = ByteBuffer.allocate(8);
+            int length = syncFile.read(writeFileLock.channel(), token, FENCING_TOKEN_POSITION);
+            if (length > 0 && length < 8) {
+                throw new IOException("synchronization file has been truncated within the fencing token, so it is "
+                    + "unknown; deleting the file resets the fencing tokens");
+            }
+
+            // 0 if never acquired before
+            long fencingToken = token.getLong(0) + 1L;
+            token.clear();
+            token.putLong(0, fencingToken);
+            syncFile.write(writeFileLock.channel(), token, FENCING_TOKEN_POSITION);
+
+            return fencingToken;
+        }
+
+        @Override
+        public boolean isFileLockAcquired() {
+            return true;
+        }
+
+        @Override
+        public long getFencingToken() {
+            return writeFencingToken;
+        }
+
+        @Override
+        public void detach() {
+            // the writer is not bound to a thread
+        }
+
+        @Override
+        public boolean unlock() throws IOException {
+            FileLock releasedLock = writeFileLock;
+            writeFileLock = null;
+
+            try {
+                syncFile.releaseRegion(releasedLock);
+                return true;
+            } finally {
+                permits.release(MAX_PERMITS);
+            }
+        }
+    }
+}
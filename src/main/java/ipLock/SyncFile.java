@@ -0,0 +1,737 @@
+/*
+ * Copyright (c) 2015 Andreas Klöber
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package ipLock;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The synchronization file shared by all lock objects of this JVM that use the same file.
+ * <p/>
+ * A {@link FileLock} is held on behalf of the whole JVM, so lock objects using the same file must not request it
+ * independently. Instead they coordinate locally by means of a {@link SyncLock} per {@link LockMode}, which is the only
+ * one requesting {@link FileLock}s from this file.
+ * <p/>
+ * Instances are obtained by {@link #acquire(File)}, which returns the same instance for all paths denoting the same
+ * file, and must be released by {@link #release()}. The channel of the file is opened lazily, reused for all lock
+ * attempts and closed when the last user has released the instance.
+ * <p/>
+ * As closing the channel releases all {@link FileLock}s of this JVM on the file, an interrupt of a single thread must
+ * not close it. So lock attempts defer interrupts, and the file is read and written by means of the
+ * {@link RandomAccessFile} the channel belongs to, whose I/O is not interruptible, see {@link #read} and
+ * {@link #write}.
+ */
+class SyncFile {
+
+    /**
+     * The maximum time interval between lock attempts of untimed acquisitions if no notification is received.
+     */
+    static final long DEFAULT_TRY_LOCK_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(100L);
+
+    /*
+     * All synchronization files that are in use by this JVM, mapped by their canonical file.
+     */
+    private static final Map<File, SyncFile> SYNC_FILES = new HashMap<>();
+
+    /*
+     * The canonical synchronization file.
+     */
+    private final File file;
+
+    /*
+     * The signal used for waking up waiting processes on release.
+     */
+    private final LockSignal signal;
+
+    /*
+     * Number of lock objects using this file; guarded by the class.
+     */
+    private int referenceCount;
+
+    /*
+     * Guards the channel; a {@link ReentrantLock} rather than a monitor, so threads opening the channel do not pin the
+     * carrier of virtual threads waiting for it.
+     */
+    private final ReentrantLock channelGuard = new ReentrantLock();
+
+    /*
+     * The channel of the synchronization file; guarded by {@link #channelGuard}.
+     */
+    private FileChannel channel;
+
+    /*
+     * The file the channel belongs to, which reads and writes the file at its file pointer; guarded by
+     * {@link #channelGuard}.
+     */
+    private RandomAccessFile randomAccessFile;
+
+    /*
+     * The file key of the synchronization file at the time {@link #channel} was opened or <code>null</code> if the
+     * platform does not provide file keys; guarded by {@link #channelGuard}.
+     */
+    private Object fileKey;
+
+    /*
+     * The exclusive lock of the whole file; created on demand and guarded by this.
+     */
+    private SyncLock exclusiveLock;
+
+    /*
+     * The exclusive lock held by means of the memory mapped file; created on demand and guarded by this.
+     */
+    private MappedSyncLock mappedLock;
+
+    /*
+     * The exclusive lock granted by a lock manager; created on demand and guarded by this.
+     */
+    private ManagedSyncLock managedLock;
+
+    /*
+     * The read-write lock; created on demand and guarded by this.
+     */
+    private ReadWriteSyncLock readWriteLock;
+
+    /*
+     * The locks of single stripes, mapped by their index; created on demand and guarded by this.
+     */
+    private final Map<Integer, SyncLock> stripeLocks = new HashMap<>();
+
+    /*
+     * The permits of the semaphore; created on demand and guarded by this.
+     */
+    private SyncSlots slots;
+
+    /*
+     * The local permit for waiting in the operating system by {@link #lockBlocking()}, which only one thread of this
+     * JVM may do at a time because the JVM rejects overlapping lock requests; fair, so local threads wait in arrival
+     * order.
+     */
+    private final Semaphore blockingPermit = new Semaphore(1, true);
+
+    private SyncFile(final File file) {
+        this.file = file;
+        this.signal = LockSignal.acquire(file);
+    }
+
+    /**
+     * Returns the synchronization file for the given file. Each call must be followed by a call to {@link #release()}
+     * as soon as the synchronization file is not needed anymore.
+     *
+     * @param file the file to be used for synchronization
+     * @return the synchronization file
+     * @throws IOException if the canonical path of the file could not be determined
+     */
+    static SyncFile acquire(final File file) throws IOException {
+        File canonicalFile = file.getCanonicalFile();
+
+        synchronized (SyncFile.class) {
+            SyncFile syncFile = SYNC_FILES.get(canonicalFile);
+            if (syncFile == null) {
+                syncFile = new SyncFile(canonicalFile);
+                SYNC_FILES.put(canonicalFile, syncFile);
+            }
+
+            syncFile.referenceCount++;
+            return syncFile;
+        }
+    }
+
+    /*
+     * Reads the file key of the given file.
+     *
+     * @param path the path of the file
+     * @return the file key or <code>null</code> if the platform does not provide file keys
+     * @throws NoSuchFileException if the file does not exist
+     * @throws IOException         if some other I/O error occurs
+     */
+    private static Object readFileKey(final Path path) throws IOException {
+        return Files.readAttributes(path, BasicFileAttributes.class).fileKey();
+    }
+
+    /**
+     * Releases this synchronization file. When the last user has released it, its channel is closed.
+     *
+     * @throws IOException if an I/O error occurs while closing the channel
+     */
+    void release() throws IOException {
+        synchronized (SyncFile.class) {
+            if (--this.referenceCount > 0) {
+                return;
+            }
+
+            SYNC_FILES.remove(this.file);
+        }
+
+        try {
+            closeManagedLock();
+            closeMappedLock();
+            closeChannel();
+        } finally {
+            this.signal.release();
+        }
+    }
+
+    /*
+     * Unregisters the managed lock from its lock manager client if it has been created.
+     */
+    private synchronized void closeManagedLock() {
+        if (this.managedLock != null) {
+            this.managedLock.close();
+            this.managedLock = null;
+        }
+    }
+
+    /*
+     * Closes the mapped lock if it has been created.
+     *
+     * @throws IOException if an I/O error occurs while closing its channel
+     */
+    private synchronized void closeMappedLock() throws IOException {
+        if (this.mappedLock != null) {
+            this.mappedLock.close();
+            this.mappedLock = null;
+        }
+    }
+
+    /*
+     * Returns the channel of the synchronization file and opens it if this has not been done yet. If the file does not
+     * exist yet, it is also created.
+     *
+     * @return the {@link FileChannel} of the synchronization file
+     * @throws IOException if the synchronization file could not be created,
+     *                     e.g. because of missing write permissions in target folder
+     */
+    private FileChannel openChannel() throws IOException {
+        this.channelGuard.lock();
+        try {
+            if (this.channel != null && this.channel.isOpen()) {
+                return this.channel;
+            }
+
+            // channel was never opened or has been closed asynchronously, e.g. by an interrupt while locking
+            closeChannel();
+
+            Path path = this.file.toPath();
+            RandomAccessFile newFile = new RandomAccessFile(this.file, "rw");
+            try {
+                this.fileKey = readFileKey(path);
+            } catch (IOException e) {
+                newFile.close();
+                throw e;
+            }
+
+            this.randomAccessFile = newFile;
+            this.channel = newFile.getChannel();
+            return this.channel;
+        } finally {
+            this.channelGuard.unlock();
+        }
+    }
+
+    /*
+     * Closes the channel of the synchronization file if it is open. This also releases the {@link FileLock} if it is
+     * held.
+     *
+     * @throws IOException if an I/O error occurs while closing the channel
+     */
+    private void closeChannel() throws IOException {
+        this.channelGuard.lock();
+        try {
+            FileChannel oldChannel = this.channel;
+
+            this.channel = null;
+            this.randomAccessFile = null;
+            this.fileKey = null;
+
+            if (oldChannel != null) {
+                oldChannel.close();
+            }
+        } finally {
+            this.channelGuard.unlock();
+        }
+    }
+
+    /*
+     * Checks whether the synchronization file that has been locked is still the one that is present in the file system.
+     * If the file has been deleted or replaced meanwhile, the lock is worthless because other processes will create and
+     * lock a new file. In that case the channel is closed, so the next attempt opens the current file.
+     * <p/>
+     * This check is only performed after a lock has been acquired, so failing attempts cost nothing but the lock
+     * request itself.
+     *
+     * @param acquiredLock the lock that has just been acquired
+     * @return <code>true</code> if the lock is valid; <code>false</code> if it has been released again
+     * @throws IOException if an I/O error occurs while closing the channel
+     */
+    private boolean validateLock(final FileLock acquiredLock) throws IOException {
+        this.channelGuard.lock();
+        try {
+            boolean valid;
+            try {
+                Object currentKey = readFileKey(this.file.toPath());
+                valid = this.fileKey == null || this.fileKey.equals(currentKey);
+            } catch (NoSuchFileException e) {
+                valid = false;
+            }
+
+            if (!valid) {
+                if (acquiredLock.channel() == this.channel) {
+                    // releases the stale lock, too
+                    closeChannel();
+                } else if (acquiredLock.isValid()) {
+                    acquiredLock.release();
+                }
+            }
+
+            return valid;
+        } finally {
+            this.channelGuard.unlock();
+        }
+    }
+
+    /**
+     * Returns the canonical synchronization file.
+     *
+     * @return the file
+     */
+    File getFile() {
+        return this.file;
+    }
+
+    /**
+     * Reads the owner of the exclusive lock of the whole file from the header of the file without acquiring the lock.
+     *
+     * @return the owner or <code>null</code> if the lock is not held
+     * @throws IOException if the synchronization file could not be created or if some other I/O error occurs
+     */
+    LockOwner readOwner() throws IOException {
+        while (true) {
+            try {
+                return LockOwner.read(this, openChannel());
+            } catch (ClosedChannelException e) {
+                // channel has been closed by another thread because the file has been replaced
+            }
+        }
+    }
+
+    /**
+     * Reads from the file at the given position into the remaining bytes of the given buffer until it is full or the
+     * end of the file has been reached. The file is read by means of the {@link RandomAccessFile} of the channel, so
+     * an interrupt of the current thread does not close the channel.
+     *
+     * @param fileChannel the channel of the file as returned by {@link FileLock#channel()}
+     * @param buffer      the buffer, which must be backed by an array
+     * @param position    the position in the file
+     * @return the number of bytes read, which is less than the number of bytes remaining in the buffer if the end of
+     * the file has been reached
+     * @throws ClosedChannelException if the channel has been closed, e.g. because the file has been replaced
+     * @throws IOException            if some other I/O error occurs
+     */
+    int read(final FileChannel fileChannel, final ByteBuffer buffer, final long position) throws IOException {
+        this.channelGuard.lock();
+        try {
+            RandomAccessFile currentFile = getRandomAccessFile(fileChannel);
+            currentFile.seek(position);
+
+            int length = 0;
+            while (buffer.hasRemaining()) {
+                int count = currentFile.read(buffer.array(), buffer.arrayOffset() + buffer.position(),
+                    buffer.remaining());
+                if (count < 0) {
+                    break;
+                }
+                buffer.position(buffer.position() + count);
+                length += count;
+            }
+            return length;
+        } finally {
+            this.channelGuard.unlock();
+        }
+    }
+
+    /**
+     * Writes the remaining bytes of the given buffer to the file at the given position. The file is written by means
+     * of the {@link RandomAccessFile} of the channel, so an interrupt of the current thread does not close the channel.
+     *
+     * @param fileChannel the channel of the file as returned by {@link FileLock#channel()}
+     * @param buffer      the buffer, which must be backed by an array
+     * @param position    the position in the file
+     * @throws ClosedChannelException if the channel has been closed, e.g. because the file has been replaced
+     * @throws IOException            if some other I/O error occurs
+     */
+    void write(final FileChannel fileChannel, final ByteBuffer buffer, final long position) throws IOException {
+        this.channelGuard.lock();
+        try {
+            RandomAccessFile currentFile = getRandomAccessFile(fileChannel);
+            currentFile.seek(position);
+            currentFile.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            buffer.position(buffer.limit());
+        } finally {
+            this.channelGuard.unlock();
+        }
+    }
+
+    /*
+     * Returns the {@link RandomAccessFile} of the given channel. Must be called while holding {@link #channelGuard}.
+     *
+     * @throws ClosedChannelException if the channel is not the open channel of the file
+     */
+    private RandomAccessFile getRandomAccessFile(final FileChannel fileChannel) throws ClosedChannelException {
+        if (fileChannel != this.channel || !fileChannel.isOpen()) {
+            throw new ClosedChannelException();
+        }
+        return this.randomAccessFile;
+    }
+
+    /**
+     * Returns the signal used for waking up waiting processes on release.
+     *
+     * @return the {@link LockSignal}
+     */
+    LockSignal getSignal() {
+        return this.signal;
+    }
+
+    /**
+     * Returns the lock with the given mode. The lock is created on first use and shared by all lock objects of this
+     * JVM that use this file and mode.
+     *
+     * @param mode the lock mode
+     * @return the {@link SyncLock}
+     */
+    synchronized SyncLock getLock(final LockMode mode) {
+        switch (mode) {
+            case EXCLUSIVE:
+                if (this.exclusiveLock == null) {
+                    this.exclusiveLock = new ExclusiveSyncLock(this, 0L, Long.MAX_VALUE, true);
+                }
+                return this.exclusiveLock;
+
+            case MAPPED:
+                return getMappedLock(false);
+
+            case MAPPED_FAIR:
+                return getMappedLock(true);
+
+            case READ:
+                return getReadWriteLock().readLock(false);
+
+            case READ_WRITER_PREFERENCE:
+                return getReadWriteLock().readLock(true);
+
+            case WRITE:
+                return getReadWriteLock().writeLock();
+
+            default:
+                throw new IllegalArgumentException("unsupported lock mode " + mode);
+        }
+    }
+
+    /**
+     * Returns the exclusive lock of the stripe with the given index, which is the region of one byte at that position.
+     * The lock is created on first use and shared by all lock objects of this JVM that use this file and stripe.
+     *
+     * @param stripe the index of the stripe
+     * @return the {@link SyncLock}
+     */
+    synchronized SyncLock getStripeLock(final int stripe) {
+        SyncLock stripeLock = this.stripeLocks.get(stripe);
+        if (stripeLock == null) {
+            stripeLock = new ExclusiveSyncLock(this, stripe, 1L, false);
+            this.stripeLocks.put(stripe, stripeLock);
+        }
+
+        return stripeLock;
+    }
+
+    /**
+     * Returns the exclusive lock granted by the lock manager of the given client. The lock is created on first use and
+     * shared by all managed lock objects of this JVM that use this file, even if they were configured with another
+     * client.
+     *
+     * @param client the client of the lock manager
+     * @return the {@link SyncLock}
+     */
+    synchronized SyncLock getManagedLock(final LockManagerClient client) {
+        if (this.managedLock == null) {
+            this.managedLock = new ManagedSyncLock(this, client);
+        }
+
+        return this.managedLock;
+    }
+
+    /**
+     * Returns the permits of the semaphore. They are created on first use and shared by all semaphore objects of this
+     * JVM that use this file.
+     *
+     * @param permits the number of permits
+     * @return the {@link SyncSlots}
+     * @throws IllegalArgumentException if the file is already used by a semaphore with another number of permits
+     */
+    synchronized SyncSlots getSlots(final int permits) {
+        if (this.slots == null) {
+            this.slots = new SyncSlots(this, permits);
+        } else if (this.slots.getPermits() != permits) {
+            throw new IllegalArgumentException(String.format("%s is already used with %d permits instead of %d",
+                this.file, this.slots.getPermits(), permits));
+        }
+
+        return this.slots;
+    }
+
+    /*
+     * Returns the mapped lock and creates it if this has not been done yet. Must be called while holding the monitor of
+     * this object.
+     */
+    private MappedSyncLock getMappedLock(final boolean fair) {
+        if (this.mappedLock == null) {
+            this.mappedLock = new MappedSyncLock(this, fair);
+        } else if (this.mappedLock.isFair() != fair) {
+            throw new IllegalArgumentException(String.format("%s is already used by a %s lock", this.file,
+                this.mappedLock.isFair() ? "fair" : "non-fair"));
+        }
+
+        return this.mappedLock;
+    }
+
+    /*
+     * Returns the read-write lock and creates it if this has not been done yet. Must be called while holding the monitor
+     * of this object.
+     */
+    private ReadWriteSyncLock getReadWriteLock() {
+        if (this.readWriteLock == null) {
+            this.readWriteLock = new ReadWriteSyncLock(this);
+        }
+
+        return this.readWriteLock;
+    }
+
+    /**
+     * Acquires a {@link FileLock} on the given region of the file in a blocking way.
+     * <p/>
+     * The calling thread never blocks in the operating system: the region is tried whenever a release is notified, but
+     * at least in the default interval, and the thread waits in between by means of {@link java.util.concurrent}
+     * primitives. Interrupts are deferred until the lock has been acquired.
+     *
+     * @param position the position at which the locked region is to start
+     * @param size     the size of the locked region
+     * @param shared   <code>true</code> to request a shared lock; <code>false</code> to request an exclusive lock
+     * @param strategy the strategy determining the time to wait between lock attempts
+     * @return the acquired {@link FileLock}
+     * @throws IOException if the synchronization file could not be created or if some other I/O error occurs
+     */
+    FileLock lockRegion(final long position, final long size, final boolean shared, final WaitStrategy strategy)
+        throws IOException {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return awaitRegion(position, size, shared, false, 0L, DEFAULT_TRY_LOCK_INTERVAL_NANOS, strategy);
+                } catch (InterruptedException e) {
+                    // the interrupt status is cleared, so waiting can be continued
+                    interrupted = true;
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Performs a single, non-blocking attempt to acquire a {@link FileLock} on the given region of the file.
+     *
+     * @param position the position at which the locked region is to start
+     * @param size     the size of the locked region
+     * @param shared   <code>true</code> to request a shared lock; <code>false</code> to request an exclusive lock
+     * @return the acquired {@link FileLock} or <code>null</code> if the region is locked by another process
+     * @throws IOException if the synchronization file could not be created or if some other I/O error occurs
+     */
+    FileLock tryLockRegion(final long position, final long size, final boolean shared) throws IOException {
+        // the interrupt status is cleared meanwhile, as an interrupt would close the channel shared by all locks
+        boolean interrupted = Thread.interrupted();
+        try {
+            while (true) {
+                FileLock acquiredLock;
+                try {
+                    acquiredLock = openChannel().tryLock(position, size, shared);
+                } catch (ClosedChannelException e) {
+                    if (e instanceof ClosedByInterruptException) {
+                        throw e;
+                    }
+                    // channel has been closed by another thread because the file has been replaced
+                    continue;
+                }
+
+                if (acquiredLock == null || validateLock(acquiredLock)) {
+                    return acquiredLock;
+                }
+                // sync file has been replaced, try again with the new one
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Acquires a {@link FileLock} on the given region of the file in a blocking way with a timeout. The region is tried
+     * whenever a release is notified, but at least in the given interval.
+     *
+     * @param position             the position at which the locked region is to start
+     * @param size                 the size of the locked region
+     * @param shared               <code>true</code> to request a shared lock; <code>false</code> to request an
+     *                             exclusive lock
+     * @param deadline             the {@link System#nanoTime()} at which the timeout is reached
+     * @param tryLockIntervalNanos the maximum time interval between lock attempts if no notification is received
+     * @param strategy             the strategy determining the time to wait between lock attempts
+     * @return the acquired {@link FileLock} or <code>null</code> if there was a timeout
+     * @throws IOException          if the synchronization file could not be created or if some other I/O error occurs
+     * @throws InterruptedException if the current thread is interrupted while waiting
+     */
+    FileLock lockRegion(final long position, final long size, final boolean shared, final long deadline,
+                        final long tryLockIntervalNanos, final WaitStrategy strategy)
+        throws IOException, InterruptedException {
+        return awaitRegion(position, size, shared, true, deadline, tryLockIntervalNanos, strategy);
+    }
+
+    /**
+     * Acquires an exclusive {@link FileLock} on the whole file by blocking the calling thread in the operating system.
+     * <p/>
+     * Unlike {@link #lockRegion(long, long, boolean, WaitStrategy)} this method does not depend on notifications or
+     * lock attempts in intervals: the lock is granted as soon as the holder releases it, even if the holder crashes.
+     * Threads of this JVM queue up for a local permit first, which must be returned by
+     * {@link #releaseBlocking(FileLock)}. The file must not be locked by other means in this JVM at the same time.
+     *
+     * @return the acquired {@link FileLock}
+     * @throws IOException          if the synchronization file could not be created or if some other I/O error occurs;
+     *                              a {@link ClosedByInterruptException} if the current thread is interrupted while
+     *                              blocked in the operating system
+     * @throws InterruptedException if the current thread is interrupted while waiting for the local permit
+     */
+    FileLock lockBlocking() throws IOException, InterruptedException {
+        this.blockingPermit.acquire();
+
+        boolean locked = false;
+        try {
+            while (true) {
+                FileLock acquiredLock;
+                try {
+                    acquiredLock = openChannel().lock();
+                } catch (ClosedChannelException e) {
+                    if (e instanceof ClosedByInterruptException) {
+                        throw e;
+                    }
+                    // channel has been closed by another thread because the file has been replaced
+                    continue;
+                }
+
+                if (validateLock(acquiredLock)) {
+                    locked = true;
+                    return acquiredLock;
+                }
+                // sync file has been replaced, try again with the new one
+            }
+        } finally {
+            if (!locked) {
+                this.blockingPermit.release();
+            }
+        }
+    }
+
+    /**
+     * Releases a {@link FileLock} acquired by {@link #lockBlocking()} and returns the local permit.
+     *
+     * @param fileLock the lock to be released
+     * @throws IOException if some I/O error occurs on the underlying {@link FileLock}
+     */
+    void releaseBlocking(final FileLock fileLock) throws IOException {
+        try {
+            if (fileLock.isValid()) {
+                fileLock.release();
+            }
+        } finally {
+            this.blockingPermit.release();
+        }
+    }
+
+    /*
+     * Tries to lock the given region whenever a release is notified, but at least as often as determined by the
+     * strategy, until this is successful or the deadline is reached if the attempt is timed.
+     */
+    private FileLock awaitRegion(final long position, final long size, final boolean shared, final boolean timed,
+                                 final long deadline, final long tryLockIntervalNanos, final WaitStrategy strategy)
+        throws IOException, InterruptedException {
+        this.signal.prepare();
+
+        LockWait wait = null;
+        while (true) {
+            long generation = this.signal.generation();
+            FileLock acquiredLock = tryLockRegion(position, size, shared);
+            if (acquiredLock != null) {
+                if (wait != null) {
+                    wait.acquired();
+                }
+                return acquiredLock;
+            }
+
+            if (wait == null) {
+                wait = new LockWait(strategy, timed, deadline, tryLockIntervalNanos);
+            }
+            if (!wait.await(this.signal, generation)) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Releases the given {@link FileLock} and notifies waiting processes.
+     *
+     * @param fileLock the lock to be released
+     * @throws IOException if some I/O error occurs on the underlying {@link FileLock}
+     */
+    void releaseRegion(final FileLock fileLock) throws IOException {
+        if (fileLock.isValid()) {
+            fileLock.release();
+        }
+
+        this.signal.post();
+    }
+}
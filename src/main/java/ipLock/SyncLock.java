@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2015 Andreas Klöber
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package ipLock;
+
+import java.io.IOException;
+import java.nio.channels.FileLock;
+
+/**
+ * The JVM-wide state of a lock on a {@link SyncFile}. It is shared by all lock objects of this JVM that use the same
+ * synchronization file and {@link LockMode}.
+ */
+interface SyncLock {
+
+    /**
+     * Acquires the lock in a blocking way.
+     *
+     * @param strategy the strategy determining the time to wait between lock attempts
+     * @throws IOException if the synchronization file could not be created or if some other I/O error occurs on the
+     *                     underlying {@link FileLock}
+     */
+    void lock(WaitStrategy strategy) throws IOException;
+
+    /**
+     * Acquires the lock in a blocking way with a timeout.
+     *
+     * @param timeoutNanos         the timeout limit in nanoseconds
+     * @param tryLockIntervalNanos the maximum time interval between lock attempts if no notification is received
+     * @param strategy             the strategy determining the time to wait between lock attempts
+     * @return <code>true</code> if the lock could be acquired; <code>false</code> if there was a timeout
+     * @throws IOException          if the synchronization file could not be created or if some other I/O error occurs
+     *                              on the underlying {@link FileLock}
+     * @throws InterruptedException if the current thread is interrupted while waiting
+     */
+    boolean lock(long timeoutNanos, long tryLockIntervalNanos, WaitStrategy strategy)
+        throws IOException, InterruptedException;
+
+    /**
+     * Tries to acquire the lock and returns immediately.
+     *
+     * @return <code>true</code> if the lock could be acquired; <code>false</code> otherwise
+     * @throws IOException if the synchronization file could not be created or if some other I/O error occurs on the
+     *                     underlying {@link FileLock}
+     */
+    boolean tryLock() throws IOException;
+
+    /**
+     * Returns the fencing token of the current acquisition, which is greater than the tokens of all preceding
+     * acquisitions of the lock by any process. Must only be called while holding the lock.
+     *
+     * @return the fencing token or 0 if the lock does not provide fencing tokens
+     */
+    long getFencingToken();
+
+    /**
+     * Returns whether the current acquisition acquired a {@link FileLock} from the operating system, as opposed to
+     * taking over one held by this JVM already or not using one at all. Must only be called by the thread that acquired
+     * the lock while holding it.
+     *
+     * @return <code>true</code> if a {@link FileLock} was acquired
+     */
+    boolean isFileLockAcquired();
+
+    /**
+     * Detaches the lock from the thread that acquired it, so that thread is not considered to hold it anymore. This is
+     * required if the lock has been acquired on behalf of another party, e.g. by an asynchronous acquisition.
+     */
+    void detach();
+
+    /**
+     * Releases the lock.
+     *
+     * @return <code>true</code> if the underlying {@link FileLock} was released; <code>false</code> if it was retained
+     *         for another thread of this JVM or if there is none
+     * @throws IOException if some I/O error occurs on the underlying {@link FileLock}
+     */
+    boolean unlock() throws IOException;
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2015 Andreas Klöber
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package ipLock;
+
+import java.io.IOException;
+import java.nio.channels.FileLock;
+import java.util.BitSet;
+
+/**
+ * The permits of a {@link SyncFile} as used by {@link IpSemaphore}.
+ * <p/>
+ * Each permit is a slot of one byte at the beginning of the file that is held by means of an exclusive
+ * {@link FileLock}. As a {@link FileLock} is held on behalf of the whole JVM, the slots held by this JVM are tracked
+ * locally, so threads only try the slots that are not already held by another thread.
+ */
+class SyncSlots {
+
+    /*
+     * The locked file.
+     */
+    private final SyncFile syncFile;
+
+    /*
+     * The number of slots.
+     */
+    private final int permits;
+
+    /*
+     * The slots held by this JVM; guarded by this.
+     */
+    private final BitSet heldSlots;
+
+    SyncSlots(final SyncFile syncFile, final int permits) {
+        this.syncFile = syncFile;
+        this.permits = permits;
+        this.heldSlots = new BitSet(permits);
+    }
+
+    /**
+     * Returns the number of slots.
+     *
+     * @return the number of slots
+     */
+    int getPermits() {
+        return this.permits;
+    }
+
+    /**
+     * Performs a single, non-blocking attempt to lock any free slot.
+     *
+     * @return the {@link FileLock} of the slot or <code>null</code> if all slots are held
+     * @throws IOException if the synchronization file could not be created or if some other I/O error occurs
+     */
+    synchronized FileLock tryAcquire() throws IOException {
+        for (int slot = this.heldSlots.nextClearBit(0); slot < this.permits;
+             slot = this.heldSlots.nextClearBit(slot + 1)) {
+            FileLock slotLock = this.syncFile.tryLockRegion(slot, 1L, false);
+            if (slotLock != null) {
+                this.heldSlots.set(slot);
+                return slotLock;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Locks any free slot in a blocking way. The slots are tried whenever a release is notified, but at least in the
+     * given interval.
+     *
+     * @param timed                whether the <tt>deadline</tt> applies
+     * @param deadline             the {@link System#nanoTime()} at which the timeout is reached
+     * @param tryLockIntervalNanos the maximum time interval between attempts if no notification is received
+     * @return the {@link FileLock} of the slot or <code>null</code> if there was a timeout
+     * @throws IOException          if the synchronization file could not be created or if some other I/O error occurs
+     * @throws InterruptedException if the current thread is interrupted while waiting
+     */
+    FileLock acquire(final boolean timed, final long deadline, final long tryLockIntervalNanos)
+        throws IOException, InterruptedException {
+        LockSignal signal = this.syncFile.getSignal();
+        signal.prepare();
+
+        LockWait wait = new LockWait(WaitStrategy.interval(), timed, deadline, tryLockIntervalNanos);
+        while (true) {
+            long generation = signal.generation();
+            FileLock slotLock = tryAcquire();
+            if (slotLock != null) {
+                return slotLock;
+            }
+
+            if (!wait.await(signal, generation)) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Releases the given slot and notifies waiting threads and processes.
+     *
+     * @param slotLock the {@link FileLock} of the slot
+     * @throws IOException if some I/O error occurs on the underlying {@link FileLock}
+     */
+    void release(final FileLock slotLock) throws IOException {
+        try {
+            this.syncFile.releaseRegion(slotLock);
+        } finally {
+            synchronized (this) {
+                this.heldSlots.clear((int) slotLock.position());
+            }
+            // local waiters need not wait for the file system notification
+            this.syncFile.getSignal().wakeUp();
+        }
+    }
+}
@@ -0,0 +1,288 @@
+/*
+ * Copyright (c) 2015 Andreas Klöber
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package ipLock;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Determines how long a thread waits between attempts to acquire a lock that is held by another process.
+ * <p/>
+ * A waiting thread is woken up whenever the owning process notifies about the release of the lock. The strategy
+ * determines the maximum time to wait for such a notification before the next attempt, which is additionally limited
+ * by the try lock interval of the acquisition. Waiting for no time means spinning: the lock is tried again immediately
+ * and the thread burns CPU instead of being parked, which minimizes hand-off latency for short critical sections.
+ * <p/>
+ * Custom strategies may be implemented by subclassing. They must be thread-safe, as a strategy is shared by all
+ * threads using the same lock object.
+ *
+ * @see IpLock.Builder#waitStrategy(WaitStrategy)
+ */
+public abstract class WaitStrategy {
+
+    /*
+     * Waits the full try lock interval, which is the behaviour of lock objects without explicit strategy.
+     */
+    private static final WaitStrategy INTERVAL = new WaitStrategy() {
+
+        @Override
+        protected long nextWaitNanos(final int attempt, final long waitedNanos) {
+            return Long.MAX_VALUE;
+        }
+    };
+
+    /*
+     * <tt>Thread.onSpinWait()</tt> if provided by the JVM, which is the case since Java 9.
+     */
+    private static final MethodHandle ON_SPIN_WAIT;
+
+    static {
+        MethodHandle onSpinWait;
+        try {
+            onSpinWait = MethodHandles.lookup().findStatic(Thread.class, "onSpinWait", MethodType.methodType(void.class));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            onSpinWait = null;
+        }
+        ON_SPIN_WAIT = onSpinWait;
+    }
+
+    /**
+     * Constructor for subclasses.
+     */
+    protected WaitStrategy() {
+    }
+
+    /**
+     * Returns the strategy that waits the full try lock interval between attempts unless a release is notified. This is
+     * the default strategy.
+     *
+     * @return the strategy
+     */
+    public static WaitStrategy interval() {
+        return INTERVAL;
+    }
+
+    /**
+     * Returns a strategy that spins for the given time and waits the full try lock interval between attempts
+     * afterwards.
+     *
+     * @param spinTime the time to spin
+     * @param timeUnit the {@link TimeUnit} of the <tt>spinTime</tt> parameter
+     * @return the strategy
+     */
+    public static WaitStrategy spin(final long spinTime, final TimeUnit timeUnit) {
+        return new SpinStrategy(timeUnit.toNanos(spinTime));
+    }
+
+    /**
+     * Returns a strategy that waits exponentially longer between attempts, starting at the given minimum and limited by
+     * the given maximum. Each wait is randomized between half and all of its nominal time, so processes that started
+     * waiting at the same time do not retry in lockstep.
+     *
+     * @param minWait  the nominal time to wait after the first failed attempt
+     * @param maxWait  the maximum time to wait
+     * @param timeUnit the {@link TimeUnit} for both <tt>minWait</tt> and <tt>maxWait</tt> parameters
+     * @return the strategy
+     * @throws IllegalArgumentException if <tt>minWait</tt> is not positive or exceeds <tt>maxWait</tt>
+     */
+    public static WaitStrategy backoff(final long minWait, final long maxWait, final TimeUnit timeUnit) {
+        if (minWait <= 0L || minWait > maxWait) {
+            throw new IllegalArgumentException(String.format("invalid wait times %d and %d", minWait, maxWait));
+        }
+
+        return new BackoffStrategy(timeUnit.toNanos(minWait), timeUnit.toNanos(maxWait));
+    }
+
+    /**
+     * Returns a strategy that adapts to how long the lock is typically held, which bounds the time it takes to acquire
+     * the lock once it is held by another process. If that is short, the strategy spins for about twice that time;
+     * otherwise it parks for times growing with the time waited so far.
+     * <p/>
+     * The hold times of other processes cannot be observed, so the returned strategy learns from the hold times of the
+     * acquisitions it is used for, assuming that all processes use the lock alike. A separate instance should
+     * therefore be used for each lock.
+     *
+     * @return the strategy
+     */
+    public static WaitStrategy adaptive() {
+        return new AdaptiveStrategy();
+    }
+
+    /**
+     * Returns the maximum time to wait for a release notification before the next attempt.
+     *
+     * @param attempt     the number of failed attempts of the current acquisition, starting at one
+     * @param waitedNanos the time waited by the current acquisition so far in nanoseconds
+     * @return the time to wait in nanoseconds; zero or less to spin
+     */
+    protected abstract long nextWaitNanos(int attempt, long waitedNanos);
+
+    /**
+     * Called after the lock has been acquired by an acquisition that had to wait. Does nothing by default.
+     *
+     * @param attempts    the number of failed attempts before the lock was acquired
+     * @param waitedNanos the time waited in nanoseconds
+     */
+    protected void acquired(final int attempts, final long waitedNanos) {
+    }
+
+    /**
+     * Called after a timed acquisition gave up waiting. Does nothing by default.
+     *
+     * @param attempts    the number of failed attempts
+     * @param waitedNanos the time waited in nanoseconds
+     */
+    protected void timedOut(final int attempts, final long waitedNanos) {
+    }
+
+    /**
+     * Returns whether the strategy is to be told how long each acquisition held the lock, see
+     * {@link #released(long)}. As this requires timing every acquisition, it is <code>false</code> by default.
+     *
+     * @return <code>true</code> if hold times are to be observed
+     */
+    protected boolean observesHoldTimes() {
+        return false;
+    }
+
+    /**
+     * Called after the lock has been released by an acquisition of this JVM if the strategy observes hold times. Does
+     * nothing by default.
+     *
+     * @param holdNanos the time the lock has been held in nanoseconds
+     */
+    protected void released(final long holdNanos) {
+    }
+
+    /**
+     * Hints that the current thread is spinning, which lets the processor save power and yield to other hardware
+     * threads.
+     */
+    static void onSpinWait() {
+        if (ON_SPIN_WAIT == null) {
+            return;
+        }
+
+        try {
+            ON_SPIN_WAIT.invokeExact();
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /*
+     * Spins for a fixed time, then waits the full interval.
+     */
+    private static class SpinStrategy extends WaitStrategy {
+
+        private final long spinNanos;
+
+        SpinStrategy(final long spinNanos) {
+            this.spinNanos = spinNanos;
+        }
+
+        @Override
+        protected long nextWaitNanos(final int attempt, final long waitedNanos) {
+            return waitedNanos < this.spinNanos ? 0L : Long.MAX_VALUE;
+        }
+    }
+
+    /*
+     * Exponential backoff with jitter.
+     */
+    private static class BackoffStrategy extends WaitStrategy {
+
+        private final long minNanos;
+
+        private final long maxNanos;
+
+        BackoffStrategy(final long minNanos, final long maxNanos) {
+            this.minNanos = minNanos;
+            this.maxNanos = maxNanos;
+        }
+
+        @Override
+        protected long nextWaitNanos(final int attempt, final long waitedNanos) {
+            int shift = Math.min(attempt - 1, 62);
+            long nominalNanos = this.minNanos > (this.maxNanos >> shift) ? this.maxNanos : this.minNanos << shift;
+
+            return ThreadLocalRandom.current().nextLong(nominalNanos / 2L, nominalNanos + 1L);
+        }
+    }
+
+    /*
+     * Spins or parks depending on the moving average of the time the lock is held.
+     */
+    private static class AdaptiveStrategy extends WaitStrategy {
+
+        /*
+         * Locks that are typically held longer than this are not spun for.
+         */
+        private static final long MAX_SPIN_NANOS = TimeUnit.MICROSECONDS.toNanos(50L);
+
+        /*
+         * Time spun for as long as nothing has been learnt.
+         */
+        private static final long INITIAL_SPIN_NANOS = TimeUnit.MICROSECONDS.toNanos(10L);
+
+        /*
+         * Shortest time parked, below which parking costs more than it saves.
+         */
+        private static final long MIN_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50L);
+
+        /*
+         * Exponential moving average of the time the lock is held per acquisition or 0 if nothing has been learnt yet.
+         */
+        private final AtomicLong averageHoldNanos = new AtomicLong();
+
+        @Override
+        protected long nextWaitNanos(final int attempt, final long waitedNanos) {
+            long average = this.averageHoldNanos.get();
+
+            long spinNanos = average == 0L ? INITIAL_SPIN_NANOS : average <= MAX_SPIN_NANOS ? 2L * average : 0L;
+            if (waitedNanos < spinNanos) {
+                return 0L;
+            }
+
+            // the longer the lock is held already, the longer it is likely to be held further
+            return Math.max(MIN_PARK_NANOS, (average + waitedNanos) / 2L);
+        }
+
+        @Override
+        protected boolean observesHoldTimes() {
+            return true;
+        }
+
+        @Override
+        protected void released(final long holdNanos) {
+            long average = this.averageHoldNanos.get();
+
+            // lost updates by concurrent releases do not matter for an estimate
+            this.averageHoldNanos.set(average == 0L ? Math.max(holdNanos, 1L) : average + (holdNanos - average) / 8L);
+        }
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright (c) 2015 Andreas Klöber
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package ipLock;
+
+import org.junit.*;
+import org.slf4j.MDC;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class IpBarrierTest {
+
+    private static WorkerManager workerManager;
+
+    private ExecutorService executor;
+
+    @BeforeClass
+    public static void setupClass() throws IOException, InterruptedException {
+        MDC.put("IPL_ID", "0");
+
+        workerManager = new WorkerManager();
+        workerManager.start();
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws InterruptedException {
+        workerManager.stop();
+    }
+
+    @Before
+    public void setUp() {
+        this.executor = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void tearDown() {
+        this.executor.shutdownNow();
+        workerManager.cleanup();
+
+        String syncFilePath = workerManager.getSyncFile().getPath();
+        new File(syncFilePath + IpBarrier.BARRIER_FILE_SUFFIX).delete();
+        File conditionFile = new File(syncFilePath + ".tripped" + IpCondition.CONDITION_FILE_SUFFIX);
+        conditionFile.delete();
+        new File(conditionFile.getPath() + LockSignal.SIGNAL_FILE_SUFFIX).delete();
+    }
+
+    private Future<Integer> submitAwait(final int parties, final long timeoutMs) {
+        return this.executor.submit(new Callable<Integer>() {
+
+            @Override
+            public Integer call() throws Exception {
+                // each party uses its own barrier object, like a separate process would
+                try (IpBarrier barrier = new IpBarrier(workerManager.getSyncFile(), parties)) {
+                    return barrier.await(timeoutMs, TimeUnit.MILLISECONDS);
+                }
+            }
+        });
+    }
+
+    private static void assertBroken(Future<Integer> result) throws InterruptedException {
+        try {
+            result.get();
+            fail("barrier not broken");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof BrokenBarrierException);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNonPositiveParties() {
+        new IpBarrier(workerManager.getSyncFile(), 0);
+    }
+
+    @Test
+    public void testTripAndReuse() throws Exception {
+        final int parties = 3;
+
+        for (int generation = 0; generation < 2; generation++) {
+            List<Future<Integer>> results = new ArrayList<>();
+            for (int i = 0; i < parties; i++) {
+                results.add(submitAwait(parties, 5000L));
+            }
+
+            Set<Integer> indexes = new HashSet<>();
+            for (Future<Integer> result : results) {
+                indexes.add(result.get());
+            }
+            assertEquals(parties, indexes.size());
+            assertTrue(indexes.contains(0));
+            assertTrue(indexes.contains(parties - 1));
+        }
+    }
+
+    @Test
+    public void testTimeoutBreaksBarrier() throws Exception {
+        try (IpBarrier barrier = new IpBarrier(workerManager.getSyncFile(), 3)) {
+            Future<Integer> waiter = submitAwait(3, 5000L);
+
+            try {
+                barrier.await(300L, TimeUnit.MILLISECONDS);
+                fail("barrier tripped");
+            } catch (TimeoutException e) {
+                // expected
+            }
+
+            assertBroken(waiter);
+            assertTrue(barrier.isBroken());
+            assertEquals(0, barrier.getNumberWaiting());
+
+            try {
+                barrier.await();
+                fail("barrier not broken");
+            } catch (BrokenBarrierException e) {
+                // expected
+            }
+
+            barrier.reset();
+            assertFalse(barrier.isBroken());
+        }
+    }
+
+    @Test
+    public void testDeadParticipantBreaksBarrier() throws Exception {
+        // leave a participant slot occupied but unlocked, like a participant that died without being closed
+        MappedState state = new MappedState(new File(workerManager.getSyncFile().getPath()
+            + IpBarrier.BARRIER_FILE_SUFFIX), IpBarrier.SLOTS + IpBarrier.MAX_PARTICIPANTS);
+        try {
+            state.set(IpBarrier.SLOTS + 7, 1L);
+            state.set(IpBarrier.SLOTS_USED, 8L);
+        } finally {
+            state.close();
+        }
+
+        Future<Integer> waiter = submitAwait(3, 10000L);
+        assertBroken(waiter);
+
+        // the dead participant is forgotten on reset
+        try (IpBarrier barrier = new IpBarrier(workerManager.getSyncFile(), 3)) {
+            barrier.reset();
+            assertFalse(barrier.isBroken());
+        }
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (c) 2015 Andreas Klöber
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package ipLock;
+
+import org.junit.*;
+import org.slf4j.MDC;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class IpConditionTest {
+
+    private static WorkerManager workerManager;
+
+    @BeforeClass
+    public static void setupClass() throws IOException, InterruptedException {
+        MDC.put("IPL_ID", "0");
+
+        workerManager = new WorkerManager();
+        workerManager.start();
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws InterruptedException {
+        workerManager.stop();
+    }
+
+    @After
+    public void tearDown() {
+        workerManager.cleanup();
+
+        File conditionFile = new File(workerManager.getSyncFile().getPath() + ".default"
+            + IpCondition.CONDITION_FILE_SUFFIX);
+        conditionFile.delete();
+        new File(conditionFile.getPath() + LockSignal.SIGNAL_FILE_SUFFIX).delete();
+    }
+
+    @Test(expected = IllegalMonitorStateException.class)
+    public void testAwaitRequiresLock() throws Exception {
+        try (IpLock lock = new IpLock(workerManager.getSyncFile());
+             IpCondition condition = lock.newCondition()) {
+            condition.await(10L, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Test
+    public void testAwaitTimesOutAndReacquiresLock() throws Exception {
+        try (IpLock lock = new IpLock(workerManager.getSyncFile());
+             IpCondition condition = lock.newCondition()) {
+            lock.lock();
+
+            // a signal without waiters is lost
+            condition.signal();
+            assertFalse(condition.await(200L, TimeUnit.MILLISECONDS));
+            assertTrue(lock.isLeaseValid());
+
+            ProcessHandle p = workerManager
+                .builder()
+                .tryLock(true)
+                .startAndWait();
+
+            workerManager.assertExitCode(WorkerExitCode.TRY_LOCK_FAILED, p);
+        }
+    }
+
+    @Test
+    public void testSignalFromOtherProcessWakesWaiter() throws Exception {
+        try (IpLock lock = new IpLock(workerManager.getSyncFile());
+             IpCondition condition = lock.newCondition()) {
+            lock.lock();
+
+            // blocks on the lock until it is released by waiting
+            ProcessHandle p = workerManager
+                .builder()
+                .signalCondition(true)
+                .start();
+
+            assertTrue(condition.await(5L, TimeUnit.SECONDS));
+            assertTrue(lock.isLeaseValid());
+            lock.unlock();
+
+            workerManager.await(p);
+            workerManager.assertExitCode(WorkerExitCode.SUCCESS, p);
+        }
+    }
+
+    @Test
+    public void testSignalAllWakesAllWaiters() throws Exception {
+        final int waiterCount = 3;
+        final CountDownLatch waiting = new CountDownLatch(waiterCount);
+
+        ExecutorService executor = Executors.newFixedThreadPool(waiterCount);
+        try {
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (int i = 0; i < waiterCount; i++) {
+                results.add(executor.submit(new Callable<Boolean>() {
+
+                    @Override
+                    public Boolean call() throws Exception {
+                        try (IpLock lock = new IpLock(workerManager.getSyncFile());
+                             IpCondition condition = lock.newCondition()) {
+                            lock.lock();
+                            try {
+                                waiting.countDown();
+                                return condition.await(5L, TimeUnit.SECONDS);
+                            } finally {
+                                lock.unlock();
+                            }
+                        }
+                    }
+                }));
+            }
+
+            assertTrue(waiting.await(5L, TimeUnit.SECONDS));
+            try (IpLock lock = new IpLock(workerManager.getSyncFile());
+                 IpCondition condition = lock.newCondition()) {
+                // acquired once the last waiter has released the lock by waiting
+                lock.lock();
+                condition.signalAll();
+                lock.unlock();
+            }
+
+            for (Future<Boolean> result : results) {
+                assertTrue(result.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
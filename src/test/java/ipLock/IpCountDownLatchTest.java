@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2015 Andreas Klöber
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package ipLock;
+
+import org.junit.*;
+import org.slf4j.MDC;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class IpCountDownLatchTest {
+
+    private static WorkerManager workerManager;
+
+    @BeforeClass
+    public static void setupClass() throws IOException, InterruptedException {
+        MDC.put("IPL_ID", "0");
+
+        workerManager = new WorkerManager();
+        workerManager.start();
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws InterruptedException {
+        workerManager.stop();
+    }
+
+    @After
+    public void tearDown() {
+        workerManager.cleanup();
+
+        String syncFilePath = workerManager.getSyncFile().getPath();
+        new File(syncFilePath + IpCountDownLatch.LATCH_FILE_SUFFIX).delete();
+        File conditionFile = new File(syncFilePath + ".released" + IpCondition.CONDITION_FILE_SUFFIX);
+        conditionFile.delete();
+        new File(conditionFile.getPath() + LockSignal.SIGNAL_FILE_SUFFIX).delete();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeCount() {
+        new IpCountDownLatch(workerManager.getSyncFile(), -1);
+    }
+
+    @Test
+    public void testAwaitTimesOut() throws Exception {
+        try (IpCountDownLatch latch = new IpCountDownLatch(workerManager.getSyncFile(), 2)) {
+            latch.countDown();
+            assertEquals(1L, latch.getCount());
+            assertFalse(latch.await(200L, TimeUnit.MILLISECONDS));
+        }
+    }
+
+    @Test
+    public void testCountDownReleasesWaiters() throws Exception {
+        final int waiterCount = 3;
+
+        ExecutorService executor = Executors.newFixedThreadPool(waiterCount);
+        try (IpCountDownLatch latch = new IpCountDownLatch(workerManager.getSyncFile(), 2)) {
+            // each waiter uses its own latch object, like a separate process would
+            Future<?>[] results = new Future<?>[waiterCount];
+            for (int i = 0; i < waiterCount; i++) {
+                results[i] = executor.submit(new Callable<Boolean>() {
+
+                    @Override
+                    public Boolean call() throws Exception {
+                        try (IpCountDownLatch waiterLatch = new IpCountDownLatch(workerManager.getSyncFile(), 2)) {
+                            return waiterLatch.await(5L, TimeUnit.SECONDS);
+                        }
+                    }
+                });
+            }
+
+            latch.countDown();
+            Thread.sleep(200L);
+            for (Future<?> result : results) {
+                assertFalse(result.isDone());
+            }
+
+            latch.countDown();
+            for (Future<?> result : results) {
+                assertEquals(Boolean.TRUE, result.get());
+            }
+
+            // stays released
+            latch.countDown();
+            assertEquals(0L, latch.getCount());
+            assertTrue(latch.await(0L, TimeUnit.MILLISECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
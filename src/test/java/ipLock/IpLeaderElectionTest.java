@@ -0,0 +1,165 @@
+/*
+ * Copyright (c) 2015 Andreas Klöber
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package ipLock;
+
+import org.junit.*;
+import org.slf4j.MDC;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class IpLeaderElectionTest {
+
+    private static WorkerManager workerManager;
+
+    @BeforeClass
+    public static void setupClass() throws IOException, InterruptedException {
+        MDC.put("IPL_ID", "0");
+
+        workerManager = new WorkerManager();
+        workerManager.start();
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws InterruptedException {
+        workerManager.stop();
+    }
+
+    @After
+    public void tearDown() {
+        workerManager.cleanup();
+
+        new File(workerManager.getSyncFile().getPath() + IpLeaderElection.ELECTION_FILE_SUFFIX).delete();
+    }
+
+    @Test
+    public void testStandbyTakesOverWhenLeaderIsKilled() throws Exception {
+        ProcessHandle leaderP = workerManager
+            .builder()
+            .leaderElection(true)
+            .activateBreakpoint(WorkerBreakpoint.MUTEX_AREA)
+            .startAndWaitForBreakpoint();
+
+        RecordingListener listener = new RecordingListener();
+        try (IpLeaderElection election = new IpLeaderElection(workerManager.getSyncFile(), listener)) {
+            election.start();
+            assertFalse(listener.elected.await(200L, TimeUnit.MILLISECONDS));
+
+            leaderP.destroy();
+            leaderP.getProcess().waitFor();
+            long exitTime = System.nanoTime();
+
+            assertTrue(listener.elected.await(5L, TimeUnit.SECONDS));
+            assertTrue(election.isLeader());
+
+            // the standby is woken up by the operating system rather than by its next lock attempt
+            long failoverNanos = listener.electionTime.get() - exitTime;
+            assertTrue("failover took " + TimeUnit.NANOSECONDS.toMillis(failoverNanos) + "ms",
+                failoverNanos < SyncFile.DEFAULT_TRY_LOCK_INTERVAL_NANOS);
+        }
+    }
+
+    @Test
+    public void testLeadershipHandedOverOnClose() throws Exception {
+        RecordingListener firstListener = new RecordingListener();
+        RecordingListener secondListener = new RecordingListener();
+
+        try (IpLeaderElection second = new IpLeaderElection(workerManager.getSyncFile(), secondListener)) {
+            IpLeaderElection first = new IpLeaderElection(workerManager.getSyncFile(), firstListener);
+            try {
+                first.start();
+                assertTrue(firstListener.elected.await(5L, TimeUnit.SECONDS));
+
+                second.start();
+                assertFalse(secondListener.elected.await(200L, TimeUnit.MILLISECONDS));
+
+                // the leader is visible to other processes
+                try (IpLock probe = new IpLock(workerManager.getSyncFile())) {
+                    LockOwner owner = probe.getOwner();
+                    assertEquals(firstListener.fencingToken.get(), owner.getFencingToken());
+                }
+            } finally {
+                first.close();
+            }
+            assertTrue(firstListener.revoked.await(0L, TimeUnit.MILLISECONDS));
+            assertFalse(first.isLeader());
+
+            assertTrue(secondListener.elected.await(5L, TimeUnit.SECONDS));
+            assertTrue(secondListener.fencingToken.get() > firstListener.fencingToken.get());
+        }
+    }
+
+    @Test
+    public void testStandbyProcessElectedWhenLeaderCloses() throws Exception {
+        RecordingListener listener = new RecordingListener();
+        IpLeaderElection election = new IpLeaderElection(workerManager.getSyncFile(), listener);
+        ProcessHandle standbyP;
+        try {
+            election.start();
+            assertTrue(listener.elected.await(5L, TimeUnit.SECONDS));
+
+            standbyP = workerManager
+                .builder()
+                .leaderElection(true)
+                .activateBreakpoint(WorkerBreakpoint.BEFORE_LOCK)
+                .startAndWaitForBreakpoint();
+            standbyP.proceed();
+        } finally {
+            election.close();
+        }
+        assertTrue(listener.revoked.await(0L, TimeUnit.MILLISECONDS));
+
+        workerManager.await(standbyP);
+        workerManager.assertExitCode(WorkerExitCode.SUCCESS, standbyP);
+    }
+
+    private static class RecordingListener implements LeaderListener {
+
+        final CountDownLatch elected = new CountDownLatch(1);
+
+        final CountDownLatch revoked = new CountDownLatch(1);
+
+        final AtomicLong electionTime = new AtomicLong();
+
+        final AtomicLong fencingToken = new AtomicLong();
+
+        @Override
+        public void onElected(IpLeaderElection election, long fencingToken) {
+            this.electionTime.set(System.nanoTime());
+            this.fencingToken.set(fencingToken);
+            this.elected.countDown();
+        }
+
+        @Override
+        public void onRevoked(IpLeaderElection election) {
+            this.revoked.countDown();
+        }
+    }
+}
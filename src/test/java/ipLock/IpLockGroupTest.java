@@ -0,0 +1,193 @@
+/*
+ * Copyright (c) 2015 Andreas Klöber
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package ipLock;
+
+import org.junit.*;
+import org.slf4j.MDC;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class IpLockGroupTest {
+
+    private static WorkerManager workerManager;
+
+    private static File otherSyncFile;
+
+    @BeforeClass
+    public static void setupClass() throws IOException, InterruptedException {
+        MDC.put("IPL_ID", "0");
+
+        workerManager = new WorkerManager();
+        workerManager.start();
+
+        otherSyncFile = Paths.get(System.getProperty("java.io.tmpdir"), "ip-lock-other.lock").toFile();
+        otherSyncFile.deleteOnExit();
+        new File(otherSyncFile.getPath() + LockSignal.SIGNAL_FILE_SUFFIX).deleteOnExit();
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws InterruptedException {
+        workerManager.stop();
+    }
+
+    @After
+    public void tearDown() {
+        workerManager.cleanup();
+        otherSyncFile.delete();
+    }
+
+    /*
+     * Starts a worker that holds the lock of the given file until it is told to proceed.
+     */
+    private static ProcessHandle holdInOtherProcess(File syncFile) {
+        return workerManager
+            .builder()
+            .syncFile(syncFile)
+            .activateBreakpoint(WorkerBreakpoint.MUTEX_AREA)
+            .breakpointTimeoutMs(WorkerConstants.TIMEOUT_DISABLED)
+            .startAndWaitForBreakpoint();
+    }
+
+    /*
+     * Starts a worker that tries to acquire the lock of the given file once and asserts its exit code.
+     */
+    private static void assertTryLockInOtherProcess(File syncFile, WorkerExitCode expectedExitCode) {
+        ProcessHandle p = workerManager
+            .builder()
+            .syncFile(syncFile)
+            .tryLock(true)
+            .startAndWait();
+        workerManager.assertExitCode(expectedExitCode, p);
+    }
+
+    @Test
+    public void testAllLocksAcquiredAndReleased() throws IOException {
+        try (IpLockGroup group = new IpLockGroup(new IpLock(otherSyncFile), new IpLock(workerManager.getSyncFile()))) {
+            group.acquireAll();
+            assertTryLockInOtherProcess(workerManager.getSyncFile(), WorkerExitCode.TRY_LOCK_FAILED);
+            assertTryLockInOtherProcess(otherSyncFile, WorkerExitCode.TRY_LOCK_FAILED);
+
+            group.releaseAll();
+            assertTryLockInOtherProcess(workerManager.getSyncFile(), WorkerExitCode.SUCCESS);
+            assertTryLockInOtherProcess(otherSyncFile, WorkerExitCode.SUCCESS);
+        }
+    }
+
+    @Test
+    public void testNoLockHeldAfterTimeout() throws IOException, InterruptedException {
+        holdInOtherProcess(otherSyncFile);
+
+        try (IpLockGroup group = new IpLockGroup(new IpLock(workerManager.getSyncFile()), new IpLock(otherSyncFile))) {
+            assertFalse(group.tryAcquireAll());
+            assertFalse(group.acquireAll(200, 20, TimeUnit.MILLISECONDS));
+        }
+
+        assertTryLockInOtherProcess(workerManager.getSyncFile(), WorkerExitCode.SUCCESS);
+    }
+
+    @Test
+    public void testNoLockHeldWhileWaiting() throws Exception {
+        ProcessHandle holder = holdInOtherProcess(otherSyncFile);
+
+        final IpLockGroup group = new IpLockGroup(new IpLock(workerManager.getSyncFile()), new IpLock(otherSyncFile));
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<Boolean> acquired = executor.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    return group.acquireAll(10, 20, TimeUnit.SECONDS);
+                }
+            });
+
+            // the free lock is released again while waiting for the held one
+            assertTryLockInOtherProcess(workerManager.getSyncFile(), WorkerExitCode.SUCCESS);
+            assertFalse(acquired.isDone());
+
+            holder.proceed();
+            assertTrue(acquired.get(10, TimeUnit.SECONDS));
+            assertTryLockInOtherProcess(otherSyncFile, WorkerExitCode.TRY_LOCK_FAILED);
+        } finally {
+            executor.shutdownNow();
+            group.close();
+        }
+    }
+
+    @Test
+    public void testInterruptDeferredUntilAllLocksAcquired() throws Exception {
+        ProcessHandle holder = holdInOtherProcess(otherSyncFile);
+
+        final IpLockGroup group = new IpLockGroup(new IpLock(workerManager.getSyncFile()), new IpLock(otherSyncFile));
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<Boolean> interrupted = executor.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    Thread.currentThread().interrupt();
+                    group.acquireAll();
+                    return Thread.interrupted();
+                }
+            });
+
+            Thread.sleep(500L);
+            assertFalse(interrupted.isDone());
+
+            holder.proceed();
+            assertTrue(interrupted.get(10, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+            group.close();
+        }
+    }
+
+    @Test
+    public void testStripesOfSameFileAcquiredTogether() throws IOException {
+        try (IpStripedLock stripedLock = new IpStripedLock(workerManager.getSyncFile(), WorkerConstants.STRIPES)) {
+            IpLockGroup group = new IpLockGroup(stripedLock.getAt(1), stripedLock.getAt(0));
+            assertTrue(group.tryAcquireAll());
+            group.releaseAll();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testLocksOfSameFileRejected() throws IOException {
+        try (IpLockGroup group = new IpLockGroup(new IpLock(workerManager.getSyncFile()),
+            new IpLock(workerManager.getSyncFile().getPath()))) {
+            group.tryAcquireAll();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testEmptyGroupRejected() {
+        new IpLockGroup();
+    }
+}
@@ -0,0 +1,416 @@
+/*
+ * Copyright (c) 2015 Andreas Klöber
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package ipLock;
+
+import org.junit.*;
+import org.slf4j.MDC;
+
+import java.io.IOException;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class IpLockMappedTest {
+
+    private static WorkerManager workerManager;
+
+    @BeforeClass
+    public static void setupClass() throws IOException, InterruptedException {
+        MDC.put("IPL_ID", "0");
+
+        workerManager = new WorkerManager();
+        workerManager.start();
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws InterruptedException {
+        workerManager.stop();
+    }
+
+    @After
+    public void tearDown() {
+        workerManager.cleanup();
+    }
+
+    private static IpLock newMappedLock() {
+        return IpLock.builder(workerManager.getSyncFile()).mapped(true).build();
+    }
+
+    private static IpLock newFairLock() {
+        return IpLock.builder(workerManager.getSyncFile()).fair(true).build();
+    }
+
+    /*
+     * Starts a worker using the fair lock that waits for the lock until it is released by the given holder.
+     */
+    private static ProcessHandle startFairWaiter() throws InterruptedException {
+        ProcessHandle waiter = workerManager
+            .builder()
+            .lockMode(LockMode.MAPPED_FAIR)
+            .workerLockTimeoutMs(60000L)
+            .activateBreakpoint(WorkerBreakpoint.BEFORE_LOCK)
+            .startAndWaitForBreakpoint();
+
+        waiter.activateBreakpoint(WorkerBreakpoint.MUTEX_AREA);
+        waiter.proceed();
+
+        // give the waiter time to draw its ticket
+        Thread.sleep(1000L);
+        return waiter;
+    }
+
+    @Test
+    public void testMappedExcludesOtherProcess() throws IOException {
+        workerManager
+            .builder()
+            .lockMode(LockMode.MAPPED)
+            .activateBreakpoint(WorkerBreakpoint.MUTEX_AREA)
+            .breakpointTimeoutMs(WorkerConstants.TIMEOUT_DISABLED)
+            .startAndWaitForBreakpoint();
+
+        ProcessHandle p = workerManager
+            .builder()
+            .lockMode(LockMode.MAPPED)
+            .tryLock(true)
+            .startAndWait();
+
+        workerManager.assertExitCode(WorkerExitCode.TRY_LOCK_FAILED, p);
+
+        try (IpLock lock = newMappedLock()) {
+            assertFalse(lock.tryLock());
+        }
+    }
+
+    @Test
+    public void testInterruptedThreadKeepsLivenessSlot() throws Exception {
+        try (IpLock lock = newMappedLock();
+             final IpLock other = newMappedLock()) {
+            lock.lock();
+
+            ExecutorService executor = Executors.newSingleThreadExecutor();
+            try {
+                Future<Boolean> interrupted = executor.submit(new Callable<Boolean>() {
+
+                    @Override
+                    public Boolean call() throws Exception {
+                        // maps the file and claims a slot of its own with the interrupt status set
+                        Thread.currentThread().interrupt();
+                        assertFalse(other.tryLock());
+                        return Thread.interrupted();
+                    }
+                });
+                assertTrue(interrupted.get(5L, TimeUnit.SECONDS));
+            } finally {
+                executor.shutdown();
+            }
+
+            // the owner is still alive for other processes, so they do not take over the lock word
+            ProcessHandle p = workerManager
+                .builder()
+                .lockMode(LockMode.MAPPED)
+                .tryLock(true)
+                .startAndWait();
+            workerManager.assertExitCode(WorkerExitCode.TRY_LOCK_FAILED, p);
+
+            lock.unlock();
+        }
+    }
+
+    @Test
+    public void testBlockedProcessAcquiresOnRelease() {
+        ProcessHandle blockingP = workerManager
+            .builder()
+            .lockMode(LockMode.MAPPED)
+            .activateBreakpoint(WorkerBreakpoint.MUTEX_AREA)
+            .startAndWaitForBreakpoint();
+
+        ProcessHandle blockedP = workerManager
+            .builder()
+            .lockMode(LockMode.MAPPED)
+            .activateBreakpoint(WorkerBreakpoint.BEFORE_LOCK)
+            .startAndWaitForBreakpoint();
+
+        blockedP.proceed();
+        blockingP.proceed();
+
+        workerManager.await(blockingP, blockedP);
+        workerManager.assertExitCode(WorkerExitCode.SUCCESS, blockingP, blockedP);
+    }
+
+    @Test
+    public void testAutomaticUnlockWhenProcessHaltsItself() throws IOException {
+        ProcessHandle haltingP = workerManager
+            .builder()
+            .lockMode(LockMode.MAPPED)
+            .haltInMutexArea(true)
+            .startAndWait();
+
+        workerManager.assertExitCode(WorkerExitCode.HALT_IN_MUTEX_AREA, haltingP);
+
+        // the lock word is still set, but its owner is dead
+        try (IpLock lock = newMappedLock()) {
+            assertTrue(lock.tryLock());
+        }
+
+        ProcessHandle normalP = workerManager
+            .builder()
+            .lockMode(LockMode.MAPPED)
+            .startAndWait();
+
+        workerManager.assertExitCode(WorkerExitCode.SUCCESS, normalP);
+    }
+
+    @Test
+    public void testFairLockGrantedInArrivalOrder() throws InterruptedException {
+        ProcessHandle holderP = workerManager
+            .builder()
+            .lockMode(LockMode.MAPPED_FAIR)
+            .activateBreakpoint(WorkerBreakpoint.MUTEX_AREA)
+            .breakpointTimeoutMs(WorkerConstants.TIMEOUT_DISABLED)
+            .startAndWaitForBreakpoint();
+
+        ProcessHandle firstP = startFairWaiter();
+        ProcessHandle secondP = startFairWaiter();
+
+        holderP.proceed();
+
+        // the second waiter cannot be in the mutex area while the first one is
+        firstP.waitForBreakpoint();
+        firstP.proceed();
+        secondP.waitForBreakpoint();
+        secondP.proceed();
+
+        workerManager.await(holderP, firstP, secondP);
+        workerManager.assertExitCode(WorkerExitCode.SUCCESS, holderP, firstP, secondP);
+    }
+
+    @Test
+    public void testFairLockSkipsTicketOfKilledWaiter() throws InterruptedException {
+        ProcessHandle holderP = workerManager
+            .builder()
+            .lockMode(LockMode.MAPPED_FAIR)
+            .activateBreakpoint(WorkerBreakpoint.MUTEX_AREA)
+            .breakpointTimeoutMs(WorkerConstants.TIMEOUT_DISABLED)
+            .startAndWaitForBreakpoint();
+
+        ProcessHandle killedP = startFairWaiter();
+        ProcessHandle waitingP = startFairWaiter();
+
+        killedP.kill();
+        workerManager.await(killedP);
+        holderP.proceed();
+
+        waitingP.waitForBreakpoint();
+        waitingP.proceed();
+
+        workerManager.await(holderP, waitingP);
+        workerManager.assertExitCode(WorkerExitCode.SUCCESS, holderP, waitingP);
+    }
+
+    @Test
+    public void testFairTryLockFailsWhileHeld() throws IOException, InterruptedException {
+        workerManager
+            .builder()
+            .lockMode(LockMode.MAPPED_FAIR)
+            .activateBreakpoint(WorkerBreakpoint.MUTEX_AREA)
+            .breakpointTimeoutMs(WorkerConstants.TIMEOUT_DISABLED)
+            .startAndWaitForBreakpoint();
+
+        try (IpLock lock = newFairLock()) {
+            assertFalse(lock.tryLock());
+            assertFalse(lock.lock(200L, 10L, TimeUnit.MILLISECONDS));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testFairnessMustMatchWithinProcess() throws IOException {
+        try (IpLock fairLock = newFairLock(); IpLock lock = newMappedLock()) {
+            assertTrue(fairLock.tryLock());
+            lock.tryLock();
+        }
+    }
+
+    @Test
+    public void testFencingTokensIncreaseAcrossProcesses() throws IOException {
+        try (IpLock lock = newMappedLock()) {
+            long fencingToken;
+            try (LockHandle handle = lock.lock()) {
+                fencingToken = handle.getFencingToken();
+                assertTrue(fencingToken > 0L);
+            }
+
+            ProcessHandle p = workerManager
+                .builder()
+                .lockMode(LockMode.MAPPED)
+                .startAndWait();
+            workerManager.assertExitCode(WorkerExitCode.SUCCESS, p);
+
+            try (LockHandle handle = lock.tryLockHandle()) {
+                assertEquals(fencingToken + 2L, handle.getFencingToken());
+            }
+        }
+    }
+
+    @Test(expected = OverlappingFileLockException.class)
+    public void testLockHeldTwiceBySameThread() throws IOException {
+        try (IpLock lock = newMappedLock()) {
+            assertTrue(lock.tryLock());
+            lock.tryLock();
+        }
+    }
+
+    @Test
+    public void testThreadsOfSameProcessExcludeEachOther() throws Exception {
+        assertThreadsExcludeEachOther(false);
+    }
+
+    @Test
+    public void testThreadsOfSameProcessExcludeEachOtherWhenFair() throws Exception {
+        assertThreadsExcludeEachOther(true);
+    }
+
+    private void assertThreadsExcludeEachOther(final boolean fair) throws Exception {
+        final int threadCount = 4;
+        final int iterations = 10000;
+        final int[] counter = new int[1];
+
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        try {
+            List<Future<Void>> results = new ArrayList<>();
+            for (int t = 0; t < threadCount; t++) {
+                results.add(executor.submit(new Callable<Void>() {
+
+                    @Override
+                    public Void call() throws Exception {
+                        try (IpLock lock = fair ? newFairLock() : newMappedLock()) {
+                            for (int i = 0; i < iterations; i++) {
+                                if (i % 2 == 0) {
+                                    lock.lock();
+                                } else {
+                                    assertTrue(lock.lock(5L, 1L, TimeUnit.SECONDS));
+                                }
+
+                                try {
+                                    // not atomic, so lost updates reveal concurrent access
+                                    counter[0]++;
+                                } finally {
+                                    lock.unlock();
+                                }
+                            }
+                        }
+                        return null;
+                    }
+                }));
+            }
+
+            for (Future<Void> result : results) {
+                result.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(threadCount * iterations, counter[0]);
+    }
+
+    private static IpLock newLeasedLock() {
+        return IpLock.builder(workerManager.getSyncFile()).lease(300L, TimeUnit.MILLISECONDS).build();
+    }
+
+    @Test
+    public void testLeaseRenewedWhileHolderMakesProgress() throws IOException {
+        try (IpLock lock = newLeasedLock()) {
+            lock.lock();
+            assertTrue(lock.isLeaseValid());
+
+            ProcessHandle p = workerManager
+                .builder()
+                .lockMode(LockMode.MAPPED)
+                .ipLockTimeoutMs(1500L)
+                .startAndWait();
+
+            workerManager.assertExitCode(WorkerExitCode.IP_LOCK_TIMEOUT, p);
+            assertTrue(lock.isLeaseValid());
+        }
+    }
+
+    @Test
+    public void testExpiredLeaseTakenOver() throws Exception {
+        final CountDownLatch stalled = new CountDownLatch(1);
+        try (IpLock lock = newLeasedLock()) {
+            long fencingToken = lock.lock().getFencingToken();
+
+            // stall the heartbeat as if the holder was suspended
+            final ScheduledFuture<?>[] stall = new ScheduledFuture<?>[1];
+            stall[0] = LeaseHeartbeat.getInstance().schedule(new Runnable() {
+
+                @Override
+                public void run() {
+                    stall[0].cancel(false);
+                    try {
+                        stalled.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }, TimeUnit.MILLISECONDS.toNanos(1L));
+
+            ProcessHandle p = workerManager
+                .builder()
+                .lockMode(LockMode.MAPPED)
+                .ipLockTimeoutMs(3000L)
+                .activateBreakpoint(WorkerBreakpoint.MUTEX_AREA)
+                .startAndWaitForBreakpoint();
+
+            assertFalse(lock.isLeaseValid());
+            stalled.countDown();
+
+            // releasing the lost lease must not release the lock of the new holder
+            lock.unlock();
+            assertFalse(lock.isLeaseValid());
+            assertNull(lock.tryLockHandle());
+
+            p.proceed();
+            workerManager.await(p);
+            workerManager.assertExitCode(WorkerExitCode.SUCCESS, p);
+
+            LockHandle handle = lock.tryLockHandle();
+            assertTrue(handle.getFencingToken() > fencingToken + 1L);
+            assertTrue(lock.isLeaseValid());
+        } finally {
+            stalled.countDown();
+        }
+    }
+}
@@ -22,10 +22,38 @@
 
 package ipLock;
 
+import com.sun.management.UnixOperatingSystemMXBean;
 import org.junit.*;
 import org.slf4j.MDC;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.management.ThreadMXBean;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class IpLockTest {
 
@@ -165,6 +193,132 @@ public class IpLockTest {
         workerManager.assertExitCode(WorkerExitCode.SUCCESS, blockedP);
     }
 
+    @Test
+    public void testLockHandOffNotifiedOnRelease() throws InterruptedException {
+        // kick off process that enters mutex area first and blocks
+        ProcessHandle blockingP = workerManager
+            .builder()
+            .activateBreakpoint(WorkerBreakpoint.MUTEX_AREA)
+            .breakpointTimeoutMs(WorkerConstants.TIMEOUT_DISABLED)
+            .startAndWaitForBreakpoint();
+
+        // interval exceeds worker lock timeout, so the lock must be handed off by notification
+        ProcessHandle blockedP = workerManager
+            .builder()
+            .activateBreakpoint(WorkerBreakpoint.BEFORE_LOCK)
+            .ipLockTimeoutMs(60000L)
+            .ipLockIntervalMs(60000L)
+            .workerLockTimeoutMs(3000L)
+            .startAndWaitForBreakpoint();
+
+        blockedP.proceed();
+        Thread.sleep(100);
+        blockingP.proceed();
+
+        workerManager.await(blockedP);
+
+        workerManager.assertExitCode(WorkerExitCode.SUCCESS, blockedP);
+    }
+
+    @Test
+    public void testInterruptDeferredUntilLockAcquired() throws Exception {
+        ProcessHandle blockingP = workerManager
+            .builder()
+            .activateBreakpoint(WorkerBreakpoint.MUTEX_AREA)
+            .breakpointTimeoutMs(WorkerConstants.TIMEOUT_DISABLED)
+            .startAndWaitForBreakpoint();
+
+        try (final IpLock lock = new IpLock(workerManager.getSyncFile())) {
+            final AtomicReference<LockOwner> owner = new AtomicReference<>();
+            final AtomicBoolean interrupted = new AtomicBoolean();
+            final AtomicReference<IOException> failure = new AtomicReference<>();
+            Thread waiter = new Thread(new Runnable() {
+
+                @Override
+                public void run() {
+                    try {
+                        lock.lock();
+                        owner.set(lock.getOwner());
+                        interrupted.set(Thread.interrupted());
+                        lock.unlock();
+                    } catch (IOException e) {
+                        failure.set(e);
+                    }
+                }
+            }, "interrupted-waiter");
+            waiter.start();
+
+            Thread.sleep(200L);
+            waiter.interrupt();
+            Thread.sleep(100L);
+            blockingP.proceed();
+
+            waiter.join(5000L);
+            assertFalse(waiter.isAlive());
+            assertNull(failure.get());
+            assertTrue(interrupted.get());
+            assertEquals("interrupted-waiter", owner.get().getThreadName());
+        }
+
+        workerManager.await(blockingP);
+        workerManager.assertExitCode(WorkerExitCode.SUCCESS, blockingP);
+    }
+
+    @Test
+    public void testInterruptedOwnerQueryKeepsLockOfOtherThread() throws Exception {
+        try (IpLock lock = new IpLock(workerManager.getSyncFile());
+             final IpLock observer = new IpLock(workerManager.getSyncFile())) {
+            lock.lock();
+
+            ExecutorService executor = Executors.newSingleThreadExecutor();
+            try {
+                Future<LockOwner> owner = executor.submit(new Callable<LockOwner>() {
+
+                    @Override
+                    public LockOwner call() throws Exception {
+                        Thread.currentThread().interrupt();
+                        try {
+                            return observer.getOwner();
+                        } finally {
+                            assertTrue(Thread.interrupted());
+                        }
+                    }
+                });
+                assertEquals(Thread.currentThread().getName(), owner.get(5L, TimeUnit.SECONDS).getThreadName());
+            } finally {
+                executor.shutdown();
+            }
+
+            // the lock is still held for other processes
+            ProcessHandle p = workerManager
+                .builder()
+                .tryLock(true)
+                .startAndWait();
+            workerManager.assertExitCode(WorkerExitCode.TRY_LOCK_FAILED, p);
+
+            lock.unlock();
+        }
+    }
+
+    @Test
+    public void testTimedLockStartsNoThreads() throws IOException, InterruptedException {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+        try (IpLock lock = new IpLock(workerManager.getSyncFile())) {
+            // first attempt opens the sync channel and the release signal
+            assertTrue(lock.lock(10L, 1L, TimeUnit.MILLISECONDS));
+            lock.unlock();
+            long startedThreadCount = threads.getTotalStartedThreadCount();
+
+            for (int i = 0; i < 1000; i++) {
+                assertTrue(lock.lock(10L, 1L, TimeUnit.MILLISECONDS));
+                lock.unlock();
+            }
+
+            assertEquals(startedThreadCount, threads.getTotalStartedThreadCount());
+        }
+    }
+
     @Test
     public void testTryLockSuccess() throws IOException,
         InterruptedException {
@@ -196,6 +350,107 @@ public class IpLockTest {
         workerManager.assertExitCode(WorkerExitCode.TRY_LOCK_FAILED, tryLockP);
     }
 
+    @Test
+    public void testOwnerOfOtherProcessReadWithoutLocking() throws IOException {
+        ProcessHandle p = workerManager
+            .builder()
+            .activateBreakpoint(WorkerBreakpoint.MUTEX_AREA)
+            .breakpointTimeoutMs(WorkerConstants.TIMEOUT_DISABLED)
+            .startAndWaitForBreakpoint();
+
+        try (IpLock lock = new IpLock(workerManager.getSyncFile())) {
+            LockOwner owner = lock.getOwner();
+            assertNotNull(owner);
+            assertEquals("main", owner.getThreadName());
+            assertFalse(owner.getHostName().isEmpty());
+            assertTrue(owner.getProcessId() > 0L);
+            assertFalse(ManagementFactory.getRuntimeMXBean().getName().startsWith(owner.getProcessId() + "@"));
+            assertTrue(owner.getAcquisitionTime() <= System.currentTimeMillis());
+
+            p.proceed();
+            workerManager.await(p);
+            workerManager.assertExitCode(WorkerExitCode.SUCCESS, p);
+
+            assertNull(lock.getOwner());
+        }
+    }
+
+    @Test
+    public void testOwnerFencingTokenIncrementedOnAcquisition() throws IOException {
+        try (IpLock lock = new IpLock(workerManager.getSyncFile())) {
+            lock.lock();
+            LockOwner owner = lock.getOwner();
+            assertEquals(Thread.currentThread().getName(), owner.getThreadName());
+            lock.unlock();
+            assertNull(lock.getOwner());
+
+            assertTrue(lock.tryLock());
+            assertEquals(owner.getFencingToken() + 1L, lock.getOwner().getFencingToken());
+            lock.unlock();
+        }
+    }
+
+    @Test
+    public void testFencingTokenKeptIfOwnerRecordCorrupted() throws IOException {
+        try (IpLock lock = new IpLock(workerManager.getSyncFile())) {
+            long fencingToken;
+            try (LockHandle handle = lock.lock()) {
+                fencingToken = handle.getFencingToken();
+            }
+
+            // as left by an owner that died while writing the record
+            try (RandomAccessFile file = new RandomAccessFile(workerManager.getSyncFile(), "rw")) {
+                file.seek(100L);
+                int value = file.read();
+                file.seek(100L);
+                file.write(~value);
+            }
+
+            try (LockHandle handle = lock.lock()) {
+                assertEquals(fencingToken + 1L, handle.getFencingToken());
+            }
+
+            try (RandomAccessFile file = new RandomAccessFile(workerManager.getSyncFile(), "rw")) {
+                file.seek(0L);
+                file.writeInt(0);
+            }
+
+            try {
+                lock.lock();
+                fail("acquired lock of unknown fencing token");
+            } catch (IOException e) {
+                assertFalse(lock.isHeld());
+            }
+        }
+    }
+
+    @Test
+    public void testFencingTokensIncreaseAcrossProcesses() throws Exception {
+        try (IpLock lock = new IpLock(workerManager.getSyncFile())) {
+            long fencingToken;
+            try (LockHandle handle = lock.lock()) {
+                fencingToken = handle.getFencingToken();
+                assertTrue(fencingToken > 0L);
+                assertEquals(fencingToken, lock.getOwner().getFencingToken());
+            }
+
+            ProcessHandle p = workerManager
+                .builder()
+                .startAndWait();
+            workerManager.assertExitCode(WorkerExitCode.SUCCESS, p);
+
+            try (LockHandle handle = lock.tryLockHandle()) {
+                assertEquals(fencingToken + 2L, handle.getFencingToken());
+            }
+            try (LockHandle handle = lock.tryLockHandle(1, 1, TimeUnit.SECONDS)) {
+                assertEquals(fencingToken + 3L, handle.getFencingToken());
+            }
+            try (LockHandle handle = lock.lockAsync().get(5, TimeUnit.SECONDS)) {
+                assertEquals(fencingToken + 4L, handle.getFencingToken());
+            }
+        }
+    }
+
     @Test
     public void testAutomaticUnlockWhenProcessFinishesRegularly() throws IOException,
         InterruptedException {
@@ -253,4 +508,379 @@ public class IpLockTest {
         workerManager.assertExitCode(WorkerExitCode.SUCCESS, normalP);
     }
 
+    @Test
+    public void testSyncChannelReusedWhileContended() throws IOException, InterruptedException {
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        Assume.assumeTrue(os instanceof UnixOperatingSystemMXBean);
+        UnixOperatingSystemMXBean unixOs = (UnixOperatingSystemMXBean) os;
+
+        // kick off process that enters mutex area first and blocks
+        workerManager
+            .builder()
+            .activateBreakpoint(WorkerBreakpoint.MUTEX_AREA)
+            .breakpointTimeoutMs(WorkerConstants.TIMEOUT_DISABLED)
+            .startAndWaitForBreakpoint();
+
+        try (IpLock lock = new IpLock(workerManager.getSyncFile())) {
+            // first attempt opens the sync channel and the release signal
+            assertFalse(lock.lock(10L, 1L, TimeUnit.MILLISECONDS));
+            long openFileDescriptorCount = unixOs.getOpenFileDescriptorCount();
+
+            for (int i = 0; i < 100; i++) {
+                assertFalse(lock.tryLock());
+            }
+            assertFalse(lock.lock(50L, 1L, TimeUnit.MILLISECONDS));
+
+            assertEquals(openFileDescriptorCount, unixOs.getOpenFileDescriptorCount());
+        }
+    }
+
+    @Test
+    public void testSyncFileRecreatedAfterDeletion() throws IOException {
+        File syncFile = workerManager.getSyncFile();
+
+        try (IpLock lock = new IpLock(syncFile)) {
+            assertTrue(lock.tryLock());
+            lock.unlock();
+
+            assertTrue(syncFile.delete());
+
+            assertTrue(lock.tryLock());
+            assertTrue(syncFile.exists());
+
+            // lock must be held on the recreated file
+            ProcessHandle tryLockP = workerManager
+                .builder()
+                .tryLock(true)
+                .start();
+
+            workerManager.await(tryLockP);
+            workerManager.assertExitCode(WorkerExitCode.TRY_LOCK_FAILED, tryLockP);
+        }
+    }
+
+    @Test
+    public void testThreadsOfSameProcessExcludeEachOther() throws Exception {
+        final int threadCount = 8;
+        final int iterations = 200;
+        final AtomicInteger threadsInMutexArea = new AtomicInteger();
+        final AtomicInteger maxThreadsInMutexArea = new AtomicInteger();
+
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        try {
+            List<Future<Void>> results = new ArrayList<>();
+            for (int t = 0; t < threadCount; t++) {
+                final int mode = t % 3;
+                results.add(executor.submit(new Callable<Void>() {
+
+                    @Override
+                    public Void call() throws Exception {
+                        // separate lock objects for the same file
+                        try (IpLock lock = new IpLock(workerManager.getSyncFile())) {
+                            for (int i = 0; i < iterations; i++) {
+                                if (mode == 0) {
+                                    lock.lock();
+                                } else if (mode == 1) {
+                                    assertTrue(lock.lock(5L, 1L, TimeUnit.SECONDS));
+                                } else {
+                                    while (!lock.tryLock()) {
+                                        Thread.yield();
+                                    }
+                                }
+
+                                try {
+                                    int inMutexArea = threadsInMutexArea.incrementAndGet();
+                                    if (inMutexArea > maxThreadsInMutexArea.get()) {
+                                        maxThreadsInMutexArea.set(inMutexArea);
+                                    }
+                                    threadsInMutexArea.decrementAndGet();
+                                } finally {
+                                    lock.unlock();
+                                }
+                            }
+                        }
+                        return null;
+                    }
+                }));
+            }
+
+            for (Future<Void> result : results) {
+                result.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(1, maxThreadsInMutexArea.get());
+
+        // file lock must have been released after the last local holder
+        ProcessHandle tryLockP = workerManager
+            .builder()
+            .tryLock(true)
+            .start();
+
+        workerManager.await(tryLockP);
+        workerManager.assertExitCode(WorkerExitCode.SUCCESS, tryLockP);
+    }
+
+    @Test(expected = OverlappingFileLockException.class)
+    public void testLockTwiceBySameThread() throws IOException {
+        try (IpLock lock = new IpLock(workerManager.getSyncFile());
+             IpLock otherLock = new IpLock(workerManager.getSyncFile())) {
+            lock.lock();
+            otherLock.lock();
+        }
+    }
+
+    @Test
+    public void testLockAsyncCompletesOnRelease() throws Exception {
+        ProcessHandle blockingP = workerManager
+            .builder()
+            .activateBreakpoint(WorkerBreakpoint.MUTEX_AREA)
+            .breakpointTimeoutMs(WorkerConstants.TIMEOUT_DISABLED)
+            .startAndWaitForBreakpoint();
+
+        try (IpLock lock = new IpLock(workerManager.getSyncFile())) {
+            IpLockFuture future = lock.lockAsync();
+            Thread.sleep(200);
+            assertFalse(future.isDone());
+
+            blockingP.proceed();
+            workerManager.await(blockingP);
+
+            try (LockHandle handle = future.get(5, TimeUnit.SECONDS)) {
+                assertSame(lock, handle.getLock());
+
+                ProcessHandle p = workerManager
+                    .builder()
+                    .tryLock(true)
+                    .startAndWait();
+                workerManager.assertExitCode(WorkerExitCode.TRY_LOCK_FAILED, p);
+            }
+        }
+    }
+
+    @Test
+    public void testLockAsyncTimeout() throws Exception {
+        workerManager
+            .builder()
+            .activateBreakpoint(WorkerBreakpoint.MUTEX_AREA)
+            .breakpointTimeoutMs(WorkerConstants.TIMEOUT_DISABLED)
+            .startAndWaitForBreakpoint();
+
+        try (IpLock lock = new IpLock(workerManager.getSyncFile())) {
+            IpLockFuture future = lock.lockAsync(100L, TimeUnit.MILLISECONDS);
+            try {
+                future.get(5, TimeUnit.SECONDS);
+                fail("lock acquired although held by another process");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof TimeoutException);
+            }
+        }
+    }
+
+    @Test
+    public void testLockAsyncCancelWithdrawsWaiter() throws Exception {
+        ProcessHandle blockingP = workerManager
+            .builder()
+            .activateBreakpoint(WorkerBreakpoint.MUTEX_AREA)
+            .breakpointTimeoutMs(WorkerConstants.TIMEOUT_DISABLED)
+            .startAndWaitForBreakpoint();
+
+        try (IpLock lock = new IpLock(workerManager.getSyncFile())) {
+            IpLockFuture future = lock.lockAsync();
+            assertTrue(future.cancel(false));
+            assertTrue(future.isCancelled());
+
+            blockingP.proceed();
+            workerManager.await(blockingP);
+            Thread.sleep(200);
+
+            ProcessHandle p = workerManager
+                .builder()
+                .tryLock(true)
+                .startAndWait();
+            workerManager.assertExitCode(WorkerExitCode.SUCCESS, p);
+        }
+    }
+
+    @Test
+    public void testLockAsyncSharesSingleWaiterThread() throws Exception {
+        workerManager
+            .builder()
+            .activateBreakpoint(WorkerBreakpoint.MUTEX_AREA)
+            .breakpointTimeoutMs(WorkerConstants.TIMEOUT_DISABLED)
+            .startAndWaitForBreakpoint();
+
+        List<IpLock> locks = new ArrayList<>();
+        List<IpLockFuture> futures = new ArrayList<>();
+        try {
+            for (int i = 0; i < 50; i++) {
+                IpLock lock = new IpLock(workerManager.getSyncFile());
+                locks.add(lock);
+                futures.add(lock.lockAsync());
+            }
+
+            int waiterThreads = 0;
+            for (Thread thread : Thread.getAllStackTraces().keySet()) {
+                if (thread.getName().equals("ipLock-async-waiter")) {
+                    waiterThreads++;
+                }
+            }
+            assertEquals(1, waiterThreads);
+        } finally {
+            for (IpLockFuture future : futures) {
+                future.cancel(false);
+            }
+            for (IpLock lock : locks) {
+                lock.close();
+            }
+        }
+    }
+
+    @Test
+    public void testBlockedLockParksThread() throws Exception {
+        ProcessHandle blockingP = workerManager
+            .builder()
+            .activateBreakpoint(WorkerBreakpoint.MUTEX_AREA)
+            .breakpointTimeoutMs(WorkerConstants.TIMEOUT_DISABLED)
+            .startAndWaitForBreakpoint();
+
+        try (final IpLock lock = new IpLock(workerManager.getSyncFile())) {
+            Thread waiter = new Thread(new Runnable() {
+
+                @Override
+                public void run() {
+                    try {
+                        lock.lock();
+                        lock.unlock();
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            });
+            waiter.start();
+            Thread.sleep(500);
+
+            // a thread blocked in the operating system would be reported as runnable
+            Thread.State state = waiter.getState();
+            assertTrue("waiter is " + state, state == Thread.State.WAITING || state == Thread.State.TIMED_WAITING);
+
+            blockingP.proceed();
+            waiter.join(5000);
+            assertFalse(waiter.isAlive());
+        }
+    }
+
+    @Test
+    public void testWaitStrategyDeterminesAttempts() throws Exception {
+        final AtomicInteger waits = new AtomicInteger();
+        final AtomicInteger acquiredAttempts = new AtomicInteger();
+        WaitStrategy strategy = new WaitStrategy() {
+
+            @Override
+            protected long nextWaitNanos(int attempt, long waitedNanos) {
+                waits.incrementAndGet();
+                return TimeUnit.MILLISECONDS.toNanos(1L);
+            }
+
+            @Override
+            protected void acquired(int attempts, long waitedNanos) {
+                acquiredAttempts.set(attempts);
+            }
+        };
+
+        ProcessHandle blockingP = workerManager
+            .builder()
+            .activateBreakpoint(WorkerBreakpoint.MUTEX_AREA)
+            .breakpointTimeoutMs(WorkerConstants.TIMEOUT_DISABLED)
+            .startAndWaitForBreakpoint();
+
+        try (final IpLock lock = IpLock.builder(workerManager.getSyncFile()).waitStrategy(strategy).build()) {
+            // much shorter waits than the interval, as determined by the strategy
+            assertFalse(lock.lock(300L, 1000L, TimeUnit.MILLISECONDS));
+            assertTrue("only " + waits.get() + " waits", waits.get() > 10);
+
+            ExecutorService executor = Executors.newSingleThreadExecutor();
+            try {
+                Future<Boolean> locked = executor.submit(new Callable<Boolean>() {
+
+                    @Override
+                    public Boolean call() throws Exception {
+                        return lock.lock(5L, 1L, TimeUnit.SECONDS);
+                    }
+                });
+                Thread.sleep(100L);
+
+                blockingP.proceed();
+                assertTrue(locked.get());
+                assertTrue(acquiredAttempts.get() > 0);
+                lock.unlock();
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+
+        workerManager.await(blockingP);
+    }
+
+    @Test
+    public void testVirtualThreadsDoNotStarveCarriers() throws Exception {
+        final ExecutorService executor;
+        try {
+            executor = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (NoSuchMethodException e) {
+            Assume.assumeNoException("virtual threads are not supported by this JVM", e);
+            return;
+        }
+
+        ProcessHandle blockingP = workerManager
+            .builder()
+            .activateBreakpoint(WorkerBreakpoint.MUTEX_AREA)
+            .breakpointTimeoutMs(WorkerConstants.TIMEOUT_DISABLED)
+            .startAndWaitForBreakpoint();
+
+        final int threads = 10000;
+        final AtomicInteger inside = new AtomicInteger();
+        final AtomicInteger violations = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(threads);
+
+        try (final IpLock lock = new IpLock(workerManager.getSyncFile())) {
+            for (int i = 0; i < threads; i++) {
+                executor.submit(new Callable<Void>() {
+
+                    @Override
+                    public Void call() throws Exception {
+                        lock.lock();
+                        try {
+                            if (inside.incrementAndGet() != 1) {
+                                violations.incrementAndGet();
+                            }
+                            inside.decrementAndGet();
+                        } finally {
+                            lock.unlock();
+                            done.countDown();
+                        }
+                        return null;
+                    }
+                });
+            }
+            Thread.sleep(500);
+
+            // the scheduler is restricted to a single carrier by the surefire configuration
+            assertTrue(executor.submit(new Callable<Boolean>() {
+
+                @Override
+                public Boolean call() {
+                    return true;
+                }
+            }).get(5, TimeUnit.SECONDS));
+
+            blockingP.proceed();
+            assertTrue(done.await(60, TimeUnit.SECONDS));
+            assertEquals(0, violations.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
 }
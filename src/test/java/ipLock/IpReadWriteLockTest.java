@@ -0,0 +1,249 @@
+/*
+ * Copyright (c) 2015 Andreas Klöber
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package ipLock;
+
+import org.junit.*;
+import org.slf4j.MDC;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class IpReadWriteLockTest {
+
+    private static WorkerManager workerManager;
+
+    @BeforeClass
+    public static void setupClass() throws IOException, InterruptedException {
+        MDC.put("IPL_ID", "0");
+
+        workerManager = new WorkerManager();
+        workerManager.start();
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws InterruptedException {
+        workerManager.stop();
+    }
+
+    @After
+    public void tearDown() {
+        workerManager.cleanup();
+    }
+
+    @Test
+    public void testReadersShareLock() {
+        ProcessHandle[] readers = new ProcessHandle[3];
+        for (int i = 0; i < readers.length; i++) {
+            // every reader enters the mutex area while the others stay there
+            readers[i] = workerManager
+                .builder()
+                .lockMode(LockMode.READ)
+                .activateBreakpoint(WorkerBreakpoint.MUTEX_AREA)
+                .startAndWaitForBreakpoint();
+        }
+
+        for (ProcessHandle reader : readers) {
+            reader.proceed();
+        }
+
+        workerManager.await(readers);
+
+        workerManager.assertExitCode(WorkerExitCode.SUCCESS, readers);
+    }
+
+    @Test
+    public void testWriteFencingTokensIncreaseAcrossProcesses() throws Exception {
+        try (IpReadWriteLock lock = new IpReadWriteLock(workerManager.getSyncFile())) {
+            long fencingToken;
+            try (LockHandle handle = lock.writeLock().lock()) {
+                fencingToken = handle.getFencingToken();
+                assertTrue(fencingToken > 0L);
+            }
+
+            ProcessHandle p = workerManager
+                .builder()
+                .lockMode(LockMode.WRITE)
+                .startAndWait();
+            workerManager.assertExitCode(WorkerExitCode.SUCCESS, p);
+
+            try (LockHandle handle = lock.writeLock().tryLockHandle()) {
+                assertEquals(fencingToken + 2L, handle.getFencingToken());
+            }
+            try (LockHandle handle = lock.writeLock().tryLockHandle(1, 1, TimeUnit.SECONDS)) {
+                assertEquals(fencingToken + 3L, handle.getFencingToken());
+            }
+        }
+    }
+
+    @Test
+    public void testReadLockCarriesNoFencingToken() throws Exception {
+        try (IpReadWriteLock lock = new IpReadWriteLock(workerManager.getSyncFile())) {
+            try (LockHandle handle = lock.writeLock().lock()) {
+                assertTrue(handle.getFencingToken() > 0L);
+            }
+            try (LockHandle handle = lock.readLock().lock()) {
+                assertEquals(0L, handle.getFencingToken());
+            }
+        }
+    }
+
+    @Test
+    public void testWriterExcludedByReader() {
+        workerManager
+            .builder()
+            .lockMode(LockMode.READ)
+            .activateBreakpoint(WorkerBreakpoint.MUTEX_AREA)
+            .breakpointTimeoutMs(WorkerConstants.TIMEOUT_DISABLED)
+            .startAndWaitForBreakpoint();
+
+        ProcessHandle writer = workerManager
+            .builder()
+            .lockMode(LockMode.WRITE)
+            .tryLock(true)
+            .startAndWait();
+
+        workerManager.assertExitCode(WorkerExitCode.TRY_LOCK_FAILED, writer);
+    }
+
+    @Test
+    public void testReaderExcludedByWriter() {
+        workerManager
+            .builder()
+            .lockMode(LockMode.WRITE)
+            .activateBreakpoint(WorkerBreakpoint.MUTEX_AREA)
+            .breakpointTimeoutMs(WorkerConstants.TIMEOUT_DISABLED)
+            .startAndWaitForBreakpoint();
+
+        ProcessHandle reader = workerManager
+            .builder()
+            .lockMode(LockMode.READ)
+            .tryLock(true)
+            .startAndWait();
+
+        workerManager.assertExitCode(WorkerExitCode.TRY_LOCK_FAILED, reader);
+    }
+
+    @Test
+    public void testWriterPreference() throws InterruptedException {
+        ProcessHandle reader = workerManager
+            .builder()
+            .lockMode(LockMode.READ)
+            .activateBreakpoint(WorkerBreakpoint.MUTEX_AREA)
+            .breakpointTimeoutMs(WorkerConstants.TIMEOUT_DISABLED)
+            .startAndWaitForBreakpoint();
+
+        ProcessHandle writer = workerManager
+            .builder()
+            .lockMode(LockMode.WRITE)
+            .activateBreakpoint(WorkerBreakpoint.BEFORE_LOCK)
+            .workerLockTimeoutMs(60000L)
+            .startAndWaitForBreakpoint();
+        writer.proceed();
+        // give the writer time to queue up
+        Thread.sleep(500);
+
+        // a reader preferring writers must not overtake the waiting writer ...
+        ProcessHandle preferringReader = workerManager
+            .builder()
+            .lockMode(LockMode.READ_WRITER_PREFERENCE)
+            .tryLock(true)
+            .startAndWait();
+        workerManager.assertExitCode(WorkerExitCode.TRY_LOCK_FAILED, preferringReader);
+
+        // ... while a plain reader still shares the lock with the current reader
+        ProcessHandle plainReader = workerManager
+            .builder()
+            .lockMode(LockMode.READ)
+            .tryLock(true)
+            .startAndWait();
+        workerManager.assertExitCode(WorkerExitCode.SUCCESS, plainReader);
+
+        reader.proceed();
+        workerManager.await(reader, writer);
+
+        workerManager.assertExitCode(WorkerExitCode.SUCCESS, reader, writer);
+    }
+
+    @Test
+    public void testThreadsOfSameProcessShareReadLock() throws Exception {
+        IpReadWriteLock readWriteLock = new IpReadWriteLock(workerManager.getSyncFile());
+        final IpLock readLock1 = readWriteLock.readLock();
+        IpReadWriteLock otherReadWriteLock = new IpReadWriteLock(workerManager.getSyncFile());
+        final IpLock readLock2 = otherReadWriteLock.readLock();
+        final IpLock writeLock = readWriteLock.writeLock();
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            readLock1.lock();
+            try {
+                assertTrue(executor.submit(new Callable<Boolean>() {
+
+                    @Override
+                    public Boolean call() throws Exception {
+                        boolean locked = readLock2.tryLock();
+                        if (locked) {
+                            readLock2.unlock();
+                        }
+                        return locked;
+                    }
+                }).get());
+
+                Future<Boolean> writeLocked = executor.submit(new Callable<Boolean>() {
+
+                    @Override
+                    public Boolean call() throws Exception {
+                        return writeLock.tryLock();
+                    }
+                });
+                assertFalse(writeLocked.get());
+            } finally {
+                readLock1.unlock();
+            }
+
+            // the write lock is available as soon as the last reader has left
+            assertTrue(executor.submit(new Callable<Boolean>() {
+
+                @Override
+                public Boolean call() throws Exception {
+                    boolean locked = writeLock.lock(1, 1, TimeUnit.SECONDS);
+                    if (locked) {
+                        writeLock.unlock();
+                    }
+                    return locked;
+                }
+            }).get());
+        } finally {
+            executor.shutdown();
+            otherReadWriteLock.close();
+            readWriteLock.close();
+        }
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright (c) 2015 Andreas Klöber
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package ipLock;
+
+import org.junit.*;
+import org.slf4j.MDC;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class IpReentrantLockTest {
+
+    private static WorkerManager workerManager;
+
+    @BeforeClass
+    public static void setupClass() throws IOException, InterruptedException {
+        MDC.put("IPL_ID", "0");
+
+        workerManager = new WorkerManager();
+        workerManager.start();
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws InterruptedException {
+        workerManager.stop();
+    }
+
+    @After
+    public void tearDown() {
+        workerManager.cleanup();
+    }
+
+    /*
+     * Starts a worker that tries to acquire the lock once and asserts its exit code.
+     */
+    private static void assertTryLockInOtherProcess(WorkerExitCode expectedExitCode) {
+        ProcessHandle p = workerManager
+            .builder()
+            .tryLock(true)
+            .startAndWait();
+        workerManager.assertExitCode(expectedExitCode, p);
+    }
+
+    @Test
+    public void testHoldCountOfNestedAcquisitions() throws IOException, InterruptedException {
+        try (IpReentrantLock lock = new IpReentrantLock(workerManager.getSyncFile())) {
+            assertFalse(lock.isHeldByCurrentThread());
+            assertEquals(0, lock.getHoldCount());
+
+            lock.lock();
+            assertTrue(lock.tryLock());
+            assertTrue(lock.lock(0, 1, TimeUnit.MILLISECONDS));
+            assertTrue(lock.isHeldByCurrentThread());
+            assertEquals(3, lock.getHoldCount());
+
+            lock.unlock();
+            lock.unlock();
+            assertEquals(1, lock.getHoldCount());
+            assertTryLockInOtherProcess(WorkerExitCode.TRY_LOCK_FAILED);
+
+            lock.unlock();
+            assertFalse(lock.isHeldByCurrentThread());
+            assertEquals(0, lock.getHoldCount());
+            assertTryLockInOtherProcess(WorkerExitCode.SUCCESS);
+        }
+    }
+
+    @Test(expected = IllegalMonitorStateException.class)
+    public void testUnlockWithoutHoldingFails() throws IOException {
+        try (IpReentrantLock lock = new IpReentrantLock(workerManager.getSyncFile())) {
+            lock.unlock();
+        }
+    }
+
+    @Test
+    public void testOtherThreadDoesNotHoldLock() throws Exception {
+        final IpReentrantLock lock = new IpReentrantLock(workerManager.getSyncFile());
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            lock.lock();
+            lock.lock();
+
+            Callable<Integer> holdCount = new Callable<Integer>() {
+                @Override
+                public Integer call() throws Exception {
+                    assertFalse(lock.isHeldByCurrentThread());
+                    try {
+                        lock.unlock();
+                    } catch (IllegalMonitorStateException e) {
+                        return lock.getHoldCount();
+                    }
+                    return -1;
+                }
+            };
+            assertEquals(Integer.valueOf(0), executor.submit(holdCount).get());
+            assertEquals(2, lock.getHoldCount());
+        } catch (ExecutionException e) {
+            throw (Exception) e.getCause();
+        } finally {
+            executor.shutdownNow();
+            lock.close();
+        }
+    }
+
+    @Test
+    public void testCloseByOtherThreadKeepsLock() throws Exception {
+        final IpReentrantLock lock = new IpReentrantLock(workerManager.getSyncFile());
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            lock.lock();
+
+            Callable<Boolean> close = new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    try {
+                        lock.close();
+                    } catch (IllegalMonitorStateException e) {
+                        return true;
+                    }
+                    return false;
+                }
+            };
+            assertTrue(executor.submit(close).get());
+            assertTrue(lock.isHeldByCurrentThread());
+
+            ProcessHandle p = workerManager
+                .builder()
+                .tryLock(true)
+                .startAndWait();
+
+            workerManager.assertExitCode(WorkerExitCode.TRY_LOCK_FAILED, p);
+        } finally {
+            executor.shutdownNow();
+            lock.close();
+        }
+    }
+
+    @Test
+    public void testOtherProcessBlocksReentrantLock() throws IOException, InterruptedException {
+        workerManager
+            .builder()
+            .activateBreakpoint(WorkerBreakpoint.MUTEX_AREA)
+            .breakpointTimeoutMs(WorkerConstants.TIMEOUT_DISABLED)
+            .startAndWaitForBreakpoint();
+
+        try (IpReentrantLock lock = new IpReentrantLock(workerManager.getSyncFile())) {
+            assertFalse(lock.tryLock());
+            assertFalse(lock.lock(50, 10, TimeUnit.MILLISECONDS));
+            assertEquals(0, lock.getHoldCount());
+        }
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) 2015 Andreas Klöber
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package ipLock;
+
+import org.junit.*;
+import org.slf4j.MDC;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class IpSemaphoreTest {
+
+    private static final int PERMITS = 2;
+
+    private static WorkerManager workerManager;
+
+    @BeforeClass
+    public static void setupClass() throws IOException, InterruptedException {
+        MDC.put("IPL_ID", "0");
+
+        workerManager = new WorkerManager();
+        workerManager.start();
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws InterruptedException {
+        workerManager.stop();
+    }
+
+    @After
+    public void tearDown() {
+        workerManager.cleanup();
+    }
+
+    @Test
+    public void testPermitsCapProcesses() {
+        ProcessHandle[] holders = new ProcessHandle[PERMITS];
+        for (int i = 0; i < PERMITS; i++) {
+            holders[i] = workerManager
+                .builder()
+                .semaphorePermits(PERMITS)
+                .activateBreakpoint(WorkerBreakpoint.MUTEX_AREA)
+                .startAndWaitForBreakpoint();
+        }
+
+        ProcessHandle p = workerManager
+            .builder()
+            .semaphorePermits(PERMITS)
+            .tryLock(true)
+            .startAndWait();
+        workerManager.assertExitCode(WorkerExitCode.TRY_LOCK_FAILED, p);
+
+        for (ProcessHandle holder : holders) {
+            holder.proceed();
+        }
+        workerManager.await(holders);
+
+        workerManager.assertExitCode(WorkerExitCode.SUCCESS, holders);
+    }
+
+    @Test
+    public void testPermitReleasedWhenProcessKilled() {
+        ProcessHandle holder = workerManager
+            .builder()
+            .semaphorePermits(PERMITS)
+            .activateBreakpoint(WorkerBreakpoint.MUTEX_AREA)
+            .startAndWaitForBreakpoint();
+
+        // process dies while holding the other permit
+        ProcessHandle crashing = workerManager
+            .builder()
+            .semaphorePermits(PERMITS)
+            .haltInMutexArea(true)
+            .startAndWait();
+        workerManager.assertExitCode(WorkerExitCode.HALT_IN_MUTEX_AREA, crashing);
+
+        // so the permit is available again ...
+        ProcessHandle successor = workerManager
+            .builder()
+            .semaphorePermits(PERMITS)
+            .tryLock(true)
+            .activateBreakpoint(WorkerBreakpoint.MUTEX_AREA)
+            .startAndWaitForBreakpoint();
+
+        // ... but the cap is still in effect
+        ProcessHandle p = workerManager
+            .builder()
+            .semaphorePermits(PERMITS)
+            .tryLock(true)
+            .startAndWait();
+        workerManager.assertExitCode(WorkerExitCode.TRY_LOCK_FAILED, p);
+
+        holder.proceed();
+        successor.proceed();
+        workerManager.await(holder, successor);
+
+        workerManager.assertExitCode(WorkerExitCode.SUCCESS, holder, successor);
+    }
+
+    @Test
+    public void testBlockedProcessAcquiresReleasedPermit() {
+        ProcessHandle[] holders = new ProcessHandle[PERMITS];
+        for (int i = 0; i < PERMITS; i++) {
+            holders[i] = workerManager
+                .builder()
+                .semaphorePermits(PERMITS)
+                .activateBreakpoint(WorkerBreakpoint.MUTEX_AREA)
+                .startAndWaitForBreakpoint();
+        }
+
+        ProcessHandle blocked = workerManager
+            .builder()
+            .semaphorePermits(PERMITS)
+            .ipLockTimeoutMs(60000L)
+            .activateBreakpoint(WorkerBreakpoint.AFTER_LOCK)
+            .start();
+
+        holders[1].proceed();
+        blocked.waitForBreakpoint();
+        blocked.proceed();
+        holders[0].proceed();
+        workerManager.await(holders[0], holders[1], blocked);
+
+        workerManager.assertExitCode(WorkerExitCode.SUCCESS, holders[0], holders[1], blocked);
+    }
+
+    @Test
+    public void testThreadsOfSameProcessShareCap() throws IOException, InterruptedException {
+        try (IpSemaphore semaphore = new IpSemaphore(workerManager.getSyncFile(), PERMITS);
+             IpSemaphore otherSemaphore = new IpSemaphore(workerManager.getSyncFile(), PERMITS)) {
+            assertTrue(semaphore.tryAcquire());
+            assertTrue(otherSemaphore.tryAcquire());
+            assertFalse(semaphore.tryAcquire());
+            assertFalse(otherSemaphore.tryAcquire(10L, 1L, TimeUnit.MILLISECONDS));
+
+            otherSemaphore.release();
+            assertTrue(semaphore.tryAcquire(1L, 1L, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testPermitsMustBePositive() {
+        new IpSemaphore(workerManager.getSyncFile(), 0);
+    }
+}
@@ -0,0 +1,338 @@
+/*
+ * Copyright (c) 2015 Andreas Klöber
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package ipLock;
+
+import org.junit.*;
+import org.slf4j.MDC;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class IpStripedLockTest {
+
+    private static final String KEY = "tenant-1";
+
+    private static WorkerManager workerManager;
+
+    @BeforeClass
+    public static void setupClass() throws IOException, InterruptedException {
+        MDC.put("IPL_ID", "0");
+
+        workerManager = new WorkerManager();
+        workerManager.start();
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws InterruptedException {
+        workerManager.stop();
+    }
+
+    @After
+    public void tearDown() {
+        workerManager.cleanup();
+    }
+
+    /*
+     * Returns a key that is mapped onto another stripe than the given one.
+     */
+    private static String keyOnOtherStripe(IpStripedLock stripedLock, String key) {
+        for (int i = 0; ; i++) {
+            String otherKey = "tenant-other-" + i;
+            if (stripedLock.get(otherKey) != stripedLock.get(key)) {
+                return otherKey;
+            }
+        }
+    }
+
+    @Test
+    public void testKeysMappedOntoStripes() {
+        IpStripedLock stripedLock = new IpStripedLock(workerManager.getSyncFile(), WorkerConstants.STRIPES);
+
+        assertEquals(WorkerConstants.STRIPES, stripedLock.size());
+        assertSame(stripedLock.get(KEY), stripedLock.get(new String(KEY)));
+
+        Set<IpLock> usedStripes = new HashSet<>();
+        for (int i = 0; i < 1000; i++) {
+            usedStripes.add(stripedLock.get(i));
+        }
+        assertEquals(WorkerConstants.STRIPES, usedStripes.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testStripesMustBePositive() {
+        new IpStripedLock(workerManager.getSyncFile(), 0);
+    }
+
+    @Test
+    public void testSameStripeExcludesOtherProcess() {
+        workerManager
+            .builder()
+            .lockKey(KEY)
+            .activateBreakpoint(WorkerBreakpoint.MUTEX_AREA)
+            .breakpointTimeoutMs(WorkerConstants.TIMEOUT_DISABLED)
+            .startAndWaitForBreakpoint();
+
+        ProcessHandle p = workerManager
+            .builder()
+            .lockKey(KEY)
+            .tryLock(true)
+            .startAndWait();
+
+        workerManager.assertExitCode(WorkerExitCode.TRY_LOCK_FAILED, p);
+    }
+
+    @Test
+    public void testOtherStripeHeldConcurrently() {
+        String otherKey = keyOnOtherStripe(
+            new IpStripedLock(workerManager.getSyncFile(), WorkerConstants.STRIPES), KEY);
+
+        workerManager
+            .builder()
+            .lockKey(KEY)
+            .activateBreakpoint(WorkerBreakpoint.MUTEX_AREA)
+            .breakpointTimeoutMs(WorkerConstants.TIMEOUT_DISABLED)
+            .startAndWaitForBreakpoint();
+
+        ProcessHandle p = workerManager
+            .builder()
+            .lockKey(otherKey)
+            .tryLock(true)
+            .startAndWait();
+
+        workerManager.assertExitCode(WorkerExitCode.SUCCESS, p);
+    }
+
+    @Test
+    public void testInterruptedThreadKeepsStripesOfOtherThreads() throws Exception {
+        try (IpStripedLock stripedLock = new IpStripedLock(workerManager.getSyncFile(), WorkerConstants.STRIPES)) {
+            IpLock stripe = stripedLock.get(KEY);
+            final IpLock otherStripe = stripedLock.get(keyOnOtherStripe(stripedLock, KEY));
+            assertTrue(stripe.tryLock());
+
+            ExecutorService executor = Executors.newSingleThreadExecutor();
+            try {
+                Future<Boolean> interrupted = executor.submit(new Callable<Boolean>() {
+
+                    @Override
+                    public Boolean call() throws Exception {
+                        Thread.currentThread().interrupt();
+                        assertTrue(otherStripe.tryLock());
+                        otherStripe.unlock();
+                        otherStripe.lock();
+                        otherStripe.unlock();
+                        return Thread.interrupted();
+                    }
+                });
+                assertTrue(interrupted.get(5L, TimeUnit.SECONDS));
+            } finally {
+                executor.shutdown();
+            }
+
+            // the stripe held by this thread is still locked for other processes
+            ProcessHandle p = workerManager
+                .builder()
+                .lockKey(KEY)
+                .tryLock(true)
+                .startAndWait();
+            workerManager.assertExitCode(WorkerExitCode.TRY_LOCK_FAILED, p);
+
+            stripe.unlock();
+        }
+    }
+
+    @Test
+    public void testFencingTokensCountedPerStripe() throws IOException {
+        try (IpStripedLock stripedLock = new IpStripedLock(workerManager.getSyncFile(), WorkerConstants.STRIPES)) {
+            IpLock stripe = stripedLock.getAt(0);
+            IpLock otherStripe = stripedLock.getAt(1);
+
+            try (LockHandle handle = stripe.lock()) {
+                assertEquals(1L, handle.getFencingToken());
+            }
+            try (LockHandle handle = stripe.tryLockHandle()) {
+                assertEquals(2L, handle.getFencingToken());
+            }
+            try (LockHandle handle = otherStripe.tryLockHandle()) {
+                assertEquals(1L, handle.getFencingToken());
+            }
+        }
+    }
+
+    @Test
+    public void testThreadHoldsMultipleStripes() throws IOException {
+        try (IpStripedLock stripedLock = new IpStripedLock(workerManager.getSyncFile(), WorkerConstants.STRIPES)) {
+            IpLock stripe = stripedLock.get(KEY);
+            IpLock otherStripe = stripedLock.get(keyOnOtherStripe(stripedLock, KEY));
+            assertNotSame(stripe, otherStripe);
+
+            assertTrue(stripe.tryLock());
+            assertTrue(otherStripe.tryLock());
+
+            stripe.unlock();
+            otherStripe.unlock();
+        }
+    }
+
+    @Test
+    public void testBatchCoalescesAdjacentStripes() throws IOException {
+        IpStripeBatch batch = new IpStripeBatch(workerManager.getSyncFile(), new int[]{7, 1, 3, 2, 2});
+        assertEquals(4, batch.size());
+        assertEquals(2, batch.getRangeCount());
+
+        List<Integer> keys = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            keys.add(i);
+        }
+        try (IpStripedLock stripedLock = new IpStripedLock(workerManager.getSyncFile(), WorkerConstants.STRIPES);
+             IpStripeBatch allStripes = stripedLock.batch(keys)) {
+            assertEquals(WorkerConstants.STRIPES, allStripes.size());
+            assertEquals(1, allStripes.getRangeCount());
+
+            assertTrue(allStripes.tryAcquireAll());
+            allStripes.releaseAll();
+        }
+    }
+
+    @Test
+    public void testBatchExcludesOtherProcess() throws IOException {
+        String otherKey;
+        try (IpStripedLock stripedLock = new IpStripedLock(workerManager.getSyncFile(), WorkerConstants.STRIPES)) {
+            otherKey = keyOnOtherStripe(stripedLock, KEY);
+
+            workerManager
+                .builder()
+                .lockKey(KEY)
+                .activateBreakpoint(WorkerBreakpoint.MUTEX_AREA)
+                .breakpointTimeoutMs(WorkerConstants.TIMEOUT_DISABLED)
+                .startAndWaitForBreakpoint();
+
+            try (IpStripeBatch batch = stripedLock.batch(Arrays.asList(KEY, otherKey))) {
+                assertFalse(batch.tryAcquireAll());
+            }
+
+            try (IpStripeBatch batch = stripedLock.batch(Arrays.asList(otherKey))) {
+                assertTrue(batch.tryAcquireAll());
+
+                ProcessHandle p = workerManager
+                    .builder()
+                    .lockKey(otherKey)
+                    .tryLock(true)
+                    .startAndWait();
+
+                workerManager.assertExitCode(WorkerExitCode.TRY_LOCK_FAILED, p);
+            }
+        }
+    }
+
+    @Test
+    public void testBatchWaitsForStripeHeldByOtherProcess() throws Exception {
+        ProcessHandle holderP = workerManager
+            .builder()
+            .lockKey(KEY)
+            .activateBreakpoint(WorkerBreakpoint.MUTEX_AREA)
+            .breakpointTimeoutMs(WorkerConstants.TIMEOUT_DISABLED)
+            .startAndWaitForBreakpoint();
+
+        List<Integer> keys = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            keys.add(i);
+        }
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try (IpStripedLock stripedLock = new IpStripedLock(workerManager.getSyncFile(), WorkerConstants.STRIPES);
+             final IpStripeBatch batch = stripedLock.batch(keys)) {
+            Future<Boolean> acquired = executor.submit(new Callable<Boolean>() {
+
+                @Override
+                public Boolean call() throws Exception {
+                    return batch.acquireAll(10L, 1L, TimeUnit.SECONDS);
+                }
+            });
+
+            Thread.sleep(200L);
+            assertFalse(acquired.isDone());
+
+            holderP.proceed();
+            assertTrue(acquired.get(10L, TimeUnit.SECONDS));
+            batch.releaseAll();
+        } finally {
+            executor.shutdown();
+        }
+
+        workerManager.await(holderP);
+        workerManager.assertExitCode(WorkerExitCode.SUCCESS, holderP);
+    }
+
+    @Test
+    public void testBatchExcludesThreadsOfSameJvm() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try (IpStripedLock stripedLock = new IpStripedLock(workerManager.getSyncFile(), WorkerConstants.STRIPES);
+             final IpStripeBatch batch = stripedLock.batch(Arrays.asList(KEY))) {
+            final IpLock stripe = stripedLock.get(KEY);
+            Callable<Boolean> tryLockStripe = new Callable<Boolean>() {
+
+                @Override
+                public Boolean call() throws Exception {
+                    if (!stripe.tryLock()) {
+                        return false;
+                    }
+                    stripe.unlock();
+                    return true;
+                }
+            };
+
+            assertTrue(batch.tryAcquireAll());
+            assertFalse(executor.submit(tryLockStripe).get());
+            batch.releaseAll();
+            assertTrue(executor.submit(tryLockStripe).get());
+
+            assertTrue(stripe.tryLock());
+            Future<Boolean> acquired = executor.submit(new Callable<Boolean>() {
+
+                @Override
+                public Boolean call() throws Exception {
+                    return batch.tryAcquireAll();
+                }
+            });
+            assertFalse(acquired.get());
+            stripe.unlock();
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
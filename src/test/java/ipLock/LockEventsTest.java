@@ -0,0 +1,202 @@
+/*
+ * Copyright (c) 2015 Andreas Klöber
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package ipLock;
+
+import org.junit.*;
+import org.slf4j.MDC;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LockEventsTest {
+
+    private static WorkerManager workerManager;
+
+    @BeforeClass
+    public static void setupClass() throws IOException, InterruptedException {
+        Assume.assumeTrue(LockEvents.isSupported());
+
+        MDC.put("IPL_ID", "0");
+
+        workerManager = new WorkerManager();
+        workerManager.start();
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws InterruptedException {
+        if (workerManager != null) {
+            workerManager.stop();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        workerManager.cleanup();
+    }
+
+    @Test
+    public void testAcquisitionsAndReleasesRecorded() throws Exception {
+        FlightRecording recording = new FlightRecording();
+        try (IpLock lock = new IpLock(workerManager.getSyncFile())) {
+            lock.lock();
+            lock.unlock();
+            assertTrue(lock.tryLock());
+            lock.unlock();
+        }
+        List<Object> events = recording.stop();
+
+        List<Object> acquisitions = FlightRecording.filter(events, "ipLock.Acquire");
+        assertEquals(2, acquisitions.size());
+        assertEquals(workerManager.getSyncFile().getPath(), FlightRecording.get(acquisitions.get(0), "syncFile"));
+        assertEquals("EXCLUSIVE", FlightRecording.get(acquisitions.get(0), "lockMode"));
+        assertEquals("blocking", FlightRecording.get(acquisitions.get(0), "acquisition"));
+        assertEquals(Boolean.TRUE, FlightRecording.get(acquisitions.get(0), "fileLockAcquired"));
+        assertEquals("try", FlightRecording.get(acquisitions.get(1), "acquisition"));
+
+        List<Object> releases = FlightRecording.filter(events, "ipLock.Release");
+        assertEquals(2, releases.size());
+        assertEquals(Boolean.TRUE, FlightRecording.get(releases.get(0), "fileLockReleased"));
+        assertTrue(FlightRecording.filter(events, "ipLock.Timeout").isEmpty());
+    }
+
+    @Test
+    public void testTimeoutRecorded() throws Exception {
+        workerManager
+            .builder()
+            .activateBreakpoint(WorkerBreakpoint.MUTEX_AREA)
+            .breakpointTimeoutMs(WorkerConstants.TIMEOUT_DISABLED)
+            .startAndWaitForBreakpoint();
+
+        FlightRecording recording = new FlightRecording();
+        try (IpLock lock = new IpLock(workerManager.getSyncFile())) {
+            assertFalse(lock.lock(200, 20, TimeUnit.MILLISECONDS));
+        }
+        List<Object> events = recording.stop();
+
+        List<Object> timeouts = FlightRecording.filter(events, "ipLock.Timeout");
+        assertEquals(1, timeouts.size());
+        assertEquals("timed", FlightRecording.get(timeouts.get(0), "acquisition"));
+        assertTrue((Long) FlightRecording.get(timeouts.get(0), "waitDuration") >= TimeUnit.MILLISECONDS.toNanos(200));
+        assertTrue(FlightRecording.filter(events, "ipLock.Acquire").isEmpty());
+    }
+
+    @Test
+    public void testHoldTimeMeasuredPerSharedAcquisition() throws Exception {
+        FlightRecording recording = new FlightRecording();
+        try (IpLock lock = new IpLock(workerManager.getSyncFile(), LockMode.READ)) {
+            LockHandle first = lock.lock();
+            Thread.sleep(200L);
+            LockHandle second = lock.lock();
+            first.close();
+            second.close();
+        }
+        List<Object> events = recording.stop();
+
+        List<Object> releases = FlightRecording.filter(events, "ipLock.Release");
+        assertEquals(2, releases.size());
+        long firstHoldNanos = (Long) FlightRecording.get(releases.get(0), "holdDuration");
+        long secondHoldNanos = (Long) FlightRecording.get(releases.get(1), "holdDuration");
+        assertTrue(firstHoldNanos >= TimeUnit.MILLISECONDS.toNanos(200));
+        assertTrue(secondHoldNanos < firstHoldNanos);
+    }
+
+    @Test
+    public void testMappedLockDoesNotTouchFileLock() throws Exception {
+        Assume.assumeTrue(MappedMemory.isSupported());
+
+        FlightRecording recording = new FlightRecording();
+        try (IpLock lock = IpLock.builder(workerManager.getSyncFile()).mapped(true).build()) {
+            lock.lock();
+            lock.unlock();
+        }
+        List<Object> events = recording.stop();
+
+        List<Object> acquisitions = FlightRecording.filter(events, "ipLock.Acquire");
+        assertEquals(1, acquisitions.size());
+        assertEquals("MAPPED", FlightRecording.get(acquisitions.get(0), "lockMode"));
+        assertEquals(Boolean.FALSE, FlightRecording.get(acquisitions.get(0), "fileLockAcquired"));
+        assertEquals(Boolean.FALSE, FlightRecording.get(FlightRecording.filter(events, "ipLock.Release").get(0),
+            "fileLockReleased"));
+    }
+
+    /*
+     * A flight recording of the lock events, accessed reflectively as the flight recorder API is not available at
+     * compile time on all supported JVMs.
+     */
+    private static class FlightRecording {
+
+        private final Object recording;
+
+        FlightRecording() throws Exception {
+            Class<?> recordingClass = Class.forName("jdk.jfr.Recording");
+            this.recording = recordingClass.getConstructor().newInstance();
+            for (String name : new String[]{"ipLock.Acquire", "ipLock.Release", "ipLock.Timeout"}) {
+                recordingClass.getMethod("enable", String.class).invoke(this.recording, name);
+            }
+            recordingClass.getMethod("start").invoke(this.recording);
+        }
+
+        List<Object> stop() throws Exception {
+            Class<?> recordingClass = this.recording.getClass();
+            File dump = File.createTempFile("ip-lock-", ".jfr");
+            try {
+                recordingClass.getMethod("stop").invoke(this.recording);
+                recordingClass.getMethod("dump", Class.forName("java.nio.file.Path"))
+                    .invoke(this.recording, dump.toPath());
+
+                Method readAllEvents = Class.forName("jdk.jfr.consumer.RecordingFile")
+                    .getMethod("readAllEvents", Class.forName("java.nio.file.Path"));
+                @SuppressWarnings("unchecked")
+                List<Object> events = (List<Object>) readAllEvents.invoke(null, dump.toPath());
+                return events;
+            } finally {
+                recordingClass.getMethod("close").invoke(this.recording);
+                assertTrue(dump.delete());
+            }
+        }
+
+        static List<Object> filter(final List<Object> events, final String name) throws Exception {
+            List<Object> filtered = new ArrayList<>();
+            for (Object event : events) {
+                Object eventType = event.getClass().getMethod("getEventType").invoke(event);
+                if (name.equals(eventType.getClass().getMethod("getName").invoke(eventType))) {
+                    filtered.add(event);
+                }
+            }
+            return filtered;
+        }
+
+        static Object get(final Object event, final String field) throws Exception {
+            return Class.forName("jdk.jfr.consumer.RecordedObject").getMethod("getValue", String.class)
+                .invoke(event, field);
+        }
+    }
+}
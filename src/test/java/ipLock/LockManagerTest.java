@@ -0,0 +1,257 @@
+/*
+ * Copyright (c) 2015 Andreas Klöber
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package ipLock;
+
+import org.junit.*;
+import org.slf4j.MDC;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class LockManagerTest {
+
+    private static WorkerManager workerManager;
+
+    private LockManager manager;
+
+    private Thread managerThread;
+
+    @BeforeClass
+    public static void setupClass() throws IOException, InterruptedException {
+        MDC.put("IPL_ID", "0");
+
+        workerManager = new WorkerManager();
+        workerManager.start();
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws InterruptedException {
+        workerManager.stop();
+    }
+
+    @Before
+    public void setUp() throws IOException, InterruptedException {
+        manager = new LockManager(WorkerConstants.MANAGER_DIRECTORY, 0L);
+        managerThread = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    manager.run();
+                } catch (IOException | InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        });
+        managerThread.start();
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10L);
+        while (ManagerProtocol.readAddress(WorkerConstants.MANAGER_DIRECTORY) == null) {
+            assertTrue("manager not elected", System.nanoTime() < deadline);
+            Thread.sleep(10L);
+        }
+    }
+
+    @After
+    public void tearDown() throws IOException, InterruptedException {
+        stopManager();
+        workerManager.cleanup();
+    }
+
+    private void stopManager() throws IOException, InterruptedException {
+        manager.close();
+        managerThread.join();
+    }
+
+    private static IpLock newManagedLock() {
+        return IpLock.builder(workerManager.getSyncFile()).managed(WorkerConstants.MANAGER_DIRECTORY, false).build();
+    }
+
+    @Test
+    public void testManagedLockExcludesManagedAndPlainProcesses() throws IOException {
+        try (IpLock lock = newManagedLock()) {
+            assertTrue(lock.tryLock());
+
+            ProcessHandle managedP = workerManager
+                .builder()
+                .lockMode(LockMode.MANAGED)
+                .tryLock(true)
+                .startAndWait();
+            ProcessHandle plainP = workerManager
+                .builder()
+                .tryLock(true)
+                .startAndWait();
+
+            workerManager.assertExitCode(WorkerExitCode.TRY_LOCK_FAILED, managedP, plainP);
+        }
+    }
+
+    @Test
+    public void testBlockedProcessAcquiresOnHandOver() {
+        ProcessHandle blockingP = workerManager
+            .builder()
+            .lockMode(LockMode.MANAGED)
+            .activateBreakpoint(WorkerBreakpoint.MUTEX_AREA)
+            .startAndWaitForBreakpoint();
+
+        ProcessHandle blockedP = workerManager
+            .builder()
+            .lockMode(LockMode.MANAGED)
+            .activateBreakpoint(WorkerBreakpoint.BEFORE_LOCK)
+            .startAndWaitForBreakpoint();
+
+        blockedP.proceed();
+        blockingP.proceed();
+
+        workerManager.await(blockingP, blockedP);
+        workerManager.assertExitCode(WorkerExitCode.SUCCESS, blockingP, blockedP);
+    }
+
+    @Test
+    public void testFencingTokenRenewedOnHandOver() throws Exception {
+        long previousToken;
+        try (IpLock lock = newManagedLock(); LockHandle handle = lock.lock()) {
+            previousToken = handle.getFencingToken();
+        }
+
+        ProcessHandle holderP = workerManager
+            .builder()
+            .lockMode(LockMode.MANAGED)
+            .activateBreakpoint(WorkerBreakpoint.MUTEX_AREA)
+            .breakpointTimeoutMs(WorkerConstants.TIMEOUT_DISABLED)
+            .startAndWaitForBreakpoint();
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try (final IpLock lock = newManagedLock()) {
+            Future<Long> token = executor.submit(new Callable<Long>() {
+
+                @Override
+                public Long call() throws Exception {
+                    try (LockHandle handle = lock.lock()) {
+                        return handle.getFencingToken();
+                    }
+                }
+            });
+
+            // queued at the manager behind the holder
+            Thread.sleep(200L);
+            assertFalse(token.isDone());
+
+            holderP.proceed();
+            assertTrue(token.get(10L, TimeUnit.SECONDS) >= previousToken + 2L);
+        } finally {
+            executor.shutdown();
+        }
+
+        workerManager.await(holderP);
+        workerManager.assertExitCode(WorkerExitCode.SUCCESS, holderP);
+    }
+
+    @Test
+    public void testLockReleasedWhenClientIsKilled() throws Exception {
+        ProcessHandle holderP = workerManager
+            .builder()
+            .lockMode(LockMode.MANAGED)
+            .activateBreakpoint(WorkerBreakpoint.MUTEX_AREA)
+            .breakpointTimeoutMs(WorkerConstants.TIMEOUT_DISABLED)
+            .startAndWaitForBreakpoint();
+
+        try (IpLock lock = newManagedLock()) {
+            assertFalse(lock.tryLock());
+
+            holderP.destroy();
+            holderP.getProcess().waitFor();
+
+            // the manager notices the closed connection
+            assertNotNull(lock.tryLockHandle(5L, 1L, TimeUnit.SECONDS));
+            lock.unlock();
+        }
+    }
+
+    @Test
+    public void testGrantLostWhenManagerDies() throws Exception {
+        try (IpLock lock = newManagedLock()) {
+            lock.lock();
+            assertTrue(lock.isLeaseValid());
+
+            stopManager();
+
+            // the client notices the closed connection
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5L);
+            while (lock.isLeaseValid()) {
+                assertTrue("grant not lost", System.nanoTime() < deadline);
+                Thread.sleep(10L);
+            }
+            lock.unlock();
+
+            assertTrue(lock.tryLock());
+            assertTrue(lock.isLeaseValid());
+            lock.unlock();
+        }
+    }
+
+    @Test
+    public void testFallsBackToFileLockWithoutManager() throws Exception {
+        stopManager();
+        assertFalse(new File(WorkerConstants.MANAGER_DIRECTORY, ManagerProtocol.ADDRESS_FILE_NAME).exists());
+
+        try (IpLock lock = newManagedLock()) {
+            assertTrue(lock.tryLock());
+
+            ProcessHandle managedP = workerManager
+                .builder()
+                .lockMode(LockMode.MANAGED)
+                .tryLock(true)
+                .startAndWait();
+            ProcessHandle plainP = workerManager
+                .builder()
+                .tryLock(true)
+                .startAndWait();
+
+            workerManager.assertExitCode(WorkerExitCode.TRY_LOCK_FAILED, managedP, plainP);
+        }
+    }
+
+    @Test
+    public void testTryLockDoesNotStartManager() throws Exception {
+        stopManager();
+
+        try (IpLock lock = IpLock.builder(workerManager.getSyncFile())
+            .managed(WorkerConstants.MANAGER_DIRECTORY, true)
+            .build()) {
+            assertTrue(lock.tryLock());
+            lock.unlock();
+        }
+
+        assertFalse(new File(WorkerConstants.MANAGER_DIRECTORY, ManagerProtocol.ADDRESS_FILE_NAME).exists());
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) 2015 Andreas Klöber
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package ipLock;
+
+import org.junit.*;
+import org.slf4j.MDC;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LockMetricsTest {
+
+    private static WorkerManager workerManager;
+
+    @BeforeClass
+    public static void setupClass() throws IOException, InterruptedException {
+        MDC.put("IPL_ID", "0");
+
+        workerManager = new WorkerManager();
+        workerManager.start();
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws InterruptedException {
+        workerManager.stop();
+    }
+
+    @After
+    public void tearDown() {
+        workerManager.cleanup();
+    }
+
+    @Test
+    public void testHistogramPercentilesWithinPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long value = 1L; value <= 100000L; value++) {
+            histogram.record(value * 1000L);
+        }
+
+        assertEquals(100000L, histogram.getCount());
+        assertEquals(100000000L, histogram.getMax());
+        assertEquals(50000500.0, histogram.getMean(), 0.5);
+        assertWithinPrecision(50000000L, histogram.getValueAtPercentile(50.0));
+        assertWithinPrecision(99000000L, histogram.getValueAtPercentile(99.0));
+        assertEquals(100000000L, histogram.getValueAtPercentile(100.0));
+        assertWithinPrecision(1000L, histogram.getValueAtPercentile(0.0));
+
+        histogram.reset();
+        assertEquals(0L, histogram.getCount());
+        assertEquals(0L, histogram.getValueAtPercentile(99.0));
+    }
+
+    @Test
+    public void testHistogramCountsSmallValuesExactly() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5L);
+        histogram.record(7L);
+        histogram.record(Long.MAX_VALUE);
+
+        assertEquals(0L, histogram.getValueAtPercentile(33.0));
+        assertEquals(7L, histogram.getValueAtPercentile(66.0));
+        assertEquals(Long.MAX_VALUE, histogram.getValueAtPercentile(100.0));
+    }
+
+    private static void assertWithinPrecision(long expected, long actual) {
+        assertTrue(String.format("%d not within precision of %d", actual, expected),
+            actual >= expected && actual <= expected + expected / LatencyHistogram.SUB_BUCKETS);
+    }
+
+    @Test
+    public void testAcquisitionsAndReleasesRecorded() throws IOException {
+        LockMetrics metrics = new LockMetrics();
+        try (IpLock lock = IpLock.builder(workerManager.getSyncFile()).listener(metrics).build()) {
+            for (int i = 0; i < 3; i++) {
+                lock.lock();
+                lock.unlock();
+            }
+            assertTrue(lock.tryLock());
+            lock.unlock();
+        }
+
+        assertEquals(4L, metrics.getAcquisitions());
+        assertEquals(4L, metrics.getReleases());
+        assertEquals(4L, metrics.getWaitTime().getCount());
+        assertEquals(4L, metrics.getHoldTime().getCount());
+        assertEquals(0L, metrics.getTimeouts());
+        assertEquals(0L, metrics.getTryLockFailures());
+        assertEquals(0L, metrics.getPollAttempts());
+    }
+
+    @Test
+    public void testContentionRecorded() throws IOException, InterruptedException {
+        workerManager
+            .builder()
+            .activateBreakpoint(WorkerBreakpoint.MUTEX_AREA)
+            .breakpointTimeoutMs(WorkerConstants.TIMEOUT_DISABLED)
+            .startAndWaitForBreakpoint();
+
+        LockMetrics metrics = new LockMetrics();
+        try (IpLock lock = IpLock.builder(workerManager.getSyncFile()).listener(metrics).build()) {
+            assertFalse(lock.tryLock());
+            assertFalse(lock.lock(200, 20, TimeUnit.MILLISECONDS));
+        }
+
+        assertEquals(1L, metrics.getTryLockFailures());
+        assertEquals(1L, metrics.getTimeouts());
+        assertTrue(metrics.getPollAttempts() >= 5L);
+        assertEquals(0L, metrics.getAcquisitions());
+    }
+
+    @Test
+    public void testMetricsReadableByJmx() throws Exception {
+        LockMetrics metrics = new LockMetrics();
+        ObjectName name = metrics.registerMBean("test");
+        try (IpLock lock = IpLock.builder(workerManager.getSyncFile()).listener(metrics).build()) {
+            lock.lock();
+            lock.unlock();
+
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            assertEquals(1L, server.getAttribute(name, "Acquisitions"));
+            assertEquals(1L, server.getAttribute(name, "Releases"));
+
+            server.invoke(name, "reset", null, null);
+            assertEquals(0L, metrics.getAcquisitions());
+        } finally {
+            metrics.unregisterMBean();
+        }
+
+        assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+    }
+}
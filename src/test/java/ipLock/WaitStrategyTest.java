@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2015 Andreas Klöber
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package ipLock;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class WaitStrategyTest {
+
+    private static final long MICROS = TimeUnit.MICROSECONDS.toNanos(1L);
+
+    @Test
+    public void testIntervalWaitsFullInterval() {
+        assertEquals(Long.MAX_VALUE, WaitStrategy.interval().nextWaitNanos(1, 0L));
+    }
+
+    @Test
+    public void testSpinStopsAfterSpinTime() {
+        WaitStrategy strategy = WaitStrategy.spin(10L, TimeUnit.MICROSECONDS);
+
+        assertEquals(0L, strategy.nextWaitNanos(1, 0L));
+        assertEquals(0L, strategy.nextWaitNanos(100, 9L * MICROS));
+        assertEquals(Long.MAX_VALUE, strategy.nextWaitNanos(101, 10L * MICROS));
+    }
+
+    @Test
+    public void testBackoffGrowsExponentiallyWithJitter() {
+        WaitStrategy strategy = WaitStrategy.backoff(100L, 1000L, TimeUnit.MICROSECONDS);
+
+        for (int i = 0; i < 100; i++) {
+            assertBetween(50L * MICROS, 100L * MICROS, strategy.nextWaitNanos(1, 0L));
+            assertBetween(100L * MICROS, 200L * MICROS, strategy.nextWaitNanos(2, 0L));
+            assertBetween(400L * MICROS, 800L * MICROS, strategy.nextWaitNanos(4, 0L));
+            assertBetween(500L * MICROS, 1000L * MICROS, strategy.nextWaitNanos(5, 0L));
+            assertBetween(500L * MICROS, 1000L * MICROS, strategy.nextWaitNanos(Integer.MAX_VALUE, 0L));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBackoffRequiresPositiveMinimum() {
+        WaitStrategy.backoff(0L, 1L, TimeUnit.MILLISECONDS);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBackoffRequiresMinimumNotExceedingMaximum() {
+        WaitStrategy.backoff(2L, 1L, TimeUnit.MILLISECONDS);
+    }
+
+    @Test
+    public void testAdaptiveSpinsForShortHoldTimes() {
+        WaitStrategy strategy = WaitStrategy.adaptive();
+        for (int i = 0; i < 10; i++) {
+            strategy.released(5L * MICROS);
+        }
+
+        assertEquals(0L, strategy.nextWaitNanos(1, 0L));
+        assertEquals(0L, strategy.nextWaitNanos(10, 9L * MICROS));
+        assertTrue(strategy.nextWaitNanos(11, 11L * MICROS) > 0L);
+    }
+
+    @Test
+    public void testAdaptiveParksForLongHoldTimes() {
+        WaitStrategy strategy = WaitStrategy.adaptive();
+        for (int i = 0; i < 10; i++) {
+            strategy.released(TimeUnit.MILLISECONDS.toNanos(10L));
+        }
+
+        long firstWait = strategy.nextWaitNanos(1, 0L);
+        assertBetween(TimeUnit.MILLISECONDS.toNanos(1L), TimeUnit.MILLISECONDS.toNanos(10L), firstWait);
+        assertTrue(strategy.nextWaitNanos(2, TimeUnit.MILLISECONDS.toNanos(20L)) > firstWait);
+    }
+
+    @Test
+    public void testAdaptiveLearnsHoldTimesNotWaitTimes() throws Exception {
+        WaitStrategy strategy = WaitStrategy.adaptive();
+        for (int i = 0; i < 10; i++) {
+            strategy.acquired(1, TimeUnit.MILLISECONDS.toNanos(10L));
+        }
+
+        // waiting long does not make it park as long as nothing is known about how long the lock is held
+        assertEquals(0L, strategy.nextWaitNanos(1, 0L));
+
+        File syncFile = File.createTempFile("wait-strategy", ".lock");
+        syncFile.deleteOnExit();
+        try (IpLock lock = IpLock.builder(syncFile).waitStrategy(strategy).build()) {
+            for (int i = 0; i < 10; i++) {
+                lock.lock();
+                try {
+                    Thread.sleep(2L);
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+
+        assertTrue(strategy.nextWaitNanos(1, 0L) >= TimeUnit.MILLISECONDS.toNanos(1L));
+    }
+
+    private static void assertBetween(long min, long max, long actual) {
+        assertTrue(String.format("%d not between %d and %d", actual, min, max), actual >= min && actual <= max);
+    }
+}
@@ -32,6 +32,7 @@ import java.util.Timer;
 import java.util.TimerTask;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * The Class Worker.
@@ -56,8 +57,20 @@ public class Worker implements SignalHandler {
 
     private Long ipLockTimeoutMs;
 
+    private Long ipLockIntervalMs;
+
     private File syncFile;
 
+    private LockMode lockMode;
+
+    private String lockKey;
+
+    private Integer permits;
+
+    private Long repetitions;
+
+    private Long holdTimeMicros;
+
     private Boolean useLock;
 
     private Boolean tryLock;
@@ -66,6 +79,10 @@ public class Worker implements SignalHandler {
 
     private Boolean haltInMutexArea;
 
+    private Boolean signalCondition;
+
+    private Boolean leaderElection;
+
     private WorkerBreakpoint breakpoint;
 
     private Integer serverPort;
@@ -77,15 +94,25 @@ public class Worker implements SignalHandler {
         breakpointTimeoutMs = Long.parseLong(extractEnv(WorkerEnv.BREAKPOINT_TIMEOUT_MS));
         workerLockTimeoutMs = Long.parseLong(extractEnv(WorkerEnv.WORKER_LOCK_TIMEOUT_MS));
         ipLockTimeoutMs = Long.parseLong(extractEnv(WorkerEnv.IP_LOCK_TIMEOUT_MS));
+        ipLockIntervalMs = Long.parseLong(extractEnv(WorkerEnv.IP_LOCK_INTERVAL_MS));
         /*
          * Shared resource that should be accessed exclusively. For testing a
 		 * simple file is used.
 		 */
         syncFile = new File(extractEnv(WorkerEnv.SYNC_FILE_PATH));
+        lockMode = LockMode.valueOf(extractEnv(WorkerEnv.LOCK_MODE));
+        lockKey = extractEnv(WorkerEnv.LOCK_KEY);
+        repetitions = Long.parseLong(extractEnv(WorkerEnv.REPETITIONS));
+        holdTimeMicros = Long.parseLong(extractEnv(WorkerEnv.HOLD_TIME_MICROS));
+        if (hasEnv(WorkerEnv.PERMITS)) {
+            permits = Integer.valueOf(extractEnv(WorkerEnv.PERMITS));
+        }
         useLock = Boolean.valueOf(extractEnv(WorkerEnv.USE_LOCK));
         tryLock = Boolean.valueOf(extractEnv(WorkerEnv.TRY_LOCK));
         skipUnlock = Boolean.valueOf(extractEnv(WorkerEnv.SKIP_UNLOCK));
         haltInMutexArea = Boolean.valueOf(extractEnv(WorkerEnv.HALT_IN_MUTEX_AREA));
+        signalCondition = Boolean.valueOf(extractEnv(WorkerEnv.SIGNAL_CONDITION));
+        leaderElection = Boolean.valueOf(extractEnv(WorkerEnv.LEADER_ELECTION));
         if (hasEnv(WorkerEnv.BREAKPOINT)) {
             activateBreakpoint(WorkerBreakpoint.valueOf(extractEnv(WorkerEnv.BREAKPOINT)));
         }
@@ -178,27 +205,81 @@ public class Worker implements SignalHandler {
         client.disconnect();
     }
 
+    private WorkerLock createLock() {
+        if (permits != null) {
+            return new SemaphoreWorkerLock(new IpSemaphore(syncFile, permits));
+        }
+        if (leaderElection) {
+            return new ElectionWorkerLock(syncFile);
+        }
+
+        switch (lockMode) {
+            case READ:
+                return new IpWorkerLock(new IpReadWriteLock(syncFile).readLock());
+            case READ_WRITER_PREFERENCE:
+                return new IpWorkerLock(new IpReadWriteLock(syncFile, true).readLock());
+            case WRITE:
+                return new IpWorkerLock(new IpReadWriteLock(syncFile).writeLock());
+            case STRIPE:
+                return new IpWorkerLock(new IpStripedLock(syncFile, WorkerConstants.STRIPES).get(lockKey));
+            case MAPPED:
+                return new IpWorkerLock(IpLock.builder(syncFile).mapped(true).build());
+            case MAPPED_FAIR:
+                return new IpWorkerLock(IpLock.builder(syncFile).fair(true).build());
+            case MANAGED:
+                return new IpWorkerLock(
+                    IpLock.builder(syncFile).managed(WorkerConstants.MANAGER_DIRECTORY, false).build());
+            default:
+                return new IpWorkerLock(new IpLock(syncFile));
+        }
+    }
+
     public void run() throws InterruptedException, IOException {
-        IpLock ipLock = new IpLock(syncFile);
+        WorkerLock ipLock = createLock();
 
         LOGGER.info("starting worker");
+        if (repetitions != 1) {
+            LOGGER.info("repeating {} times",
+                repetitions == WorkerConstants.REPEAT_UNLIMITED ? "unlimited" : repetitions);
+        }
+
+        for (long i = 0; repetitions == WorkerConstants.REPEAT_UNLIMITED || i < repetitions; i++) {
+            cycle(ipLock);
+        }
+
+        LOGGER.info("finished");
+    }
+
+    private void log(String format, Object... arguments) {
+        // repeated cycles are not logged individually
+        if (repetitions == 1) {
+            LOGGER.info(format, arguments);
+        } else {
+            LOGGER.debug(format, arguments);
+        }
+    }
+
+    private void cycle(WorkerLock ipLock) throws InterruptedException, IOException {
         if (useLock) {
             breakpoint(WorkerBreakpoint.BEFORE_LOCK);
 
             // schedule task for lock timeout
-            TimerTask workerLockTimeoutTask = new TimerTask() {
-
-                @Override
-                public void run() {
-                    LOGGER.info("worker lock timeout");
-                    exit(WorkerExitCode.WORKER_LOCK_TIMEOUT);
-                }
-            };
-            timeoutTimer.schedule(workerLockTimeoutTask, workerLockTimeoutMs);
+            TimerTask workerLockTimeoutTask = null;
+            if (workerLockTimeoutMs != WorkerConstants.TIMEOUT_DISABLED) {
+                workerLockTimeoutTask = new TimerTask() {
+
+                    @Override
+                    public void run() {
+                        LOGGER.info("worker lock timeout");
+                        exit(WorkerExitCode.WORKER_LOCK_TIMEOUT);
+                    }
+                };
+                timeoutTimer.schedule(workerLockTimeoutTask, workerLockTimeoutMs);
+            }
 
             if (tryLock) {
                 // try lock
-                LOGGER.info("acquiring lock (try)");
+                log("acquiring lock (try)");
                 boolean gotLock = ipLock.tryLock();
                 if (!gotLock) {
                     LOGGER.error("failed to acquire lock");
@@ -207,43 +288,61 @@ public class Worker implements SignalHandler {
             } else {
                 // block lock
                 if (ipLockTimeoutMs == WorkerConstants.TIMEOUT_DISABLED) {
-                    LOGGER.info("acquiring lock (block)");
+                    log("acquiring lock (block)");
                     ipLock.lock();
                 } else {
-                    LOGGER.info("acquiring lock (block) with timeout {}ms", ipLockTimeoutMs);
-                    if (!ipLock.lock(ipLockTimeoutMs, 10L, TimeUnit.MILLISECONDS)) {
+                    log("acquiring lock (block) with timeout {}ms and interval {}ms", ipLockTimeoutMs,
+                        ipLockIntervalMs);
+                    if (!ipLock.lock(ipLockTimeoutMs, ipLockIntervalMs, TimeUnit.MILLISECONDS)) {
                         exit(WorkerExitCode.IP_LOCK_TIMEOUT);
                     }
                 }
             }
 
             // unschedule task for lock timeout
-            workerLockTimeoutTask.cancel();
+            if (workerLockTimeoutTask != null) {
+                workerLockTimeoutTask.cancel();
+            }
 
-            LOGGER.info("acquired lock");
+            log("acquired lock");
             breakpoint(WorkerBreakpoint.AFTER_LOCK);
         }
 
         try {
 
-            LOGGER.info("entered mutex area");
+            log("entered mutex area");
 
             if (haltInMutexArea) {
-                LOGGER.info("doing halt in mutex area");
+                log("doing halt in mutex area");
                 halt(WorkerExitCode.HALT_IN_MUTEX_AREA);
             }
 
+            if (signalCondition) {
+                log("signaling condition");
+                ipLock.signalCondition();
+            }
+
             breakpoint(WorkerBreakpoint.MUTEX_AREA);
 
-            LOGGER.info("leaving mutex area");
+            if (holdTimeMicros > 0) {
+                hold();
+            }
+
+            log("leaving mutex area");
 
         } finally {
             if (useLock && !skipUnlock) {
-                LOGGER.info("releasing lock");
+                log("releasing lock");
                 ipLock.unlock();
                 breakpoint(WorkerBreakpoint.AFTER_UNLOCK);
             }
-            LOGGER.info("finished");
+        }
+    }
+
+    private void hold() {
+        long deadline = System.nanoTime() + TimeUnit.MICROSECONDS.toNanos(holdTimeMicros);
+        for (long remaining = deadline - System.nanoTime(); remaining > 0; remaining = deadline - System.nanoTime()) {
+            LockSupport.parkNanos(remaining);
         }
     }
 
@@ -258,4 +357,154 @@ public class Worker implements SignalHandler {
                 break;
         }
     }
+
+    /**
+     * Common interface of the lock objects exercised by a worker.
+     */
+    private interface WorkerLock {
+
+        void lock() throws IOException, InterruptedException;
+
+        boolean lock(long timeout, long tryLockInterval, TimeUnit timeUnit) throws IOException, InterruptedException;
+
+        boolean tryLock() throws IOException;
+
+        void unlock() throws IOException;
+
+        void signalCondition() throws IOException;
+    }
+
+    private static class IpWorkerLock implements WorkerLock {
+
+        private final IpLock lock;
+
+        IpWorkerLock(IpLock lock) {
+            this.lock = lock;
+        }
+
+        @Override
+        public void lock() throws IOException {
+            lock.lock();
+        }
+
+        @Override
+        public boolean lock(long timeout, long tryLockInterval, TimeUnit timeUnit)
+            throws IOException, InterruptedException {
+            return lock.lock(timeout, tryLockInterval, timeUnit);
+        }
+
+        @Override
+        public boolean tryLock() throws IOException {
+            return lock.tryLock();
+        }
+
+        @Override
+        public void unlock() throws IOException {
+            lock.unlock();
+        }
+
+        @Override
+        public void signalCondition() throws IOException {
+            try (IpCondition condition = lock.newCondition()) {
+                condition.signalAll();
+            }
+        }
+    }
+
+    /**
+     * Runs for election on lock and resigns on unlock, so the mutex area is entered as leader.
+     */
+    private static class ElectionWorkerLock implements WorkerLock, LeaderListener {
+
+        private final File syncFile;
+
+        private IpLeaderElection election;
+
+        private CountDownLatch elected;
+
+        ElectionWorkerLock(File syncFile) {
+            this.syncFile = syncFile;
+        }
+
+        @Override
+        public void lock() throws InterruptedException {
+            elected = new CountDownLatch(1);
+            election = new IpLeaderElection(syncFile, this);
+            election.start();
+            elected.await();
+        }
+
+        @Override
+        public boolean lock(long timeout, long tryLockInterval, TimeUnit timeUnit) throws InterruptedException {
+            elected = new CountDownLatch(1);
+            election = new IpLeaderElection(syncFile, this);
+            election.start();
+            if (!elected.await(timeout, timeUnit)) {
+                election.close();
+                return false;
+            }
+            return true;
+        }
+
+        @Override
+        public boolean tryLock() {
+            throw new UnsupportedOperationException("elections cannot be tried");
+        }
+
+        @Override
+        public void unlock() {
+            election.close();
+        }
+
+        @Override
+        public void signalCondition() {
+            throw new UnsupportedOperationException("elections have no conditions");
+        }
+
+        @Override
+        public void onElected(IpLeaderElection election, long fencingToken) {
+            LOGGER.info("elected as leader with fencing token {}", fencingToken);
+            elected.countDown();
+        }
+
+        @Override
+        public void onRevoked(IpLeaderElection election) {
+            LOGGER.info("leadership revoked");
+        }
+    }
+
+    private static class SemaphoreWorkerLock implements WorkerLock {
+
+        private final IpSemaphore semaphore;
+
+        SemaphoreWorkerLock(IpSemaphore semaphore) {
+            this.semaphore = semaphore;
+        }
+
+        @Override
+        public void lock() throws IOException, InterruptedException {
+            semaphore.acquire();
+        }
+
+        @Override
+        public boolean lock(long timeout, long tryLockInterval, TimeUnit timeUnit)
+            throws IOException, InterruptedException {
+            return semaphore.tryAcquire(timeout, tryLockInterval, timeUnit);
+        }
+
+        @Override
+        public boolean tryLock() throws IOException {
+            return semaphore.tryAcquire();
+        }
+
+        @Override
+        public void unlock() throws IOException {
+            semaphore.release();
+        }
+
+        @Override
+        public void signalCondition() {
+            throw new UnsupportedOperationException("semaphores have no conditions");
+        }
+    }
 }
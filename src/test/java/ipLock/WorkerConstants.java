@@ -22,10 +22,18 @@
 
 package ipLock;
 
+import java.io.File;
+
 /**
  * Created by Andreas Klöber on 11.08.15.
  */
 public interface WorkerConstants {
 
     long TIMEOUT_DISABLED = -1L;
+
+    int STRIPES = 16;
+
+    long REPEAT_UNLIMITED = -1L;
+
+    File MANAGER_DIRECTORY = new File(System.getProperty("java.io.tmpdir"), "ip-lock-test-manager");
 }
@@ -39,6 +39,10 @@ public enum WorkerEnv {
 
     HALT_IN_MUTEX_AREA,
 
+    SIGNAL_CONDITION,
+
+    LEADER_ELECTION,
+
     SYNC_FILE_PATH,
 
     BREAKPOINT,
@@ -47,7 +51,19 @@ public enum WorkerEnv {
 
     WORKER_LOCK_TIMEOUT_MS,
 
-    IP_LOCK_TIMEOUT_MS;
+    IP_LOCK_TIMEOUT_MS,
+
+    IP_LOCK_INTERVAL_MS,
+
+    LOCK_MODE,
+
+    LOCK_KEY,
+
+    PERMITS,
+
+    REPETITIONS,
+
+    HOLD_TIME_MICROS;
 
     public String getVarName() {
         return "IPL_" + name();
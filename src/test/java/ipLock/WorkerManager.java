@@ -36,6 +36,8 @@ public class WorkerManager {
 
     private File syncFile;
 
+    private File signalFile;
+
     public WorkerManager() {
         workers = Collections.synchronizedMap(new HashMap<Integer, ProcessHandle>());
         signalServer = new SignalServer();
@@ -43,7 +45,11 @@ public class WorkerManager {
         syncFile = Paths.get(System.getProperty("java.io.tmpdir"),
             "ip-lock.lock").toFile();
 
+        signalFile = Paths.get(System.getProperty("java.io.tmpdir"),
+            "ip-lock.lock" + LockSignal.SIGNAL_FILE_SUFFIX).toFile();
+
         syncFile.deleteOnExit();
+        signalFile.deleteOnExit();
     }
 
     public void start() throws InterruptedException {
@@ -63,6 +69,11 @@ public class WorkerManager {
         }
 
         syncFile.delete();
+        signalFile.delete();
+    }
+
+    public File getSyncFile() {
+        return syncFile;
     }
 
     public WorkerProcessBuilder builder() {
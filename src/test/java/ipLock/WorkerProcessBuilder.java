@@ -33,6 +33,8 @@ public abstract class WorkerProcessBuilder {
 
     private static final long DEFAULT_WORKER_LOCK_TIMEOUT_MS = 5000;
 
+    private static final long DEFAULT_IP_LOCK_INTERVAL_MS = 10;
+
     private static String tempDirPath;
 
     static {
@@ -47,6 +49,8 @@ public abstract class WorkerProcessBuilder {
 
     private Long ipLockTimeoutMs;
 
+    private Long ipLockIntervalMs;
+
     private Boolean useLock;
 
     private Boolean tryLock;
@@ -55,8 +59,22 @@ public abstract class WorkerProcessBuilder {
 
     private Boolean haltInMutexArea;
 
+    private Boolean signalCondition;
+
+    private Boolean leaderElection;
+
     private File syncFile;
 
+    private LockMode lockMode;
+
+    private String lockKey;
+
+    private Integer permits;
+
+    private Long repetitions;
+
+    private Long holdTimeMicros;
+
     private WorkerBreakpoint breakpoint;
 
     public WorkerProcessBuilder() {
@@ -66,9 +84,15 @@ public abstract class WorkerProcessBuilder {
         this.tryLock = Boolean.FALSE;
         this.skipUnlock = Boolean.FALSE;
         this.haltInMutexArea = Boolean.FALSE;
+        this.signalCondition = Boolean.FALSE;
+        this.leaderElection = Boolean.FALSE;
         this.breakpointTimeoutMs = DEFAULT_BREAKPOINT_TIMEOUT_MS;
         this.workerLockTimeoutMs = DEFAULT_WORKER_LOCK_TIMEOUT_MS;
         this.ipLockTimeoutMs = WorkerConstants.TIMEOUT_DISABLED;
+        this.ipLockIntervalMs = DEFAULT_IP_LOCK_INTERVAL_MS;
+        this.lockMode = LockMode.EXCLUSIVE;
+        this.repetitions = 1L;
+        this.holdTimeMicros = 0L;
     }
 
     private static String determineTempDirPath() {
@@ -104,6 +128,16 @@ public abstract class WorkerProcessBuilder {
         return this;
     }
 
+    public WorkerProcessBuilder signalCondition(Boolean signalCondition) {
+        this.signalCondition = signalCondition;
+        return this;
+    }
+
+    public WorkerProcessBuilder leaderElection(Boolean leaderElection) {
+        this.leaderElection = leaderElection;
+        return this;
+    }
+
     public WorkerProcessBuilder syncFile(File syncFile) {
         this.syncFile = syncFile;
         return this;
@@ -129,6 +163,37 @@ public abstract class WorkerProcessBuilder {
         return this;
     }
 
+    public WorkerProcessBuilder ipLockIntervalMs(long ipLockIntervalMs) {
+        this.ipLockIntervalMs = ipLockIntervalMs;
+        return this;
+    }
+
+    public WorkerProcessBuilder lockMode(LockMode lockMode) {
+        this.lockMode = lockMode;
+        return this;
+    }
+
+    public WorkerProcessBuilder lockKey(String lockKey) {
+        this.lockMode = LockMode.STRIPE;
+        this.lockKey = lockKey;
+        return this;
+    }
+
+    public WorkerProcessBuilder semaphorePermits(int permits) {
+        this.permits = permits;
+        return this;
+    }
+
+    public WorkerProcessBuilder repetitions(long repetitions) {
+        this.repetitions = repetitions;
+        return this;
+    }
+
+    public WorkerProcessBuilder holdTimeMicros(long holdTimeMicros) {
+        this.holdTimeMicros = holdTimeMicros;
+        return this;
+    }
+
     private ProcessHandle build() {
 
         ProcessHandle ph = new ProcessHandle(breakpoint);
@@ -138,9 +203,21 @@ public abstract class WorkerProcessBuilder {
         ph.putEnv(WorkerEnv.USE_LOCK, useLock);
         ph.putEnv(WorkerEnv.SKIP_UNLOCK, skipUnlock);
         ph.putEnv(WorkerEnv.HALT_IN_MUTEX_AREA, haltInMutexArea);
+        ph.putEnv(WorkerEnv.SIGNAL_CONDITION, signalCondition);
+        ph.putEnv(WorkerEnv.LEADER_ELECTION, leaderElection);
         ph.putEnv(WorkerEnv.BREAKPOINT_TIMEOUT_MS, breakpointTimeoutMs);
         ph.putEnv(WorkerEnv.WORKER_LOCK_TIMEOUT_MS, workerLockTimeoutMs);
         ph.putEnv(WorkerEnv.IP_LOCK_TIMEOUT_MS, ipLockTimeoutMs);
+        ph.putEnv(WorkerEnv.IP_LOCK_INTERVAL_MS, ipLockIntervalMs);
+        ph.putEnv(WorkerEnv.LOCK_MODE, lockMode);
+        ph.putEnv(WorkerEnv.REPETITIONS, repetitions);
+        ph.putEnv(WorkerEnv.HOLD_TIME_MICROS, holdTimeMicros);
+        if (lockKey != null) {
+            ph.putEnv(WorkerEnv.LOCK_KEY, lockKey);
+        }
+        if (permits != null) {
+            ph.putEnv(WorkerEnv.PERMITS, permits);
+        }
         ph.putEnv(WorkerEnv.SYNC_FILE_PATH, syncFile.getAbsolutePath());
         if (breakpoint != null) {
             ph.putEnv(WorkerEnv.BREAKPOINT, breakpoint);